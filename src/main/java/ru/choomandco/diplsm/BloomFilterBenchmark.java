@@ -0,0 +1,133 @@
+package ru.choomandco.diplsm;
+
+import ru.choomandco.diplsm.storage.bloomfilter.BloomFilter;
+import ru.choomandco.diplsm.storage.entry.ValueEntry;
+import ru.choomandco.diplsm.storage.interfaces.TableWriter;
+import ru.choomandco.diplsm.storage.sstable.SSTable;
+import ru.choomandco.diplsm.storage.sstable.SSTableMetadata;
+
+import java.io.File;
+
+public class BloomFilterBenchmark {
+    private static final String BENCH_DIR = "./data/bench/bloom/";
+
+    private final int keys;
+    private final int probes;
+    private final double[] bitsPerKey;
+
+    public BloomFilterBenchmark(int keys, int probes, double... bitsPerKey) {
+        this.keys = keys;
+        this.probes = probes;
+        this.bitsPerKey = bitsPerKey;
+    }
+
+    /**
+     * Замеряет долю ложных срабатываний и время отрицательной проверки самого фильтра.
+     * В фильтр добавляются чётные ключи, проверяются нечётные, которых в нём нет.
+     */
+    public void runInMemory() {
+        System.out.printf("=== BLOOM FILTER TEST: keys=%d, negative probes=%d ===%n", keys, probes);
+        System.out.printf("%8s %12s %7s %12s %12s %14s%n", "bits/key", "filter KB", "hashes", "FP rate", "expected", "ns/negative");
+        // ключи для проверки строятся заранее, чтобы в замер попадала только сама проверка
+        String[] absent = new String[probes];
+        for (int i = 0; i < probes; i++) {
+            absent[i] = key(i * 2L + 1);
+        }
+        for (double bpk : bitsPerKey) {
+            BloomFilter filter = BloomFilter.create(keys, bpk);
+            for (int i = 0; i < keys; i++) {
+                filter.add(key(i * 2L));
+            }
+
+            // прогрев JIT
+            probe(filter, absent);
+
+            long t0 = System.nanoTime();
+            long falsePositives = probe(filter, absent);
+            long elapsedNs = System.nanoTime() - t0;
+
+            double expected = Math.pow(1 - Math.exp(-filter.getHashCount() / bpk), filter.getHashCount());
+            System.out.printf("%8.1f %12d %7d %11.4f%% %11.4f%% %14.1f%n",
+                    bpk, filter.getSize() / 8 / 1024, filter.getHashCount(),
+                    100.0 * falsePositives / probes, 100.0 * expected, (double) elapsedNs / probes);
+        }
+        System.out.println();
+    }
+
+    /**
+     * Замеряет отрицательные чтения из SSTable: проверка фильтра, а при ложном срабатывании — поиск в файле.
+     */
+    public void runOnDisk() {
+        System.out.printf("=== SSTABLE NEGATIVE LOOKUP TEST: keys=%d, negative probes=%d ===%n", keys, probes);
+        System.out.printf("%8s %12s %14s%n", "bits/key", "disk reads", "us/negative");
+        new File(BENCH_DIR).mkdirs();
+        for (double bpk : bitsPerKey) {
+            SSTable table = new SSTable(bpk);
+            String filename = BENCH_DIR + "sstable_" + System.currentTimeMillis() + "_0.sst";
+            TableWriter writer = table.newWriter(filename);
+            for (int i = 0; i < keys; i++) {
+                writer.add(key(i * 2L), ValueEntry.of("value-" + i));
+            }
+            SSTableMetadata meta = writer.finish(0);
+
+            int diskProbes = probes;
+            long diskReads = 0;
+            long t0 = System.nanoTime();
+            for (int i = 0; i < diskProbes; i++) {
+                String key = key(i * 2L + 1);
+                if (meta.getBloomFilter().mightContain(key)) {
+                    diskReads++;
+                    table.getEntryByKey(key, filename);
+                }
+            }
+            long elapsedNs = System.nanoTime() - t0;
+            System.out.printf("%8.1f %12d %14.2f%n", bpk, diskReads, elapsedNs / 1000.0 / diskProbes);
+
+            new File(filename).delete();
+        }
+        System.out.println();
+    }
+
+    private long probe(BloomFilter filter, String[] absent) {
+        long falsePositives = 0;
+        for (String key : absent) {
+            if (filter.mightContain(key)) {
+                falsePositives++;
+            }
+        }
+        return falsePositives;
+    }
+
+    private static String key(long i) {
+        return String.format("key-%010d", i);
+    }
+
+    private static void deleteDataDirectory(File dir) {
+        if (!dir.exists()) return;
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    deleteDataDirectory(file);
+                } else {
+                    file.delete();
+                }
+            }
+        }
+        dir.delete();
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        System.out.println("Deleting ./data");
+        deleteDataDirectory(new File("./data"));
+        Thread.sleep(100);
+
+        double[] sizes = {4, 6, 8, 10, 12, 16};
+        new BloomFilterBenchmark(100_000, 1_000_000, sizes).runInMemory();
+        new BloomFilterBenchmark(5_000_000, 2_000_000, sizes).runInMemory();
+        new BloomFilterBenchmark(10_000, 1_000, 2, 6, 10).runOnDisk();
+
+        System.out.println("Deleting ./data");
+        deleteDataDirectory(new File("./data"));
+    }
+}
@@ -0,0 +1,149 @@
+package ru.choomandco.diplsm;
+
+import ru.choomandco.diplsm.storage.compengine.CompactationEngine;
+import ru.choomandco.diplsm.storage.entry.ValueEntry;
+import ru.choomandco.diplsm.storage.interfaces.TableWriter;
+import ru.choomandco.diplsm.storage.sstable.SSTable;
+import ru.choomandco.diplsm.storage.sstable.SSTableMetadata;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CompactionLoadTest {
+    private static final String BENCH_DIR = "./data/bench/compaction/";
+
+    private final int tables;
+    private final int entriesPerTable;
+    /** Количество параллельных подкомпактаций */
+    private final int subcompactions;
+
+    public CompactionLoadTest(int tables, int entriesPerTable) {
+        this(tables, entriesPerTable, 1);
+    }
+
+    public CompactionLoadTest(int tables, int entriesPerTable, int subcompactions) {
+        this.tables = tables;
+        this.entriesPerTable = entriesPerTable;
+        this.subcompactions = subcompactions;
+    }
+
+    public void run() {
+        System.out.printf("=== COMPACTION TEST: tables=%d, entries per table=%d, subcompactions=%d ===%n",
+                tables, entriesPerTable, subcompactions);
+        new File(BENCH_DIR).mkdirs();
+
+        SSTable table = new SSTable();
+        List<SSTableMetadata> inputs = new ArrayList<>();
+        long inputBytes = 0;
+        for (int t = 0; t < tables; t++) {
+            String filename = BENCH_DIR + "sstable_" + t + "_" + t + ".sst";
+            TableWriter writer = table.newWriter(filename);
+            // таблицы перекрываются по ключам: каждая содержит каждый второй ключ со своим сдвигом
+            for (int i = 0; i < entriesPerTable; i++) {
+                writer.add(String.format("key-%010d", i * 2L + (t % 2)), ValueEntry.of(UUID.randomUUID().toString()));
+            }
+            inputs.add(writer.finish(0));
+            inputBytes += new File(filename).length();
+        }
+        System.out.printf("Input size: %d MB%n", inputBytes / 1024 / 1024);
+
+        System.gc();
+        resetPeakHeap();
+        long heapBefore = usedHeapMB();
+
+        AtomicInteger outputCounter = new AtomicInteger(tables);
+        ExecutorService executor = subcompactions > 1 ? Executors.newFixedThreadPool(subcompactions) : null;
+        long t0 = System.nanoTime();
+        List<SSTableMetadata> outputs;
+        try {
+            outputs = new CompactationEngine(table, executor, subcompactions).compact(inputs, () -> {
+                int n = outputCounter.incrementAndGet();
+                return BENCH_DIR + "sstable_" + n + "_" + n + ".sst";
+            }, 1, false, Long.MAX_VALUE);
+        } finally {
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+        long elapsedNs = System.nanoTime() - t0;
+
+        double seconds = elapsedNs / 1_000_000_000.0;
+        long outputBytes = 0;
+        for (SSTableMetadata output : outputs) {
+            outputBytes += new File(output.getFilename()).length();
+        }
+
+        System.out.println("=== COMPACTION TEST COMPLETED ===");
+        System.out.printf("Duration: %.3f s%n", seconds);
+        System.out.printf("Output size: %d MB in %d files%n", outputBytes / 1024 / 1024, outputs.size());
+        System.out.printf("Throughput: %.2f MB/s read, %.2f MB/s written%n",
+                inputBytes / 1024.0 / 1024.0 / seconds, outputBytes / 1024.0 / 1024.0 / seconds);
+        System.out.printf("Heap before: %d MB, peak heap during compaction: %d MB%n%n", heapBefore, peakHeapMB());
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    private static long peakHeapMB() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak / 1024 / 1024;
+    }
+
+    private static long usedHeapMB() {
+        Runtime rt = Runtime.getRuntime();
+        return (rt.totalMemory() - rt.freeMemory()) / 1024 / 1024;
+    }
+
+    private static void deleteDataDirectory(File dir) {
+        if (!dir.exists()) return;
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    deleteDataDirectory(file);
+                } else {
+                    file.delete();
+                }
+            }
+        }
+        dir.delete();
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        System.out.println("Deleting ./data");
+        deleteDataDirectory(new File("./data"));
+        Thread.sleep(100);
+
+        new CompactionLoadTest(4, 250_000).run();
+
+        deleteDataDirectory(new File(BENCH_DIR));
+        new CompactionLoadTest(8, 1_000_000).run();
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int subcompactions = 2; subcompactions <= Math.min(cores, 8); subcompactions *= 2) {
+            deleteDataDirectory(new File(BENCH_DIR));
+            new CompactionLoadTest(8, 1_000_000, subcompactions).run();
+        }
+
+        System.out.println("Deleting ./data");
+        deleteDataDirectory(new File("./data"));
+    }
+}
@@ -0,0 +1,133 @@
+package ru.choomandco.diplsm;
+
+import ru.choomandco.diplsm.storage.bloomfilter.BloomFilter;
+import ru.choomandco.diplsm.storage.entry.ValueEntry;
+import ru.choomandco.diplsm.storage.interfaces.TableWriter;
+import ru.choomandco.diplsm.storage.iterator.EntryIterator;
+import ru.choomandco.diplsm.storage.sstable.ReadMode;
+import ru.choomandco.diplsm.storage.sstable.SSTable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+public class MmapReadBenchmark {
+    private static final String BENCH_DIR = "./data/bench/mmap/";
+
+    private final int keys;
+    private final int lookups;
+    private final int valueSize;
+
+    public MmapReadBenchmark(int keys, int lookups, int valueSize) {
+        this.keys = keys;
+        this.lookups = lookups;
+        this.valueSize = valueSize;
+    }
+
+    /**
+     * Пишет одну таблицу и читает её в обоих режимах: случайные точечные чтения и полный обход.
+     */
+    public void run() throws IOException {
+        System.out.printf("=== SSTABLE READ MODE TEST: keys=%d, lookups=%d, value=%d bytes ===%n", keys, lookups, valueSize);
+        System.out.printf("%8s %14s %14s %14s%n", "mode", "us/get", "gets/sec", "scan ms");
+        new File(BENCH_DIR).mkdirs();
+        String filename = BENCH_DIR + "sstable_" + System.currentTimeMillis() + "_0.sst";
+
+        StringBuilder value = new StringBuilder();
+        while (value.length() < valueSize) {
+            value.append('v');
+        }
+        TableWriter writer = new SSTable().newWriter(filename);
+        for (int i = 0; i < keys; i++) {
+            writer.add(key(i), ValueEntry.of(value.toString()));
+        }
+        writer.finish(0);
+
+        // ключи для чтения строятся заранее, чтобы в замер попадало только само чтение
+        Random random = new Random(42);
+        String[] probes = new String[lookups];
+        for (int i = 0; i < lookups; i++) {
+            probes[i] = key(random.nextInt(keys));
+        }
+
+        for (ReadMode mode : ReadMode.values()) {
+            SSTable table = new SSTable(BloomFilter.DEFAULT_BITS_PER_KEY, SSTable.DEFAULT_INDEX_CACHE_BYTES, mode);
+            table.openFile(filename);
+
+            // прогрев JIT и кэшей
+            lookup(table, filename, probes);
+
+            long t0 = System.nanoTime();
+            long misses = lookup(table, filename, probes);
+            long getNs = System.nanoTime() - t0;
+            if (misses != 0) {
+                throw new IllegalStateException(mode + ": " + misses + " keys not found");
+            }
+
+            t0 = System.nanoTime();
+            long scanned = scan(table, filename);
+            long scanNs = System.nanoTime() - t0;
+            if (scanned != keys) {
+                throw new IllegalStateException(mode + ": scanned " + scanned + " of " + keys);
+            }
+
+            System.out.printf("%8s %14.2f %14.0f %14.1f%n", mode,
+                    getNs / 1000.0 / lookups, lookups * 1e9 / getNs, scanNs / 1e6);
+        }
+        new File(filename).delete();
+        System.out.println();
+    }
+
+    private long lookup(SSTable table, String filename, String[] probes) {
+        long misses = 0;
+        for (String key : probes) {
+            if (table.getEntryByKey(key, filename) == null) {
+                misses++;
+            }
+        }
+        return misses;
+    }
+
+    private long scan(SSTable table, String filename) {
+        long count = 0;
+        try (EntryIterator it = table.iterator(filename, null, null, false)) {
+            while (it.hasNext()) {
+                it.next();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static String key(long i) {
+        return String.format("key-%010d", i);
+    }
+
+    private static void deleteDataDirectory(File dir) {
+        if (!dir.exists()) return;
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    deleteDataDirectory(file);
+                } else {
+                    file.delete();
+                }
+            }
+        }
+        dir.delete();
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        System.out.println("Deleting ./data");
+        deleteDataDirectory(new File("./data"));
+        Thread.sleep(100);
+
+        new MmapReadBenchmark(100_000, 200_000, 100).run();
+        new MmapReadBenchmark(1_000_000, 500_000, 100).run();
+        new MmapReadBenchmark(200_000, 200_000, 1000).run();
+
+        System.out.println("Deleting ./data");
+        deleteDataDirectory(new File("./data"));
+    }
+}
@@ -0,0 +1,131 @@
+package ru.choomandco.diplsm;
+
+import ru.choomandco.diplsm.storage.compengine.CompactionStyle;
+import ru.choomandco.diplsm.storage.core.StorageCore;
+import ru.choomandco.diplsm.storage.core.StorageOptions;
+import ru.choomandco.diplsm.storage.core.WriteBatch;
+import ru.choomandco.diplsm.storage.sstable.TableFormat;
+import ru.choomandco.diplsm.storage.wal.WalSyncMode;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class MultiGetBenchmark {
+    private final TableFormat format;
+    private final int keys;
+    private final int requests;
+
+    public MultiGetBenchmark(TableFormat format, int keys, int requests) {
+        this.format = format;
+        this.keys = keys;
+        this.requests = requests;
+    }
+
+    /**
+     * Заполняет хранилище, сбрасывает MemTable на диск и для каждого размера запроса сравнивает
+     * цикл {@link StorageCore#get} с {@link StorageCore#multiGet}. Половина ключей запроса отсутствует в хранилище.
+     */
+    public void run(int... batchSizes) {
+        System.out.printf("=== MULTIGET TEST: format=%s, keys=%d, requests=%d ===%n", format, keys, requests);
+        deleteDataDirectory(new File("./data"));
+        StorageCore storage = new StorageCore(new StorageOptions()
+                .setMemTableMaxSize(1024 * 1024)
+                .setTableFormat(format)
+                .setCompactionStyle(CompactionStyle.LEVELED)
+                .setWalSyncMode(WalSyncMode.OS_MANAGED));
+        WriteBatch batch = new WriteBatch();
+        for (int i = 0; i < keys; i++) {
+            batch.put(key(i * 2L), "value-" + i);
+            if (batch.size() == 500) {
+                storage.write(batch);
+                batch.clear();
+            }
+        }
+        storage.write(batch);
+        storage.flush(0);
+
+        System.out.printf("%8s %14s %14s %10s%n", "keys", "get us/req", "multi us/req", "speedup");
+        for (int batchSize : batchSizes) {
+            Random random = new Random(batchSize);
+            List<List<String>> probes = new ArrayList<>();
+            for (int r = 0; r < requests; r++) {
+                List<String> request = new ArrayList<>(batchSize);
+                for (int i = 0; i < batchSize; i++) {
+                    request.add(key(random.nextInt(keys * 2)));
+                }
+                probes.add(request);
+            }
+
+            // прогрев JIT и кэшей, заодно сверка результатов
+            for (List<String> request : probes) {
+                if (!loop(storage, request).equals(storage.multiGet(request))) {
+                    throw new IllegalStateException("multiGet differs from get for " + request);
+                }
+            }
+
+            long t0 = System.nanoTime();
+            for (List<String> request : probes) {
+                loop(storage, request);
+            }
+            long loopNs = System.nanoTime() - t0;
+
+            t0 = System.nanoTime();
+            for (List<String> request : probes) {
+                storage.multiGet(request);
+            }
+            long multiNs = System.nanoTime() - t0;
+
+            System.out.printf("%8d %14.1f %14.1f %9.1fx%n", batchSize,
+                    loopNs / 1000.0 / requests, multiNs / 1000.0 / requests, (double) loopNs / multiNs);
+        }
+        storage.close();
+        System.out.println();
+    }
+
+    private static Map<String, String> loop(StorageCore storage, List<String> request) {
+        Map<String, String> result = new HashMap<>();
+        for (String key : request) {
+            String value = storage.get(key);
+            if (value != null) {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+
+    private static String key(long i) {
+        return String.format("key-%010d", i);
+    }
+
+    private static void deleteDataDirectory(File dir) {
+        if (!dir.exists()) return;
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    deleteDataDirectory(file);
+                } else {
+                    file.delete();
+                }
+            }
+        }
+        dir.delete();
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        System.out.println("Deleting ./data");
+        deleteDataDirectory(new File("./data"));
+        Thread.sleep(100);
+
+        int[] batchSizes = {10, 100, 500};
+        new MultiGetBenchmark(TableFormat.FLAT, 500_000, 2_000).run(batchSizes);
+        new MultiGetBenchmark(TableFormat.BLOCK, 500_000, 2_000).run(batchSizes);
+
+        System.out.println("Deleting ./data");
+        deleteDataDirectory(new File("./data"));
+    }
+}
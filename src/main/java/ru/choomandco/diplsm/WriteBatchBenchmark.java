@@ -0,0 +1,119 @@
+package ru.choomandco.diplsm;
+
+import ru.choomandco.diplsm.storage.core.StorageCoreAsync;
+import ru.choomandco.diplsm.storage.core.StorageOptions;
+import ru.choomandco.diplsm.storage.core.WriteBatch;
+import ru.choomandco.diplsm.storage.wal.WalSyncMode;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class WriteBatchBenchmark {
+    private final WalSyncMode syncMode;
+    private final int threads;
+    private final int keysPerThread;
+    private final int valueSize;
+
+    public WriteBatchBenchmark(WalSyncMode syncMode, int threads, int keysPerThread, int valueSize) {
+        this.syncMode = syncMode;
+        this.threads = threads;
+        this.keysPerThread = keysPerThread;
+        this.valueSize = valueSize;
+    }
+
+    /**
+     * Для каждого размера пакета пишет одинаковый набор ключей в свежее хранилище:
+     * размер 1 — цикл одиночных put, остальные — {@link StorageCoreAsync#write(WriteBatch)}.
+     */
+    public void run(int... batchSizes) throws Exception {
+        System.out.printf("=== WRITE BATCH TEST: wal=%s, threads=%d, keys per thread=%d, value=%d bytes ===%n",
+                syncMode, threads, keysPerThread, valueSize);
+        System.out.printf("%8s %14s %14s %10s%n", "batch", "ops/sec", "us/op", "speedup");
+
+        StringBuilder value = new StringBuilder();
+        while (value.length() < valueSize) {
+            value.append('v');
+        }
+
+        double baseline = 0;
+        for (int batchSize : batchSizes) {
+            deleteDataDirectory(new File("./data"));
+            StorageCoreAsync storage = new StorageCoreAsync(new StorageOptions()
+                    .setMemTableMaxSize(8L * 1024 * 1024)
+                    .setWalSyncMode(syncMode));
+
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            List<Future<?>> futures = new ArrayList<>();
+            long t0 = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                futures.add(pool.submit(() -> load(storage, thread, batchSize, value.toString())));
+            }
+            for (Future<?> f : futures) {
+                f.get();
+            }
+            long ns = System.nanoTime() - t0;
+            pool.shutdown();
+            storage.close();
+
+            long ops = (long) threads * keysPerThread;
+            double opsPerSec = ops * 1e9 / ns;
+            if (baseline == 0) {
+                baseline = opsPerSec;
+            }
+            System.out.printf("%8d %14.0f %14.2f %9.1fx%n", batchSize, opsPerSec, ns / 1000.0 / ops, opsPerSec / baseline);
+        }
+        System.out.println();
+    }
+
+    private void load(StorageCoreAsync storage, int thread, int batchSize, String value) {
+        WriteBatch batch = new WriteBatch();
+        for (int i = 0; i < keysPerThread; i++) {
+            String key = String.format("key-%02d-%010d", thread, i);
+            if (batchSize == 1) {
+                storage.put(key, value);
+                continue;
+            }
+            batch.put(key, value);
+            if (batch.size() == batchSize) {
+                storage.write(batch);
+                batch.clear();
+            }
+        }
+        storage.write(batch);
+    }
+
+    private static void deleteDataDirectory(File dir) {
+        if (!dir.exists()) return;
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    deleteDataDirectory(file);
+                } else {
+                    file.delete();
+                }
+            }
+        }
+        dir.delete();
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("Deleting ./data");
+        deleteDataDirectory(new File("./data"));
+        Thread.sleep(100);
+
+        int[] batchSizes = {1, 10, 50, 100, 500};
+        new WriteBatchBenchmark(WalSyncMode.OS_MANAGED, 1, 500_000, 100).run(batchSizes);
+        new WriteBatchBenchmark(WalSyncMode.OS_MANAGED, 4, 250_000, 100).run(batchSizes);
+        new WriteBatchBenchmark(WalSyncMode.EVERY_WRITE, 1, 20_000, 100).run(batchSizes);
+        new WriteBatchBenchmark(WalSyncMode.EVERY_WRITE, 4, 20_000, 100).run(batchSizes);
+
+        System.out.println("Deleting ./data");
+        deleteDataDirectory(new File("./data"));
+    }
+}
@@ -1,41 +1,119 @@
 package ru.choomandco.diplsm.storage.bloomfilter;
 
-import java.util.BitSet;
 import java.util.Set;
-import java.util.function.Function;
 
 /**
- * Простая реализация фильтра Блума — вероятностной структуры данных,
- * предназначенной для проверки принадлежности элемента множеству.
- *
- * @param <T> тип элементов, добавляемых в фильтр
+ * Реализация фильтра Блума — вероятностной структуры данных,
+ * предназначенной для проверки принадлежности строкового ключа множеству.
+ * <p>
+ * Размер фильтра подбирается по количеству ключей и числу бит на ключ, количество проб —
+ * как {@code round(bitsPerKey * ln 2)}, что минимизирует долю ложных срабатываний.
+ * Для каждого ключа считается один 64-битный хеш по его UTF-8 байтам, а позиции проб
+ * получаются двойным хешированием (Kirsch–Mitzenmacher): {@code h1 + i * h2}.
+ * Хеширование идёт по символам строки без промежуточного массива байт, поэтому проверка не создаёт объектов.
  */
-public class BloomFilter<T> {
-    /** Внутреннее битовое представление фильтра */
-    private final BitSet bitSet;
-    /** Массив хеш-функций, используемых для установки битов */
-    private final Function<T, Integer>[] hashFunctions;
+public class BloomFilter {
+    /** Число бит на ключ по умолчанию, даёт около 1% ложных срабатываний */
+    public static final double DEFAULT_BITS_PER_KEY = 10;
+    /** Верхняя граница количества хеш-проб */
+    private static final int MAX_HASHES = 30;
+    /** Наибольший размер битового массива, который ещё адресуется int */
+    private static final int MAX_BITS = Integer.MAX_VALUE & ~63;
+
+    private static final long M = 0xc6a4a7935bd1e995L;
+    private static final int R = 47;
+
+    /** Биты фильтра */
+    private final long[] words;
+    /** Размер битового массива */
+    private final int numBits;
+    /** Количество хеш-проб на ключ */
+    private final int numHashes;
+
+    /**
+     * Создаёт пустой фильтр Блума заданного размера.
+     *
+     * @param numBits размер битового массива, округляется вверх до кратного 64
+     * @param numHashes количество хеш-проб на ключ
+     */
+    public BloomFilter(int numBits, int numHashes) {
+        this(numBits, numHashes, null);
+    }
+
+    /**
+     * Восстанавливает фильтр Блума из сохранённого битового массива.
+     *
+     * @param numBits размер битового массива
+     * @param numHashes количество хеш-проб на ключ
+     * @param words биты фильтра, как их возвращает {@link #toLongArray()}, или null для пустого фильтра
+     */
+    public BloomFilter(int numBits, int numHashes, long[] words) {
+        if (numBits <= 0 || numHashes <= 0) {
+            throw new IllegalArgumentException("Invalid Bloom filter parameters: bits=" + numBits + ", hashes=" + numHashes);
+        }
+        int wordCount = (int) ((numBits + 63L) >>> 6);
+        this.numBits = wordCount << 6;
+        this.numHashes = numHashes;
+        this.words = new long[wordCount];
+        if (words != null) {
+            if (words.length != wordCount) {
+                throw new IllegalArgumentException("Bloom filter has " + words.length + " words, expected " + wordCount);
+            }
+            System.arraycopy(words, 0, this.words, 0, wordCount);
+        }
+    }
 
     /**
-     * Создаёт новый фильтр Блума заданного размера и с переданным набором хеш-функций.
+     * Создаёт фильтр под заданное количество ключей.
      *
-     * @param size размер битового массива
-     * @param hashFunctions массив хеш-функций, применяемых к ключам
+     * @param expectedKeys ожидаемое количество ключей
+     * @param bitsPerKey число бит на ключ
+     * @return пустой фильтр
      */
-    public BloomFilter(int size, Function<T, Integer>[] hashFunctions) {
-        this.bitSet = new BitSet(size);
-        this.hashFunctions = hashFunctions;
+    public static BloomFilter create(long expectedKeys, double bitsPerKey) {
+        if (bitsPerKey <= 0) {
+            throw new IllegalArgumentException("bitsPerKey must be positive: " + bitsPerKey);
+        }
+        long bits = (long) Math.ceil(Math.max(1, expectedKeys) * bitsPerKey);
+        int numBits = (int) Math.min(MAX_BITS, Math.max(64, bits));
+        int numHashes = (int) Math.max(1, Math.min(MAX_HASHES, Math.round(bitsPerKey * Math.log(2))));
+        return new BloomFilter(numBits, numHashes);
     }
 
     /**
-     * Добавляет ключ в фильтр. Для каждого ключа используются все переданные хеш-функции.
+     * Переводит целевую долю ложных срабатываний в число бит на ключ: {@code -ln(p) / ln(2)^2}.
+     *
+     * @param falsePositiveRate доля ложных срабатываний в интервале (0, 1)
+     * @return число бит на ключ
+     */
+    public static double bitsPerKeyFor(double falsePositiveRate) {
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("falsePositiveRate must be in (0, 1): " + falsePositiveRate);
+        }
+        return -Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+    }
+
+    /**
+     * Добавляет ключ в фильтр.
      *
      * @param key ключ, который нужно добавить
      */
-    public void add(T key) {
-        for (Function<T, Integer> hashFunction : hashFunctions) {
-            int hash = hashFunction.apply(key);
-            bitSet.set(Math.abs(hash) % bitSet.size(), true);
+    public void add(String key) {
+        addHash(hash(key));
+    }
+
+    /**
+     * Добавляет ключ по заранее посчитанному хешу {@link #hash(String)}.
+     *
+     * @param hash 64-битный хеш ключа
+     */
+    public void addHash(long hash) {
+        long h2 = secondHash(hash);
+        long combined = hash;
+        for (int i = 0; i < numHashes; i++) {
+            int bit = (int) ((combined & Long.MAX_VALUE) % numBits);
+            words[bit >>> 6] |= 1L << bit;
+            combined += h2;
         }
     }
 
@@ -47,28 +125,144 @@ public class BloomFilter<T> {
      * @param key ключ для проверки
      * @return {@code true} если ключ может присутствовать, {@code false} — если точно отсутствует
      */
-    public boolean mightContain(T key) {
-        for (Function<T, Integer> hashFunction : hashFunctions) {
-            int hash = hashFunction.apply(key);
-            if (!bitSet.get(Math.abs(hash) % bitSet.size())) {
+    public boolean mightContain(String key) {
+        return mightContainHash(hash(key));
+    }
+
+    /**
+     * Проверяет ключ по заранее посчитанному хешу {@link #hash(String)}.
+     * Позволяет посчитать хеш один раз и проверить им фильтры нескольких таблиц.
+     *
+     * @param hash 64-битный хеш ключа
+     * @return {@code true} если ключ может присутствовать, {@code false} — если точно отсутствует
+     */
+    public boolean mightContainHash(long hash) {
+        long h2 = secondHash(hash);
+        long combined = hash;
+        for (int i = 0; i < numHashes; i++) {
+            int bit = (int) ((combined & Long.MAX_VALUE) % numBits);
+            if ((words[bit >>> 6] & (1L << bit)) == 0) {
                 return false;
             }
+            combined += h2;
         }
         return true;
     }
 
     /**
      * Добавляет все ключи из заданного множества в фильтр.
-     * Использует все хеш-функции для каждого ключа.
      *
      * @param keySet множество ключей, которые необходимо добавить
      */
-    public void addKeysFromMap(Set<T> keySet) {
-        for (T key : keySet) {
-            for (Function<T, Integer> hashFunction : hashFunctions) {
-                int hash = hashFunction.apply(key);
-                bitSet.set(Math.abs(hash) % bitSet.size(), true);
+    public void addKeysFromMap(Set<String> keySet) {
+        for (String key : keySet) {
+            add(key);
+        }
+    }
+
+    /**
+     * @return размер битового массива
+     */
+    public int getSize() {
+        return numBits;
+    }
+
+    /**
+     * @return количество хеш-проб на ключ
+     */
+    public int getHashCount() {
+        return numHashes;
+    }
+
+    /**
+     * @return биты фильтра, упакованные в long, для сохранения на диск
+     */
+    public long[] toLongArray() {
+        return words.clone();
+    }
+
+    /**
+     * Считает 64-битный хеш в духе MurmurHash64A по UTF-8 представлению строки.
+     * Байты кодировки получаются прямо из символов и собираются в 8-байтовые блоки,
+     * так что результат зависит только от {@code key.getBytes(UTF_8)}, но массив не создаётся.
+     * Длина в байтах заранее неизвестна, поэтому подмешивается в конце, а не в начальное значение.
+     *
+     * @param key ключ
+     * @return 64-битный хеш
+     */
+    public static long hash(String key) {
+        long h = 0x9747b28cL;
+        long block = 0;
+        int blockBytes = 0;
+        long length = 0;
+
+        int len = key.length();
+        for (int i = 0; i < len; i++) {
+            char c = key.charAt(i);
+            int cp = c;
+            int bytes;
+            if (c < 0x80) {
+                bytes = 1;
+            } else if (c < 0x800) {
+                bytes = 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(key.charAt(i + 1))) {
+                cp = Character.toCodePoint(c, key.charAt(++i));
+                bytes = 4;
+            } else if (Character.isSurrogate(c)) {
+                // одиночный суррогат String.getBytes(UTF_8) заменяет на '?'
+                cp = '?';
+                bytes = 1;
+            } else {
+                bytes = 3;
+            }
+
+            for (int b = 0; b < bytes; b++) {
+                int value;
+                if (bytes == 1) {
+                    value = cp;
+                } else if (b == 0) {
+                    value = (bytes == 2 ? 0xC0 : bytes == 3 ? 0xE0 : 0xF0) | (cp >>> (6 * (bytes - 1)));
+                } else {
+                    value = 0x80 | ((cp >>> (6 * (bytes - 1 - b))) & 0x3F);
+                }
+                block |= (long) (value & 0xFF) << (blockBytes << 3);
+                if (++blockBytes == 8) {
+                    h = mixBlock(h, block);
+                    block = 0;
+                    blockBytes = 0;
+                }
+                length++;
             }
         }
+
+        h ^= length * M;
+        if (blockBytes > 0) {
+            h ^= block;
+            h *= M;
+        }
+        h ^= h >>> R;
+        h *= M;
+        h ^= h >>> R;
+        return h;
+    }
+
+    private static long mixBlock(long h, long k) {
+        k *= M;
+        k ^= k >>> R;
+        k *= M;
+        h ^= k;
+        h *= M;
+        return h;
+    }
+
+    /**
+     * Второй хеш для двойного хеширования, получается перемешиванием первого (финализатор SplitMix64).
+     * Младший бит выставляется, чтобы шаг не был нулевым.
+     */
+    private static long secondHash(long hash) {
+        long z = hash + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return (z ^ (z >>> 31)) | 1;
     }
 }
@@ -1,54 +1,329 @@
 package ru.choomandco.diplsm.storage.compengine;
 
+import ru.choomandco.diplsm.storage.entry.ValueEntry;
 import ru.choomandco.diplsm.storage.interfaces.CompEngine;
 import ru.choomandco.diplsm.storage.interfaces.SortedStringTable;
+import ru.choomandco.diplsm.storage.interfaces.TableWriter;
+import ru.choomandco.diplsm.storage.iterator.EntryIterator;
+import ru.choomandco.diplsm.storage.iterator.MergingIterator;
+import ru.choomandco.diplsm.storage.ratelimit.IoPriority;
+import ru.choomandco.diplsm.storage.ratelimit.RateLimiter;
 import ru.choomandco.diplsm.storage.sstable.SSTable;
 import ru.choomandco.diplsm.storage.sstable.SSTableMetadata;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
 
 /**
  * Класс, реализующий движок компактации для LSM-структуры хранения.
  * Объединяет несколько SSTable-файлов в один, устраняя дубликаты ключей
  * и освобождая место за счёт удаления устаревших файлов.
+ * <p>
+ * Если задан пул потоков, крупная компактация делится на непересекающиеся диапазоны ключей
+ * (подкомпактации), которые сливаются параллельно и пишут каждая свои выходные файлы.
  */
 public class CompactationEngine implements CompEngine {
+    /** Сколько байт входных файлов минимум приходится на одну подкомпактацию */
+    public static final long MIN_SUBCOMPACTION_BYTES = 1024L * 1024;
+    /** Сколько ключей на каждую подкомпактацию берётся из индекса каждого входного файла для поиска границ */
+    private static final int SAMPLES_PER_SUBCOMPACTION = 8;
+
     protected SortedStringTable table ;
+    /** Пул потоков для подкомпактаций или null, чтобы сливать в вызывающем потоке */
+    protected final ExecutorService executor;
+    /** Наибольшее количество подкомпактаций одной компактации */
+    protected final int maxSubcompactions;
+    /** Ограничитель скорости записи выходных файлов или null */
+    protected final RateLimiter rateLimiter;
+    /** Удалять ли входные файлы после компактации; хранилище удаляет их само, когда их не читает ни одна версия */
+    protected final boolean deleteInputs;
 
     public CompactationEngine() {
-        table = new SSTable();
+        this(new SSTable());
+    }
+
+    /**
+     * @param table таблица, через которую читаются входные файлы и пишется результат
+     */
+    public CompactationEngine(SortedStringTable table) {
+        this(table, null, 1);
     }
 
     /**
-     * Выполняет компактацию заданного списка SSTable-файлов.
-     * Все ключи и значения из указанных таблиц объединяются,
-     * при этом в случае дублирования ключей остаётся последнее значение (по порядку в списке).
-     * Создаётся новый SSTable, старые файлы удаляются.
+     * @param table таблица, через которую читаются входные файлы и пишется результат
+     * @param executor пул потоков для подкомпактаций или null
+     * @param maxSubcompactions наибольшее количество параллельных подкомпактаций одной компактации
+     */
+    public CompactationEngine(SortedStringTable table, ExecutorService executor, int maxSubcompactions) {
+        this(table, executor, maxSubcompactions, null);
+    }
+
+    /**
+     * @param table таблица, через которую читаются входные файлы и пишется результат
+     * @param executor пул потоков для подкомпактаций или null
+     * @param maxSubcompactions наибольшее количество параллельных подкомпактаций одной компактации
+     * @param rateLimiter ограничитель скорости записи, общий с флашами, или null
+     */
+    public CompactationEngine(SortedStringTable table, ExecutorService executor, int maxSubcompactions,
+                              RateLimiter rateLimiter) {
+        this(table, executor, maxSubcompactions, rateLimiter, true);
+    }
+
+    /**
+     * @param table таблица, через которую читаются входные файлы и пишется результат
+     * @param executor пул потоков для подкомпактаций или null
+     * @param maxSubcompactions наибольшее количество параллельных подкомпактаций одной компактации
+     * @param rateLimiter ограничитель скорости записи, общий с флашами, или null
+     * @param deleteInputs удалять ли входные файлы после того, как записаны все выходные
+     */
+    public CompactationEngine(SortedStringTable table, ExecutorService executor, int maxSubcompactions,
+                              RateLimiter rateLimiter, boolean deleteInputs) {
+        this.table = table;
+        this.executor = executor;
+        this.maxSubcompactions = Math.max(1, maxSubcompactions);
+        this.rateLimiter = rateLimiter;
+        this.deleteInputs = deleteInputs;
+    }
+
+    /**
+     * Выполняет компактацию заданного списка SSTable-файлов в один файл.
      *
-     * @param tablesMeta список метаданных SSTable-файлов, подлежащих компактации
+     * @param tablesMeta список метаданных SSTable-файлов, подлежащих компактации, от старых к новым
      * @param fileToCompact имя нового SSTable-файла, в который будут записаны данные
      * @param level уровень, на который будет записан результат компактации
-     * @return метаинформация о новом SSTable-файле
+     * @param dropTombstones отбрасывать ли маркеры удаления вместе с удалёнными ключами
+     * @return метаинформация о новом SSTable-файле или null, если после удаления маркеров данных не осталось
      * @throws IllegalArgumentException если список таблиц пуст
      * @throws RuntimeException если не удалось удалить один из исходных файлов
+     * @see #compact(List, Supplier, int, boolean, long)
      */
-    public SSTableMetadata compact(List<SSTableMetadata> tablesMeta, String fileToCompact, int level) {
-        if (tablesMeta.isEmpty()) {
-            throw new IllegalArgumentException("No SSTables provided for compaction");
+    @Override
+    public SSTableMetadata compact(List<SSTableMetadata> tablesMeta, String fileToCompact, int level, boolean dropTombstones) {
+        checkInputs(tablesMeta);
+        List<SSTableMetadata> result = merge(tablesMeta, null, null, () -> fileToCompact, level, dropTombstones,
+                Long.MAX_VALUE);
+        deleteInputs(tablesMeta);
+        return result.isEmpty() ? null : result.get(0);
+    }
+
+    /**
+     * Выполняет компактацию заданного списка SSTable-файлов потоковым k-путевым слиянием.
+     * Для каждого входного файла открывается последовательный итератор, очередь с приоритетом
+     * выбирает наименьший ключ, а из нескольких версий ключа остаётся последняя по порядку в списке.
+     * Записи сразу уходят в новый файл, поэтому потребление памяти не зависит от размера входных таблиц.
+     * Когда файл дорастает до {@code maxFileSize}, он завершается и запись продолжается в следующем,
+     * так что выходные файлы идут по возрастанию ключей и не пересекаются.
+     * Маркеры удаления переносятся в новый файл, пока не нужно их отбрасывать:
+     * это допустимо только когда под компактируемыми файлами не осталось старых данных.
+     * Если задан пул потоков и входных данных достаточно, слияние делится на подкомпактации
+     * по диапазонам ключей (см. {@link #subcompactionBoundaries(List)}), каждая пишет свои файлы.
+     * Старые файлы удаляются после того, как записаны все новые, если движок создан с {@code deleteInputs}.
+     *
+     * @param tablesMeta список метаданных SSTable-файлов, подлежащих компактации, от старых к новым
+     * @param fileNames источник имён новых файлов; при подкомпактациях вызывается из нескольких потоков
+     * @param level уровень, на который будет записан результат компактации
+     * @param dropTombstones отбрасывать ли маркеры удаления вместе с удалёнными ключами
+     * @param maxFileSize размер, по достижении которого начинается следующий файл
+     * @return метаинформация о новых файлах; пустой список, если после удаления маркеров данных не осталось
+     * @throws IllegalArgumentException если список таблиц пуст
+     * @throws RuntimeException если не удалось удалить один из исходных файлов
+     */
+    @Override
+    public List<SSTableMetadata> compact(List<SSTableMetadata> tablesMeta, Supplier<String> fileNames, int level,
+                                         boolean dropTombstones, long maxFileSize) {
+        checkInputs(tablesMeta);
+        List<String> boundaries = subcompactionBoundaries(tablesMeta);
+        List<SSTableMetadata> result = boundaries.isEmpty()
+                ? merge(tablesMeta, null, null, fileNames, level, dropTombstones, maxFileSize)
+                : mergeInParallel(tablesMeta, boundaries, fileNames, level, dropTombstones, maxFileSize);
+        deleteInputs(tablesMeta);
+        return result;
+    }
+
+    /**
+     * Выбирает границы подкомпактаций. Кандидаты — наименьшие и наибольшие ключи входных файлов
+     * и ключи, равномерно взятые из их индексов; из отсортированных кандидатов границы берутся через равные
+     * промежутки, поэтому диапазоны получают примерно поровну данных.
+     * @param tablesMeta входные файлы
+     * @return границы по возрастанию; пустой список, если компактация выполняется целиком
+     */
+    protected List<String> subcompactionBoundaries(List<SSTableMetadata> tablesMeta) {
+        if (executor == null || maxSubcompactions < 2) {
+            return Collections.emptyList();
+        }
+        long totalBytes = 0;
+        for (SSTableMetadata meta : tablesMeta) {
+            totalBytes += meta.getFileSize();
+        }
+        int slices = (int) Math.min(maxSubcompactions, totalBytes / MIN_SUBCOMPACTION_BYTES);
+        if (slices < 2) {
+            return Collections.emptyList();
         }
 
-        Map<String, String> allEntries = new TreeMap<>();
+        TreeSet<String> candidates = new TreeSet<>();
         for (SSTableMetadata meta : tablesMeta) {
+            candidates.add(meta.getMinKey());
+            candidates.add(meta.getMaxKey());
             try {
-                allEntries.putAll(table.readWholeIntoMap(meta.getFilename()));
+                candidates.addAll(table.sampleKeys(meta.getFilename(), slices * SAMPLES_PER_SUBCOMPACTION));
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
         }
+        List<String> sorted = new ArrayList<>(candidates);
+        List<String> boundaries = new ArrayList<>();
+        for (int i = 1; i < slices; i++) {
+            String boundary = sorted.get((int) ((long) i * sorted.size() / slices));
+            // граница, равная наименьшему ключу, дала бы пустой первый диапазон
+            if (boundary.compareTo(sorted.get(0)) > 0
+                    && (boundaries.isEmpty() || boundary.compareTo(boundaries.get(boundaries.size() - 1)) > 0)) {
+                boundaries.add(boundary);
+            }
+        }
+        return boundaries;
+    }
 
-        table.writeTableFromMap(allEntries, fileToCompact);
+    /**
+     * Сливает диапазоны [boundary(i-1), boundary(i)) параллельно в пуле потоков.
+     * Если хотя бы одна подкомпактация завершилась ошибкой, дожидается остальных и удаляет всё, что они записали.
+     * @return выходные файлы всех диапазонов по возрастанию ключей
+     */
+    private List<SSTableMetadata> mergeInParallel(List<SSTableMetadata> tablesMeta, List<String> boundaries,
+                                                  Supplier<String> fileNames, int level, boolean dropTombstones,
+                                                  long maxFileSize) {
+        List<Future<List<SSTableMetadata>>> slices = new ArrayList<>();
+        for (int i = 0; i <= boundaries.size(); i++) {
+            String fromKey = i == 0 ? null : boundaries.get(i - 1);
+            String toKey = i == boundaries.size() ? null : boundaries.get(i);
+            slices.add(executor.submit(() ->
+                    merge(tablesMeta, fromKey, toKey, fileNames, level, dropTombstones, maxFileSize)));
+        }
 
+        List<SSTableMetadata> result = new ArrayList<>();
+        RuntimeException failure = null;
+        for (Future<List<SSTableMetadata>> slice : slices) {
+            try {
+                result.addAll(slice.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure = addFailure(failure, new RuntimeException("Interrupted while waiting for subcompaction", e));
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                failure = addFailure(failure, cause instanceof RuntimeException
+                        ? (RuntimeException) cause
+                        : new RuntimeException("Subcompaction failed", cause));
+            }
+        }
+        if (failure != null) {
+            deleteOutputs(result, failure);
+            throw failure;
+        }
+        return result;
+    }
+
+    private static RuntimeException addFailure(RuntimeException failure, RuntimeException next) {
+        if (failure == null) {
+            return next;
+        }
+        failure.addSuppressed(next);
+        return failure;
+    }
+
+    /**
+     * Сливает записи входных файлов из диапазона [fromKey, toKey), разбивая результат по {@code maxFileSize}.
+     * При ошибке удаляет всё, что успело записаться.
+     * @param fromKey нижняя граница (включительно) или null
+     * @param toKey верхняя граница (не включительно) или null
+     * @return выходные файлы по возрастанию ключей
+     */
+    private List<SSTableMetadata> merge(List<SSTableMetadata> tablesMeta, String fromKey, String toKey,
+                                        Supplier<String> fileNames, int level, boolean dropTombstones,
+                                        long maxFileSize) {
+        List<EntryIterator> sources = new ArrayList<>();
+        try {
+            for (int i = tablesMeta.size() - 1; i >= 0; i--) {
+                SSTableMetadata meta = tablesMeta.get(i);
+                if (meta.overlaps(fromKey, toKey)) {
+                    sources.add(table.iterator(meta.getFilename(), fromKey, toKey, false));
+                }
+            }
+        } catch (RuntimeException e) {
+            sources.forEach(EntryIterator::close);
+            throw e;
+        }
+
+        List<SSTableMetadata> result = new ArrayList<>();
+        TableWriter writer = null;
+        try (MergingIterator merged = new MergingIterator(sources, false)) {
+            while (merged.hasNext()) {
+                Map.Entry<String, ValueEntry> entry = merged.next();
+                if (dropTombstones && entry.getValue().isTombstone()) {
+                    continue;
+                }
+                if (writer == null) {
+                    writer = newWriter(fileNames.get(), level);
+                }
+                writer.add(entry.getKey(), entry.getValue());
+                if (writer.getFileSize() >= maxFileSize) {
+                    TableWriter full = writer;
+                    writer = null;
+                    result.add(full.finish(level));
+                }
+            }
+
+            if (writer != null) {
+                TableWriter last = writer;
+                writer = null;
+                result.add(last.finish(level));
+            }
+        } catch (RuntimeException e) {
+            if (writer != null) {
+                writer.abort();
+            }
+            deleteOutputs(result, e);
+            throw e;
+        }
+        return result;
+    }
+
+    /**
+     * Открывает выходной файл; при заданном ограничителе его запись идёт с низким приоритетом.
+     */
+    private TableWriter newWriter(String filename, int level) {
+        TableWriter writer = table.newWriter(filename, level);
+        return rateLimiter == null ? writer : rateLimiter.wrap(writer, IoPriority.LOW);
+    }
+
+    private static void checkInputs(List<SSTableMetadata> tablesMeta) {
+        if (tablesMeta.isEmpty()) {
+            throw new IllegalArgumentException("No SSTables provided for compaction");
+        }
+    }
+
+    /**
+     * Удаляет выходные файлы прерванной компактации, добавляя ошибки удаления к исходной.
+     */
+    private void deleteOutputs(List<SSTableMetadata> outputs, RuntimeException failure) {
+        for (SSTableMetadata written : outputs) {
+            try {
+                table.deleteFIle(written.getFilename());
+            } catch (IOException suppressed) {
+                failure.addSuppressed(suppressed);
+            }
+        }
+    }
+
+    /**
+     * Удаляет входные файлы после того, как записаны все выходные.
+     */
+    private void deleteInputs(List<SSTableMetadata> tablesMeta) {
+        if (!deleteInputs) {
+            return;
+        }
         for (SSTableMetadata file : tablesMeta) {
             try {
 //                System.out.println("[compact] About to delete: " + file.getFilename() + " (exists=" + Files.exists(Paths.get(file.getFilename())) + ")");
@@ -57,7 +332,5 @@ public class CompactationEngine implements CompEngine {
                 throw new RuntimeException(e);
             }
         }
-
-        return new SSTableMetadata(fileToCompact, level, allEntries.keySet());
     }
-}
\ No newline at end of file
+}
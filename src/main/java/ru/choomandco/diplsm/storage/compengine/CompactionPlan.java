@@ -0,0 +1,136 @@
+package ru.choomandco.diplsm.storage.compengine;
+
+import ru.choomandco.diplsm.storage.sstable.SSTableMetadata;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Задание на одну компактацию, выбранное {@link ru.choomandco.diplsm.storage.interfaces.CompactionStrategy}.
+ */
+public class CompactionPlan {
+    /** Результат не разбивается на несколько файлов */
+    public static final long UNLIMITED_FILE_SIZE = Long.MAX_VALUE;
+
+    /** Уровень, с которого начата компактация */
+    private final int level;
+    /** Уровень, на который пишется результат */
+    private final int targetLevel;
+    /** Входные файлы от старых к новым: при совпадении ключей побеждает более поздний */
+    private final List<SSTableMetadata> inputs;
+    /** Размер, по достижении которого результат продолжается в следующем файле */
+    private final long maxOutputFileSize;
+    /** Называть результат временем создания самого нового входного файла, а не текущим */
+    private final boolean keepWriteTime;
+    /** Входные файлы удаляются без слияния */
+    private final boolean deletion;
+    /** Наименьший ключ входных файлов */
+    private final String minKey;
+    /** Наибольший ключ входных файлов */
+    private final String maxKey;
+
+    /**
+     * @param level уровень, с которого начата компактация
+     * @param targetLevel уровень, на который пишется результат
+     * @param inputs входные файлы от старых к новым
+     * @param maxOutputFileSize целевой размер выходного файла или {@link #UNLIMITED_FILE_SIZE}
+     */
+    public CompactionPlan(int level, int targetLevel, List<SSTableMetadata> inputs, long maxOutputFileSize) {
+        this(level, targetLevel, inputs, maxOutputFileSize, false, false);
+    }
+
+    /**
+     * @param level уровень, с которого начата компактация
+     * @param targetLevel уровень, на который пишется результат
+     * @param inputs входные файлы от старых к новым
+     * @param maxOutputFileSize целевой размер выходного файла или {@link #UNLIMITED_FILE_SIZE}
+     * @param keepWriteTime сохранить за результатом время создания самого нового входного файла,
+     *                      чтобы он остался в том же временном окне и на том же месте среди файлов уровня
+     */
+    public CompactionPlan(int level, int targetLevel, List<SSTableMetadata> inputs, long maxOutputFileSize,
+                          boolean keepWriteTime) {
+        this(level, targetLevel, inputs, maxOutputFileSize, keepWriteTime, false);
+    }
+
+    private CompactionPlan(int level, int targetLevel, List<SSTableMetadata> inputs, long maxOutputFileSize,
+                           boolean keepWriteTime, boolean deletion) {
+        if (inputs.isEmpty()) {
+            throw new IllegalArgumentException("Compaction plan without input files");
+        }
+        this.level = level;
+        this.targetLevel = targetLevel;
+        this.inputs = Collections.unmodifiableList(new ArrayList<>(inputs));
+        this.maxOutputFileSize = maxOutputFileSize;
+        this.keepWriteTime = keepWriteTime;
+        this.deletion = deletion;
+
+        String min = inputs.get(0).getMinKey();
+        String max = inputs.get(0).getMaxKey();
+        for (SSTableMetadata meta : inputs) {
+            if (meta.getMinKey().compareTo(min) < 0) min = meta.getMinKey();
+            if (meta.getMaxKey().compareTo(max) > 0) max = meta.getMaxKey();
+        }
+        this.minKey = min;
+        this.maxKey = max;
+    }
+
+    /**
+     * Создаёт план, по которому файлы просто удаляются вместе со всеми своими данными.
+     * @param level уровень, с которого удаляются файлы
+     * @param files удаляемые файлы
+     */
+    public static CompactionPlan deletion(int level, List<SSTableMetadata> files) {
+        return new CompactionPlan(level, level, files, UNLIMITED_FILE_SIZE, false, true);
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public int getTargetLevel() {
+        return targetLevel;
+    }
+
+    public List<SSTableMetadata> getInputs() {
+        return inputs;
+    }
+
+    public long getMaxOutputFileSize() {
+        return maxOutputFileSize;
+    }
+
+    public boolean isKeepWriteTime() {
+        return keepWriteTime;
+    }
+
+    public boolean isDeletion() {
+        return deletion;
+    }
+
+    /**
+     * Проверяет, можно ли выполнять этот план одновременно с другим. Планы конфликтуют, если затрагивают
+     * общий уровень (от исходного до целевого включительно) и их диапазоны ключей пересекаются:
+     * тогда один из них может изменить файлы, которые второй читает или с которыми должен сохранить порядок версий.
+     * @param other выполняющийся план
+     * @return true, если планы нельзя выполнять одновременно
+     */
+    public boolean conflictsWith(CompactionPlan other) {
+        int from = Math.min(level, targetLevel);
+        int to = Math.max(level, targetLevel);
+        int otherFrom = Math.min(other.level, other.targetLevel);
+        int otherTo = Math.max(other.level, other.targetLevel);
+        if (from > otherTo || otherFrom > to) {
+            return false;
+        }
+        return minKey.compareTo(other.maxKey) <= 0 && other.minKey.compareTo(maxKey) <= 0;
+    }
+
+    @Override
+    public String toString() {
+        if (deletion) {
+            return "CompactionPlan{delete " + inputs.size() + " files from L" + level + "}";
+        }
+        return "CompactionPlan{L" + level + " -> L" + targetLevel + ", inputs=" + inputs.size() + "}";
+    }
+}
@@ -0,0 +1,15 @@
+package ru.choomandco.diplsm.storage.compengine;
+
+/**
+ * Встроенные политики компактации.
+ */
+public enum CompactionStyle {
+    /** {@link SizeTieredCompactionStrategy}: накопившиеся на уровне файлы целиком сливаются в один на следующем уровне */
+    SIZE_TIERED,
+    /** {@link LeveledCompactionStrategy}: на уровнях ниже нулевого файлы не пересекаются по ключам */
+    LEVELED,
+    /** {@link FifoCompactionStrategy}: файлы не сливаются, самые старые удаляются сверх бюджета объёма */
+    FIFO,
+    /** {@link TimeWindowCompactionStrategy}: файлы сливаются только внутри окна по времени создания */
+    TIME_WINDOW
+}
@@ -0,0 +1,82 @@
+package ru.choomandco.diplsm.storage.compengine;
+
+import ru.choomandco.diplsm.storage.interfaces.CompactionStrategy;
+import ru.choomandco.diplsm.storage.sstable.SSTableMetadata;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Компактация «первым пришёл — первым ушёл» для данных вроде кэша: файлы никогда не сливаются,
+ * а когда их общий объём превышает бюджет, самые старые удаляются целиком вместе с данными.
+ * Запись и место почти не усиливаются, но ключи из удалённых файлов пропадают независимо от того,
+ * обновлялись ли они позже. Чтение проверяет все файлы, поэтому подходит для небольших объёмов.
+ */
+public class FifoCompactionStrategy implements CompactionStrategy {
+    /** Бюджет по умолчанию — 1 ГБ */
+    public static final long DEFAULT_MAX_TABLE_FILES_SIZE = 1024L * 1024 * 1024;
+
+    /** Допустимый объём всех файлов в байтах */
+    private final long maxTableFilesSize;
+
+    /**
+     * @param maxTableFilesSize допустимый объём всех файлов в байтах
+     */
+    public FifoCompactionStrategy(long maxTableFilesSize) {
+        if (maxTableFilesSize <= 0) {
+            throw new IllegalArgumentException("FIFO size budget must be positive: " + maxTableFilesSize);
+        }
+        this.maxTableFilesSize = maxTableFilesSize;
+    }
+
+    @Override
+    public CompactionPlan pickCompaction(Map<Integer, TreeSet<SSTableMetadata>> levels) {
+        long total = 0;
+        for (TreeSet<SSTableMetadata> files : levels.values()) {
+            for (SSTableMetadata meta : files) {
+                total += meta.getFileSize();
+            }
+        }
+        if (total <= maxTableFilesSize) {
+            return null;
+        }
+
+        // данные нижних уровней старше, внутри уровня файлы идут от старых к новым;
+        // в один план попадают файлы одного уровня, остальное доберёт следующий вызов
+        for (int level : new TreeSet<>(levels.keySet()).descendingSet()) {
+            TreeSet<SSTableMetadata> files = levels.get(level);
+            if (files.isEmpty()) {
+                continue;
+            }
+            List<SSTableMetadata> expired = new ArrayList<>();
+            for (SSTableMetadata meta : files) {
+                if (total <= maxTableFilesSize) {
+                    break;
+                }
+                expired.add(meta);
+                total -= meta.getFileSize();
+            }
+            return CompactionPlan.deletion(level, expired);
+        }
+        return null;
+    }
+
+    /**
+     * Файлы этой политикой не сливаются; принудительная компактация уровня тоже только удаляет
+     * старые файлы сверх бюджета.
+     */
+    @Override
+    public CompactionPlan pickCompaction(Map<Integer, TreeSet<SSTableMetadata>> levels, int level) {
+        return pickCompaction(levels);
+    }
+
+    /**
+     * @return false: файлы не сливаются и все остаются на L0
+     */
+    @Override
+    public boolean drainsLevelZero() {
+        return false;
+    }
+}
@@ -0,0 +1,231 @@
+package ru.choomandco.diplsm.storage.compengine;
+
+import ru.choomandco.diplsm.storage.interfaces.CompactionStrategy;
+import ru.choomandco.diplsm.storage.sstable.SSTableMetadata;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Уровневая компактация. На L0 лежат файлы флаша, пересекающиеся по ключам; на L1 и ниже файлы одного уровня
+ * не пересекаются и имеют целевой размер, а допустимый объём уровня растёт в {@code levelSizeMultiplier} раз
+ * с каждым уровнем. Поэтому точечное чтение проверяет не больше одного файла на каждом уровне ниже нулевого.
+ * <p>
+ * L0 компактируется, когда на нём набирается {@code levelZeroTrigger} файлов: все они сливаются
+ * с пересекающимися файлами L1. Уровень ниже нулевого компактируется, когда его объём превышает бюджет:
+ * по кругу выбирается очередной файл и сливается с пересекающимися файлами следующего уровня.
+ * Из нескольких переполненных уровней выбирается тот, у которого больше отношение объёма к бюджету.
+ * Последний уровень не ограничен.
+ */
+public class LeveledCompactionStrategy implements CompactionStrategy {
+    /** Целевой размер файла по умолчанию */
+    public static final long DEFAULT_TARGET_FILE_SIZE = 2L * 1024 * 1024;
+    /** Бюджет L1 по умолчанию */
+    public static final long DEFAULT_LEVEL_BASE_BYTES = 10L * 1024 * 1024;
+    /** Во сколько раз бюджет уровня больше предыдущего по умолчанию */
+    public static final int DEFAULT_LEVEL_SIZE_MULTIPLIER = 10;
+
+    /** Общее количество уровней */
+    private final int numLevels;
+    /** Сколько файлов должно накопиться на L0 */
+    private final int levelZeroTrigger;
+    /** Размер, на котором результат компактации продолжается в следующем файле */
+    private final long targetFileSize;
+    /** Бюджет L1 в байтах */
+    private final long levelBaseBytes;
+    /** Во сколько раз бюджет уровня больше предыдущего */
+    private final int levelSizeMultiplier;
+    /** Наибольший ключ последнего компактированного файла на каждом уровне; следующим берётся файл правее */
+    private final String[] compactPointers;
+
+    /**
+     * @param numLevels общее количество уровней
+     * @param levelZeroTrigger сколько файлов должно накопиться на L0
+     */
+    public LeveledCompactionStrategy(int numLevels, int levelZeroTrigger) {
+        this(numLevels, levelZeroTrigger, DEFAULT_TARGET_FILE_SIZE, DEFAULT_LEVEL_BASE_BYTES,
+                DEFAULT_LEVEL_SIZE_MULTIPLIER);
+    }
+
+    /**
+     * @param numLevels общее количество уровней
+     * @param levelZeroTrigger сколько файлов должно накопиться на L0
+     * @param targetFileSize целевой размер файла в байтах
+     * @param levelBaseBytes бюджет L1 в байтах
+     * @param levelSizeMultiplier во сколько раз бюджет уровня больше предыдущего
+     */
+    public LeveledCompactionStrategy(int numLevels, int levelZeroTrigger, long targetFileSize,
+                                     long levelBaseBytes, int levelSizeMultiplier) {
+        if (numLevels < 2 || levelZeroTrigger < 1 || targetFileSize <= 0 || levelBaseBytes <= 0
+                || levelSizeMultiplier < 2) {
+            throw new IllegalArgumentException("Invalid leveled compaction settings");
+        }
+        this.numLevels = numLevels;
+        this.levelZeroTrigger = levelZeroTrigger;
+        this.targetFileSize = targetFileSize;
+        this.levelBaseBytes = levelBaseBytes;
+        this.levelSizeMultiplier = levelSizeMultiplier;
+        this.compactPointers = new String[numLevels];
+    }
+
+    @Override
+    public CompactionPlan pickCompaction(Map<Integer, TreeSet<SSTableMetadata>> levels) {
+        int bestLevel = -1;
+        double bestScore = 0;
+        for (int level = 0; level < numLevels - 1; level++) {
+            double score = score(levels.get(level), level);
+            if (score >= 1.0 && score > bestScore) {
+                bestScore = score;
+                bestLevel = level;
+            }
+        }
+        return bestLevel < 0 ? null : pickCompaction(levels, bestLevel);
+    }
+
+    @Override
+    public CompactionPlan pickCompaction(Map<Integer, TreeSet<SSTableMetadata>> levels, int level) {
+        TreeSet<SSTableMetadata> files = levels.get(level);
+        if (level >= numLevels - 1 || files == null || files.isEmpty()) {
+            return null;
+        }
+
+        List<SSTableMetadata> levelInputs = new ArrayList<>();
+        if (level == 0) {
+            levelInputs.addAll(files);
+        } else {
+            levelInputs.add(nextFile(files, compactPointers[level]));
+        }
+        String[] range = keyRange(levelInputs);
+        // на уровне с пересечениями (например, оставшемся от другой политики) переносить файл без более
+        // старых соседей нельзя: их версии ключей окажутся выше и перекроют перенесённые
+        if (level > 0) {
+            expandToOverlapping(files, levelInputs, range);
+        }
+
+        List<SSTableMetadata> inputs = new ArrayList<>();
+        TreeSet<SSTableMetadata> targetFiles = levels.get(level + 1);
+        if (targetFiles != null) {
+            for (SSTableMetadata meta : targetFiles) {
+                if (meta.overlapsRange(range[0], range[1])) {
+                    inputs.add(meta);
+                }
+            }
+        }
+        levelInputs.sort(null);
+        inputs.addAll(levelInputs);
+
+        compactPointers[level] = range[1];
+        return new CompactionPlan(level, level + 1, inputs, targetFileSize);
+    }
+
+    /**
+     * Отставание оценивается как в RocksDB: если L0 пора компактировать, его нужно слить вместе с L1;
+     * превышение бюджета уровня уходит на следующий, и каждый его байт переписывается вместе
+     * с {@code levelSizeMultiplier} байтами следующего уровня. Перенесённое превышение учитывается
+     * в объёме следующего уровня.
+     */
+    @Override
+    public long estimatePendingCompactionBytes(Map<Integer, TreeSet<SSTableMetadata>> levels) {
+        long pending = 0;
+        long carried = 0;
+        TreeSet<SSTableMetadata> levelZero = levels.get(0);
+        if (levelZero != null && levelZero.size() >= levelZeroTrigger) {
+            carried = levelBytes(levelZero);
+            pending += carried + levelBytes(levels.get(1));
+        }
+        for (int level = 1; level < numLevels - 1; level++) {
+            long excess = levelBytes(levels.get(level)) + carried - maxBytesForLevel(level);
+            if (excess <= 0) {
+                carried = 0;
+                continue;
+            }
+            pending += excess * (levelSizeMultiplier + 1);
+            carried = excess;
+        }
+        return pending;
+    }
+
+    /**
+     * @return бюджет уровня ниже нулевого в байтах
+     */
+    public long maxBytesForLevel(int level) {
+        double bytes = levelBaseBytes * Math.pow(levelSizeMultiplier, level - 1);
+        return bytes >= Long.MAX_VALUE ? Long.MAX_VALUE : (long) bytes;
+    }
+
+    /**
+     * Насколько уровень нуждается в компактации: 1 и больше означает, что порог достигнут.
+     */
+    private double score(TreeSet<SSTableMetadata> files, int level) {
+        if (files == null || files.isEmpty()) {
+            return 0;
+        }
+        if (level == 0) {
+            return (double) files.size() / levelZeroTrigger;
+        }
+        return (double) levelBytes(files) / maxBytesForLevel(level);
+    }
+
+    private static long levelBytes(TreeSet<SSTableMetadata> files) {
+        long bytes = 0;
+        if (files != null) {
+            for (SSTableMetadata meta : files) {
+                bytes += meta.getFileSize();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Находит файл с наименьшим ключом правее указателя; после последнего файла уровня обход начинается сначала.
+     */
+    private static SSTableMetadata nextFile(TreeSet<SSTableMetadata> files, String pointer) {
+        SSTableMetadata next = null;
+        SSTableMetadata first = null;
+        for (SSTableMetadata meta : files) {
+            if (first == null || meta.getMinKey().compareTo(first.getMinKey()) < 0) {
+                first = meta;
+            }
+            if (pointer != null && meta.getMinKey().compareTo(pointer) > 0
+                    && (next == null || meta.getMinKey().compareTo(next.getMinKey()) < 0)) {
+                next = meta;
+            }
+        }
+        return next != null ? next : first;
+    }
+
+    /**
+     * Добавляет к входным файлы того же уровня, пересекающиеся с их диапазоном, пока диапазон растёт.
+     */
+    private static void expandToOverlapping(TreeSet<SSTableMetadata> files, List<SSTableMetadata> inputs,
+                                            String[] range) {
+        boolean grown = true;
+        while (grown) {
+            grown = false;
+            for (SSTableMetadata meta : files) {
+                if (!inputs.contains(meta) && meta.overlapsRange(range[0], range[1])) {
+                    inputs.add(meta);
+                    String[] expanded = keyRange(inputs);
+                    range[0] = expanded[0];
+                    range[1] = expanded[1];
+                    grown = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return наименьший и наибольший ключ файлов
+     */
+    private static String[] keyRange(List<SSTableMetadata> files) {
+        String minKey = files.get(0).getMinKey();
+        String maxKey = files.get(0).getMaxKey();
+        for (SSTableMetadata meta : files) {
+            if (meta.getMinKey().compareTo(minKey) < 0) minKey = meta.getMinKey();
+            if (meta.getMaxKey().compareTo(maxKey) > 0) maxKey = meta.getMaxKey();
+        }
+        return new String[]{minKey, maxKey};
+    }
+}
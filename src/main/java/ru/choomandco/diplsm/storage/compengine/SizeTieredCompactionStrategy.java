@@ -0,0 +1,75 @@
+package ru.choomandco.diplsm.storage.compengine;
+
+import ru.choomandco.diplsm.storage.interfaces.CompactionStrategy;
+import ru.choomandco.diplsm.storage.sstable.SSTableMetadata;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+/**
+ * Компактация по количеству файлов: как только на уровне набирается {@code tierThreshold} файлов,
+ * самые старые из них сливаются в один файл на следующем уровне. Файлы последнего уровня сливаются между собой.
+ * Запись дешёвая, но файлы любого уровня пересекаются по ключам, и чтению приходится проверять каждый.
+ */
+public class SizeTieredCompactionStrategy implements CompactionStrategy {
+    /** Общее количество уровней */
+    private final int numLevels;
+    /** Сколько файлов сливается за раз и сколько должно накопиться на уровне */
+    private final int tierThreshold;
+
+    /**
+     * @param numLevels общее количество уровней
+     * @param tierThreshold порог количества файлов на уровень
+     */
+    public SizeTieredCompactionStrategy(int numLevels, int tierThreshold) {
+        this.numLevels = numLevels;
+        this.tierThreshold = tierThreshold;
+    }
+
+    @Override
+    public CompactionPlan pickCompaction(Map<Integer, TreeSet<SSTableMetadata>> levels) {
+        for (int level = 0; level < numLevels; level++) {
+            TreeSet<SSTableMetadata> files = levels.get(level);
+            // на последнем уровне один файл сливался бы сам с собой бесконечно
+            int trigger = level == numLevels - 1 ? Math.max(tierThreshold, 2) : tierThreshold;
+            if (files != null && files.size() >= trigger) {
+                return pickCompaction(levels, level);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Отставание — объём файлов, которые уже должны были слиться на уровнях, достигших порога.
+     */
+    @Override
+    public long estimatePendingCompactionBytes(Map<Integer, TreeSet<SSTableMetadata>> levels) {
+        long pending = 0;
+        for (int level = 0; level < numLevels; level++) {
+            TreeSet<SSTableMetadata> files = levels.get(level);
+            int trigger = level == numLevels - 1 ? Math.max(tierThreshold, 2) : tierThreshold;
+            if (files == null || files.size() < trigger) {
+                continue;
+            }
+            for (SSTableMetadata meta : files) {
+                pending += meta.getFileSize();
+            }
+        }
+        return pending;
+    }
+
+    @Override
+    public CompactionPlan pickCompaction(Map<Integer, TreeSet<SSTableMetadata>> levels, int level) {
+        TreeSet<SSTableMetadata> files = levels.get(level);
+        if (files == null || files.isEmpty()) {
+            return null;
+        }
+        List<SSTableMetadata> inputs = files.stream()
+                .limit(tierThreshold)
+                .collect(Collectors.toList());
+        int targetLevel = Math.min(level + 1, numLevels - 1);
+        return new CompactionPlan(level, targetLevel, inputs, CompactionPlan.UNLIMITED_FILE_SIZE);
+    }
+}
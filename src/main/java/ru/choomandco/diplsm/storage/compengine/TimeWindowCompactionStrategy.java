@@ -0,0 +1,101 @@
+package ru.choomandco.diplsm.storage.compengine;
+
+import ru.choomandco.diplsm.storage.interfaces.CompactionStrategy;
+import ru.choomandco.diplsm.storage.sstable.SSTableMetadata;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Компактация по временным окнам для временных рядов: файлы раскладываются по окнам фиксированной длины
+ * по времени создания и сливаются только внутри своего окна, данные разных окон не смешиваются никогда.
+ * Текущее окно компактируется, когда в нём набирается {@code minThreshold} файлов, а каждое закрытое окно
+ * в итоге сворачивается в один файл. Результат слияния сохраняет время создания самого нового входного файла,
+ * поэтому остаётся в своём окне. Файлы остаются на том уровне, куда попали при флаше.
+ */
+public class TimeWindowCompactionStrategy implements CompactionStrategy {
+    /** Длина окна по умолчанию — один час */
+    public static final long DEFAULT_WINDOW_MS = 60L * 60 * 1000;
+
+    /** Длина окна в миллисекундах */
+    private final long windowMs;
+    /** Сколько файлов должно накопиться в текущем окне */
+    private final int minThreshold;
+
+    /**
+     * @param windowMs длина окна в миллисекундах
+     * @param minThreshold сколько файлов должно накопиться в текущем окне
+     */
+    public TimeWindowCompactionStrategy(long windowMs, int minThreshold) {
+        if (windowMs <= 0) {
+            throw new IllegalArgumentException("Time window must be positive: " + windowMs);
+        }
+        this.windowMs = windowMs;
+        this.minThreshold = Math.max(minThreshold, 2);
+    }
+
+    @Override
+    public CompactionPlan pickCompaction(Map<Integer, TreeSet<SSTableMetadata>> levels) {
+        long currentWindow = System.currentTimeMillis() / windowMs;
+        for (Map.Entry<Integer, TreeSet<SSTableMetadata>> level : levels.entrySet()) {
+            for (Map.Entry<Long, List<SSTableMetadata>> window : windows(level.getValue()).entrySet()) {
+                int threshold = window.getKey() >= currentWindow ? minThreshold : 2;
+                if (window.getValue().size() >= threshold) {
+                    return plan(level.getKey(), window.getValue());
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Сливает окно уровня с наибольшим количеством файлов, если в нём больше одного файла.
+     */
+    @Override
+    public CompactionPlan pickCompaction(Map<Integer, TreeSet<SSTableMetadata>> levels, int level) {
+        TreeSet<SSTableMetadata> files = levels.get(level);
+        if (files == null) {
+            return null;
+        }
+        List<SSTableMetadata> largest = null;
+        for (List<SSTableMetadata> window : windows(files).values()) {
+            if (largest == null || window.size() > largest.size()) {
+                largest = window;
+            }
+        }
+        return largest == null || largest.size() < 2 ? null : plan(level, largest);
+    }
+
+    /**
+     * @return номер окна, в которое попадает файл
+     */
+    public long windowOf(SSTableMetadata meta) {
+        return meta.getWriteTime() / windowMs;
+    }
+
+    /**
+     * Раскладывает файлы уровня по окнам; внутри окна файлы остаются от старых к новым.
+     */
+    private Map<Long, List<SSTableMetadata>> windows(TreeSet<SSTableMetadata> files) {
+        Map<Long, List<SSTableMetadata>> windows = new TreeMap<>();
+        for (SSTableMetadata meta : files) {
+            windows.computeIfAbsent(windowOf(meta), k -> new ArrayList<>()).add(meta);
+        }
+        return windows;
+    }
+
+    private static CompactionPlan plan(int level, List<SSTableMetadata> window) {
+        return new CompactionPlan(level, level, window, CompactionPlan.UNLIMITED_FILE_SIZE, true);
+    }
+
+    /**
+     * @return false: на L0 навсегда остаётся по файлу на каждое закрытое окно
+     */
+    @Override
+    public boolean drainsLevelZero() {
+        return false;
+    }
+}
@@ -0,0 +1,48 @@
+package ru.choomandco.diplsm.storage.compression;
+
+import ru.choomandco.diplsm.storage.interfaces.BlockCodec;
+
+/**
+ * Реестр кодеков блоков по идентификатору из трейлера. Встроенные кодеки зарегистрированы заранее,
+ * собственный кодек нужно зарегистрировать до открытия хранилища, чтобы записанные им файлы читались.
+ */
+public final class BlockCodecs {
+    public static final BlockCodec NONE = new NoCompressionCodec();
+    public static final BlockCodec DEFLATE = new DeflateCodec();
+    public static final BlockCodec LZ4 = new Lz4Codec();
+
+    /** Кодеки по идентификатору; при регистрации массив заменяется копией, чтение идёт без блокировок */
+    private static volatile BlockCodec[] codecs = new BlockCodec[256];
+
+    static {
+        register(NONE);
+        register(DEFLATE);
+        register(LZ4);
+    }
+
+    private BlockCodecs() {
+    }
+
+    /**
+     * Регистрирует кодек для чтения блоков с его идентификатором. Повторная регистрация заменяет кодек.
+     * @param codec кодек с идентификатором от 1 до 255
+     */
+    public static synchronized void register(BlockCodec codec) {
+        int id = codec.getId();
+        if (id < 0 || id >= codecs.length || (id == NoCompressionCodec.ID && codec != NONE)) {
+            throw new IllegalArgumentException("Invalid block codec id " + id + ": " + codec.getName());
+        }
+        BlockCodec[] updated = codecs.clone();
+        updated[id] = codec;
+        codecs = updated;
+    }
+
+    /**
+     * @param id идентификатор из трейлера блока
+     * @return кодек или null, если такой не зарегистрирован
+     */
+    public static BlockCodec byId(int id) {
+        BlockCodec[] current = codecs;
+        return id >= 0 && id < current.length ? current[id] : null;
+    }
+}
@@ -0,0 +1,92 @@
+package ru.choomandco.diplsm.storage.compression;
+
+import ru.choomandco.diplsm.storage.interfaces.BlockCodec;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Кодек на основе {@link Deflater} из JDK: сжимает сильнее {@link Lz4Codec}, но заметно медленнее.
+ * Подходит для нижних уровней, где лежит основной объём данных и файлы редко переписываются.
+ */
+public class DeflateCodec implements BlockCodec {
+    public static final int ID = 1;
+
+    /** Уровень сжатия Deflater: 1–9 или {@link Deflater#DEFAULT_COMPRESSION} */
+    private final int level;
+
+    public DeflateCodec() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param level уровень сжатия Deflater от 1 (быстрее) до 9 (сильнее)
+     */
+    public DeflateCodec(int level) {
+        this.level = level;
+    }
+
+    @Override
+    public int getId() {
+        return ID;
+    }
+
+    @Override
+    public String getName() {
+        return "deflate";
+    }
+
+    @Override
+    public byte[] compress(byte[] input, int offset, int length) {
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(input, offset, length);
+            deflater.finish();
+            byte[] output = new byte[length + length / 1000 + 64];
+            int size = 0;
+            while (!deflater.finished()) {
+                if (size == output.length) {
+                    output = Arrays.copyOf(output, output.length * 2);
+                }
+                size += deflater.deflate(output, size, output.length - size);
+            }
+            return Arrays.copyOf(output, size);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public byte[] decompress(byte[] input, int offset, int length, int originalLength) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(input, offset, length);
+            byte[] output = new byte[originalLength];
+            int size = 0;
+            while (!inflater.finished()) {
+                // после заполнения буфера проверочное чтение одного байта отличает конец потока от лишних данных
+                int n = size < originalLength
+                        ? inflater.inflate(output, size, originalLength - size)
+                        : inflater.inflate(new byte[1]);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                size += n;
+                if (size > originalLength) {
+                    break;
+                }
+            }
+            if (size != originalLength || !inflater.finished()) {
+                throw new IOException("Corrupted deflate block: expected " + originalLength + " bytes, got " + size);
+            }
+            return output;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted deflate block", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
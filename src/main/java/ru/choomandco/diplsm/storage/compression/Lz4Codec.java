@@ -0,0 +1,185 @@
+package ru.choomandco.diplsm.storage.compression;
+
+import ru.choomandco.diplsm.storage.interfaces.BlockCodec;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Быстрый кодек в формате блоков LZ4 на чистой Java, без внешних зависимостей.
+ * Сжатие жадное: совпадения длиной от 4 байт ищутся по хеш-таблице последних позиций
+ * в окне 64 КБ, как в «быстром» режиме эталонной реализации. Распаковка — простое копирование
+ * литералов и ссылок назад, поэтому она в несколько раз быстрее {@link DeflateCodec}.
+ * <pre>
+ * sequence = [token: литералы(4 бита) | совпадение-4 (4 бита)] [доп. длина литералов] [литералы]
+ *            [offset 2 байта LE] [доп. длина совпадения]
+ * </pre>
+ * Последняя последовательность состоит только из литералов; последние 5 байт всегда литералы.
+ */
+public class Lz4Codec implements BlockCodec {
+    public static final int ID = 2;
+
+    private static final int MIN_MATCH = 4;
+    /** Последние байты входа, которые всегда пишутся литералами */
+    private static final int LAST_LITERALS = 5;
+    /** Совпадение должно начинаться не ближе этого числа байт к концу входа */
+    private static final int MF_LIMIT = 12;
+    private static final int MAX_DISTANCE = 0xFFFF;
+    private static final int HASH_LOG = 12;
+
+    @Override
+    public int getId() {
+        return ID;
+    }
+
+    @Override
+    public String getName() {
+        return "lz4";
+    }
+
+    @Override
+    public byte[] compress(byte[] input, int offset, int length) {
+        byte[] output = new byte[length + length / 255 + 16];
+        int end = offset + length;
+        int anchor = offset;
+        int op = 0;
+
+        if (length > MF_LIMIT) {
+            // позиции хранятся со сдвигом на 1, чтобы 0 означал пустую ячейку
+            int[] table = new int[1 << HASH_LOG];
+            int matchLimit = end - LAST_LITERALS;
+            int mfLimit = end - MF_LIMIT;
+            int ip = offset;
+            while (ip < mfLimit) {
+                int sequence = readInt(input, ip);
+                int h = hash(sequence);
+                int ref = table[h] - 1;
+                table[h] = ip + 1;
+                if (ref < 0 || ip - ref > MAX_DISTANCE || readInt(input, ref) != sequence) {
+                    ip++;
+                    continue;
+                }
+
+                while (ip > anchor && ref > offset && input[ip - 1] == input[ref - 1]) {
+                    ip--;
+                    ref--;
+                }
+                int matchLength = MIN_MATCH;
+                while (ip + matchLength < matchLimit && input[ip + matchLength] == input[ref + matchLength]) {
+                    matchLength++;
+                }
+
+                op = writeSequence(output, op, input, anchor, ip - anchor, ip - ref, matchLength);
+                ip += matchLength;
+                anchor = ip;
+            }
+        }
+
+        op = writeLastLiterals(output, op, input, anchor, end - anchor);
+        return Arrays.copyOf(output, op);
+    }
+
+    @Override
+    public byte[] decompress(byte[] input, int offset, int length, int originalLength) throws IOException {
+        byte[] output = new byte[originalLength];
+        int ip = offset;
+        int end = offset + length;
+        int op = 0;
+        try {
+            while (ip < end) {
+                int token = input[ip++] & 0xFF;
+
+                int literalLength = token >>> 4;
+                if (literalLength == 15) {
+                    int b;
+                    do {
+                        b = input[ip++] & 0xFF;
+                        literalLength += b;
+                    } while (b == 255);
+                }
+                if (literalLength > end - ip || literalLength > originalLength - op) {
+                    throw new IOException("Corrupted LZ4 block: literals out of bounds");
+                }
+                System.arraycopy(input, ip, output, op, literalLength);
+                ip += literalLength;
+                op += literalLength;
+                if (ip == end) {
+                    break;
+                }
+
+                int distance = (input[ip++] & 0xFF) | (input[ip++] & 0xFF) << 8;
+                int matchLength = token & 0x0F;
+                if (matchLength == 15) {
+                    int b;
+                    do {
+                        b = input[ip++] & 0xFF;
+                        matchLength += b;
+                    } while (b == 255);
+                }
+                matchLength += MIN_MATCH;
+                int ref = op - distance;
+                if (distance == 0 || ref < 0 || matchLength > originalLength - op) {
+                    throw new IOException("Corrupted LZ4 block: match out of bounds");
+                }
+                // источник и приёмник могут перекрываться, поэтому копирование побайтовое
+                for (int i = 0; i < matchLength; i++) {
+                    output[op + i] = output[ref + i];
+                }
+                op += matchLength;
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Corrupted LZ4 block: truncated input", e);
+        }
+        if (op != originalLength) {
+            throw new IOException("Corrupted LZ4 block: expected " + originalLength + " bytes, got " + op);
+        }
+        return output;
+    }
+
+    private static int writeSequence(byte[] output, int op, byte[] input, int literalStart, int literalLength,
+                                     int distance, int matchLength) {
+        int tokenPos = op++;
+        int token = Math.min(literalLength, 15) << 4;
+        if (literalLength >= 15) {
+            op = writeLength(output, op, literalLength - 15);
+        }
+        System.arraycopy(input, literalStart, output, op, literalLength);
+        op += literalLength;
+
+        output[op++] = (byte) distance;
+        output[op++] = (byte) (distance >>> 8);
+        int extra = matchLength - MIN_MATCH;
+        token |= Math.min(extra, 15);
+        if (extra >= 15) {
+            op = writeLength(output, op, extra - 15);
+        }
+        output[tokenPos] = (byte) token;
+        return op;
+    }
+
+    private static int writeLastLiterals(byte[] output, int op, byte[] input, int literalStart, int literalLength) {
+        output[op++] = (byte) (Math.min(literalLength, 15) << 4);
+        if (literalLength >= 15) {
+            op = writeLength(output, op, literalLength - 15);
+        }
+        System.arraycopy(input, literalStart, output, op, literalLength);
+        return op + literalLength;
+    }
+
+    private static int writeLength(byte[] output, int op, int length) {
+        while (length >= 255) {
+            output[op++] = (byte) 255;
+            length -= 255;
+        }
+        output[op++] = (byte) length;
+        return op;
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16 | (b[i + 3] & 0xFF) << 24;
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+}
@@ -0,0 +1,36 @@
+package ru.choomandco.diplsm.storage.compression;
+
+import ru.choomandco.diplsm.storage.interfaces.BlockCodec;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Кодек без сжатия: блок хранится как есть.
+ */
+public class NoCompressionCodec implements BlockCodec {
+    public static final int ID = 0;
+
+    @Override
+    public int getId() {
+        return ID;
+    }
+
+    @Override
+    public String getName() {
+        return "none";
+    }
+
+    @Override
+    public byte[] compress(byte[] input, int offset, int length) {
+        return Arrays.copyOfRange(input, offset, offset + length);
+    }
+
+    @Override
+    public byte[] decompress(byte[] input, int offset, int length, int originalLength) throws IOException {
+        if (length != originalLength) {
+            throw new IOException("Uncompressed block length mismatch: " + length + " != " + originalLength);
+        }
+        return Arrays.copyOfRange(input, offset, offset + length);
+    }
+}
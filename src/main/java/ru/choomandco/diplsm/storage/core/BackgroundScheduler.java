@@ -0,0 +1,177 @@
+package ru.choomandco.diplsm.storage.core;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Планировщик фоновых задач хранилища: флашей, компактаций и периодических задач.
+ * <p>
+ * Флаши и компактации выполняются в отдельных пулах, поэтому долгая компактация не задерживает флаш
+ * и очередь замороженных MemTable не растёт из-за неё. Задачи компактации объединяются: пока одна задача
+ * ждёт в очереди, новые не добавляются, потому что ожидающая всё равно увидит свежее состояние уровней.
+ * <p>
+ * При закрытии ожидающие задачи отменяются, периодические задачи останавливаются, а выполняющиеся
+ * доводятся до конца, чтобы на диске не осталось наполовину установленных файлов.
+ * Потоки создаются при первой задаче, поэтому неиспользуемый пул ничего не стоит.
+ */
+public class BackgroundScheduler implements Closeable {
+    /** Пул флашей */
+    private final ThreadPoolExecutor flushPool;
+    /** Пул компактаций */
+    private final ThreadPoolExecutor compactionPool;
+    /** Поток периодических задач */
+    private final ScheduledThreadPoolExecutor timer;
+    /** Ждёт ли в очереди задача компактации */
+    private final AtomicBoolean compactionQueued = new AtomicBoolean();
+    /** Планировщик закрыт, новые задачи не принимаются */
+    private volatile boolean shutdown;
+
+    /**
+     * @param flushThreads количество потоков флаша
+     * @param compactionThreads количество потоков компактации
+     */
+    public BackgroundScheduler(int flushThreads, int compactionThreads) {
+        if (flushThreads < 1 || compactionThreads < 1) {
+            throw new IllegalArgumentException("At least one flush and one compaction thread is required");
+        }
+        flushPool = newPool(flushThreads, "LSM-Flush-");
+        compactionPool = newPool(compactionThreads, "LSM-Compaction-");
+        timer = new ScheduledThreadPoolExecutor(1, daemonThreads("LSM-Timer-"));
+        timer.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    private static ThreadPoolExecutor newPool(int threads, String namePrefix) {
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), daemonThreads(namePrefix));
+    }
+
+    private static ThreadFactory daemonThreads(String namePrefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, namePrefix + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * Ставит флаш в очередь пула флашей.
+     * @param job задача флаша
+     * @return задача, которую можно отменить, пока она не началась; null, если планировщик закрыт
+     */
+    public Future<?> submitFlush(Runnable job) {
+        if (shutdown) {
+            return null;
+        }
+        return flushPool.submit(guarded(job));
+    }
+
+    /**
+     * Ставит компактацию в очередь, если там ещё нет ожидающей задачи компактации.
+     * @param job задача компактации; сама выбирает, что компактировать
+     * @return true, если задача добавлена в очередь
+     */
+    public boolean scheduleCompaction(Runnable job) {
+        if (shutdown || !compactionQueued.compareAndSet(false, true)) {
+            return false;
+        }
+        compactionPool.execute(guarded(() -> {
+            compactionQueued.set(false);
+            job.run();
+        }));
+        return true;
+    }
+
+    /**
+     * Запускает задачу с фиксированной задержкой между окончанием одного запуска и началом следующего.
+     * @param job задача
+     * @param periodMs период в миллисекундах
+     * @return задача, которую можно отменить; null, если планировщик закрыт
+     */
+    public ScheduledFuture<?> schedulePeriodic(Runnable job, long periodMs) {
+        if (shutdown) {
+            return null;
+        }
+        return timer.scheduleWithFixedDelay(guarded(job), periodMs, periodMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return true, если планировщик закрывается и выполняющимся задачам не стоит начинать новую работу
+     */
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    /**
+     * @return сколько флашей ожидает свободного потока
+     */
+    public int getPendingFlushes() {
+        return flushPool.getQueue().size();
+    }
+
+    /**
+     * @return сколько компактаций выполняется прямо сейчас
+     */
+    public int getRunningCompactions() {
+        return compactionPool.getActiveCount();
+    }
+
+    /**
+     * Отменяет ожидающие задачи и ждёт завершения выполняющихся.
+     * Сначала останавливаются периодические задачи и флаши, потом компактации, которые флаши могли запланировать.
+     */
+    @Override
+    public void close() {
+        shutdown = true;
+        timer.shutdown();
+        awaitTermination(timer);
+        cancelQueued(flushPool);
+        awaitTermination(flushPool);
+        cancelQueued(compactionPool);
+        awaitTermination(compactionPool);
+    }
+
+    private static void cancelQueued(ThreadPoolExecutor pool) {
+        pool.shutdown();
+        List<Runnable> queued = new ArrayList<>();
+        pool.getQueue().drainTo(queued);
+        for (Runnable r : queued) {
+            if (r instanceof Future) {
+                ((Future<?>) r).cancel(false);
+            }
+        }
+    }
+
+    private static void awaitTermination(ThreadPoolExecutor pool) {
+        try {
+            // выполняющуюся компактацию не прерываем: прерывание закрыло бы общие каналы входных файлов
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Оборачивает задачу так, чтобы ошибка печаталась, а не терялась в Future и не останавливала периодическую задачу.
+     */
+    private static Runnable guarded(Runnable job) {
+        return () -> {
+            try {
+                job.run();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        };
+    }
+}
@@ -3,39 +3,188 @@ package ru.choomandco.diplsm.storage.core;
 import ru.choomandco.diplsm.storage.sstable.SSTableMetadata;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.zip.CRC32;
 
-class ManifestHandler {
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Журнал MANIFEST — список SSTable-файлов хранилища и их уровней.
+ * <p>
+ * MANIFEST ведётся как журнал изменений {@link VersionEdit}: каждый флаш и каждая компактация дописывают
+ * одну запись и сбрасывают её на диск, не переписывая весь список файлов. Формат записи такой же, как в WAL:
+ * [length (4 байта)][crc32 (4 байта)][payload]. Первая запись каждого файла — снимок всего состояния.
+ * Когда журнал вырастает больше {@code maxManifestFileSize} и вдвое больше своего снимка, состояние
+ * записывается снимком в новый файл {@code MANIFEST-NNNNNN}, и указатель {@code CURRENT} атомарно
+ * переключается на него переименованием. При открытии изменения воспроизводятся поверх снимка,
+ * оборванная последняя запись отбрасывается, после чего начинается новый файл.
+ * <p>
+ * Файл MANIFEST старого формата (текстовый список с общей CRC) читается и переводится в журнал при первом открытии.
+ */
+class ManifestHandler implements Closeable {
+    /** Имя файла-указателя на текущий журнал MANIFEST */
+    static final String CURRENT_FILE = "CURRENT";
+    /** Размер журнала по умолчанию, после которого он может быть свёрнут в снимок */
+    static final long DEFAULT_MAX_MANIFEST_FILE_SIZE = 4L * 1024 * 1024;
+    /** Размер заголовка записи: длина + контрольная сумма */
+    private static final int HEADER_SIZE = 8;
+
     private final Map<String, Integer> fileTiers = new HashMap<>();
+    /** Размер журнала, после которого он может быть свёрнут в снимок */
+    private final long maxManifestFileSize;
+    /** Номер первого сегмента WAL, данные которого ещё не попали в SSTable; 0 — неизвестен */
+    private long logNumber;
+    /** Следующий номер файла; 0 — неизвестен */
+    private long nextFileNumber;
+    /** Номер последней записи; 0 — неизвестен */
+    private long lastSequence;
+    /** Номер текущего файла журнала */
+    private long manifestNumber;
+    /** Путь MANIFEST, к которому относится открытый журнал */
+    private String manifestPath;
+    /** Канал текущего файла журнала или null, если он ещё не открыт */
+    private FileChannel channel;
+    /** Размер текущего файла журнала */
+    private long manifestSize;
+    /** Размер снимка в начале текущего файла журнала */
+    private long snapshotSize;
+
+    public ManifestHandler() {
+        this(DEFAULT_MAX_MANIFEST_FILE_SIZE);
+    }
+
+    /**
+     * @param maxManifestFileSize размер журнала, после которого он может быть свёрнут в снимок
+     */
+    public ManifestHandler(long maxManifestFileSize) {
+        this.maxManifestFileSize = maxManifestFileSize;
+    }
 
     public Map<String, Integer> getFileTiers() {
         return fileTiers;
     }
 
     /**
-     * Метод читает файл MANIFEST. В случае, если файл не существует, метод создает файл и
-     * сканирует существующие папки и файлы и записывает новый файл MANIFEST, если необходимо
+     * @return номер первого сегмента WAL, который нужен для восстановления; 0, если неизвестен
      */
-    public void readManifest(String tablesPath, String manifestPath) {
-        File file = new File(manifestPath);
+    public long getLogNumber() {
+        return logNumber;
+    }
 
-        if (file.exists()) {
+    /**
+     * @return следующий номер файла; 0, если неизвестен
+     */
+    public long getNextFileNumber() {
+        return nextFileNumber;
+    }
+
+    /**
+     * @return номер последней записи, попавшей в SSTable; 0, если неизвестен
+     */
+    public long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Метод читает MANIFEST: воспроизводит журнал, на который указывает CURRENT, или читает файл
+     * старого формата. Если MANIFEST не существует или повреждён, сканирует существующие папки и файлы.
+     * Затем состояние записывается снимком в новый файл журнала.
+     */
+    public void readManifest(String tablesPath, String manifestPath) {
+        if (Files.exists(currentPath(manifestPath))) {
+            if (!replayManifest(manifestPath)) {
+                System.out.println("MANIFEST corrupted or invalid CRC, rebuilding...");
+                resetState();
+                rebuildManifest(tablesPath);
+            }
+        } else if (new File(manifestPath).exists()) {
             if (!loadAndVerifyManifest(manifestPath)) {
                 System.out.println("MANIFEST corrupted or invalid CRC, rebuilding...");
-                rebuildManifest(tablesPath, manifestPath);
+                resetState();
+                rebuildManifest(tablesPath);
             }
         } else {
             System.out.println("No MANIFEST found, rebuilding...");
-            rebuildManifest(tablesPath, manifestPath);
+            rebuildManifest(tablesPath);
         }
+        writeSnapshot(manifestPath);
+    }
+
+    private void resetState() {
+        fileTiers.clear();
+        logNumber = 0;
+        nextFileNumber = 0;
+        lastSequence = 0;
     }
 
     /**
-     * Метод загружает информацию из MANIFEST
+     * Воспроизводит журнал, на который указывает CURRENT. Чтение прекращается на первой оборванной
+     * или повреждённой записи — это хвост, который не успел записаться до падения.
+     * @return false, если журнал не найден или повреждён его снимок
+     */
+    private boolean replayManifest(String manifestPath) {
+        Path logPath;
+        try {
+            String name = new String(Files.readAllBytes(currentPath(manifestPath)), UTF_8).trim();
+            logPath = resolveSibling(manifestPath, name);
+            manifestNumber = Long.parseLong(name.substring(name.lastIndexOf('-') + 1));
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error reading " + CURRENT_FILE + ": " + e.getMessage());
+            return false;
+        }
+        if (!Files.exists(logPath)) {
+            return false;
+        }
+
+        int records = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(logPath)))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                int expectedCrc = in.readInt();
+                if (length < 0) {
+                    System.err.println("Corrupted MANIFEST record length in " + logPath + ", skipping the rest");
+                    break;
+                }
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                if ((int) crc.getValue() != expectedCrc) {
+                    System.err.println("MANIFEST CRC mismatch in " + logPath + ", skipping the rest");
+                    break;
+                }
+                apply(VersionEdit.decode(payload));
+                records++;
+            }
+        } catch (EOFException e) {
+            System.err.println("Truncated MANIFEST record in " + logPath + ", skipping the rest");
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Error reading MANIFEST: " + e.getMessage());
+            return false;
+        }
+        // без снимка в начале журнала состояние восстановить нельзя
+        return records > 0;
+    }
+
+    /**
+     * Метод загружает информацию из MANIFEST старого формата
      */
     private boolean loadAndVerifyManifest(String manifestPath) {
         try (BufferedReader reader = new BufferedReader(new FileReader(manifestPath))) {
@@ -70,15 +219,14 @@ class ManifestHandler {
     }
 
     /**
-     * Переписывает MANIFEST, сканируя каталоги SSTable.
+     * Восстанавливает список файлов, сканируя каталоги SSTable.
      * Он ищет каталоги, представляющие различные уровни (например, T1, T2 и T3),
      * и добавляет все файлы SSTable, найденные в этих каталогах, в манифест.
-     * Затем метод записывает обновленный манифест в SSTABLE_MANIFEST_FILE.
      *
      * Этот метод вызывается, когда файл манифеста отсутствует или его необходимо перестроить
      * из существующих файлов SSTable.
      */
-    private void rebuildManifest(String tablesPath, String manifestPath) {
+    private void rebuildManifest(String tablesPath) {
         File baseDir = new File(tablesPath);
 
         File[] tierDirs = baseDir.listFiles(File::isDirectory);
@@ -95,44 +243,156 @@ class ManifestHandler {
                 }
             }
         }
-
-        writeManifest(manifestPath);
     }
 
     /**
-     * Записывает текущее состояние уровней файла в SSTABLE_MANIFEST_FILE.
-     * Метод перебирает карту fileLevels и записывает имя каждого файла SSTable
-     * вместе с его соответствующим уровнем в файле манифеста.
-     * Файл манифеста полностью перезаписывается обновленным содержимым.
+     * Записывает текущее состояние снимком в новый файл журнала, сбрасывает его на диск и атомарно
+     * переключает на него CURRENT. Только после этого удаляются прежний журнал и MANIFEST старого формата,
+     * поэтому при сбое на любом шаге CURRENT указывает на целый журнал.
      *
-     * Этот метод обычно вызывается, когда необходимо записать структуру файла или
-     * когда необходимо сгенерировать манифест с нуля.
-     *
-     * @throws RuntimeException если при записи файла манифеста произошла ошибка ввода-вывода
+     * @throws RuntimeException если при записи журнала произошла ошибка ввода-вывода
      */
-    private void writeManifest(String manifestPath) {
-        List<String> entries = new ArrayList<>();
+    private void writeSnapshot(String manifestPath) {
+        VersionEdit snapshot = new VersionEdit();
         for (Map.Entry<String, Integer> entry : fileTiers.entrySet()) {
-            entries.add("T" + entry.getValue() + " " + entry.getKey());
+            snapshot.addFile(entry.getKey(), entry.getValue());
         }
-
-        CRC32 crc = new CRC32();
-        for (String entry : entries) {
-            crc.update(entry.getBytes());
+        if (logNumber > 0) {
+            snapshot.setLogNumber(logNumber);
+        }
+        if (nextFileNumber > 0) {
+            snapshot.setNextFileNumber(nextFileNumber);
+        }
+        if (lastSequence > 0) {
+            snapshot.setLastSequence(lastSequence);
         }
 
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(manifestPath))) {
-            writer.write("#CRC=" + crc.getValue());
-            writer.newLine();
-            for (String entry : entries) {
-                writer.write(entry);
-                writer.newLine();
+        long newNumber = manifestNumber + 1;
+        String newName = logFileName(manifestPath, newNumber);
+        Path newLog = resolveSibling(manifestPath, newName);
+        FileChannel newChannel = null;
+        try {
+            Files.createDirectories(newLog.toAbsolutePath().getParent());
+            newChannel = FileChannel.open(newLog, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            long size = append(newChannel, snapshot);
+            newChannel.force(true);
+
+            Path tmp = resolveSibling(manifestPath, CURRENT_FILE + ".tmp");
+            try (FileChannel current = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                current.write(ByteBuffer.wrap((newName + "\n").getBytes(UTF_8)));
+                current.force(true);
+            }
+            Files.move(tmp, currentPath(manifestPath), StandardCopyOption.ATOMIC_MOVE);
+
+            // прежний журнал — открытый или воспроизведённый при чтении MANIFEST
+            String oldBase = this.manifestPath != null ? this.manifestPath : manifestPath;
+            closeChannel();
+            if (manifestNumber > 0) {
+                Files.deleteIfExists(resolveSibling(oldBase, logFileName(oldBase, manifestNumber)));
             }
+            Files.deleteIfExists(Paths.get(manifestPath));
+
+            channel = newChannel;
+            this.manifestPath = manifestPath;
+            manifestNumber = newNumber;
+            manifestSize = size;
+            snapshotSize = size;
         } catch (IOException e) {
+            if (newChannel != null && newChannel != channel) {
+                try {
+                    newChannel.close();
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
             throw new RuntimeException("Error writing MANIFEST", e);
         }
     }
 
+    /**
+     * Записывает изменение в журнал и применяет его к списку файлов. Запись сбрасывается на диск
+     * до возврата, поэтому после сбоя изменение либо восстановится целиком, либо будет отброшено.
+     * Если журнал ещё не открыт или вырос слишком большим, состояние вместе с изменением записывается снимком.
+     * @param edit изменение набора файлов
+     * @param manifestPath путь до файла манифеста
+     */
+    public synchronized void logAndApply(VersionEdit edit, String manifestPath) {
+        apply(edit);
+        if (channel == null || !manifestPath.equals(this.manifestPath)) {
+            writeSnapshot(manifestPath);
+            return;
+        }
+        try {
+            manifestSize += append(channel, edit);
+            channel.force(false);
+        } catch (IOException e) {
+            throw new RuntimeException("Error writing MANIFEST", e);
+        }
+        if (manifestSize > maxManifestFileSize && manifestSize > 2 * snapshotSize) {
+            writeSnapshot(manifestPath);
+        }
+    }
+
+    private void apply(VersionEdit edit) {
+        edit.applyTo(fileTiers);
+        logNumber = Math.max(logNumber, edit.getLogNumber());
+        nextFileNumber = Math.max(nextFileNumber, edit.getNextFileNumber());
+        lastSequence = Math.max(lastSequence, edit.getLastSequence());
+    }
+
+    /**
+     * Дописывает изменение в канал одной записью с длиной и контрольной суммой.
+     * @return размер записи в байтах
+     */
+    private static long append(FileChannel channel, VersionEdit edit) throws IOException {
+        byte[] payload = edit.encode();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        buffer.putInt(payload.length);
+        buffer.putInt((int) crc.getValue());
+        buffer.put(payload);
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        return HEADER_SIZE + payload.length;
+    }
+
+    private static Path currentPath(String manifestPath) {
+        return resolveSibling(manifestPath, CURRENT_FILE);
+    }
+
+    private static Path resolveSibling(String manifestPath, String name) {
+        return Paths.get(manifestPath).resolveSibling(name);
+    }
+
+    private static String logFileName(String manifestPath, long number) {
+        return String.format("%s-%06d", Paths.get(manifestPath).getFileName(), number);
+    }
+
+    private void closeChannel() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Закрывает файл журнала; все записи уже сброшены на диск.
+     */
+    @Override
+    public synchronized void close() {
+        try {
+            closeChannel();
+        } catch (IOException e) {
+            throw new RuntimeException("Error closing MANIFEST", e);
+        }
+    }
+
     /**
      * Обновление уровня файла внутри манифеста
      * @param filename название файла
@@ -140,20 +400,33 @@ class ManifestHandler {
      * @param manifestPath путь до файла манифеста
      */
     public void updateFileTier(String filename, int newTier, String manifestPath) {
-        fileTiers.put(filename, newTier);
-        writeManifest(manifestPath);
+        logAndApply(new VersionEdit().addFile(filename, newTier), manifestPath);
     }
 
     public void addNewFile(String filename, int tier, String manifestPath) {
-        fileTiers.put(filename, tier);
-        writeManifest(manifestPath);
+        logAndApply(new VersionEdit().addFile(filename, tier), manifestPath);
     }
 
+    /**
+     * Обновление манифеста после компактации
+     * @param listToDelete удалённые файлы
+     * @param newFile результат компактации; null, если после удаления маркеров данных не осталось
+     * @param manifestPath путь до файла манифеста
+     */
     public void postCompactationRebuild(List<SSTableMetadata> listToDelete, SSTableMetadata newFile, String manifestPath) {
-        fileTiers.put(newFile.getFilename(), newFile.getTier());
-        for (SSTableMetadata meta : listToDelete) {
-            fileTiers.remove(meta.getFilename());
-        }
-        writeManifest(manifestPath);
+        postCompactationRebuild(listToDelete,
+                newFile == null ? Collections.<SSTableMetadata>emptyList() : Collections.singletonList(newFile),
+                manifestPath);
+    }
+
+    /**
+     * Обновление манифеста после компактации, результат которой разбит на несколько файлов
+     * @param listToDelete удалённые файлы
+     * @param newFiles результаты компактации
+     * @param manifestPath путь до файла манифеста
+     */
+    public void postCompactationRebuild(List<SSTableMetadata> listToDelete, List<SSTableMetadata> newFiles,
+                                        String manifestPath) {
+        logAndApply(VersionEdit.replace(listToDelete, newFiles), manifestPath);
     }
 }
@@ -0,0 +1,95 @@
+package ru.choomandco.diplsm.storage.core;
+
+import ru.choomandco.diplsm.storage.interfaces.MemoryTable;
+import ru.choomandco.diplsm.storage.memtable.ImmutableMemTable;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Снимок хранилища на момент записи с номером {@link #getSequence()}: чтения и диапазонные чтения по снимку
+ * видят только записи с номерами не больше него, сколько бы записей, флашей и компактаций ни прошло после.
+ * <p>
+ * Снимок ничего не копирует. Он держит ссылки на MemTable, существовавшие в момент его создания, и на
+ * {@link Version} с тогдашним набором SSTable: компактация может заменить эти файлы, но удалены с диска
+ * они будут только после освобождения снимка. Более поздние записи в ту же MemTable снимок отфильтровывает
+ * по номеру, а MemTable хранит перезаписанные версии ключей, пока их видит хотя бы один снимок.
+ * Поэтому долгоживущий снимок удерживает память и место на диске — его нужно закрыть после использования.
+ */
+public final class Snapshot implements Closeable {
+    /** Список живых снимков, из которого снимок убирается при освобождении */
+    private final SnapshotList owner;
+    /** Номер последней записи, видимой снимку */
+    private final long sequence;
+    /** Активная MemTable на момент снимка */
+    private final MemoryTable memTable;
+    /** Замороженные MemTable на момент снимка; первой идёт самая новая */
+    private final List<ImmutableMemTable> immutableMemTables;
+    /** Набор SSTable на момент снимка; снимок держит на него одну ссылку */
+    private final Version version;
+    /** Освобождён ли снимок */
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    /**
+     * @param owner список живых снимков, в котором снимок уже учтён
+     * @param sequence номер последней записи, видимой снимку
+     * @param memTable активная MemTable
+     * @param immutableMemTables замороженные MemTable от новых к старым
+     * @param version взятая для снимка версия набора файлов
+     */
+    Snapshot(SnapshotList owner, long sequence, MemoryTable memTable,
+             List<ImmutableMemTable> immutableMemTables, Version version) {
+        this.owner = owner;
+        this.sequence = sequence;
+        this.memTable = memTable;
+        this.immutableMemTables = Collections.unmodifiableList(immutableMemTables);
+        this.version = version;
+    }
+
+    /**
+     * @return номер последней записи, видимой снимку
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    MemoryTable getMemTable() {
+        return memTable;
+    }
+
+    List<ImmutableMemTable> getImmutableMemTables() {
+        return immutableMemTables;
+    }
+
+    /**
+     * Берёт дополнительную ссылку на версию снимка для одного чтения, чтобы диапазонное чтение
+     * оставалось корректным, даже если снимок закроют раньше итератора.
+     * @return версия, которую нужно отпустить через {@link Version#unref()}
+     * @throws IllegalStateException если снимок уже освобождён
+     */
+    Version acquireVersion() {
+        if (released.get() || !version.tryRef()) {
+            throw new IllegalStateException("Snapshot " + sequence + " is already released");
+        }
+        return version;
+    }
+
+    public boolean isReleased() {
+        return released.get();
+    }
+
+    /**
+     * Освобождает снимок: MemTable перестают хранить нужные только ему версии ключей,
+     * а файлы, заменённые компактацией, удаляются, когда их больше не читает ни одна версия.
+     * Повторный вызов ничего не делает.
+     */
+    @Override
+    public void close() {
+        if (released.compareAndSet(false, true)) {
+            owner.remove(sequence);
+            version.unref();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package ru.choomandco.diplsm.storage.core;
+
+import java.util.TreeMap;
+
+/**
+ * Живые снимки хранилища, учтённые по номерам последней видимой записи.
+ * MemTable спрашивает у списка номер самого старого снимка, чтобы решить, какие прежние версии ключей
+ * ещё нужно хранить; без снимков прежние версии отбрасываются сразу.
+ */
+public class SnapshotList {
+    /** Количество живых снимков с каждым номером */
+    private final TreeMap<Long, Integer> sequences = new TreeMap<>();
+    /** Номер самого старого живого снимка или {@link Long#MAX_VALUE}; читается писателями без блокировки */
+    private volatile long oldestSequence = Long.MAX_VALUE;
+    /** Количество живых снимков */
+    private int size;
+
+    /**
+     * Учитывает новый снимок.
+     * @param sequence номер последней записи, видимой снимку
+     */
+    synchronized void add(long sequence) {
+        sequences.merge(sequence, 1, Integer::sum);
+        size++;
+        oldestSequence = sequences.firstKey();
+    }
+
+    /**
+     * Убирает освобождённый снимок.
+     * @param sequence номер последней записи, видимой снимку
+     */
+    synchronized void remove(long sequence) {
+        Integer count = sequences.get(sequence);
+        if (count == null) {
+            throw new IllegalStateException("Snapshot " + sequence + " is not registered");
+        }
+        if (count == 1) {
+            sequences.remove(sequence);
+        } else {
+            sequences.put(sequence, count - 1);
+        }
+        size--;
+        oldestSequence = sequences.isEmpty() ? Long.MAX_VALUE : sequences.firstKey();
+    }
+
+    /**
+     * @return номер самого старого живого снимка или {@link Long#MAX_VALUE}, если снимков нет
+     */
+    public long getOldestSequence() {
+        return oldestSequence;
+    }
+
+    /**
+     * @return количество живых снимков
+     */
+    public synchronized int size() {
+        return size;
+    }
+}
@@ -1,52 +1,126 @@
 package ru.choomandco.diplsm.storage.core;
 
+import ru.choomandco.diplsm.storage.bloomfilter.BloomFilter;
 import ru.choomandco.diplsm.storage.compengine.CompactationEngine;
+import ru.choomandco.diplsm.storage.compengine.CompactionPlan;
+import ru.choomandco.diplsm.storage.compengine.FifoCompactionStrategy;
+import ru.choomandco.diplsm.storage.compengine.LeveledCompactionStrategy;
+import ru.choomandco.diplsm.storage.compengine.SizeTieredCompactionStrategy;
+import ru.choomandco.diplsm.storage.compengine.TimeWindowCompactionStrategy;
+import ru.choomandco.diplsm.storage.entry.ValueEntry;
 import ru.choomandco.diplsm.storage.interfaces.CompEngine;
+import ru.choomandco.diplsm.storage.interfaces.CompactionStrategy;
 import ru.choomandco.diplsm.storage.interfaces.DipLSMStorage;
 import ru.choomandco.diplsm.storage.interfaces.MemoryTable;
 import ru.choomandco.diplsm.storage.interfaces.SortedStringTable;
+import ru.choomandco.diplsm.storage.interfaces.TableWriter;
+import ru.choomandco.diplsm.storage.iterator.EntryIterator;
+import ru.choomandco.diplsm.storage.iterator.MergingIterator;
+import ru.choomandco.diplsm.storage.iterator.ScanIterator;
+import ru.choomandco.diplsm.storage.memtable.ImmutableMemTable;
 import ru.choomandco.diplsm.storage.memtable.MemTable;
+import ru.choomandco.diplsm.storage.ratelimit.IoPriority;
+import ru.choomandco.diplsm.storage.ratelimit.RateLimiter;
+import ru.choomandco.diplsm.storage.sstable.BlockCache;
+import ru.choomandco.diplsm.storage.sstable.BlockSSTable;
 import ru.choomandco.diplsm.storage.sstable.SSTable;
 import ru.choomandco.diplsm.storage.sstable.SSTableMetadata;
+import ru.choomandco.diplsm.storage.sstable.TableFormat;
+import ru.choomandco.diplsm.storage.wal.WalRecord;
+import ru.choomandco.diplsm.storage.wal.WriteAheadLog;
 
 import java.io.*;
+import java.nio.file.FileSystemException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.stream.Collectors;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Основной класс реализации LSM-хранилища.
  * Отвечает за работу с MemTable, SSTable, а также управление флашами, компактацией и метаданными.
  */
-public class StorageCore implements DipLSMStorage {
+public class StorageCore implements DipLSMStorage, Closeable {
     /** Путь к директории, где хранятся SSTable-файлы */
     protected final String SSTABLE_FOLDER = "./data/lsm/tables/";
-    /** Путь к файлу MANIFEST, содержащему информацию об уровнях хранения SSTable-файлов */
+    /** Путь к MANIFEST, содержащему информацию об уровнях хранения SSTable-файлов; рядом лежат его журналы и CURRENT */
     protected final String MANIFEST_PATH = "./data/lsm/MANIFEST";
+    /** Путь к директории с сегментами журнала упреждающей записи */
+    protected final String WAL_FOLDER = "./data/lsm/wal/";
     /** Нулевой уровень в иерархии уровней LSM */
     protected final int LEVEL_ZERO = 0;
     /** Общее количество уровней в LSM */
-    protected final int NUM_OF_LEVELS = 5;
+    protected final int NUM_OF_LEVELS;
     /** Счётчик файлов, используемый для генерации уникальных имён SSTable */
     protected final AtomicLong FILE_COUNTER = new AtomicLong();
+    /** Порядковый номер последней записи; каждая запись и каждое удаление получают следующий номер */
+    protected final AtomicLong lastSequence = new AtomicLong();
     /** Порог количества SSTable-файлов на уровень, после которого запускается компактация */
     protected int tierThreshold;
+    /** Переносить ли файлы на следующий уровень без перезаписи, если они ни с чем там не пересекаются */
+    protected boolean allowTrivialMove;
+    /** Максимальный размер MemTable в байтах */
+    protected long memTableMaxSize;
+    /** Период принудительного флаша непустой MemTable; 0 отключает его */
+    protected long flushIntervalMs;
+    /** Сколько замороженных MemTable может ожидать флаша, прежде чем запись будет приостановлена */
+    protected int maxImmutableMemTables;
 
-    /** MemTable — структура в памяти для временного хранения данных */
-    protected MemoryTable memoryTable;
+    /** Активная MemTable — структура в памяти, принимающая новые записи */
+    protected volatile MemoryTable memoryTable;
+    /** Замороженные MemTable, ожидающие записи на диск; первой идёт самая новая */
+    protected final Deque<ImmutableMemTable> immutableMemTables = new ConcurrentLinkedDeque<>();
     /** Объект для работы с MANIFEST-файлом */
     protected ManifestHandler manifestHandler;
     /** Движок компактации SSTable-файлов */
     protected CompEngine compactationEngine;
-    /** Метаданные всех SSTable-файлов, отсортированные по уровням */
+    /** Пул потоков подкомпактаций или null, если компактация выполняется в одном потоке */
+    protected ExecutorService compactionExecutor;
+    /** Политика, выбирающая файлы для компактации */
+    protected CompactionStrategy compactionStrategy;
+    /** Выполняющиеся компактации; новая запускается, только если не конфликтует ни с одной из них */
+    protected final List<CompactionPlan> runningCompactions = new ArrayList<>();
+    /** Планировщик фоновых задач: периодического флаша, а в {@link StorageCoreAsync} — флашей и компактаций */
+    protected BackgroundScheduler scheduler;
+    /** Замедляет и останавливает запись, когда флаши и компактации отстают */
+    protected WriteController writeController;
+    /** Ограничитель скорости записи флашей и компактаций или null */
+    protected RateLimiter rateLimiter;
+    /** Целевая задержка чтения для автонастройки ограничителя в наносекундах */
+    protected long targetReadLatencyNanos;
+    /** Сглаженная задержка чтения в наносекундах; считается только при автонастройке ограничителя */
+    protected volatile long readLatencyNanos;
+    /** Ошибка флаша, после которой хранилище перестаёт принимать записи; null, пока флаши проходят успешно */
+    protected volatile RuntimeException backgroundError;
+    /**
+     * Метаданные всех SSTable-файлов, отсортированные по уровням, — рабочая копия для флашей и компактаций.
+     * Изменения метаданных вместе с MANIFEST и выбор компактаций выполняются под блокировкой этого объекта;
+     * после каждого изменения публикуется новая {@link Version}, по которой идут чтения
+     */
     protected Map<Integer, TreeSet<SSTableMetadata>> metadataMap;
+    /** Опубликованные версии набора файлов; файлы удаляются, когда их не читает ни одна версия */
+    protected VersionSet versions;
+    /** Журнал упреждающей записи, защищающий содержимое MemTable от потери при падении */
+    protected WriteAheadLog writeAheadLog;
+    /**
+     * Блокировка MemTable: записи берут её на чтение (запись в журнал + вставка в MemTable),
+     * заморозка MemTable при флаше — на запись, чтобы сегмент журнала и снимок MemTable совпадали
+     */
+    protected final ReadWriteLock memTableLock = new ReentrantReadWriteLock();
+    /** Живые снимки; MemTable хранят перезаписанные версии ключей, пока их видит хотя бы один снимок */
+    protected final SnapshotList snapshots = new SnapshotList();
     /**
      * Объект для взаимодействия с файлами SSTable
      */
-    SortedStringTable table = new SSTable();
+    SortedStringTable table;
 
     /**
      * Конструктор по умолчанию.
@@ -65,75 +139,369 @@ public class StorageCore implements DipLSMStorage {
     }
 
     /**
-     * Основной конструктор, инициализирует хранилище, директории, читает MANIFEST и восстанавливает метаданные.
+     * Конструктор с размером MemTable и порогом компактации.
      * @param memTableMaxSize максимальный размер MemTable
      * @param sstableTierThreshlod порог количества файлов на уровень до компактации
      */
     public StorageCore(Long memTableMaxSize, int sstableTierThreshlod) {
-        tierThreshold = sstableTierThreshlod;
+        this(new StorageOptions()
+                .setMemTableMaxSize(memTableMaxSize)
+                .setTierThreshold(sstableTierThreshlod));
+    }
+
+    /**
+     * Основной конструктор, инициализирует хранилище, директории, читает MANIFEST и восстанавливает метаданные
+     * и номер последней записи, после чего воспроизводит журнал упреждающей записи в MemTable.
+     * @param options настройки хранилища
+     */
+    public StorageCore(StorageOptions options) {
+        tierThreshold = options.getTierThreshold();
+        NUM_OF_LEVELS = options.getNumLevels();
+        allowTrivialMove = options.isAllowTrivialMove();
+        memTableMaxSize = options.getMemTableMaxSize();
+        flushIntervalMs = options.getFlushIntervalMs();
+        maxImmutableMemTables = options.getMaxImmutableMemTables();
+        table = createTable(options);
 
         generateTableFolder();
 
-        memoryTable = new MemTable(memTableMaxSize);
+        memoryTable = newMemTable();
 
-        manifestHandler = new ManifestHandler();
+        manifestHandler = new ManifestHandler(options.getMaxManifestFileSize());
         manifestHandler.readManifest(SSTABLE_FOLDER, MANIFEST_PATH);
+        FILE_COUNTER.set(Math.max(0, manifestHandler.getNextFileNumber() - 1));
 
         metadataMap = new ConcurrentSkipListMap<>();
         for (int lvl = 0; lvl < NUM_OF_LEVELS; lvl++) {
             this.metadataMap.put(lvl, new TreeSet<>());
         }
 
+        // номера из файлов учитываются на случай, если MANIFEST был перестроен по каталогу таблиц
+        lastSequence.set(manifestHandler.getLastSequence());
         for (Map.Entry<String, Integer> entry : manifestHandler.getFileTiers().entrySet()) {
             SSTableMetadata meta = null;
             try {
-                meta = new SSTableMetadata(entry.getKey(), entry.getValue(), table.readWholeIntoMap(entry.getKey()).keySet());
+                meta = table.readMetadata(entry.getKey(), entry.getValue());
+                table.openFile(entry.getKey());
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
-            metadataMap.get(entry.getValue()).add(meta);
+            // файлы глубже настроенного количества уровней остаются доступны для чтения
+            metadataMap.computeIfAbsent(entry.getValue(), k -> new TreeSet<>()).add(meta);
+            lastSequence.set(Math.max(lastSequence.get(), meta.getMaxSequence()));
+        }
+        versions = new VersionSet(table, metadataMap);
+
+        if (options.getMaxSubcompactions() > 1) {
+            compactionExecutor = createCompactionExecutor(options.getMaxSubcompactions());
+        }
+        rateLimiter = createRateLimiter(options);
+        targetReadLatencyNanos = TimeUnit.MICROSECONDS.toNanos(options.getTargetReadLatencyMicros());
+        compactationEngine = new CompactationEngine(table, compactionExecutor, options.getMaxSubcompactions(),
+                rateLimiter, false);
+        compactionStrategy = createCompactionStrategy(options);
+        scheduler = new BackgroundScheduler(options.getFlushThreads(), options.getCompactionThreads());
+        writeController = new WriteController(options);
+
+        checkForCompactation(LEVEL_ZERO);
+
+        writeAheadLog = new WriteAheadLog(WAL_FOLDER, options.getWalSyncMode(), options.getWalSyncIntervalMs(),
+                manifestHandler.getLogNumber());
+        recoverFromWal();
+        updateWriteStallCondition();
+
+        startFlushTimer();
+        startRateLimiterTuning();
+    }
+
+    /**
+     * Создаёт объект для работы с SSTable-файлами в выбранном формате.
+     * @param options настройки хранилища
+     * @return таблица, общая для чтения, флаша и компактации
+     */
+    private static SortedStringTable createTable(StorageOptions options) {
+        if (options.getTableFormat() == TableFormat.BLOCK) {
+            BlockCache blockCache = options.getBlockCache() != null
+                    ? options.getBlockCache()
+                    : new BlockCache(options.getBlockCacheBytes());
+            return new BlockSSTable(options.getBlockSize(), options.getBloomBitsPerKey(), blockCache,
+                    options.getIndexCacheBytes(), options.isSyncSSTables(), options.getBlockCodecs());
+        }
+        return new SSTable(options.getBloomBitsPerKey(), options.getIndexCacheBytes(), options.getReadMode(),
+                options.isSyncSSTables());
+    }
+
+    /**
+     * Создаёт ограничитель скорости фоновой записи, если он задан в настройках.
+     * @param options настройки хранилища
+     * @return общий ограничитель из настроек, новый по заданному бюджету или null
+     */
+    private static RateLimiter createRateLimiter(StorageOptions options) {
+        if (options.getRateLimiter() != null) {
+            return options.getRateLimiter();
+        }
+        if (options.getRateLimitBytesPerSecond() > 0) {
+            return new RateLimiter(options.getRateLimitBytesPerSecond(), options.isRateLimiterAutoTune());
+        }
+        return null;
+    }
+
+    /**
+     * Создаёт пул потоков для параллельных подкомпактаций.
+     * @param threads количество потоков
+     */
+    private static ExecutorService createCompactionExecutor(int threads) {
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "LSM-Subcompaction-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Создаёт политику компактации: собственную из настроек или встроенную выбранного вида.
+     * @param options настройки хранилища
+     * @return политика компактации
+     */
+    protected CompactionStrategy createCompactionStrategy(StorageOptions options) {
+        if (options.getCompactionStrategy() != null) {
+            return options.getCompactionStrategy();
+        }
+        switch (options.getCompactionStyle()) {
+            case LEVELED:
+                return new LeveledCompactionStrategy(NUM_OF_LEVELS, tierThreshold, options.getTargetFileSize(),
+                        options.getLevelBaseBytes(), options.getLevelSizeMultiplier());
+            case FIFO:
+                return new FifoCompactionStrategy(options.getFifoMaxTableFilesSize());
+            case TIME_WINDOW:
+                return new TimeWindowCompactionStrategy(options.getTimeWindowMs(), tierThreshold);
+            default:
+                return new SizeTieredCompactionStrategy(NUM_OF_LEVELS, tierThreshold);
         }
+    }
 
-        compactationEngine = new CompactationEngine();
+    /**
+     * Создаёт пустую MemTable, которая хранит перезаписанные версии ключей, пока их видят живые снимки.
+     * @return новая активная MemTable
+     */
+    protected MemoryTable newMemTable() {
+        return new MemTable(memTableMaxSize, snapshots::getOldestSequence);
+    }
 
-        for (Map.Entry<Integer, TreeSet<SSTableMetadata>> entry : metadataMap.entrySet()) {
-            while (entry.getValue().size() >= tierThreshold) {
-                compactationInitialization(entry.getKey());
+    /**
+     * Воспроизводит в MemTable записи, оставшиеся в журнале с прошлого запуска.
+     * Записи получают те же номера, что и до падения: параллельные писатели могли попасть в журнал
+     * не в порядке номеров, и MemTable сама оставит запись с большим номером. Последний номер поднимается
+     * до наибольшего встреченного. Записи журнала старого формата без номеров получают новые номера в порядке журнала.
+     * Если MemTable после этого переполнена, флаш произойдёт на первой же записи.
+     */
+    protected void recoverFromWal() {
+        writeAheadLog.replay(record -> {
+            if (record.getType() == WalRecord.TYPE_BATCH) {
+                memoryTable.putAll(toEntries(record.getRecords(),
+                        recoveredSequence(record.getSequence(), record.getRecords().size())));
+            } else if (record.getType() == WalRecord.TYPE_PUT) {
+                memoryTable.put(record.getKey(), record.getValue(), recoveredSequence(record.getSequence(), 1));
+            } else if (record.getType() == WalRecord.TYPE_DELETE) {
+                memoryTable.delete(record.getKey(), recoveredSequence(record.getSequence(), 1));
             }
+        });
+    }
+
+    /**
+     * Возвращает номер первой восстановленной операции и поднимает последний выданный номер до номера последней.
+     * @param stored номер из журнала; 0 — журнал старого формата, операции получают следующие свободные номера
+     * @param count количество операций в записи журнала
+     */
+    private long recoveredSequence(long stored, int count) {
+        if (stored == 0) {
+            return lastSequence.getAndAdd(count) + 1;
         }
-        startFlushTimer();
+        lastSequence.accumulateAndGet(stored + count - 1, Math::max);
+        return stored;
     }
 
     /**
-     * Записывает ключ-значение в память. Если MemTable переполнена — вызывается flush.
+     * Превращает операции пакета в записи MemTable с номерами подряд, начиная с {@code firstSequence}.
+     * @param records вставки и удаления в порядке применения
+     * @param firstSequence номер первой операции
+     * @return ключи и записи с назначенными номерами
+     */
+    private static List<Map.Entry<String, ValueEntry>> toEntries(List<WalRecord> records, long firstSequence) {
+        List<Map.Entry<String, ValueEntry>> entries = new ArrayList<>(records.size());
+        long sequence = firstSequence;
+        for (WalRecord record : records) {
+            ValueEntry entry = record.getType() == WalRecord.TYPE_DELETE
+                    ? ValueEntry.tombstone(sequence++) : ValueEntry.of(record.getValue(), sequence++);
+            entries.add(new AbstractMap.SimpleImmutableEntry<>(record.getKey(), entry));
+        }
+        return entries;
+    }
+
+    /**
+     * Записывает ключ-значение сначала в журнал, затем в память. Если MemTable переполнена — вызывается flush.
+     * Если фоновая работа отстаёт, запись предварительно задерживается {@link WriteController};
+     * после неудачного флаша запись отклоняется до переоткрытия хранилища.
+     * Номер записи выдаётся под блокировкой MemTable, поэтому снимок не может появиться между выдачей номера и вставкой.
      */
     @Override
     public void put(String key, String value) {
-        if (memoryTable.put(key, value)) {
+        writeController.delayWrite(key.length() + value.length());
+        checkBackgroundError();
+        boolean full;
+        memTableLock.readLock().lock();
+        try {
+            long sequence = lastSequence.incrementAndGet();
+            writeAheadLog.append(WalRecord.put(key, value, sequence));
+            full = memoryTable.put(key, value, sequence);
+        } finally {
+            memTableLock.readLock().unlock();
+        }
+
+        if (full) {
             flush(LEVEL_ZERO);
         }
     }
 
     /**
-     * Получает значение по ключу, сначала из памяти, затем из SSTable-файлов.
+     * Атомарно применяет пакет вставок и удалений: пакет пишется в журнал одной записью,
+     * получает непрерывный диапазон номеров и вставляется в MemTable за один проход.
+     * Номера выдаются под той же блокировкой, что и у одиночных записей, поэтому любой снимок
+     * видит либо весь пакет, либо ничего из него; после падения пакет тоже восстанавливается целиком или не восстанавливается.
+     * Задержка {@link WriteController} и проверка переполнения MemTable выполняются один раз на пакет.
+     * @param batch пакет операций; пустой пакет игнорируется
+     */
+    @Override
+    public void write(WriteBatch batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<WalRecord> records = batch.getRecords();
+        writeController.delayWrite(batch.getApproximateSize());
+        checkBackgroundError();
+        boolean full;
+        memTableLock.readLock().lock();
+        try {
+            long firstSequence = lastSequence.getAndAdd(records.size()) + 1;
+            writeAheadLog.append(WalRecord.batch(records, firstSequence));
+            full = memoryTable.putAll(toEntries(records, firstSequence));
+        } finally {
+            memTableLock.readLock().unlock();
+        }
+
+        if (full) {
+            flush(LEVEL_ZERO);
+        }
+    }
+
+    /**
+     * Получает значение по ключу: сначала из активной MemTable, затем из замороженных (от новых к старым),
+     * затем из SSTable-файлов текущей {@link Version}. Файлы, в диапазон [minKey, maxKey] которых ключ не попадает,
+     * пропускаются без проверки фильтра Блума, поэтому на уровнях без пересечений читается не больше одного файла.
+     * Поиск останавливается на первой найденной версии ключа; если это маркер удаления, ключ считается удалённым.
+     * Чтение не берёт блокировок: взятая версия не даёт удалить свои файлы, пока поиск не закончится.
      */
     @Override
     public String get(String key) {
-        String memTableValue = memoryTable.get(key);
-        if (memTableValue != null) {
-            return memTableValue;
+        if (rateLimiter == null || !rateLimiter.isAutoTuned()) {
+            ValueEntry entry = findEntry(key);
+            return entry == null ? null : entry.getValue();
         }
+        long start = System.nanoTime();
+        ValueEntry entry = findEntry(key);
+        long latency = System.nanoTime() - start;
+        // экспоненциальное сглаживание с весом 1/16; гонка между читателями теряет лишь отдельные замеры
+        readLatencyNanos += (latency - readLatencyNanos) >> 4;
+        return entry == null ? null : entry.getValue();
+    }
+
+    /**
+     * Получает значение по ключу на момент снимка: записи, сделанные после {@link #getSnapshot()}, не видны.
+     * @param key ключ
+     * @param snapshot живой снимок этого хранилища
+     * @return значение или null, если на момент снимка ключа не было или он был удалён
+     * @throws IllegalStateException если снимок уже освобождён
+     */
+    public String get(String key, Snapshot snapshot) {
+        ValueEntry entry = findEntry(key, snapshot);
+        return entry == null ? null : entry.getValue();
+    }
 
+    /**
+     * Ищет самую свежую версию ключа во всех MemTable и SSTable.
+     * @param key ключ
+     * @return запись (возможно, маркер удаления) или null, если ключ нигде не встречается
+     */
+    protected ValueEntry findEntry(String key) {
+        ValueEntry entry = findInMemTables(key, memoryTable, immutableMemTables, Long.MAX_VALUE);
+        if (entry != null) {
+            return entry;
+        }
+        Version version = versions.acquire();
         try {
-            for (int level : new TreeSet<>(metadataMap.keySet())) {
-                TreeSet<SSTableMetadata> levelSet = metadataMap.get(level);
-                if (levelSet == null) continue;
+            return findInVersion(key, version);
+        } finally {
+            version.unref();
+        }
+    }
 
+    /**
+     * Ищет версию ключа, видимую снимку: в MemTable снимка с фильтрацией по номеру, затем в его наборе файлов.
+     * @param key ключ
+     * @param snapshot живой снимок
+     * @return запись (возможно, маркер удаления) или null, если на момент снимка ключ нигде не встречался
+     */
+    protected ValueEntry findEntry(String key, Snapshot snapshot) {
+        ValueEntry entry = findInMemTables(key, snapshot.getMemTable(), snapshot.getImmutableMemTables(),
+                snapshot.getSequence());
+        if (entry != null) {
+            return entry;
+        }
+        Version version = snapshot.acquireVersion();
+        try {
+            return findInVersion(key, version);
+        } finally {
+            version.unref();
+        }
+    }
+
+    /**
+     * Ищет ключ в активной MemTable, затем в замороженных от новых к старым.
+     * @param sequence номер последней видимой записи; {@link Long#MAX_VALUE} — самая новая версия
+     * @return запись или null, если ключ в MemTable не встречается
+     */
+    private static ValueEntry findInMemTables(String key, MemoryTable active, Iterable<ImmutableMemTable> frozen,
+                                              long sequence) {
+        ValueEntry memTableEntry = active.getEntry(key, sequence);
+        if (memTableEntry != null) {
+            return memTableEntry;
+        }
+
+        for (ImmutableMemTable immutable : frozen) {
+            ValueEntry immutableEntry = immutable.getEntry(key, sequence);
+            if (immutableEntry != null) {
+                return immutableEntry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Ищет ключ в файлах версии: уровни сверху вниз, файлы уровня от новых к старым.
+     * @return запись или null, если ключа нет ни в одном файле
+     */
+    private ValueEntry findInVersion(String key, Version version) {
+        try {
+            for (NavigableSet<SSTableMetadata> levelSet : version.getLevels().values()) {
                 Iterator<SSTableMetadata> descendingIterator = levelSet.descendingIterator();
                 while (descendingIterator.hasNext()) {
                     SSTableMetadata meta = descendingIterator.next();
-                    if (meta.getBloomFilter().mightContain(key)) {
-                        return table.getByKey(key, meta.getFilename());
+                    if (meta.coversKey(key) && meta.getBloomFilter().mightContain(key)) {
+                        ValueEntry entry = table.getEntryByKey(key, meta.getFilename());
+                        if (entry != null) {
+                            return entry;
+                        }
                     }
                 }
             }
@@ -142,81 +510,891 @@ public class StorageCore implements DipLSMStorage {
             return null;
         }
 
-
         return null;
     }
 
     /**
-     * Удаляет ключ из памяти (логическое удаление).
+     * Получает значения нескольких ключей за один проход по хранилищу. Ключи сортируются; сначала как можно больше
+     * из них находится в MemTable, затем оставшиеся ищутся по уровням сверху вниз. Для каждого файла из ключей,
+     * попавших в его диапазон, фильтр Блума отсеивает отсутствующие по заранее посчитанным хешам, а остальные
+     * ищутся одним вызовом {@link SortedStringTable#getEntriesByKeys}, который открывает файл и читает каждый блок один раз.
+     * @param keys ключи; повторы допустимы
+     * @return значения найденных ключей; отсутствующих и удалённых ключей в результате нет
+     */
+    @Override
+    public Map<String, String> multiGet(Collection<String> keys) {
+        Map<String, String> result = new HashMap<>();
+        List<String> pending = multiGetFromMemTables(keys, memoryTable, immutableMemTables, Long.MAX_VALUE, result);
+        if (pending.isEmpty()) {
+            return result;
+        }
+        Version version = versions.acquire();
+        try {
+            multiGetFromVersion(pending, version, result);
+        } finally {
+            version.unref();
+        }
+        return result;
+    }
+
+    /**
+     * Получает значения нескольких ключей на момент снимка.
+     * @param keys ключи; повторы допустимы
+     * @param snapshot живой снимок этого хранилища
+     * @return значения ключей, существовавших на момент снимка
+     * @throws IllegalStateException если снимок уже освобождён
+     */
+    public Map<String, String> multiGet(Collection<String> keys, Snapshot snapshot) {
+        Map<String, String> result = new HashMap<>();
+        List<String> pending = multiGetFromMemTables(keys, snapshot.getMemTable(), snapshot.getImmutableMemTables(),
+                snapshot.getSequence(), result);
+        if (pending.isEmpty()) {
+            return result;
+        }
+        Version version = snapshot.acquireVersion();
+        try {
+            multiGetFromVersion(pending, version, result);
+        } finally {
+            version.unref();
+        }
+        return result;
+    }
+
+    /**
+     * Сортирует ключи и ищет каждый в MemTable.
+     * @param sequence номер последней видимой записи; {@link Long#MAX_VALUE} — самые новые версии
+     * @param result сюда добавляются значения найденных ключей
+     * @return отсортированные ключи без повторов, которых в MemTable нет
+     */
+    private static List<String> multiGetFromMemTables(Collection<String> keys, MemoryTable active,
+                                                      Iterable<ImmutableMemTable> frozen, long sequence,
+                                                      Map<String, String> result) {
+        List<String> pending = new ArrayList<>(keys.size());
+        for (String key : new TreeSet<>(keys)) {
+            ValueEntry entry = findInMemTables(key, active, frozen, sequence);
+            if (entry == null) {
+                pending.add(key);
+            } else if (!entry.isTombstone()) {
+                result.put(key, entry.getValue());
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * Ищет ключи в файлах версии: уровни сверху вниз, файлы уровня от новых к старым.
+     * Ключ, найденный в файле (в том числе маркером удаления), дальше не ищется.
+     * @param pending отсортированные ключи без повторов
+     * @param result сюда добавляются значения найденных ключей
+     */
+    private void multiGetFromVersion(List<String> pending, Version version, Map<String, String> result) {
+        long[] hashes = new long[pending.size()];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = BloomFilter.hash(pending.get(i));
+        }
+        boolean[] resolved = new boolean[pending.size()];
+        int remaining = pending.size();
+        List<String> candidates = new ArrayList<>();
+
+        for (NavigableSet<SSTableMetadata> levelSet : version.getLevels().values()) {
+            Iterator<SSTableMetadata> descendingIterator = levelSet.descendingIterator();
+            while (remaining > 0 && descendingIterator.hasNext()) {
+                SSTableMetadata meta = descendingIterator.next();
+                // ключи отсортированы, поэтому попавшие в диапазон файла идут подряд
+                int from = lowerBound(pending, meta.getMinKey());
+                int to = upperBound(pending, meta.getMaxKey());
+                candidates.clear();
+                for (int i = from; i < to; i++) {
+                    if (!resolved[i] && meta.getBloomFilter().mightContainHash(hashes[i])) {
+                        candidates.add(pending.get(i));
+                    }
+                }
+                if (candidates.isEmpty()) {
+                    continue;
+                }
+
+                Map<String, ValueEntry> found = table.getEntriesByKeys(candidates, meta.getFilename());
+                for (int i = from; i < to && !found.isEmpty(); i++) {
+                    ValueEntry entry = resolved[i] ? null : found.remove(pending.get(i));
+                    if (entry != null) {
+                        resolved[i] = true;
+                        remaining--;
+                        if (!entry.isTombstone()) {
+                            result.put(pending.get(i), entry.getValue());
+                        }
+                    }
+                }
+            }
+            if (remaining == 0) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return индекс первого ключа списка, не меньшего заданного
+     */
+    private static int lowerBound(List<String> sortedKeys, String key) {
+        int index = Collections.binarySearch(sortedKeys, key);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /**
+     * @return индекс первого ключа списка, большего заданного
+     */
+    private static int upperBound(List<String> sortedKeys, String key) {
+        int index = Collections.binarySearch(sortedKeys, key);
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    /**
+     * Возвращает итератор по ключам из диапазона [fromKey, toKey) в порядке возрастания.
+     * Итератор нужно закрыть после использования.
+     * @param fromKey нижняя граница (включительно) или null
+     * @param toKey верхняя граница (не включительно) или null
+     */
+    @Override
+    public ScanIterator scan(String fromKey, String toKey) {
+        return scan(fromKey, toKey, false);
+    }
+
+    /**
+     * Возвращает итератор по ключам из диапазона [fromKey, toKey) в порядке убывания.
+     * @param fromKey нижняя граница (включительно) или null
+     * @param toKey верхняя граница (не включительно) или null
+     */
+    @Override
+    public ScanIterator reverseScan(String fromKey, String toKey) {
+        return scan(fromKey, toKey, true);
+    }
+
+    /**
+     * Возвращает итератор по всем ключам с заданным префиксом в порядке возрастания.
+     * @param prefix префикс ключей
+     */
+    @Override
+    public ScanIterator prefixScan(String prefix) {
+        return scan(prefix, ScanIterator.prefixUpperBound(prefix), false);
+    }
+
+    /**
+     * Строит итератор диапазонного чтения: k-путевое слияние активной MemTable, замороженных MemTable
+     * и всех SSTable, чей диапазон [minKey, maxKey] пересекается с запрошенным.
+     * Из нескольких версий ключа побеждает самая свежая; удалённые ключи скрываются. SSTable читаются
+     * с диска потоково из файлов текущей {@link Version}, которая остаётся взятой до закрытия итератора,
+     * поэтому компактация не удалит файлы из-под него.
+     * @param fromKey нижняя граница (включительно) или null
+     * @param toKey верхняя граница (не включительно) или null
+     * @param reverse обходить в порядке убывания ключей
+     * @return итератор, который нужно закрыть после использования
+     */
+    public ScanIterator scan(String fromKey, String toKey, boolean reverse) {
+        if (fromKey != null && toKey != null && fromKey.compareTo(toKey) >= 0) {
+            return new ScanIterator(new MergingIterator(new ArrayList<>(), reverse));
+        }
+        MemoryTable active = memoryTable;
+        // замороженные MemTable копируются раньше, чем берётся версия: таблица, чей флаш завершится между ними,
+        // попадёт в обход дважды (в копии списка и в версии), но не потеряется
+        List<ImmutableMemTable> frozen = new ArrayList<>(immutableMemTables);
+        return scan(fromKey, toKey, reverse, active, frozen, versions.acquire(), Long.MAX_VALUE);
+    }
+
+    /**
+     * Возвращает итератор по ключам из диапазона [fromKey, toKey) на момент снимка в порядке возрастания.
+     * @param fromKey нижняя граница (включительно) или null
+     * @param toKey верхняя граница (не включительно) или null
+     * @param snapshot живой снимок этого хранилища
+     * @return итератор, который нужно закрыть после использования
+     */
+    public ScanIterator scan(String fromKey, String toKey, Snapshot snapshot) {
+        return scan(fromKey, toKey, false, snapshot);
+    }
+
+    /**
+     * Строит итератор диапазонного чтения по снимку: видны только записи с номерами не больше номера снимка.
+     * Итератор не блокирует запись и не копирует данные — он читает MemTable и файлы, которые держит снимок,
+     * и берёт собственную ссылку на версию, поэтому остаётся корректным, даже если снимок закрыт раньше него.
+     * @param fromKey нижняя граница (включительно) или null
+     * @param toKey верхняя граница (не включительно) или null
+     * @param reverse обходить в порядке убывания ключей
+     * @param snapshot живой снимок этого хранилища
+     * @return итератор, который нужно закрыть после использования
+     * @throws IllegalStateException если снимок уже освобождён
+     */
+    public ScanIterator scan(String fromKey, String toKey, boolean reverse, Snapshot snapshot) {
+        if (fromKey != null && toKey != null && fromKey.compareTo(toKey) >= 0) {
+            return new ScanIterator(new MergingIterator(new ArrayList<>(), reverse));
+        }
+        return scan(fromKey, toKey, reverse, snapshot.getMemTable(), snapshot.getImmutableMemTables(),
+                snapshot.acquireVersion(), snapshot.getSequence());
+    }
+
+    /**
+     * Собирает источники слияния: MemTable от новых к старым, затем файлы версии.
+     * @param version взятая версия; отпускается при закрытии итератора или при ошибке
+     * @param sequence номер последней видимой записи; {@link Long#MAX_VALUE} — самые новые версии
+     */
+    private ScanIterator scan(String fromKey, String toKey, boolean reverse, MemoryTable active,
+                              Iterable<ImmutableMemTable> frozen, Version version, long sequence) {
+        List<EntryIterator> sources = new ArrayList<>();
+        try {
+            sources.add(EntryIterator.wrap(active.iterator(fromKey, toKey, reverse, sequence)));
+            for (ImmutableMemTable immutable : frozen) {
+                sources.add(EntryIterator.wrap(immutable.iterator(fromKey, toKey, reverse, sequence)));
+            }
+            for (NavigableSet<SSTableMetadata> levelFiles : version.getLevels().values()) {
+                for (SSTableMetadata meta : levelFiles.descendingSet()) {
+                    if (!meta.overlaps(fromKey, toKey)) {
+                        continue;
+                    }
+                    sources.add(table.iterator(meta.getFilename(), fromKey, toKey, reverse));
+                }
+            }
+        } catch (RuntimeException e) {
+            for (EntryIterator source : sources) {
+                source.close();
+            }
+            version.unref();
+            throw e;
+        }
+
+        return new ScanIterator(new MergingIterator(sources, reverse), version::unref);
+    }
+
+    /**
+     * Создаёт снимок хранилища на момент последней записи. Чтения {@link #get(String, Snapshot)} и
+     * {@link #scan(String, String, boolean, Snapshot)} по снимку видят неизменное состояние, пока идут
+     * новые записи, флаши и компактации. Снимок создаётся под блокировкой MemTable на запись, поэтому
+     * ни одна запись не может оказаться выданной, но ещё не вставленной; само создание ничего не копирует.
+     * @return снимок, который нужно закрыть после использования
+     */
+    public Snapshot getSnapshot() {
+        memTableLock.writeLock().lock();
+        try {
+            long sequence = lastSequence.get();
+            // замороженные MemTable берутся раньше версии: таблица, чей флаш завершится между ними,
+            // попадёт в снимок дважды, но не потеряется
+            List<ImmutableMemTable> frozen = new ArrayList<>(immutableMemTables);
+            Version version = versions.acquire();
+            snapshots.add(sequence);
+            return new Snapshot(snapshots, sequence, memoryTable, frozen, version);
+        } finally {
+            memTableLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Удаляет ключ: в журнал и MemTable записывается маркер удаления, который при флаше попадает в SSTable
+     * и скрывает старые версии ключа, пока компактация не уберёт их окончательно.
      */
     @Override
     public void delete(String key) {
-        memoryTable.delete(key);
+        writeController.delayWrite(key.length());
+        checkBackgroundError();
+        boolean full;
+        memTableLock.readLock().lock();
+        try {
+            long sequence = lastSequence.incrementAndGet();
+            writeAheadLog.append(WalRecord.delete(key, sequence));
+            full = memoryTable.delete(key, sequence);
+        } finally {
+            memTableLock.readLock().unlock();
+        }
+
+        if (full) {
+            flush(LEVEL_ZERO);
+        }
     }
 
     /**
-     * Выполняет флаш MemTable на диск в SSTable-файл, после чего очищает MemTable.
-     * Также обновляет MANIFEST и метаданные.
+     * Выполняет флаш MemTable на диск в SSTable-файл.
+     * MemTable замораживается, новые записи сразу идут в свежую MemTable, а замороженная
+     * остаётся видимой для чтений, пока её SSTable не попадёт в MANIFEST и метаданные.
      */
     @Override
     public synchronized void flush(int tier) {
-        if (memoryTable.isEmpty()) {
+        ImmutableMemTable frozen = freezeMemTable();
+        if (frozen == null) {
             return;
         }
 
-        Map<String, String> snapshot = new TreeMap<>(memoryTable.getMap());
+        flushImmutableMemTable(frozen, tier);
+
+        checkForCompactation(LEVEL_ZERO);
+    }
+
+    /**
+     * Замораживает активную MemTable и подменяет её новой пустой.
+     * Если замороженных таблиц уже максимальное количество, ждёт, пока одна из них будет записана на диск.
+     * @return замороженная таблица или null, если MemTable пуста
+     */
+    protected ImmutableMemTable freezeMemTable() {
+        awaitImmutableSlot();
+
+        ImmutableMemTable frozen;
+        memTableLock.writeLock().lock();
+        try {
+            if (memoryTable.isEmpty()) {
+                return null;
+            }
+            long walSegment = writeAheadLog.rotate();
+            frozen = new ImmutableMemTable(memoryTable, walSegment);
+            immutableMemTables.addFirst(frozen);
+            memoryTable = newMemTable();
+        } finally {
+            memTableLock.writeLock().unlock();
+        }
+        updateWriteStallCondition();
+        return frozen;
+    }
+
+    /**
+     * Записывает замороженную MemTable на диск и убирает её из очереди флашей.
+     * Если запись не удалась, таблица остаётся в очереди и видна чтениям, её сегменты журнала не удаляются,
+     * а хранилище переходит в состояние ошибки: потоки, ждущие своей очереди флаша или места для заморозки,
+     * просыпаются с исключением, новые записи отклоняются. Данные таблицы восстанавливаются из журнала при переоткрытии.
+     * @param frozen замороженная таблица
+     * @param tier уровень, на который выполняется flush
+     */
+    protected void flushImmutableMemTable(ImmutableMemTable frozen, int tier) {
+        try {
+            writeSnapshot(frozen, tier);
+        } catch (RuntimeException e) {
+            synchronized (immutableMemTables) {
+                if (backgroundError == null) {
+                    backgroundError = e;
+                }
+                immutableMemTables.notifyAll();
+            }
+            // остановленные писатели иначе ждали бы очереди флашей, которая больше не уменьшится
+            writeController.close();
+            throw e;
+        }
+        releaseImmutableMemTable(frozen);
+    }
+
+    /**
+     * Бросает исключение, если один из флашей не удался.
+     */
+    protected void checkBackgroundError() {
+        RuntimeException error = backgroundError;
+        if (error != null) {
+            throw new RuntimeException("MemTable flush failed, storage must be reopened to replay the WAL", error);
+        }
+    }
+
+    /**
+     * @return ошибка флаша, остановившая запись, или null
+     */
+    public RuntimeException getBackgroundError() {
+        return backgroundError;
+    }
+
+    /**
+     * Убирает замороженную MemTable после того, как её SSTable установлен,
+     * удаляет ставшие ненужными сегменты журнала и будит ожидающих писателей.
+     * @param frozen записанная на диск таблица
+     */
+    protected void releaseImmutableMemTable(ImmutableMemTable frozen) {
+        immutableMemTables.remove(frozen);
+        writeAheadLog.deleteSegmentsUpTo(frozen.getWalSegmentId());
+        updateWriteStallCondition();
+        synchronized (immutableMemTables) {
+            immutableMemTables.notifyAll();
+        }
+    }
+
+    /**
+     * Блокирует поток, пока количество замороженных MemTable не станет меньше допустимого.
+     * Если флаш не удался, место уже не освободится, поэтому ожидание прерывается исключением.
+     */
+    protected void awaitImmutableSlot() {
+        synchronized (immutableMemTables) {
+            checkBackgroundError();
+            if (immutableMemTables.size() < maxImmutableMemTables) {
+                return;
+            }
+            long start = System.nanoTime();
+            while (immutableMemTables.size() >= maxImmutableMemTables) {
+                checkBackgroundError();
+                try {
+                    immutableMemTables.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while waiting for MemTable flush", e);
+                }
+            }
+            writeController.recordStop(WriteStallCause.MEMTABLE_LIMIT, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Сообщает {@link WriteController} текущее отставание фоновой работы: количество замороженных MemTable,
+     * файлов L0 и оценку объёма компактаций. Вызывается после каждой заморозки, флаша и компактации.
+     */
+    protected void updateWriteStallCondition() {
+        int level0Files = 0;
+        long pendingCompactionBytes;
+        synchronized (metadataMap) {
+            if (compactionStrategy.drainsLevelZero()) {
+                TreeSet<SSTableMetadata> levelZero = metadataMap.get(LEVEL_ZERO);
+                level0Files = levelZero == null ? 0 : levelZero.size();
+            }
+            pendingCompactionBytes = compactionStrategy.estimatePendingCompactionBytes(metadataMap);
+        }
+        writeController.update(immutableMemTables.size(), level0Files, pendingCompactionBytes);
+    }
+
+    /**
+     * @return контроллер записи с текущим состоянием и статистикой задержек
+     */
+    public WriteController getWriteController() {
+        return writeController;
+    }
+
+    /**
+     * @return набор версий с текущим набором файлов и статистикой отложенных удалений
+     */
+    public VersionSet getVersionSet() {
+        return versions;
+    }
 
+    /**
+     * @return живые снимки хранилища
+     */
+    public SnapshotList getSnapshotList() {
+        return snapshots;
+    }
+
+    /**
+     * @return порядковый номер последней записи
+     */
+    public long getLastSequence() {
+        return lastSequence.get();
+    }
+
+    /**
+     * @return ограничитель скорости фоновой записи или null, если он не задан
+     */
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * @return сглаженная задержка чтения в наносекундах; считается только при автонастройке ограничителя
+     */
+    public long getReadLatencyNanos() {
+        return readLatencyNanos;
+    }
+
+    /**
+     * Записывает замороженную MemTable в новый SSTable-файл и регистрирует его в MANIFEST и метаданных.
+     * Несколько таблиц могут записываться параллельно, но устанавливаются строго в порядке заморозки:
+     * окончательное имя, по которому файл упорядочивается среди файлов уровня, выдаётся только при установке.
+     * @param frozen замороженная таблица
+     * @param tier уровень, на который выполняется flush
+     */
+    protected void writeSnapshot(ImmutableMemTable frozen, int tier) {
         String tempFilename = generateNewTableName(tier) + ".temp";
-        table.writeTableFromMap(snapshot, tempFilename);
+        TableWriter writer = table.newWriter(tempFilename, tier);
+        if (rateLimiter != null) {
+            writer = rateLimiter.wrap(writer, IoPriority.HIGH);
+        }
+        SSTableMetadata written;
+        try {
+            for (Map.Entry<String, ValueEntry> e : frozen.getMap().entrySet()) {
+                writer.add(e.getKey(), e.getValue());
+            }
+            written = writer.finish(tier);
+        } catch (RuntimeException e) {
+            writer.abort();
+            throw e;
+        }
 
-        String finalFilename = tempFilename.replace(".temp", "");
         File tempFile = new File(tempFilename);
+        try {
+            awaitFlushTurn(frozen);
+        } catch (RuntimeException e) {
+            tempFile.delete();
+            throw e;
+        }
+        String finalFilename = generateNewTableName(tier);
         File finalFile = new File(finalFilename);
         if (!tempFile.renameTo(finalFile)) {
+            tempFile.delete();
             throw new RuntimeException("Failed to rename SSTable temp file to final file");
         }
 
-        manifestHandler.addNewFile(finalFilename, tier, MANIFEST_PATH);
-        SSTableMetadata meta = new SSTableMetadata(finalFilename, tier, snapshot.keySet());
-        metadataMap.computeIfAbsent(tier, k -> new TreeSet<>()).add(meta);
-
-        memoryTable.emptyMap();
+        SSTableMetadata meta;
+        try {
+            // метаданные уже собраны writer'ом; с диска читаются только для пустой таблицы
+            meta = written == null
+                    ? table.readMetadata(finalFilename, tier)
+                    : new SSTableMetadata(finalFilename, tier, written.getMinKey(), written.getMaxKey(),
+                            written.getBloomFilter(), written.getEntryCount(), written.getFileSize());
+            if (written != null) {
+                meta.setMaxSequence(written.getMaxSequence());
+            }
+            table.openFile(finalFilename);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        synchronized (metadataMap) {
+            // сегменты журнала этой и более ранних MemTable больше не нужны для восстановления
+            logAndApply(new VersionEdit().addFile(finalFilename, tier).setLogNumber(frozen.getWalSegmentId() + 1));
+            metadataMap.computeIfAbsent(tier, k -> new TreeSet<>()).add(meta);
+            installVersion();
+        }
+    }
 
-        checkForCompactation(LEVEL_ZERO);
+    /**
+     * Ждёт, пока будут установлены все MemTable, замороженные раньше этой.
+     * Иначе более старые данные получили бы более новое имя и перекрыли бы свежие,
+     * а сегменты журнала удалялись бы раньше, чем их данные попали на диск.
+     * Если флаш более старой таблицы не удался, очередь не сдвинется, и ожидание прерывается исключением.
+     * @param frozen замороженная таблица, ожидающая установки
+     */
+    protected void awaitFlushTurn(ImmutableMemTable frozen) {
+        synchronized (immutableMemTables) {
+            while (immutableMemTables.peekLast() != frozen) {
+                checkBackgroundError();
+                try {
+                    immutableMemTables.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while waiting for earlier MemTable flush", e);
+                }
+            }
+        }
     }
 
     /**
-     * Проверяет, нужно ли запускать компактацию на указанном уровне.
-     * При необходимости вызывает рекурсивно на следующий уровень.
+     * Выполняет компактации, которые выбирает политика, пока она считает их нужными.
+     * @param level уровень, на котором появились новые файлы; какой уровень компактировать, решает политика
      */
     protected void checkForCompactation(int level) {
-        if (metadataMap.get(level).size() >= tierThreshold) {
-            compactationInitialization(level);
-            if (level + 1 != NUM_OF_LEVELS) {
-                checkForCompactation(level + 1);
-            }
+        CompactionPlan plan;
+        while (!scheduler.isShutdown() && (plan = reserveCompaction()) != null) {
+            executeCompaction(plan);
         }
     }
 
     /**
-     * Инициализирует компактацию файлов на заданном уровне.
+     * Инициализирует компактацию файлов на заданном уровне, даже если политика ещё не считает её нужной.
      * Компактация перемещает данные на следующий уровень и обновляет метаданные.
      */
     protected void compactationInitialization(int level) {
-        List<SSTableMetadata> listToCompact = metadataMap.get(level).stream()
-                                    //.sorted()
-                                    .limit(tierThreshold)
-                                    .collect(Collectors.toList());
+        CompactionPlan plan;
+        synchronized (metadataMap) {
+            plan = reserve(compactionStrategy.pickCompaction(compactionCandidates(), level));
+        }
+        if (plan != null) {
+            executeCompaction(plan);
+        }
+    }
+
+    /**
+     * Выбирает очередную компактацию и регистрирует её как выполняющуюся.
+     * @return план или null, если компактация не нужна либо выбранный план конфликтует с выполняющимся;
+     * в последнем случае его выберет поток, завершивший конфликтующую компактацию
+     */
+    protected CompactionPlan reserveCompaction() {
+        synchronized (metadataMap) {
+            return reserve(compactionStrategy.pickCompaction(compactionCandidates()));
+        }
+    }
+
+    /**
+     * Возвращает файлы, из которых политика может выбирать компактацию: все, кроме входных файлов
+     * выполняющихся компактаций. Они остаются в метаданных и доступны для чтения до конца своей компактации.
+     * Вызывается под блокировкой метаданных.
+     * @return метаданные по уровням без занятых файлов
+     */
+    protected Map<Integer, TreeSet<SSTableMetadata>> compactionCandidates() {
+        if (runningCompactions.isEmpty()) {
+            return metadataMap;
+        }
+        Set<SSTableMetadata> busy = new HashSet<>();
+        for (CompactionPlan running : runningCompactions) {
+            busy.addAll(running.getInputs());
+        }
+        Map<Integer, TreeSet<SSTableMetadata>> candidates = new TreeMap<>();
+        for (Map.Entry<Integer, TreeSet<SSTableMetadata>> e : metadataMap.entrySet()) {
+            TreeSet<SSTableMetadata> files = new TreeSet<>(e.getValue());
+            files.removeAll(busy);
+            candidates.put(e.getKey(), files);
+        }
+        return candidates;
+    }
 
-        int targetLevel = (level == NUM_OF_LEVELS - 1) ? level : level + 1;
-        if (listToCompact.isEmpty()) {
+    /**
+     * Записывает изменение набора файлов в журнал MANIFEST вместе со следующим номером файла
+     * и номером последней записи — он не меньше номеров всех записей, уже попавших в SSTable.
+     * Вызывается под блокировкой метаданных.
+     * @param edit изменение
+     */
+    protected void logAndApply(VersionEdit edit) {
+        manifestHandler.logAndApply(edit.setNextFileNumber(FILE_COUNTER.get() + 1)
+                .setLastSequence(lastSequence.get()), MANIFEST_PATH);
+    }
+
+    /**
+     * Публикует текущее состояние метаданных как новую версию для читателей.
+     * Вызывается под блокировкой метаданных после каждого их изменения.
+     */
+    protected void installVersion() {
+        versions.install(metadataMap);
+    }
+
+    private CompactionPlan reserve(CompactionPlan plan) {
+        if (plan == null) {
+            return null;
+        }
+        for (CompactionPlan running : runningCompactions) {
+            if (plan.conflictsWith(running)) {
+                return null;
+            }
+        }
+        runningCompactions.add(plan);
+        return plan;
+    }
+
+    /**
+     * Выполняет зарегистрированную компактацию и снимает её с учёта, даже если она завершилась ошибкой.
+     * @param plan план, полученный из {@link #reserveCompaction()}
+     */
+    protected void executeCompaction(CompactionPlan plan) {
+        try {
+            runCompaction(plan);
+        } finally {
+            synchronized (metadataMap) {
+                runningCompactions.remove(plan);
+            }
+            updateWriteStallCondition();
+        }
+    }
+
+    /**
+     * Выполняет план компактации: сливает входные файлы, подключает результат и обновляет MANIFEST.
+     * Входные файлы остаются в текущей версии, пока выходные не установлены, поэтому чтения во время
+     * компактации их видят; с диска они удаляются, когда их перестанут читать все версии.
+     * Если файлы можно перенести на целевой уровень без слияния, они только переименовываются.
+     * @param plan план, выбранный политикой
+     */
+    protected void runCompaction(CompactionPlan plan) {
+        List<SSTableMetadata> inputs = plan.getInputs();
+        if (plan.isDeletion()) {
+            dropFiles(inputs);
             return;
         }
-        metadataMap.get(level).removeAll(listToCompact);
-        SSTableMetadata newMeta = compactationEngine.compact(new ArrayList<>(listToCompact), generateNewTableName(targetLevel), targetLevel);
-        metadataMap.get(newMeta.getTier()).add(newMeta);
+        int targetLevel = plan.getTargetLevel();
+        boolean move;
+        boolean dropTombstones = false;
+        synchronized (metadataMap) {
+            move = allowTrivialMove && isTrivialMove(plan);
+            if (!move) {
+                dropTombstones = canDropTombstones(inputs, plan.getLevel(), targetLevel);
+            }
+        }
+        if (move) {
+            moveFiles(inputs, targetLevel);
+            return;
+        }
+
+        long writeTime = System.currentTimeMillis();
+        if (plan.isKeepWriteTime()) {
+            writeTime = 0;
+            for (SSTableMetadata meta : inputs) {
+                writeTime = Math.max(writeTime, meta.getWriteTime());
+            }
+        }
+        long outputWriteTime = writeTime;
+        List<SSTableMetadata> outputs = compactationEngine.compact(new ArrayList<>(inputs),
+                () -> generateNewTableName(targetLevel, outputWriteTime), targetLevel, dropTombstones, plan.getMaxOutputFileSize());
+        for (SSTableMetadata newMeta : outputs) {
+            try {
+                table.openFile(newMeta.getFilename());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        synchronized (metadataMap) {
+            for (SSTableMetadata meta : inputs) {
+                metadataMap.get(meta.getTier()).remove(meta);
+            }
+            for (SSTableMetadata newMeta : outputs) {
+                metadataMap.computeIfAbsent(newMeta.getTier(), k -> new TreeSet<>()).add(newMeta);
+            }
+            logAndApply(VersionEdit.replace(inputs, outputs));
+            installVersion();
+        }
+    }
+
+    /**
+     * Проверяет, можно ли выполнить план переносом файлов без перезаписи данных.
+     * Это возможно, когда все входные файлы лежат на исходном уровне, не пересекаются по ключам между собой
+     * и ни с одним файлом уровней до целевого включительно, а на исходном уровне не остаётся более старых
+     * файлов с пересекающимися ключами, которые после переноса оказались бы выше перенесённых данных.
+     * Типичный случай — запись по возрастающим ключам (временные метки, последовательные идентификаторы).
+     * Планы с неограниченным размером результата (size-tiered) сливают файлы ради уменьшения их числа,
+     * поэтому переносом не выполняются.
+     * @param plan план, выбранный политикой
+     * @return true, если данные можно не переписывать
+     */
+    protected boolean isTrivialMove(CompactionPlan plan) {
+        int level = plan.getLevel();
+        int targetLevel = plan.getTargetLevel();
+        List<SSTableMetadata> inputs = plan.getInputs();
+        if (targetLevel <= level || plan.isKeepWriteTime()
+                || plan.getMaxOutputFileSize() == CompactionPlan.UNLIMITED_FILE_SIZE) {
+            return false;
+        }
+
+        List<SSTableMetadata> byKey = new ArrayList<>(inputs);
+        byKey.sort(Comparator.comparing(SSTableMetadata::getMinKey));
+        for (int i = 0; i < byKey.size(); i++) {
+            SSTableMetadata meta = byKey.get(i);
+            if (meta.getTier() != level) {
+                return false;
+            }
+            if (i > 0 && byKey.get(i - 1).getMaxKey().compareTo(meta.getMinKey()) >= 0) {
+                return false;
+            }
+        }
+
+        SSTableMetadata newestInput = Collections.max(inputs);
+        for (SSTableMetadata meta : metadataMap.get(level)) {
+            if (inputs.contains(meta) || meta.compareTo(newestInput) > 0) continue;
+            if (overlapsAny(meta, inputs)) {
+                return false;
+            }
+        }
+        for (int lvl = level + 1; lvl <= targetLevel; lvl++) {
+            TreeSet<SSTableMetadata> levelFiles = metadataMap.get(lvl);
+            if (levelFiles == null) continue;
+            for (SSTableMetadata meta : levelFiles) {
+                if (overlapsAny(meta, inputs)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean overlapsAny(SSTableMetadata meta, List<SSTableMetadata> files) {
+        for (SSTableMetadata file : files) {
+            if (meta.overlapsRange(file.getMinKey(), file.getMaxKey())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Переносит файлы на другой уровень без перезаписи данных: файл получает имя в каталоге уровня
+     * жёсткой ссылкой, MANIFEST и метаданные переключаются на новое имя, а старое имя удаляется,
+     * когда его перестанут читать все версии.
+     * При сбое на любом шаге MANIFEST ссылается на существующий файл. Время создания в имени сохраняется,
+     * поэтому файл остаётся на своём месте в порядке чтения. Если файловая система не поддерживает
+     * жёсткие ссылки, файл копируется.
+     * @param files переносимые файлы
+     * @param targetLevel уровень назначения
+     */
+    protected void moveFiles(List<SSTableMetadata> files, int targetLevel) {
+        List<SSTableMetadata> moved = new ArrayList<>();
+        try {
+            for (SSTableMetadata meta : files) {
+                String newFilename = generateNewTableName(targetLevel, meta.getWriteTime());
+                try {
+                    Files.createLink(Paths.get(newFilename), Paths.get(meta.getFilename()));
+                } catch (UnsupportedOperationException | FileSystemException e) {
+                    Files.copy(Paths.get(meta.getFilename()), Paths.get(newFilename));
+                }
+                SSTableMetadata movedMeta = new SSTableMetadata(newFilename, targetLevel, meta.getMinKey(),
+                        meta.getMaxKey(), meta.getBloomFilter(), meta.getEntryCount(), meta.getFileSize());
+                movedMeta.setMaxSequence(meta.getMaxSequence());
+                moved.add(movedMeta);
+                table.openFile(newFilename);
+            }
+        } catch (IOException e) {
+            for (SSTableMetadata meta : moved) {
+                try {
+                    table.deleteFIle(meta.getFilename());
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
+            throw new RuntimeException("Failed to move SSTables to level " + targetLevel, e);
+        }
 
-        manifestHandler.postCompactationRebuild(listToCompact, newMeta, MANIFEST_PATH);
+        synchronized (metadataMap) {
+            for (SSTableMetadata meta : moved) {
+                metadataMap.computeIfAbsent(targetLevel, k -> new TreeSet<>()).add(meta);
+            }
+            for (SSTableMetadata meta : files) {
+                metadataMap.get(meta.getTier()).remove(meta);
+            }
+            logAndApply(VersionEdit.replace(files, moved));
+            installVersion();
+        }
+    }
+
+    /**
+     * Удаляет файлы вместе с данными: сначала из метаданных и MANIFEST, а с диска — когда их перестанут
+     * читать все версии, чтобы после сбоя в MANIFEST не остались ссылки на удалённые файлы.
+     * @param files удаляемые файлы
+     */
+    protected void dropFiles(List<SSTableMetadata> files) {
+        synchronized (metadataMap) {
+            for (SSTableMetadata meta : files) {
+                metadataMap.get(meta.getTier()).remove(meta);
+            }
+            logAndApply(VersionEdit.replace(files, Collections.<SSTableMetadata>emptyList()));
+            installVersion();
+        }
+    }
+
+    /**
+     * Определяет, можно ли при компактации выбросить маркеры удаления.
+     * Это допустимо, только если вне компактируемых файлов не осталось более старых данных
+     * в том же диапазоне ключей ни на одном уровне от исходного и ниже, иначе удалённые значения «воскреснут».
+     * Входные файлы других выполняющихся компактаций остаются в метаданных до их завершения,
+     * поэтому тоже учитываются.
+     * Вызывается под блокировкой метаданных.
+     * @param inputs компактируемые файлы
+     * @param level уровень, с которого берутся файлы
+     * @param targetLevel уровень, в который пишется результат
+     * @return true, если маркеры удаления можно отбросить
+     */
+    protected boolean canDropTombstones(List<SSTableMetadata> inputs, int level, int targetLevel) {
+        if (inputs.isEmpty()) {
+            return false;
+        }
+
+        String minKey = inputs.get(0).getMinKey();
+        String maxKey = inputs.get(0).getMaxKey();
+        SSTableMetadata newestInput = inputs.get(0);
+        for (SSTableMetadata meta : inputs) {
+            if (meta.getMinKey().compareTo(minKey) < 0) minKey = meta.getMinKey();
+            if (meta.getMaxKey().compareTo(maxKey) > 0) maxKey = meta.getMaxKey();
+            if (meta.compareTo(newestInput) > 0) newestInput = meta;
+        }
+
+        List<SSTableMetadata> candidates = new ArrayList<>();
+        for (TreeSet<SSTableMetadata> files : metadataMap.values()) {
+            candidates.addAll(files);
+        }
+        for (SSTableMetadata meta : candidates) {
+            int lvl = meta.getTier();
+            if (lvl < level || inputs.contains(meta)) continue;
+            // более новые файлы того же уровня старых версий ключей содержать не могут
+            if (lvl == level && meta.compareTo(newestInput) > 0) continue;
+            if (meta.getMinKey().compareTo(maxKey) <= 0 && meta.getMaxKey().compareTo(minKey) >= 0) {
+                return false;
+            }
+        }
+        return true;
     }
 
     //TODO удалить перед релизом
@@ -231,33 +1409,64 @@ public class StorageCore implements DipLSMStorage {
      * Генерирует уникальное имя нового SSTable-файла с указанием уровня хранения.
      */
     protected String generateNewTableName(int tier) {
-        String timestamp = System.currentTimeMillis() + "_" + FILE_COUNTER.incrementAndGet();
+        return generateNewTableName(tier, System.currentTimeMillis());
+    }
+
+    /**
+     * Генерирует уникальное имя нового SSTable-файла с заданным временем создания.
+     * @param tier уровень хранения
+     * @param writeTime время создания в миллисекундах, по нему файлы упорядочиваются от старых к новым
+     */
+    protected String generateNewTableName(int tier, long writeTime) {
+        String timestamp = writeTime + "_" + FILE_COUNTER.incrementAndGet();
         return SSTABLE_FOLDER + "T" + tier + "/sstable_" + timestamp + ".sst";
     }
 
     /**
-     * Запускает таймер для периодического флаша MemTable на диск (каждые 3 минуты).
+     * Запускает периодический флаш непустой MemTable, чтобы редко обновляемые данные не задерживались
+     * в журнале. Период задаётся {@link StorageOptions#setFlushIntervalMs(long)}.
      */
     protected void startFlushTimer() {
-        Thread thread = new Thread(() -> {
-            while (!Thread.currentThread().isInterrupted()) {
-                try {
-                    Thread.sleep(180000); // 3 минуты = 180000
-
-                    if (!memoryTable.isEmpty()) {
-                        flush(LEVEL_ZERO);
-                    }
+        if (flushIntervalMs <= 0) {
+            return;
+        }
+        scheduler.schedulePeriodic(() -> {
+            if (!memoryTable.isEmpty()) {
+                flush(LEVEL_ZERO);
+            }
+        }, flushIntervalMs);
+    }
 
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
+    /**
+     * Запускает периодическую автонастройку ограничителя скорости по долгу компактации и задержке чтений.
+     */
+    protected void startRateLimiterTuning() {
+        if (rateLimiter == null || !rateLimiter.isAutoTuned()) {
+            return;
+        }
+        scheduler.schedulePeriodic(() -> {
+            long pendingCompactionBytes;
+            synchronized (metadataMap) {
+                pendingCompactionBytes = compactionStrategy.estimatePendingCompactionBytes(metadataMap);
             }
-        });
+            rateLimiter.tune(pendingCompactionBytes, readLatencyNanos, targetReadLatencyNanos);
+        }, RateLimiter.TUNE_INTERVAL_MS);
+    }
 
-        thread.setDaemon(true);
-        thread.start();
+    /**
+     * Отпускает писателей, ожидающих снятия остановки записи, и останавливает фоновые задачи: ожидающие флаши и компактации отменяются, выполняющиеся доводятся до конца.
+     * Затем останавливает пул подкомпактаций, закрывает MANIFEST, сбрасывает журнал на диск и закрывает его. Данные MemTable
+     * остаются в журнале и будут восстановлены при следующем запуске.
+     */
+    @Override
+    public void close() {
+        writeController.close();
+        scheduler.close();
+        if (compactionExecutor != null) {
+            compactionExecutor.shutdown();
+        }
+        manifestHandler.close();
+        writeAheadLog.close();
     }
 
     /**
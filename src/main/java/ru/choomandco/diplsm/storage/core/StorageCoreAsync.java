@@ -1,26 +1,15 @@
 package ru.choomandco.diplsm.storage.core;
 
-import ru.choomandco.diplsm.storage.sstable.SSTableMetadata;
-
-import java.io.File;
-import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.stream.Collectors;
+import ru.choomandco.diplsm.storage.compengine.CompactionPlan;
+import ru.choomandco.diplsm.storage.memtable.ImmutableMemTable;
 
 /**
  * Асинхронная реализация LSM-хранилища.
- * Расширяет {@link StorageCore}, выполняя операции flush и компактацию в отдельных потоках с использованием ExecutorService.
+ * Расширяет {@link StorageCore}, выполняя флаши и компактации в фоновых пулах {@link BackgroundScheduler}.
+ * Флаши идут в собственном пуле и не ждут компактаций; компактации, не пересекающиеся по уровням
+ * или диапазонам ключей, выполняются одновременно, если потоков компактации несколько.
  */
 public class StorageCoreAsync extends StorageCore{
-    /** Исполнитель задач, связанных с дисковыми операциями */
-    protected final ExecutorService diskExecutor = Executors.newSingleThreadExecutor(r -> {
-        Thread t = new Thread(r, "LSM-Disk-Worker");
-        t.setDaemon(true);
-        return t;
-    });
 
     /**
      * Конструктор по умолчанию с размером MemTable 4 МБ и порогом компактации 5.
@@ -38,7 +27,7 @@ public class StorageCoreAsync extends StorageCore{
     }
 
     /**
-     * Основной конструктор, вызывает родительский {@link StorageCore}.
+     * Конструктор с размером MemTable и порогом компактации, вызывает родительский {@link StorageCore}.
      * @param memTableMaxSize максимальный размер MemTable
      * @param sstableTierThreshlod порог количества файлов на уровень до компактации
      */
@@ -46,80 +35,55 @@ public class StorageCoreAsync extends StorageCore{
         super(memTableMaxSize, sstableTierThreshlod);
     }
 
+    /**
+     * Основной конструктор, вызывает родительский {@link StorageCore}.
+     * @param options настройки хранилища
+     */
+    public StorageCoreAsync(StorageOptions options) {
+        super(options);
+    }
+
     /**
      * Асинхронно сбрасывает MemTable в SSTable.
-     * Снимок данных делается сразу, а запись и обновление метаданных происходит в фоне.
+     * MemTable замораживается сразу вместе с ротацией журнала и остаётся доступной для чтений,
+     * а запись и обновление метаданных происходит в пуле флашей. Сегменты журнала удаляются
+     * только после того, как новый SSTable попал в MANIFEST.
+     * После закрытия хранилища флаш не выполняется: данные MemTable остаются в журнале, как и при {@link #close()}.
      * @param tier уровень, на который выполняется flush
      */
     @Override
     public synchronized void flush(int tier) {
-        if (memoryTable.isEmpty()) return;
-
-        Map<String,String> snapshot = new TreeMap<>(memoryTable.getMap());
-        String temp = generateNewTableName(tier) + ".temp";
-        String finalName = temp.replace(".temp", "");
-        memoryTable.emptyMap();
-
-        diskExecutor.submit(() -> {
-            //System.out.println("[disk] Starting flush tier=" + tier);
-            try {
-                table.writeTableFromMap(snapshot, temp);
-                if (!new File(temp).renameTo(new File(finalName))) {
-                    throw new RuntimeException("rename failed");
-                }
-
-                manifestHandler.addNewFile(finalName, tier, MANIFEST_PATH);
-                SSTableMetadata meta = new SSTableMetadata(finalName, tier, snapshot.keySet());
-                metadataMap.get(tier).add(meta);
-
-                //System.out.println("[disk] Flush complete, scheduling compaction check");
-                checkForCompactation(LEVEL_ZERO);
-            } catch (Exception ex) {
-                ex.printStackTrace();
-            }
+        if (scheduler.isShutdown()) return;
+        ImmutableMemTable frozen = freezeMemTable();
+        if (frozen == null) return;
+
+        // если хранилище закроется раньше, чем задача попадёт в пул, submitFlush вернёт null; таблица, как и флаши,
+        // отменённые при закрытии, останется в очереди замороженных, а её сегменты журнала — на диске до следующего открытия
+        scheduler.submitFlush(() -> {
+            flushImmutableMemTable(frozen, tier);
+            checkForCompactation(LEVEL_ZERO);
         });
     }
 
     /**
-     * Проверяет, требуется ли компактация, и при необходимости запускает её в фоне.
-     * @param level уровень, для которого проверяется необходимость компактации
+     * Планирует проверку компактации в пуле компактаций и сразу возвращает управление.
+     * Вызывается из пула флашей после каждого флаша.
+     * @param level уровень, на котором появились новые файлы
      */
     @Override
     public void checkForCompactation(int level) {
-        if (metadataMap.get(level).size() >= tierThreshold) {
-            compactationInitialization(level);
-        }
+        scheduler.scheduleCompaction(this::runCompactions);
     }
 
     /**
-     * Выполняет компактацию файлов заданного уровня в следующий уровень.
-     * Запускается асинхронно. При необходимости рекурсивно вызывает компактацию следующего уровня.
-     * @param level уровень, с которого начинается компактация
+     * Выполняет компактации, пока политика их выбирает. Перед каждой компактацией планирует ещё одну проверку,
+     * чтобы свободный поток пула мог взять компактацию, не конфликтующую с этой.
      */
-    @Override
-    public void compactationInitialization(int level) {
-        List<SSTableMetadata> toCompact = metadataMap.get(level).stream()
-                .sorted()
-                .limit(tierThreshold)
-                .collect(Collectors.toList());
-        if (toCompact.isEmpty()) {
-            return;
-        }
-
-        metadataMap.get(level).removeAll(toCompact);
-
-        int nextLevel = Math.min(level + 1, NUM_OF_LEVELS - 1);
-        SSTableMetadata newMeta = compactationEngine.compact(
-                toCompact,
-                generateNewTableName(nextLevel),
-                nextLevel
-        );
-
-        metadataMap.get(newMeta.getTier()).add(newMeta);
-        manifestHandler.postCompactationRebuild(toCompact, newMeta, MANIFEST_PATH);
-
-        if (metadataMap.get(nextLevel).size() >= tierThreshold) {
-            checkForCompactation(nextLevel);
+    private void runCompactions() {
+        CompactionPlan plan;
+        while (!scheduler.isShutdown() && (plan = reserveCompaction()) != null) {
+            scheduler.scheduleCompaction(this::runCompactions);
+            executeCompaction(plan);
         }
     }
 }
@@ -0,0 +1,514 @@
+package ru.choomandco.diplsm.storage.core;
+
+import ru.choomandco.diplsm.storage.bloomfilter.BloomFilter;
+import ru.choomandco.diplsm.storage.compengine.CompactionStyle;
+import ru.choomandco.diplsm.storage.compengine.FifoCompactionStrategy;
+import ru.choomandco.diplsm.storage.compengine.LeveledCompactionStrategy;
+import ru.choomandco.diplsm.storage.compengine.TimeWindowCompactionStrategy;
+import ru.choomandco.diplsm.storage.compression.BlockCodecs;
+import ru.choomandco.diplsm.storage.interfaces.BlockCodec;
+import ru.choomandco.diplsm.storage.interfaces.CompactionStrategy;
+import ru.choomandco.diplsm.storage.ratelimit.RateLimiter;
+import ru.choomandco.diplsm.storage.sstable.BlockCache;
+import ru.choomandco.diplsm.storage.sstable.BlockSSTable;
+import ru.choomandco.diplsm.storage.sstable.ReadMode;
+import ru.choomandco.diplsm.storage.sstable.SSTable;
+import ru.choomandco.diplsm.storage.sstable.TableFormat;
+import ru.choomandco.diplsm.storage.wal.WalSyncMode;
+
+/**
+ * Набор настроек LSM-хранилища.
+ * Все параметры имеют значения по умолчанию, сеттеры возвращают сам объект для цепочечных вызовов.
+ */
+public class StorageOptions {
+    /** Максимальный размер MemTable в байтах */
+    private long memTableMaxSize = 1024L * 1024;
+    /** Порог количества SSTable-файлов на уровень, после которого запускается компактация */
+    private int tierThreshold = 5;
+    /** Общее количество уровней в LSM */
+    private int numLevels = 5;
+    /** Сколько замороженных MemTable может ожидать записи на диск, прежде чем запись будет приостановлена */
+    private int maxImmutableMemTables = 2;
+    /** Режим синхронизации журнала упреждающей записи */
+    private WalSyncMode walSyncMode = WalSyncMode.PERIODIC;
+    /** Интервал фоновой синхронизации журнала для режима {@link WalSyncMode#PERIODIC} */
+    private long walSyncIntervalMs = 100;
+    /** Число бит фильтра Блума на ключ в новых SSTable */
+    private double bloomBitsPerKey = BloomFilter.DEFAULT_BITS_PER_KEY;
+    /** Ограничение памяти под загруженные индексы SSTable, общее для всех файлов */
+    private long indexCacheBytes = SSTable.DEFAULT_INDEX_CACHE_BYTES;
+    /** Синхронизировать ли SSTable с диском после записи: после flush журнал, покрывающий файл, удаляется */
+    private boolean syncSSTables = true;
+    /** Способ чтения файлов {@link TableFormat#FLAT} */
+    private ReadMode readMode = ReadMode.CHANNEL;
+    /** Формат SSTable-файлов */
+    private TableFormat tableFormat = TableFormat.FLAT;
+    /** Целевой размер блока данных для {@link TableFormat#BLOCK} */
+    private int blockSize = BlockSSTable.DEFAULT_BLOCK_SIZE;
+    /** Размер кэша блоков для {@link TableFormat#BLOCK}, если общий кэш не задан */
+    private long blockCacheBytes = BlockSSTable.DEFAULT_BLOCK_CACHE_BYTES;
+    /** Кэш блоков, разделяемый несколькими хранилищами, или null, чтобы создать собственный */
+    private BlockCache blockCache;
+    /** Кодеки сжатия блоков {@link TableFormat#BLOCK} по уровням; глубже последнего используется последний */
+    private BlockCodec[] blockCodecs = {BlockCodecs.NONE};
+    /** Встроенная политика компактации */
+    private CompactionStyle compactionStyle = CompactionStyle.SIZE_TIERED;
+    /** Собственная политика компактации или null, чтобы использовать {@link #compactionStyle} */
+    private CompactionStrategy compactionStrategy;
+    /** Целевой размер файла для {@link CompactionStyle#LEVELED} */
+    private long targetFileSize = LeveledCompactionStrategy.DEFAULT_TARGET_FILE_SIZE;
+    /** Бюджет L1 в байтах для {@link CompactionStyle#LEVELED} */
+    private long levelBaseBytes = LeveledCompactionStrategy.DEFAULT_LEVEL_BASE_BYTES;
+    /** Во сколько раз бюджет уровня больше предыдущего для {@link CompactionStyle#LEVELED} */
+    private int levelSizeMultiplier = LeveledCompactionStrategy.DEFAULT_LEVEL_SIZE_MULTIPLIER;
+    /** Наибольшее количество параллельных подкомпактаций одной компактации; 1 — без параллелизма */
+    private int maxSubcompactions = 1;
+    /** Переносить ли файлы на следующий уровень без перезаписи, если они ни с чем там не пересекаются */
+    private boolean allowTrivialMove = true;
+    /** Допустимый объём всех файлов для {@link CompactionStyle#FIFO} */
+    private long fifoMaxTableFilesSize = FifoCompactionStrategy.DEFAULT_MAX_TABLE_FILES_SIZE;
+    /** Длина временного окна для {@link CompactionStyle#TIME_WINDOW} */
+    private long timeWindowMs = TimeWindowCompactionStrategy.DEFAULT_WINDOW_MS;
+    /** Количество фоновых потоков флаша в {@link StorageCoreAsync} */
+    private int flushThreads = 1;
+    /** Количество фоновых потоков компактации в {@link StorageCoreAsync} */
+    private int compactionThreads = 1;
+    /** Период принудительного флаша непустой MemTable; 0 отключает его */
+    private long flushIntervalMs = 180000;
+    /** Количество файлов L0, с которого запись замедляется */
+    private int level0SlowdownWritesTrigger = 20;
+    /** Количество файлов L0, на котором запись останавливается */
+    private int level0StopWritesTrigger = 36;
+    /** Отставание компактации в байтах, с которого запись замедляется; 0 — не ограничивать */
+    private long softPendingCompactionBytesLimit = 256L * 1024 * 1024;
+    /** Отставание компактации в байтах, на котором запись останавливается; 0 — не ограничивать */
+    private long hardPendingCompactionBytesLimit = 1024L * 1024 * 1024;
+    /** Скорость записи в байтах в секунду в начале замедления */
+    private long delayedWriteRate = 16L * 1024 * 1024;
+    /** Бюджет фоновой записи на диск в байтах в секунду; 0 — без ограничения */
+    private long rateLimitBytesPerSecond;
+    /** Подстраивать ли бюджет фоновой записи под долг компактации и задержку чтений */
+    private boolean rateLimiterAutoTune;
+    /** Целевая задержка чтения для автонастройки бюджета; 0 — не учитывать */
+    private long targetReadLatencyMicros = 1000;
+    /** Ограничитель, разделяемый несколькими хранилищами, или null, чтобы создать собственный */
+    private RateLimiter rateLimiter;
+    /** Размер журнала MANIFEST, после которого он сворачивается в снимок */
+    private long maxManifestFileSize = ManifestHandler.DEFAULT_MAX_MANIFEST_FILE_SIZE;
+
+    public long getMemTableMaxSize() {
+        return memTableMaxSize;
+    }
+
+    public StorageOptions setMemTableMaxSize(long memTableMaxSize) {
+        this.memTableMaxSize = memTableMaxSize;
+        return this;
+    }
+
+    public int getTierThreshold() {
+        return tierThreshold;
+    }
+
+    public StorageOptions setTierThreshold(int tierThreshold) {
+        this.tierThreshold = tierThreshold;
+        return this;
+    }
+
+    public int getNumLevels() {
+        return numLevels;
+    }
+
+    /**
+     * Задаёт количество уровней. Файлы, оставшиеся на более глубоких уровнях от прежней настройки,
+     * продолжают читаться, но политика компактации их больше не трогает.
+     * @param numLevels количество уровней, не меньше одного
+     */
+    public StorageOptions setNumLevels(int numLevels) {
+        if (numLevels < 1) {
+            throw new IllegalArgumentException("At least one level is required");
+        }
+        this.numLevels = numLevels;
+        return this;
+    }
+
+    public int getMaxImmutableMemTables() {
+        return maxImmutableMemTables;
+    }
+
+    public StorageOptions setMaxImmutableMemTables(int maxImmutableMemTables) {
+        this.maxImmutableMemTables = maxImmutableMemTables;
+        return this;
+    }
+
+    public WalSyncMode getWalSyncMode() {
+        return walSyncMode;
+    }
+
+    public StorageOptions setWalSyncMode(WalSyncMode walSyncMode) {
+        this.walSyncMode = walSyncMode;
+        return this;
+    }
+
+    public long getWalSyncIntervalMs() {
+        return walSyncIntervalMs;
+    }
+
+    public StorageOptions setWalSyncIntervalMs(long walSyncIntervalMs) {
+        this.walSyncIntervalMs = walSyncIntervalMs;
+        return this;
+    }
+
+    public double getBloomBitsPerKey() {
+        return bloomBitsPerKey;
+    }
+
+    public StorageOptions setBloomBitsPerKey(double bloomBitsPerKey) {
+        this.bloomBitsPerKey = bloomBitsPerKey;
+        return this;
+    }
+
+    /**
+     * Задаёт размер фильтров Блума через целевую долю ложных срабатываний.
+     * @param falsePositiveRate доля ложных срабатываний в интервале (0, 1)
+     * @return этот объект настроек
+     */
+    public StorageOptions setBloomFalsePositiveRate(double falsePositiveRate) {
+        this.bloomBitsPerKey = BloomFilter.bitsPerKeyFor(falsePositiveRate);
+        return this;
+    }
+
+    public long getIndexCacheBytes() {
+        return indexCacheBytes;
+    }
+
+    public StorageOptions setIndexCacheBytes(long indexCacheBytes) {
+        this.indexCacheBytes = indexCacheBytes;
+        return this;
+    }
+
+    public boolean isSyncSSTables() {
+        return syncSSTables;
+    }
+
+    public StorageOptions setSyncSSTables(boolean syncSSTables) {
+        this.syncSSTables = syncSSTables;
+        return this;
+    }
+
+    public ReadMode getReadMode() {
+        return readMode;
+    }
+
+    public StorageOptions setReadMode(ReadMode readMode) {
+        this.readMode = readMode;
+        return this;
+    }
+
+    public TableFormat getTableFormat() {
+        return tableFormat;
+    }
+
+    public StorageOptions setTableFormat(TableFormat tableFormat) {
+        this.tableFormat = tableFormat;
+        return this;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public StorageOptions setBlockSize(int blockSize) {
+        this.blockSize = blockSize;
+        return this;
+    }
+
+    public long getBlockCacheBytes() {
+        return blockCacheBytes;
+    }
+
+    public StorageOptions setBlockCacheBytes(long blockCacheBytes) {
+        this.blockCacheBytes = blockCacheBytes;
+        return this;
+    }
+
+    public BlockCache getBlockCache() {
+        return blockCache;
+    }
+
+    public StorageOptions setBlockCache(BlockCache blockCache) {
+        this.blockCache = blockCache;
+        return this;
+    }
+
+    public BlockCodec[] getBlockCodecs() {
+        return blockCodecs.clone();
+    }
+
+    /**
+     * Задаёт сжатие блоков по уровням, например {@code setBlockCodecs(BlockCodecs.NONE, BlockCodecs.LZ4, BlockCodecs.DEFLATE)}:
+     * без сжатия на L0, быстрый LZ4 на L1 и Deflate на всех более глубоких уровнях.
+     * @param blockCodecs кодеки для уровней начиная с нулевого
+     */
+    public StorageOptions setBlockCodecs(BlockCodec... blockCodecs) {
+        if (blockCodecs.length == 0) {
+            throw new IllegalArgumentException("At least one block codec is required");
+        }
+        this.blockCodecs = blockCodecs.clone();
+        return this;
+    }
+
+    public CompactionStyle getCompactionStyle() {
+        return compactionStyle;
+    }
+
+    public StorageOptions setCompactionStyle(CompactionStyle compactionStyle) {
+        this.compactionStyle = compactionStyle;
+        return this;
+    }
+
+    public CompactionStrategy getCompactionStrategy() {
+        return compactionStrategy;
+    }
+
+    /**
+     * Задаёт собственную политику компактации вместо встроенной.
+     * Экземпляр хранит состояние и не должен использоваться несколькими хранилищами.
+     */
+    public StorageOptions setCompactionStrategy(CompactionStrategy compactionStrategy) {
+        this.compactionStrategy = compactionStrategy;
+        return this;
+    }
+
+    public long getTargetFileSize() {
+        return targetFileSize;
+    }
+
+    public StorageOptions setTargetFileSize(long targetFileSize) {
+        this.targetFileSize = targetFileSize;
+        return this;
+    }
+
+    public long getLevelBaseBytes() {
+        return levelBaseBytes;
+    }
+
+    public StorageOptions setLevelBaseBytes(long levelBaseBytes) {
+        this.levelBaseBytes = levelBaseBytes;
+        return this;
+    }
+
+    public int getLevelSizeMultiplier() {
+        return levelSizeMultiplier;
+    }
+
+    public StorageOptions setLevelSizeMultiplier(int levelSizeMultiplier) {
+        this.levelSizeMultiplier = levelSizeMultiplier;
+        return this;
+    }
+
+    public long getFifoMaxTableFilesSize() {
+        return fifoMaxTableFilesSize;
+    }
+
+    public StorageOptions setFifoMaxTableFilesSize(long fifoMaxTableFilesSize) {
+        this.fifoMaxTableFilesSize = fifoMaxTableFilesSize;
+        return this;
+    }
+
+    public long getTimeWindowMs() {
+        return timeWindowMs;
+    }
+
+    public StorageOptions setTimeWindowMs(long timeWindowMs) {
+        this.timeWindowMs = timeWindowMs;
+        return this;
+    }
+
+    public boolean isAllowTrivialMove() {
+        return allowTrivialMove;
+    }
+
+    /**
+     * Разрешает перенос файлов между уровнями без перезаписи. Перенесённый файл сохраняет прежнее сжатие блоков,
+     * поэтому при разных кодеках по уровням его можно отключить.
+     */
+    public StorageOptions setAllowTrivialMove(boolean allowTrivialMove) {
+        this.allowTrivialMove = allowTrivialMove;
+        return this;
+    }
+
+    public int getMaxSubcompactions() {
+        return maxSubcompactions;
+    }
+
+    /**
+     * Задаёт, на сколько диапазонов ключей можно делить крупную компактацию, чтобы сливать их параллельно
+     * в отдельном пуле потоков такого же размера, например по числу ядер.
+     * @param maxSubcompactions количество подкомпактаций, не меньше одной
+     */
+    public StorageOptions setMaxSubcompactions(int maxSubcompactions) {
+        if (maxSubcompactions < 1) {
+            throw new IllegalArgumentException("At least one subcompaction is required");
+        }
+        this.maxSubcompactions = maxSubcompactions;
+        return this;
+    }
+
+    public int getFlushThreads() {
+        return flushThreads;
+    }
+
+    /**
+     * Задаёт количество потоков флаша. Несколько MemTable пишутся на диск параллельно,
+     * но устанавливаются в порядке заморозки.
+     * @param flushThreads количество потоков, не меньше одного
+     */
+    public StorageOptions setFlushThreads(int flushThreads) {
+        if (flushThreads < 1) {
+            throw new IllegalArgumentException("At least one flush thread is required");
+        }
+        this.flushThreads = flushThreads;
+        return this;
+    }
+
+    public int getCompactionThreads() {
+        return compactionThreads;
+    }
+
+    /**
+     * Задаёт количество потоков компактации. Одновременно выполняются только компактации,
+     * не пересекающиеся по уровням или по диапазонам ключей.
+     * @param compactionThreads количество потоков, не меньше одного
+     */
+    public StorageOptions setCompactionThreads(int compactionThreads) {
+        if (compactionThreads < 1) {
+            throw new IllegalArgumentException("At least one compaction thread is required");
+        }
+        this.compactionThreads = compactionThreads;
+        return this;
+    }
+
+    public long getFlushIntervalMs() {
+        return flushIntervalMs;
+    }
+
+    public StorageOptions setFlushIntervalMs(long flushIntervalMs) {
+        this.flushIntervalMs = flushIntervalMs;
+        return this;
+    }
+
+    public int getLevel0SlowdownWritesTrigger() {
+        return level0SlowdownWritesTrigger;
+    }
+
+    public StorageOptions setLevel0SlowdownWritesTrigger(int level0SlowdownWritesTrigger) {
+        this.level0SlowdownWritesTrigger = level0SlowdownWritesTrigger;
+        return this;
+    }
+
+    public int getLevel0StopWritesTrigger() {
+        return level0StopWritesTrigger;
+    }
+
+    public StorageOptions setLevel0StopWritesTrigger(int level0StopWritesTrigger) {
+        this.level0StopWritesTrigger = level0StopWritesTrigger;
+        return this;
+    }
+
+    public long getSoftPendingCompactionBytesLimit() {
+        return softPendingCompactionBytesLimit;
+    }
+
+    public StorageOptions setSoftPendingCompactionBytesLimit(long softPendingCompactionBytesLimit) {
+        this.softPendingCompactionBytesLimit = softPendingCompactionBytesLimit;
+        return this;
+    }
+
+    public long getHardPendingCompactionBytesLimit() {
+        return hardPendingCompactionBytesLimit;
+    }
+
+    public StorageOptions setHardPendingCompactionBytesLimit(long hardPendingCompactionBytesLimit) {
+        this.hardPendingCompactionBytesLimit = hardPendingCompactionBytesLimit;
+        return this;
+    }
+
+    public long getDelayedWriteRate() {
+        return delayedWriteRate;
+    }
+
+    /**
+     * Задаёт скорость записи при начале замедления; ближе к жёстким порогам она снижается.
+     * @param delayedWriteRate байт в секунду, больше нуля
+     */
+    public StorageOptions setDelayedWriteRate(long delayedWriteRate) {
+        if (delayedWriteRate <= 0) {
+            throw new IllegalArgumentException("Delayed write rate must be positive");
+        }
+        this.delayedWriteRate = delayedWriteRate;
+        return this;
+    }
+
+    public long getRateLimitBytesPerSecond() {
+        return rateLimitBytesPerSecond;
+    }
+
+    /**
+     * Ограничивает суммарную скорость записи флашей и компактаций, чтобы компактация не забирала
+     * весь диск у чтений. Флаши обслуживаются в пределах бюджета первыми.
+     * @param rateLimitBytesPerSecond байт в секунду; 0 — без ограничения
+     */
+    public StorageOptions setRateLimitBytesPerSecond(long rateLimitBytesPerSecond) {
+        this.rateLimitBytesPerSecond = rateLimitBytesPerSecond;
+        return this;
+    }
+
+    public boolean isRateLimiterAutoTune() {
+        return rateLimiterAutoTune;
+    }
+
+    /**
+     * Включает автонастройку бюджета: заданный бюджет становится наибольшим, а текущий растёт при росте
+     * долга компактации и снижается при росте задержки чтений выше {@link #setTargetReadLatencyMicros(long)}.
+     */
+    public StorageOptions setRateLimiterAutoTune(boolean rateLimiterAutoTune) {
+        this.rateLimiterAutoTune = rateLimiterAutoTune;
+        return this;
+    }
+
+    public long getTargetReadLatencyMicros() {
+        return targetReadLatencyMicros;
+    }
+
+    public StorageOptions setTargetReadLatencyMicros(long targetReadLatencyMicros) {
+        this.targetReadLatencyMicros = targetReadLatencyMicros;
+        return this;
+    }
+
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    public StorageOptions setRateLimiter(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+        return this;
+    }
+
+    public long getMaxManifestFileSize() {
+        return maxManifestFileSize;
+    }
+
+    /**
+     * Задаёт размер журнала MANIFEST, после которого состояние записывается снимком в новый файл.
+     * Журнал сворачивается, только когда он ещё и вдвое больше своего снимка, поэтому при большом
+     * количестве файлов каждое изменение по-прежнему стоит O(1) в среднем.
+     * @param maxManifestFileSize размер в байтах, больше нуля
+     */
+    public StorageOptions setMaxManifestFileSize(long maxManifestFileSize) {
+        if (maxManifestFileSize <= 0) {
+            throw new IllegalArgumentException("MANIFEST file size must be positive");
+        }
+        this.maxManifestFileSize = maxManifestFileSize;
+        return this;
+    }
+}
@@ -0,0 +1,114 @@
+package ru.choomandco.diplsm.storage.core;
+
+import ru.choomandco.diplsm.storage.sstable.SSTableMetadata;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Неизменяемый снимок набора SSTable-файлов по уровням.
+ * <p>
+ * Версия живёт, пока на неё есть ссылки: одну держит {@link VersionSet}, пока версия текущая,
+ * остальные берут читатели на время поиска или диапазонного чтения. Пока версия жива,
+ * ни один из её файлов не удаляется с диска, даже если компактация уже заменила его новыми.
+ */
+public final class Version {
+    /** Набор версий, которому сообщается об освобождении версии */
+    private final VersionSet owner;
+    /** Порядковый номер версии */
+    private final long number;
+    /** Файлы по уровням; уровни по возрастанию, файлы уровня от старых к новым */
+    private final NavigableMap<Integer, NavigableSet<SSTableMetadata>> levels;
+    /** Количество ссылок; версия с нулём ссылок освобождена и больше не может быть взята */
+    private final AtomicInteger refs = new AtomicInteger(1);
+
+    /**
+     * Создаёт версию с одной ссылкой, принадлежащей набору версий.
+     * @param owner набор версий
+     * @param number порядковый номер
+     * @param levels файлы по уровням; копируются
+     */
+    Version(VersionSet owner, long number, Map<Integer, TreeSet<SSTableMetadata>> levels) {
+        this.owner = owner;
+        this.number = number;
+        NavigableMap<Integer, NavigableSet<SSTableMetadata>> copy = new TreeMap<>();
+        for (Map.Entry<Integer, TreeSet<SSTableMetadata>> e : levels.entrySet()) {
+            copy.put(e.getKey(), Collections.unmodifiableNavigableSet(new TreeSet<>(e.getValue())));
+        }
+        this.levels = Collections.unmodifiableNavigableMap(copy);
+    }
+
+    /**
+     * Берёт ссылку на версию, если она ещё не освобождена. Не блокирует.
+     * @return true, если ссылка взята
+     */
+    boolean tryRef() {
+        while (true) {
+            int current = refs.get();
+            if (current == 0) {
+                return false;
+            }
+            if (refs.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Отпускает ссылку. Последняя отпущенная ссылка освобождает версию,
+     * и файлы, на которые больше не ссылается ни одна версия, удаляются.
+     */
+    public void unref() {
+        int left = refs.decrementAndGet();
+        if (left == 0) {
+            owner.release(this);
+        } else if (left < 0) {
+            throw new IllegalStateException("Version " + number + " released more times than referenced");
+        }
+    }
+
+    public long getNumber() {
+        return number;
+    }
+
+    /**
+     * @return файлы по уровням; уровни по возрастанию, файлы уровня от старых к новым
+     */
+    public NavigableMap<Integer, NavigableSet<SSTableMetadata>> getLevels() {
+        return levels;
+    }
+
+    /**
+     * @param level уровень
+     * @return файлы уровня от старых к новым; пустое множество, если уровня нет
+     */
+    public NavigableSet<SSTableMetadata> getFiles(int level) {
+        NavigableSet<SSTableMetadata> files = levels.get(level);
+        return files == null ? Collections.<SSTableMetadata>emptyNavigableSet() : files;
+    }
+
+    /**
+     * @return все файлы версии
+     */
+    public List<SSTableMetadata> getAllFiles() {
+        List<SSTableMetadata> files = new ArrayList<>();
+        for (NavigableSet<SSTableMetadata> levelFiles : levels.values()) {
+            files.addAll(levelFiles);
+        }
+        return files;
+    }
+
+    /**
+     * @return текущее количество ссылок
+     */
+    public int getRefCount() {
+        return refs.get();
+    }
+}
@@ -0,0 +1,221 @@
+package ru.choomandco.diplsm.storage.core;
+
+import ru.choomandco.diplsm.storage.sstable.SSTableMetadata;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Изменение набора файлов — одна запись журнала MANIFEST.
+ * Содержит добавленные файлы с уровнями, удалённые файлы и, если заданы, номер журнала, следующий номер файла
+ * и номер последней записи.
+ * Снимок состояния — это изменение, добавляющее все файлы.
+ * <p>
+ * Формат полезной нагрузки: последовательность полей [tag (1 байт)][данные поля],
+ * строки записываются как [length (4 байта)][UTF-8].
+ */
+class VersionEdit {
+    /** Поле: номер первого сегмента журнала, данные которого ещё не в SSTable */
+    private static final byte TAG_LOG_NUMBER = 1;
+    /** Поле: следующий номер файла */
+    private static final byte TAG_NEXT_FILE_NUMBER = 2;
+    /** Поле: добавленный файл, [tier (4 байта)][filename] */
+    private static final byte TAG_ADD_FILE = 3;
+    /** Поле: удалённый файл, [filename] */
+    private static final byte TAG_DELETE_FILE = 4;
+    /** Поле: порядковый номер последней записи */
+    private static final byte TAG_LAST_SEQUENCE = 5;
+
+    /** Добавленные файлы и их уровни в порядке добавления */
+    private final Map<String, Integer> addedFiles = new LinkedHashMap<>();
+    /** Удалённые файлы */
+    private final List<String> deletedFiles = new ArrayList<>();
+    /** Номер журнала или -1, если изменение его не задаёт */
+    private long logNumber = -1;
+    /** Следующий номер файла или -1, если изменение его не задаёт */
+    private long nextFileNumber = -1;
+    /** Номер последней записи или -1, если изменение его не задаёт */
+    private long lastSequence = -1;
+
+    /**
+     * Создаёт изменение, заменяющее одни файлы другими, как после компактации.
+     * @param deleted удалённые файлы
+     * @param added новые файлы
+     * @return изменение
+     */
+    static VersionEdit replace(List<SSTableMetadata> deleted, List<SSTableMetadata> added) {
+        VersionEdit edit = new VersionEdit();
+        for (SSTableMetadata meta : deleted) {
+            edit.deleteFile(meta.getFilename());
+        }
+        for (SSTableMetadata meta : added) {
+            edit.addFile(meta.getFilename(), meta.getTier());
+        }
+        return edit;
+    }
+
+    public VersionEdit addFile(String filename, int tier) {
+        addedFiles.put(filename, tier);
+        return this;
+    }
+
+    public VersionEdit deleteFile(String filename) {
+        deletedFiles.add(filename);
+        return this;
+    }
+
+    /**
+     * @param logNumber сегменты журнала с меньшими номерами уже не нужны для восстановления
+     */
+    public VersionEdit setLogNumber(long logNumber) {
+        this.logNumber = logNumber;
+        return this;
+    }
+
+    /**
+     * @param nextFileNumber номер, с которого продолжится нумерация файлов после перезапуска
+     */
+    public VersionEdit setNextFileNumber(long nextFileNumber) {
+        this.nextFileNumber = nextFileNumber;
+        return this;
+    }
+
+    /**
+     * @param lastSequence номер последней записи; после перезапуска нумерация записей продолжится с него
+     */
+    public VersionEdit setLastSequence(long lastSequence) {
+        this.lastSequence = lastSequence;
+        return this;
+    }
+
+    public Map<String, Integer> getAddedFiles() {
+        return Collections.unmodifiableMap(addedFiles);
+    }
+
+    public List<String> getDeletedFiles() {
+        return Collections.unmodifiableList(deletedFiles);
+    }
+
+    public long getLogNumber() {
+        return logNumber;
+    }
+
+    public long getNextFileNumber() {
+        return nextFileNumber;
+    }
+
+    public long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Применяет изменение к карте файлов: сначала удаления, затем добавления,
+     * поэтому файл, перенесённый под тем же именем, остаётся в карте.
+     * @param fileTiers уровни файлов по именам
+     */
+    void applyTo(Map<String, Integer> fileTiers) {
+        for (String filename : deletedFiles) {
+            fileTiers.remove(filename);
+        }
+        fileTiers.putAll(addedFiles);
+    }
+
+    /**
+     * Сериализует изменение в массив байт (без заголовка длины и CRC).
+     * @return полезная нагрузка записи
+     */
+    byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            if (logNumber >= 0) {
+                out.writeByte(TAG_LOG_NUMBER);
+                out.writeLong(logNumber);
+            }
+            if (nextFileNumber >= 0) {
+                out.writeByte(TAG_NEXT_FILE_NUMBER);
+                out.writeLong(nextFileNumber);
+            }
+            if (lastSequence >= 0) {
+                out.writeByte(TAG_LAST_SEQUENCE);
+                out.writeLong(lastSequence);
+            }
+            for (String filename : deletedFiles) {
+                out.writeByte(TAG_DELETE_FILE);
+                writeString(out, filename);
+            }
+            for (Map.Entry<String, Integer> e : addedFiles.entrySet()) {
+                out.writeByte(TAG_ADD_FILE);
+                out.writeInt(e.getValue());
+                writeString(out, e.getKey());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    /**
+     * Восстанавливает изменение из полезной нагрузки.
+     * @param payload байты записи без заголовка
+     * @return декодированное изменение
+     * @throws IllegalArgumentException если запись повреждена
+     */
+    static VersionEdit decode(byte[] payload) {
+        VersionEdit edit = new VersionEdit();
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        try {
+            while (buffer.hasRemaining()) {
+                byte tag = buffer.get();
+                switch (tag) {
+                    case TAG_LOG_NUMBER:
+                        edit.logNumber = buffer.getLong();
+                        break;
+                    case TAG_NEXT_FILE_NUMBER:
+                        edit.nextFileNumber = buffer.getLong();
+                        break;
+                    case TAG_LAST_SEQUENCE:
+                        edit.lastSequence = buffer.getLong();
+                        break;
+                    case TAG_DELETE_FILE:
+                        edit.deletedFiles.add(readString(buffer));
+                        break;
+                    case TAG_ADD_FILE:
+                        int tier = buffer.getInt();
+                        edit.addedFiles.put(readString(buffer), tier);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown version edit tag " + tag);
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated version edit", e);
+        }
+        return edit;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Invalid string length " + length + " in version edit");
+        }
+        byte[] b = new byte[length];
+        buffer.get(b);
+        return new String(b, UTF_8);
+    }
+}
@@ -0,0 +1,140 @@
+package ru.choomandco.diplsm.storage.core;
+
+import ru.choomandco.diplsm.storage.interfaces.SortedStringTable;
+import ru.choomandco.diplsm.storage.sstable.SSTableMetadata;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Набор версий хранилища: текущая {@link Version} и учёт ссылок на SSTable-файлы.
+ * <p>
+ * Каждое изменение набора файлов (флаш, компактация, перенос, удаление) публикует новую версию
+ * целиком — копированием при записи, — поэтому читатель, взявший версию, видит согласованный
+ * набор файлов без блокировок. Файл удаляется с диска, только когда не остаётся ни одной версии,
+ * которая на него ссылается: компактация может завершиться, пока чтение ещё идёт по её входным файлам.
+ */
+public class VersionSet {
+    /** Таблица, через которую удаляются файлы */
+    private final SortedStringTable table;
+    /** Текущая версия; набор держит на неё одну ссылку */
+    private volatile Version current;
+    /** Количество живых версий, ссылающихся на файл */
+    private final Map<String, Integer> fileRefs = new HashMap<>();
+    /** Номер следующей версии */
+    private long nextVersionNumber;
+    /** Количество живых версий, включая текущую */
+    private int liveVersions;
+    /** Сколько файлов удалено после освобождения последней ссылающейся на них версии */
+    private long deletedFiles;
+
+    /**
+     * @param table таблица, через которую удаляются файлы
+     * @param levels начальный набор файлов по уровням
+     */
+    public VersionSet(SortedStringTable table, Map<Integer, TreeSet<SSTableMetadata>> levels) {
+        this.table = table;
+        install(levels);
+    }
+
+    /**
+     * Берёт ссылку на текущую версию. Не блокирует: если версия была заменена и освобождена
+     * между чтением и взятием ссылки, берётся следующая текущая.
+     * @return версия, которую нужно отпустить через {@link Version#unref()}
+     */
+    public Version acquire() {
+        while (true) {
+            Version version = current;
+            if (version.tryRef()) {
+                return version;
+            }
+        }
+    }
+
+    /**
+     * Публикует новую версию из набора файлов и отпускает ссылку на прежнюю.
+     * Вызывается под блокировкой метаданных хранилища, поэтому версии публикуются в порядке изменений.
+     * @param levels файлы по уровням после изменения; копируются
+     * @return опубликованная версия
+     */
+    public Version install(Map<Integer, TreeSet<SSTableMetadata>> levels) {
+        Version previous;
+        Version version;
+        synchronized (this) {
+            version = new Version(this, nextVersionNumber++, levels);
+            for (SSTableMetadata meta : version.getAllFiles()) {
+                fileRefs.merge(meta.getFilename(), 1, Integer::sum);
+            }
+            liveVersions++;
+            previous = current;
+            current = version;
+        }
+        if (previous != null) {
+            previous.unref();
+        }
+        return version;
+    }
+
+    /**
+     * Освобождает версию без ссылок и удаляет файлы, на которые больше не ссылается ни одна версия.
+     * Удаление выполняется в потоке, отпустившем последнюю ссылку, вне блокировки набора.
+     * @param version освобождённая версия
+     */
+    void release(Version version) {
+        List<String> obsolete = new ArrayList<>();
+        synchronized (this) {
+            liveVersions--;
+            for (SSTableMetadata meta : version.getAllFiles()) {
+                String filename = meta.getFilename();
+                int refs = fileRefs.get(filename) - 1;
+                if (refs == 0) {
+                    fileRefs.remove(filename);
+                    obsolete.add(filename);
+                } else {
+                    fileRefs.put(filename, refs);
+                }
+            }
+            deletedFiles += obsolete.size();
+        }
+        for (String filename : obsolete) {
+            try {
+                table.deleteFIle(filename);
+            } catch (IOException e) {
+                // файла уже нет в MANIFEST; оставшийся на диске файл не мешает работе
+                System.out.println("Failed to delete obsolete SSTable " + filename + " - " + e);
+            }
+        }
+    }
+
+    /**
+     * @return текущая версия без взятия ссылки; годится только для статистики
+     */
+    public Version getCurrent() {
+        return current;
+    }
+
+    /**
+     * @return количество живых версий, включая текущую; больше одной, пока идут чтения по старым версиям
+     */
+    public synchronized int getLiveVersionCount() {
+        return liveVersions;
+    }
+
+    /**
+     * @return количество файлов, на которые ссылается хотя бы одна живая версия
+     */
+    public synchronized int getLiveFileCount() {
+        return fileRefs.size();
+    }
+
+    /**
+     * @return сколько файлов удалено после освобождения последней ссылающейся на них версии
+     */
+    public synchronized long getDeletedFileCount() {
+        return deletedFiles;
+    }
+}
@@ -0,0 +1,80 @@
+package ru.choomandco.diplsm.storage.core;
+
+import ru.choomandco.diplsm.storage.wal.WalRecord;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Пакет вставок и удалений, который {@link StorageCore#write(WriteBatch)} применяет атомарно:
+ * весь пакет попадает в журнал одной записью, получает непрерывный диапазон порядковых номеров
+ * и вставляется в MemTable за один проход под её монитором.
+ * Операции применяются в порядке добавления, поэтому из нескольких операций над одним ключом побеждает последняя.
+ * Пакет не потокобезопасен и может переиспользоваться после {@link #clear()}.
+ */
+public class WriteBatch {
+    /** Операции пакета в порядке добавления */
+    private final List<WalRecord> records = new ArrayList<>();
+    /** Суммарная длина ключей и значений в символах */
+    private long approximateSize;
+
+    /**
+     * Добавляет вставку или обновление ключа.
+     * @param key ключ
+     * @param value значение
+     * @return этот же пакет
+     */
+    public WriteBatch put(String key, String value) {
+        Objects.requireNonNull(key, "key");
+        Objects.requireNonNull(value, "value");
+        records.add(WalRecord.put(key, value));
+        approximateSize += key.length() + value.length();
+        return this;
+    }
+
+    /**
+     * Добавляет удаление ключа.
+     * @param key ключ
+     * @return этот же пакет
+     */
+    public WriteBatch delete(String key) {
+        Objects.requireNonNull(key, "key");
+        records.add(WalRecord.delete(key));
+        approximateSize += key.length();
+        return this;
+    }
+
+    /**
+     * Очищает пакет для повторного использования.
+     */
+    public void clear() {
+        records.clear();
+        approximateSize = 0;
+    }
+
+    /**
+     * @return количество операций в пакете
+     */
+    public int size() {
+        return records.size();
+    }
+
+    public boolean isEmpty() {
+        return records.isEmpty();
+    }
+
+    /**
+     * @return суммарная длина ключей и значений; по ней {@link WriteController} считает задержку записи
+     */
+    public long getApproximateSize() {
+        return approximateSize;
+    }
+
+    /**
+     * @return операции пакета в порядке добавления
+     */
+    List<WalRecord> getRecords() {
+        return records;
+    }
+}
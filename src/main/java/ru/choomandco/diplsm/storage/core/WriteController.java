@@ -0,0 +1,252 @@
+package ru.choomandco.diplsm.storage.core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Управление скоростью записи, когда фоновые флаши и компактации не успевают за писателями.
+ * <p>
+ * Хранилище сообщает контроллеру размер отставания: сколько MemTable ждут флаша, сколько файлов на L0
+ * и сколько байт предстоит переписать компактации. Пока отставание ниже мягких порогов, запись не ограничена.
+ * Между мягким и жёстким порогом писатели задерживаются так, чтобы суммарная скорость записи не превышала
+ * {@code delayedWriteRate}, и чем ближе отставание к жёсткому порогу, тем ниже допустимая скорость.
+ * На жёстком пороге запись останавливается, пока фоновая работа не снимет ограничение.
+ * Так при перегрузке растут задержки записи, а не объём данных в памяти и число файлов на L0.
+ * <p>
+ * Время задержек и остановок накапливается по причинам и доступно через геттеры.
+ */
+public class WriteController {
+    /** Ниже этой доли от {@code delayedWriteRate} скорость записи не опускается */
+    private static final double MIN_RATE_FRACTION = 0.05;
+    /** Задержки короче этой накапливаются, а не выполняются по одной: засыпать на микросекунды неточно */
+    private static final long MIN_SLEEP_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /** Сколько замороженных MemTable допускается; когда все места заняты, запись замедляется */
+    private final int maxImmutableMemTables;
+    /** Количество файлов L0, с которого запись замедляется */
+    private final int level0SlowdownTrigger;
+    /** Количество файлов L0, на котором запись останавливается */
+    private final int level0StopTrigger;
+    /** Объём отставания компактации, с которого запись замедляется; 0 — не ограничивать */
+    private final long softPendingCompactionBytes;
+    /** Объём отставания компактации, на котором запись останавливается; 0 — не ограничивать */
+    private final long hardPendingCompactionBytes;
+    /** Скорость записи в байтах в секунду в начале замедления */
+    private final long delayedWriteRate;
+
+    /** Текущее состояние записи */
+    private volatile WriteStallCondition condition = WriteStallCondition.NORMAL;
+    /** Причина текущего состояния */
+    private volatile WriteStallCause cause = WriteStallCause.NONE;
+    /** Текущая допустимая скорость записи в байтах в секунду */
+    private volatile long currentWriteRate;
+    /** Момент, раньше которого не может начаться следующая задержанная запись */
+    private long nextWriteNanos;
+    /** Контроллер закрыт, ожидающие писатели отпускаются */
+    private boolean closed;
+
+    private final AtomicLong delayedWrites = new AtomicLong();
+    private final AtomicLong stoppedWrites = new AtomicLong();
+    /** Время задержек и остановок по причинам в наносекундах */
+    private final AtomicLongArray stallNanos = new AtomicLongArray(WriteStallCause.values().length);
+
+    /**
+     * Берёт пороги из настроек. Пороги L0 поднимаются выше порога компактации L0,
+     * иначе запись замедлялась бы при каждом обычном цикле флаш — компактация.
+     * @param options настройки хранилища
+     */
+    public WriteController(StorageOptions options) {
+        this.maxImmutableMemTables = options.getMaxImmutableMemTables();
+        this.level0SlowdownTrigger = Math.max(options.getLevel0SlowdownWritesTrigger(), options.getTierThreshold() + 1);
+        this.level0StopTrigger = Math.max(options.getLevel0StopWritesTrigger(), level0SlowdownTrigger + 1);
+        this.softPendingCompactionBytes = options.getSoftPendingCompactionBytesLimit();
+        this.hardPendingCompactionBytes = options.getHardPendingCompactionBytesLimit();
+        this.delayedWriteRate = options.getDelayedWriteRate();
+        this.currentWriteRate = delayedWriteRate;
+    }
+
+    /**
+     * Пересчитывает состояние записи по текущему отставанию фоновой работы.
+     * Вызывается после каждого изменения MemTable и файлов: заморозки, флаша, компактации.
+     * @param immutableMemTables количество замороженных MemTable, ожидающих флаша
+     * @param level0Files количество файлов L0 или 0, если политика держит данные на L0 постоянно
+     * @param pendingCompactionBytes оценка объёма, который предстоит переписать компактации
+     */
+    public synchronized void update(int immutableMemTables, int level0Files, long pendingCompactionBytes) {
+        WriteStallCondition newCondition = WriteStallCondition.NORMAL;
+        WriteStallCause newCause = WriteStallCause.NONE;
+        double severity = 0;
+
+        if (level0Files >= level0StopTrigger) {
+            newCondition = WriteStallCondition.STOPPED;
+            newCause = WriteStallCause.LEVEL0_FILES;
+        } else if (hardPendingCompactionBytes > 0 && pendingCompactionBytes >= hardPendingCompactionBytes) {
+            newCondition = WriteStallCondition.STOPPED;
+            newCause = WriteStallCause.PENDING_COMPACTION_BYTES;
+        } else {
+            // все места для замороженных MemTable заняты: следующая заморозка остановит запись
+            // в awaitImmutableSlot, поэтому писатели замедляются заранее
+            if (maxImmutableMemTables >= 2 && immutableMemTables >= maxImmutableMemTables) {
+                newCondition = WriteStallCondition.DELAYED;
+                newCause = WriteStallCause.MEMTABLE_LIMIT;
+            }
+            if (level0Files >= level0SlowdownTrigger) {
+                double s = (double) (level0Files - level0SlowdownTrigger) / (level0StopTrigger - level0SlowdownTrigger);
+                if (newCondition == WriteStallCondition.NORMAL || s > severity) {
+                    severity = s;
+                    newCondition = WriteStallCondition.DELAYED;
+                    newCause = WriteStallCause.LEVEL0_FILES;
+                }
+            }
+            if (softPendingCompactionBytes > 0 && pendingCompactionBytes >= softPendingCompactionBytes) {
+                double s = hardPendingCompactionBytes > softPendingCompactionBytes
+                        ? (double) (pendingCompactionBytes - softPendingCompactionBytes)
+                                / (hardPendingCompactionBytes - softPendingCompactionBytes)
+                        : 0;
+                if (newCondition == WriteStallCondition.NORMAL || s > severity) {
+                    severity = s;
+                    newCondition = WriteStallCondition.DELAYED;
+                    newCause = WriteStallCause.PENDING_COMPACTION_BYTES;
+                }
+            }
+        }
+
+        currentWriteRate = Math.max(1, (long) (delayedWriteRate * Math.max(1 - severity, MIN_RATE_FRACTION)));
+        cause = newCause;
+        condition = newCondition;
+        if (newCondition != WriteStallCondition.STOPPED) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Вызывается писателем перед записью: при замедлении задерживает его, при остановке — ждёт её снятия.
+     * Без ограничений возвращается сразу, не захватывая блокировок.
+     * @param bytes примерный объём записи
+     */
+    public void delayWrite(long bytes) {
+        WriteStallCondition current = condition;
+        if (current == WriteStallCondition.NORMAL) {
+            return;
+        }
+        if (current == WriteStallCondition.STOPPED) {
+            waitWhileStopped();
+        }
+        if (condition == WriteStallCondition.DELAYED) {
+            delay(bytes);
+        }
+    }
+
+    private void waitWhileStopped() {
+        long start = System.nanoTime();
+        WriteStallCause stallCause = cause;
+        synchronized (this) {
+            if (condition != WriteStallCondition.STOPPED || closed) {
+                return;
+            }
+            stoppedWrites.incrementAndGet();
+            while (condition == WriteStallCondition.STOPPED && !closed) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while writes are stopped", e);
+                }
+            }
+        }
+        stallNanos.addAndGet(stallCause.ordinal(), System.nanoTime() - start);
+    }
+
+    private void delay(long bytes) {
+        WriteStallCause stallCause = cause;
+        long now = System.nanoTime();
+        long wakeUp;
+        synchronized (this) {
+            long start = Math.max(now, nextWriteNanos);
+            nextWriteNanos = start + bytes * TimeUnit.SECONDS.toNanos(1) / currentWriteRate;
+            wakeUp = start;
+        }
+        if (wakeUp - now < MIN_SLEEP_NANOS) {
+            return;
+        }
+        delayedWrites.incrementAndGet();
+        long remaining;
+        while ((remaining = wakeUp - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while write is delayed");
+            }
+        }
+        stallNanos.addAndGet(stallCause.ordinal(), System.nanoTime() - now);
+    }
+
+    /**
+     * Учитывает остановку записи, которую хранилище выдержало само: ожидание свободного места
+     * для замороженной MemTable.
+     * @param stallCause причина остановки
+     * @param nanos длительность остановки
+     */
+    public void recordStop(WriteStallCause stallCause, long nanos) {
+        stoppedWrites.incrementAndGet();
+        stallNanos.addAndGet(stallCause.ordinal(), nanos);
+    }
+
+    /**
+     * Отпускает всех ожидающих писателей; после закрытия запись больше не останавливается.
+     */
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    public WriteStallCondition getCondition() {
+        return condition;
+    }
+
+    public WriteStallCause getCause() {
+        return cause;
+    }
+
+    /**
+     * @return допустимая скорость записи в байтах в секунду при замедлении
+     */
+    public long getCurrentWriteRate() {
+        return currentWriteRate;
+    }
+
+    /**
+     * @return сколько записей было задержано
+     */
+    public long getDelayedWriteCount() {
+        return delayedWrites.get();
+    }
+
+    /**
+     * @return сколько записей ждали снятия остановки
+     */
+    public long getStoppedWriteCount() {
+        return stoppedWrites.get();
+    }
+
+    /**
+     * @param stallCause причина
+     * @return суммарное время задержек и остановок записи по этой причине в наносекундах
+     */
+    public long getStallNanos(WriteStallCause stallCause) {
+        return stallNanos.get(stallCause.ordinal());
+    }
+
+    /**
+     * @return суммарное время задержек и остановок записи по всем причинам в наносекундах
+     */
+    public long getTotalStallNanos() {
+        long total = 0;
+        for (int i = 0; i < stallNanos.length(); i++) {
+            total += stallNanos.get(i);
+        }
+        return total;
+    }
+}
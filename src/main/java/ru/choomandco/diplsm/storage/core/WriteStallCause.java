@@ -0,0 +1,15 @@
+package ru.choomandco.diplsm.storage.core;
+
+/**
+ * Причина замедления или остановки записи.
+ */
+public enum WriteStallCause {
+    /** Ограничений нет */
+    NONE,
+    /** Слишком много замороженных MemTable ждут флаша */
+    MEMTABLE_LIMIT,
+    /** На L0 накопилось слишком много файлов, и чтению приходится проверять каждый */
+    LEVEL0_FILES,
+    /** Компактация отстала на слишком большой объём данных */
+    PENDING_COMPACTION_BYTES
+}
@@ -0,0 +1,13 @@
+package ru.choomandco.diplsm.storage.core;
+
+/**
+ * Состояние записи с точки зрения {@link WriteController}.
+ */
+public enum WriteStallCondition {
+    /** Запись идёт без ограничений */
+    NORMAL,
+    /** Фоновая работа отстаёт: писатели задерживаются пропорционально объёму записи */
+    DELAYED,
+    /** Достигнут жёсткий предел: писатели ждут, пока фоновая работа его не снимет */
+    STOPPED
+}
@@ -0,0 +1,135 @@
+package ru.choomandco.diplsm.storage.entry;
+
+import java.util.Objects;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Значение ключа в MemTable и SSTable: либо обычное значение, либо маркер удаления (tombstone).
+ * Маркер удаления хранится наравне с данными, чтобы скрывать более старые версии ключа
+ * в нижележащих SSTable, пока компактация не дойдёт до последнего уровня.
+ * <p>
+ * Каждая запись помечена порядковым номером записи (sequence number): чем больше номер, тем новее версия.
+ * 0 означает, что номер неизвестен — запись создана вне хранилища или прочитана из файла старого формата.
+ * В MemTable запись может ссылаться на предыдущую версию того же ключа, которую ещё читают снимки.
+ * Номер и предыдущие версии в сравнении записей не участвуют.
+ */
+public final class ValueEntry {
+    /** Единственный экземпляр маркера удаления без номера */
+    private static final ValueEntry TOMBSTONE = new ValueEntry(null, 0, null);
+
+    /** Значение ключа; null для маркера удаления */
+    private final String value;
+    /** Порядковый номер записи; 0, если неизвестен */
+    private final long sequence;
+    /** Предыдущая версия ключа, нужная живым снимкам, или null */
+    private final ValueEntry previous;
+
+    private ValueEntry(String value, long sequence, ValueEntry previous) {
+        this.value = value;
+        this.sequence = sequence;
+        this.previous = previous;
+    }
+
+    /**
+     * @param value значение ключа
+     * @return запись с обычным значением
+     */
+    public static ValueEntry of(String value) {
+        return of(value, 0);
+    }
+
+    /**
+     * @param value значение ключа
+     * @param sequence порядковый номер записи
+     * @return запись с обычным значением
+     */
+    public static ValueEntry of(String value, long sequence) {
+        return new ValueEntry(Objects.requireNonNull(value, "value"), sequence, null);
+    }
+
+    /**
+     * @return маркер удаления
+     */
+    public static ValueEntry tombstone() {
+        return TOMBSTONE;
+    }
+
+    /**
+     * @param sequence порядковый номер удаления
+     * @return маркер удаления
+     */
+    public static ValueEntry tombstone(long sequence) {
+        return sequence == 0 ? TOMBSTONE : new ValueEntry(null, sequence, null);
+    }
+
+    public boolean isTombstone() {
+        return value == null;
+    }
+
+    /**
+     * @return значение или null, если запись является маркером удаления
+     */
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * @return порядковый номер записи; 0, если неизвестен
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return предыдущая версия ключа или null
+     */
+    public ValueEntry getPrevious() {
+        return previous;
+    }
+
+    /**
+     * @param previous предыдущая версия ключа или null
+     * @return та же запись с другой предыдущей версией
+     */
+    public ValueEntry withPrevious(ValueEntry previous) {
+        return previous == this.previous ? this : new ValueEntry(value, sequence, previous);
+    }
+
+    /**
+     * Находит версию, видимую снимку: самую новую из этой записи и её предыдущих версий с номером не больше заданного.
+     * @param snapshotSequence номер последней записи, видимой снимку
+     * @return версия или null, если ключ на момент снимка ещё не был записан
+     */
+    public ValueEntry visibleAt(long snapshotSequence) {
+        ValueEntry entry = this;
+        while (entry != null && entry.sequence > snapshotSequence) {
+            entry = entry.previous;
+        }
+        return entry;
+    }
+
+    /**
+     * @return размер значения в байтах UTF-8 (0 для маркера удаления)
+     */
+    public int valueSizeInBytes() {
+        return value == null ? 0 : value.getBytes(UTF_8).length;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ValueEntry)) return false;
+        return Objects.equals(value, ((ValueEntry) o).value);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(value);
+    }
+
+    @Override
+    public String toString() {
+        return isTombstone() ? "<tombstone>" : value;
+    }
+}
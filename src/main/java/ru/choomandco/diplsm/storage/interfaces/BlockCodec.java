@@ -0,0 +1,19 @@
+package ru.choomandco.diplsm.storage.interfaces;
+
+import java.io.IOException;
+
+/**
+ * Алгоритм сжатия блоков данных SSTable. Идентификатор кодека записывается в трейлер каждого блока,
+ * поэтому файл читается независимо от того, какой кодек настроен сейчас.
+ */
+public interface BlockCodec {
+    /** Идентификатор кодека в трейлере блока (0–255); 0 означает блок без сжатия */
+    int getId();
+    String getName();
+    byte[] compress(byte[] input, int offset, int length);
+    /**
+     * @param originalLength размер данных до сжатия, хранится рядом со сжатым блоком
+     * @throws IOException если данные повреждены
+     */
+    byte[] decompress(byte[] input, int offset, int length, int originalLength) throws IOException;
+}
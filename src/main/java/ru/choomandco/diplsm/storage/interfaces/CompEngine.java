@@ -3,7 +3,20 @@ package ru.choomandco.diplsm.storage.interfaces;
 import ru.choomandco.diplsm.storage.sstable.SSTableMetadata;
 
 import java.util.List;
+import java.util.function.Supplier;
 
 public interface CompEngine {
-    SSTableMetadata compact(List<SSTableMetadata> tablesMeta, String fileToCompact, int level);
+    SSTableMetadata compact(List<SSTableMetadata> tablesMeta, String fileToCompact, int level, boolean dropTombstones);
+
+    default SSTableMetadata compact(List<SSTableMetadata> tablesMeta, String fileToCompact, int level) {
+        return compact(tablesMeta, fileToCompact, level, false);
+    }
+
+    /**
+     * Сливает файлы, разбивая результат на несколько файлов примерно по {@code maxFileSize} байт.
+     * @param fileNames источник имён выходных файлов, вызывается перед созданием каждого
+     * @return метаданные выходных файлов по возрастанию ключей; пустой список, если данных не осталось
+     */
+    List<SSTableMetadata> compact(List<SSTableMetadata> tablesMeta, Supplier<String> fileNames, int level,
+                                  boolean dropTombstones, long maxFileSize);
 }
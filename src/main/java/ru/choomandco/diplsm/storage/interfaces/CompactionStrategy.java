@@ -0,0 +1,49 @@
+package ru.choomandco.diplsm.storage.interfaces;
+
+import ru.choomandco.diplsm.storage.compengine.CompactionPlan;
+import ru.choomandco.diplsm.storage.sstable.SSTableMetadata;
+
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Политика компактации: решает, какие файлы и на какой уровень сливать.
+ * Хранилище вызывает её после каждого флаша и выполняет планы, пока она их возвращает,
+ * поэтому каждый план должен уменьшать «потребность» в компактации, иначе цикл не завершится.
+ * Реализация вызывается под блокировкой метаданных хранилища, по одному вызову за раз,
+ * и может хранить собственное состояние между вызовами.
+ */
+public interface CompactionStrategy {
+    /**
+     * Выбирает самую нужную сейчас компактацию.
+     * @param levels файлы по уровням, внутри уровня — от старых к новым
+     * @return план или null, если компактировать нечего
+     */
+    CompactionPlan pickCompaction(Map<Integer, TreeSet<SSTableMetadata>> levels);
+
+    /**
+     * Строит план компактации заданного уровня, даже если пороги ещё не достигнуты.
+     * @param levels файлы по уровням, внутри уровня — от старых к новым
+     * @param level уровень, с которого берутся файлы
+     * @return план или null, если компактировать нечего
+     */
+    CompactionPlan pickCompaction(Map<Integer, TreeSet<SSTableMetadata>> levels, int level);
+
+    /**
+     * Оценивает, сколько байт придётся переписать, чтобы уровни вернулись в свои пределы.
+     * По этой оценке хранилище замедляет запись, когда компактация отстаёт.
+     * @param levels файлы по уровням, внутри уровня — от старых к новым
+     * @return оценка в байтах; 0, если политика отставания не оценивает
+     */
+    default long estimatePendingCompactionBytes(Map<Integer, TreeSet<SSTableMetadata>> levels) {
+        return 0;
+    }
+
+    /**
+     * @return true, если файлы L0 должны регулярно уходить компактацией и их число показывает её отставание;
+     * false для политик, которые держат данные на L0 постоянно
+     */
+    default boolean drainsLevelZero() {
+        return true;
+    }
+}
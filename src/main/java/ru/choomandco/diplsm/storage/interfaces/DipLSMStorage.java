@@ -1,8 +1,19 @@
 package ru.choomandco.diplsm.storage.interfaces;
 
+import ru.choomandco.diplsm.storage.core.WriteBatch;
+import ru.choomandco.diplsm.storage.iterator.ScanIterator;
+
+import java.util.Collection;
+import java.util.Map;
+
 public interface DipLSMStorage {
     void put(String key, String value);
     String get(String key);
+    Map<String, String> multiGet(Collection<String> keys);
     void delete(String key);
+    void write(WriteBatch batch);
     void flush(int level);
+    ScanIterator scan(String fromKey, String toKey);
+    ScanIterator reverseScan(String fromKey, String toKey);
+    ScanIterator prefixScan(String prefix);
 }
@@ -1,12 +1,23 @@
 package ru.choomandco.diplsm.storage.interfaces;
 
+import ru.choomandco.diplsm.storage.entry.ValueEntry;
+
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 public interface MemoryTable {
     boolean put(String key, String value);
-    void delete(String key);
+    boolean put(String key, String value, long sequence);
+    boolean delete(String key);
+    boolean delete(String key, long sequence);
+    boolean putAll(List<Map.Entry<String, ValueEntry>> entries);
     String get(String key);
-    Map<String, String> getMap();
+    ValueEntry getEntry(String key);
+    ValueEntry getEntry(String key, long snapshotSequence);
+    Map<String, ValueEntry> getMap();
+    Iterator<Map.Entry<String, ValueEntry>> iterator(String fromKey, String toKey, boolean reverse);
+    Iterator<Map.Entry<String, ValueEntry>> iterator(String fromKey, String toKey, boolean reverse, long snapshotSequence);
     boolean isFull();
     void emptyMap();
     boolean isEmpty();
@@ -1,13 +1,65 @@
 package ru.choomandco.diplsm.storage.interfaces;
 
+import ru.choomandco.diplsm.storage.entry.ValueEntry;
+import ru.choomandco.diplsm.storage.iterator.EntryIterator;
+import ru.choomandco.diplsm.storage.sstable.SSTableMetadata;
+
 import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 public interface SortedStringTable {
     void writeTableFromMap(Map<String, String> memTable, String filename);
+    void writeTableFromEntries(Map<String, ValueEntry> entries, String filename);
+    TableWriter newWriter(String filename);
+
+    /**
+     * Создаёт writer для файла, который будет лежать на заданном уровне.
+     * Реализация может учитывать уровень, например при выборе сжатия; по умолчанию он игнорируется.
+     */
+    default TableWriter newWriter(String filename, int tier) {
+        return newWriter(filename);
+    }
     String getByKey(String key, String filename);
+    ValueEntry getEntryByKey(String key, String filename);
+
+    /**
+     * Ищет несколько ключей в одном файле. Реализация может открыть файл один раз и прочитать
+     * каждый нужный блок не больше одного раза; по умолчанию ключи ищутся по одному.
+     * @param sortedKeys ключи в порядке возрастания, без повторов
+     * @return найденные записи, включая маркеры удаления; отсутствующих в файле ключей в результате нет
+     */
+    default Map<String, ValueEntry> getEntriesByKeys(List<String> sortedKeys, String filename) {
+        Map<String, ValueEntry> result = new HashMap<>();
+        for (String key : sortedKeys) {
+            ValueEntry entry = getEntryByKey(key, filename);
+            if (entry != null) {
+                result.put(key, entry);
+            }
+        }
+        return result;
+    }
     Map<String, String> readWholeIntoMap(String filename) throws IOException;
+    Map<String, ValueEntry> readEntriesIntoMap(String filename) throws IOException;
+    EntryIterator iterator(String filename, String fromKey, String toKey, boolean reverse);
+    SSTableMetadata readMetadata(String filename, int tier) throws IOException;
     List<String> readStringsIntoList(String filename) throws IOException;
     void deleteFIle(String filename) throws IOException;
+
+    /**
+     * Вызывается, когда файл подключается к хранилищу и становится доступен для чтения.
+     * Реализация может заранее подготовить его к чтению; по умолчанию ничего не делает.
+     */
+    default void openFile(String filename) throws IOException {
+    }
+
+    /**
+     * Возвращает ключи файла, равномерно взятые из его индекса; по ним компактация делится на диапазоны.
+     * По умолчанию индекса нет и список пуст.
+     */
+    default List<String> sampleKeys(String filename, int count) throws IOException {
+        return Collections.emptyList();
+    }
 }
@@ -0,0 +1,18 @@
+package ru.choomandco.diplsm.storage.interfaces;
+
+import ru.choomandco.diplsm.storage.entry.ValueEntry;
+import ru.choomandco.diplsm.storage.sstable.SSTableMetadata;
+
+public interface TableWriter {
+    void add(String key, ValueEntry value);
+    long getEntryCount();
+
+    /**
+     * Сколько байт примерно займёт файл, если завершить его сейчас.
+     * По этой оценке компактация разбивает результат на файлы целевого размера.
+     */
+    long getFileSize();
+
+    SSTableMetadata finish(int tier);
+    void abort();
+}
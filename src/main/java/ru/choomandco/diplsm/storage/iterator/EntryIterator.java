@@ -0,0 +1,39 @@
+package ru.choomandco.diplsm.storage.iterator;
+
+import ru.choomandco.diplsm.storage.entry.ValueEntry;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Упорядоченный поток записей одного источника (MemTable или SSTable), включая маркеры удаления.
+ * Источник может держать открытые файлы, поэтому итератор нужно закрывать.
+ */
+public interface EntryIterator extends Iterator<Map.Entry<String, ValueEntry>>, Closeable {
+    @Override
+    void close();
+
+    /**
+     * Оборачивает итератор по данным в памяти; закрывать в нём нечего.
+     * @param iterator итератор по отсортированным записям
+     * @return итератор записей
+     */
+    static EntryIterator wrap(Iterator<Map.Entry<String, ValueEntry>> iterator) {
+        return new EntryIterator() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public Map.Entry<String, ValueEntry> next() {
+                return iterator.next();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
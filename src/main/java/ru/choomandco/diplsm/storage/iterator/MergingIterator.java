@@ -0,0 +1,91 @@
+package ru.choomandco.diplsm.storage.iterator;
+
+import ru.choomandco.diplsm.storage.entry.ValueEntry;
+
+import java.util.*;
+
+/**
+ * K-путевое слияние нескольких упорядоченных источников через очередь с приоритетом.
+ * Если ключ встречается в нескольких источниках, побеждает версия с большим порядковым номером записи,
+ * остальные пропускаются. Источники передаются от самого нового к самому старому: при равных номерах —
+ * в том числе у записей без номеров из файлов старых форматов — побеждает версия из более нового источника.
+ * Маркеры удаления возвращаются как есть — решение о них принимает вызывающий код.
+ */
+public class MergingIterator implements EntryIterator {
+    /** Все источники слияния, нужны для закрытия */
+    private final List<EntryIterator> sources;
+    /** Текущие головы источников, упорядоченные по ключу и свежести */
+    private final PriorityQueue<Head> heap;
+
+    /**
+     * @param sources источники от самого нового к самому старому
+     * @param reverse обходить ключи в порядке убывания
+     */
+    public MergingIterator(List<EntryIterator> sources, boolean reverse) {
+        this.sources = sources;
+        Comparator<Head> byKey = (a, b) -> {
+            int cmp = a.current.getKey().compareTo(b.current.getKey());
+            return reverse ? -cmp : cmp;
+        };
+        Comparator<Head> bySequence = (a, b) ->
+                Long.compare(b.current.getValue().getSequence(), a.current.getValue().getSequence());
+        this.heap = new PriorityQueue<>(Math.max(1, sources.size()),
+                byKey.thenComparing(bySequence).thenComparingInt(head -> head.rank));
+
+        for (int i = 0; i < sources.size(); i++) {
+            EntryIterator source = sources.get(i);
+            if (source.hasNext()) {
+                heap.add(new Head(i, source, source.next()));
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !heap.isEmpty();
+    }
+
+    @Override
+    public Map.Entry<String, ValueEntry> next() {
+        Head top = heap.poll();
+        if (top == null) {
+            throw new NoSuchElementException();
+        }
+        Map.Entry<String, ValueEntry> result = top.current;
+        advance(top);
+
+        while (!heap.isEmpty() && heap.peek().current.getKey().equals(result.getKey())) {
+            advance(heap.poll());
+        }
+        return result;
+    }
+
+    @Override
+    public void close() {
+        for (EntryIterator source : sources) {
+            source.close();
+        }
+    }
+
+    private void advance(Head head) {
+        if (head.source.hasNext()) {
+            head.current = head.source.next();
+            heap.add(head);
+        }
+    }
+
+    /**
+     * Текущая запись источника и его свежесть (меньше — новее).
+     */
+    private static final class Head {
+        private final int rank;
+        private final EntryIterator source;
+        private Map.Entry<String, ValueEntry> current;
+
+        private Head(int rank, EntryIterator source, Map.Entry<String, ValueEntry> current) {
+            this.rank = rank;
+            this.source = source;
+            this.current = current;
+        }
+    }
+}
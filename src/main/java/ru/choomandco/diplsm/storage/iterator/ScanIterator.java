@@ -0,0 +1,93 @@
+package ru.choomandco.diplsm.storage.iterator;
+
+import ru.choomandco.diplsm.storage.entry.ValueEntry;
+
+import java.io.Closeable;
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Итератор диапазонного чтения, возвращаемый хранилищем.
+ * Поверх слияния всех источников скрывает удалённые ключи и отдаёт пары ключ→значение.
+ * Держит открытыми файлы SSTable, поэтому после использования его нужно закрыть.
+ */
+public class ScanIterator implements Iterator<Map.Entry<String, String>>, Closeable {
+    /** Слияние всех MemTable и SSTable */
+    private final EntryIterator merged;
+    /** Действие при закрытии, например освобождение версии набора файлов, или null */
+    private final Runnable onClose;
+    /** Следующая живая запись или null, если её ещё нужно найти */
+    private Map.Entry<String, String> nextEntry;
+    /** Итератор уже закрыт */
+    private boolean closed;
+
+    public ScanIterator(EntryIterator merged) {
+        this(merged, null);
+    }
+
+    /**
+     * @param merged слияние всех источников
+     * @param onClose действие, выполняемое один раз после закрытия источников, или null
+     */
+    public ScanIterator(EntryIterator merged, Runnable onClose) {
+        this.merged = merged;
+        this.onClose = onClose;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (nextEntry == null && merged.hasNext()) {
+            Map.Entry<String, ValueEntry> entry = merged.next();
+            if (!entry.getValue().isTombstone()) {
+                nextEntry = new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue().getValue());
+            }
+        }
+        return nextEntry != null;
+    }
+
+    @Override
+    public Map.Entry<String, String> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Map.Entry<String, String> result = nextEntry;
+        nextEntry = null;
+        return result;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            merged.close();
+        } finally {
+            if (onClose != null) {
+                onClose.run();
+            }
+        }
+    }
+
+    /**
+     * Вычисляет исключающую верхнюю границу для поиска по префиксу:
+     * наименьшую строку, которая больше всех строк с этим префиксом.
+     * @param prefix префикс ключей
+     * @return граница или null, если такой строки нет (поиск до конца)
+     */
+    public static String prefixUpperBound(String prefix) {
+        StringBuilder sb = new StringBuilder(prefix);
+        while (sb.length() > 0) {
+            char last = sb.charAt(sb.length() - 1);
+            if (last != Character.MAX_VALUE) {
+                sb.setCharAt(sb.length() - 1, (char) (last + 1));
+                return sb.toString();
+            }
+            sb.setLength(sb.length() - 1);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,79 @@
+package ru.choomandco.diplsm.storage.memtable;
+
+import ru.choomandco.diplsm.storage.entry.ValueEntry;
+import ru.choomandco.diplsm.storage.interfaces.MemoryTable;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Замороженная MemTable, ожидающая записи на диск.
+ * Новые записи в неё не попадают, но чтения продолжают её видеть,
+ * пока соответствующий SSTable не будет установлен в метаданные хранилища.
+ */
+public class ImmutableMemTable {
+    /** Замороженная таблица */
+    private final MemoryTable table;
+    /** Номер сегмента журнала, в котором лежат данные этой таблицы */
+    private final long walSegmentId;
+
+    /**
+     * @param table MemTable, которая больше не принимает записи
+     * @param walSegmentId номер последнего сегмента журнала с данными таблицы
+     */
+    public ImmutableMemTable(MemoryTable table, long walSegmentId) {
+        this.table = table;
+        this.walSegmentId = walSegmentId;
+    }
+
+    /**
+     * Метод для извлечения записи по ключу вместе с маркером удаления
+     * @param key Ключ для извлечения
+     * @return Запись или null, если ключ в таблице не встречался
+     */
+    public ValueEntry getEntry(String key) {
+        return table.getEntry(key);
+    }
+
+    /**
+     * @param key Ключ для извлечения
+     * @param snapshotSequence номер последней записи, видимой снимку
+     * @return версия ключа, видимая снимку, или null
+     */
+    public ValueEntry getEntry(String key, long snapshotSequence) {
+        return table.getEntry(key, snapshotSequence);
+    }
+
+    /**
+     * @return отсортированная копия данных таблицы, включая маркеры удаления
+     */
+    public Map<String, ValueEntry> getMap() {
+        return table.getMap();
+    }
+
+    /**
+     * @param fromKey нижняя граница (включительно) или null
+     * @param toKey верхняя граница (не включительно) или null
+     * @param reverse обходить в порядке убывания ключей
+     * @return итератор записей диапазона, включая маркеры удаления
+     */
+    public Iterator<Map.Entry<String, ValueEntry>> iterator(String fromKey, String toKey, boolean reverse) {
+        return table.iterator(fromKey, toKey, reverse);
+    }
+
+    /**
+     * @param fromKey нижняя граница (включительно) или null
+     * @param toKey верхняя граница (не включительно) или null
+     * @param reverse обходить в порядке убывания ключей
+     * @param snapshotSequence номер последней записи, видимой снимку
+     * @return итератор версий, видимых снимку, включая маркеры удаления
+     */
+    public Iterator<Map.Entry<String, ValueEntry>> iterator(String fromKey, String toKey, boolean reverse,
+                                                            long snapshotSequence) {
+        return table.iterator(fromKey, toKey, reverse, snapshotSequence);
+    }
+
+    public long getWalSegmentId() {
+        return walSegmentId;
+    }
+}
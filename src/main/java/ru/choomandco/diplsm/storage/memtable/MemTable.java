@@ -1,19 +1,25 @@
 package ru.choomandco.diplsm.storage.memtable;
 
+import ru.choomandco.diplsm.storage.entry.ValueEntry;
 import ru.choomandco.diplsm.storage.interfaces.MemoryTable;
 
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongSupplier;
 
 /**
- * Класс MemTable с кастомизируемым объемом памяти
+ * Класс MemTable с кастомизируемым объемом памяти.
+ * Для каждого ключа хранится самая новая запись; более старые версии остаются в цепочке
+ * {@link ValueEntry#getPrevious()}, только пока их может прочитать живой снимок.
  */
 public class MemTable implements MemoryTable {
-    /** Мапа для хранения всех ключ-значений */
-    private ConcurrentSkipListMap<String, String> table;
+    /** Мапа для хранения всех ключ-значений и маркеров удаления */
+    private ConcurrentSkipListMap<String, ValueEntry> table;
     /** Максимальный размер MemTable в байтах */
     private final long maxSizeInBytes;
+    /** Номер самого старого живого снимка или {@link Long#MAX_VALUE}, если снимков нет */
+    private final LongSupplier oldestSnapshot;
     /** Нынешний размер MemTable */
     private long currentSizeInBytes;
 
@@ -30,8 +36,18 @@ public class MemTable implements MemoryTable {
      * @param maxSizeInBytes Максимальный размер MemTable
      */
     public MemTable(long maxSizeInBytes) {
+        this(maxSizeInBytes, () -> Long.MAX_VALUE);
+    }
+
+    /**
+     * Конструктор MemTable, сохраняющей старые версии ключей для снимков
+     * @param maxSizeInBytes Максимальный размер MemTable
+     * @param oldestSnapshot номер самого старого живого снимка или {@link Long#MAX_VALUE}, если снимков нет
+     */
+    public MemTable(long maxSizeInBytes, LongSupplier oldestSnapshot) {
         this.table = new ConcurrentSkipListMap<>();
         this.maxSizeInBytes = maxSizeInBytes;
+        this.oldestSnapshot = oldestSnapshot;
         this.currentSizeInBytes = 0;
     }
 
@@ -40,53 +56,222 @@ public class MemTable implements MemoryTable {
      *
      * @param key   Ключ
      * @param value Значение
-     * @return
+     * @return Заполнена ли MemTable после вставки
      */
     @Override
     public synchronized boolean put(String key, String value) {
-        int keySize = key.getBytes(StandardCharsets.UTF_8).length;
-        int valueSize = value.getBytes(StandardCharsets.UTF_8).length;
-        int entrySize = keySize + valueSize;
-
-        String oldValue = table.put(key, value);
-        if (oldValue != null) {
-            currentSizeInBytes -= oldValue.getBytes(StandardCharsets.UTF_8).length;
-        }
-        currentSizeInBytes += entrySize;
+        return putEntry(key, ValueEntry.of(value));
+    }
 
-        return isFull();
+    /**
+     * Кладёт пару ключ-значение с порядковым номером записи
+     * @param key Ключ
+     * @param value Значение
+     * @param sequence Порядковый номер записи
+     * @return Заполнена ли MemTable после вставки
+     */
+    @Override
+    public synchronized boolean put(String key, String value, long sequence) {
+        return putEntry(key, ValueEntry.of(value, sequence));
     }
 
     /**
      * Метод для извлечения значения по ключу
      * @param key Ключ для извлечения
-     * @return Значение ключа
+     * @return Значение ключа или null, если ключа нет или он удалён
      */
     @Override
     public synchronized String get(String key) {
-        return table.getOrDefault(key, null);
+        ValueEntry entry = table.get(key);
+        return entry == null ? null : entry.getValue();
+    }
+
+    /**
+     * Метод для извлечения записи по ключу вместе с маркером удаления
+     * @param key Ключ для извлечения
+     * @return Запись или null, если ключ в MemTable не встречался
+     */
+    @Override
+    public synchronized ValueEntry getEntry(String key) {
+        return table.get(key);
+    }
+
+    /**
+     * Извлекает версию ключа, видимую снимку
+     * @param key Ключ для извлечения
+     * @param snapshotSequence номер последней записи, видимой снимку
+     * @return Запись или null, если на момент снимка ключ в MemTable не встречался
+     */
+    @Override
+    public ValueEntry getEntry(String key, long snapshotSequence) {
+        ValueEntry entry = table.get(key);
+        return entry == null ? null : entry.visibleAt(snapshotSequence);
     }
 
     /**
-     * Удаляет значение по ключу
+     * Удаляет значение по ключу, записывая на его место маркер удаления.
+     * Маркер попадёт в SSTable и скроет старые версии ключа на нижних уровнях.
      * @param key Ключ значения для удаления
+     * @return Заполнена ли MemTable после вставки маркера
      */
     @Override
-    public synchronized void delete(String key) {
-        String removedValue = table.remove(key);
-        if (removedValue != null) {
-            currentSizeInBytes -= (key.getBytes(StandardCharsets.UTF_8).length +
-                    removedValue.getBytes(StandardCharsets.UTF_8).length);
+    public synchronized boolean delete(String key) {
+        return putEntry(key, ValueEntry.tombstone());
+    }
+
+    /**
+     * Удаляет значение по ключу маркером удаления с порядковым номером записи
+     * @param key Ключ значения для удаления
+     * @param sequence Порядковый номер удаления
+     * @return Заполнена ли MemTable после вставки маркера
+     */
+    @Override
+    public synchronized boolean delete(String key, long sequence) {
+        return putEntry(key, ValueEntry.tombstone(sequence));
+    }
+
+    /**
+     * Вставляет пачку записей с уже назначенными номерами за один захват монитора
+     * и одну проверку заполненности в конце.
+     * @param entries ключи и записи (значения или маркеры удаления) в порядке применения
+     * @return Заполнена ли MemTable после вставки
+     */
+    @Override
+    public synchronized boolean putAll(List<Map.Entry<String, ValueEntry>> entries) {
+        long oldest = oldestSnapshot.getAsLong();
+        for (Map.Entry<String, ValueEntry> e : entries) {
+            insert(e.getKey(), e.getValue(), oldest);
         }
+        return isFull();
     }
 
     /**
-     * Возвращает копию мапы MemTable
+     * Возвращает копию мапы MemTable с самыми новыми версиями ключей, включая маркеры удаления
      * @return Копия мапы
      */
     @Override
-    public synchronized Map<String, String> getMap() {
-        return new TreeMap<String, String>(table);
+    public synchronized Map<String, ValueEntry> getMap() {
+        return new TreeMap<String, ValueEntry>(table);
+    }
+
+    /**
+     * Возвращает итератор по диапазону ключей без копирования данных.
+     * Итератор слабо согласован: параллельные записи могут быть как видны, так и не видны в нём.
+     * @param fromKey нижняя граница (включительно) или null
+     * @param toKey верхняя граница (не включительно) или null
+     * @param reverse обходить в порядке убывания ключей
+     * @return итератор самых новых версий, включая маркеры удаления
+     */
+    @Override
+    public Iterator<Map.Entry<String, ValueEntry>> iterator(String fromKey, String toKey, boolean reverse) {
+        NavigableMap<String, ValueEntry> range = table;
+        if (fromKey != null && toKey != null) {
+            range = fromKey.compareTo(toKey) < 0 ? table.subMap(fromKey, true, toKey, false) : Collections.emptyNavigableMap();
+        } else if (fromKey != null) {
+            range = table.tailMap(fromKey, true);
+        } else if (toKey != null) {
+            range = table.headMap(toKey, false);
+        }
+        return (reverse ? range.descendingMap() : range).entrySet().iterator();
+    }
+
+    /**
+     * Возвращает итератор по версиям ключей, видимым снимку. Ключи, записанные после снимка, пропускаются.
+     * @param fromKey нижняя граница (включительно) или null
+     * @param toKey верхняя граница (не включительно) или null
+     * @param reverse обходить в порядке убывания ключей
+     * @param snapshotSequence номер последней записи, видимой снимку; {@link Long#MAX_VALUE} — все записи
+     * @return итератор записей, включая маркеры удаления
+     */
+    @Override
+    public Iterator<Map.Entry<String, ValueEntry>> iterator(String fromKey, String toKey, boolean reverse,
+                                                            long snapshotSequence) {
+        Iterator<Map.Entry<String, ValueEntry>> latest = iterator(fromKey, toKey, reverse);
+        if (snapshotSequence == Long.MAX_VALUE) {
+            return latest;
+        }
+        return new Iterator<Map.Entry<String, ValueEntry>>() {
+            private Map.Entry<String, ValueEntry> pending = advance();
+
+            private Map.Entry<String, ValueEntry> advance() {
+                while (latest.hasNext()) {
+                    Map.Entry<String, ValueEntry> e = latest.next();
+                    ValueEntry visible = e.getValue().visibleAt(snapshotSequence);
+                    if (visible != null) {
+                        return new AbstractMap.SimpleImmutableEntry<>(e.getKey(), visible);
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return pending != null;
+            }
+
+            @Override
+            public Map.Entry<String, ValueEntry> next() {
+                if (pending == null) {
+                    throw new NoSuchElementException();
+                }
+                Map.Entry<String, ValueEntry> result = pending;
+                pending = advance();
+                return result;
+            }
+        };
+    }
+
+    /**
+     * Кладёт запись в мапу и пересчитывает занимаемый объём.
+     * Прежняя версия ключа остаётся в цепочке, если её может прочитать живой снимок.
+     * Запись с меньшим номером, чем уже вставленная (параллельный писатель успел раньше), отбрасывается:
+     * номера выдаются под блокировкой записи, поэтому ни один снимок не может её видеть.
+     */
+    private boolean putEntry(String key, ValueEntry entry) {
+        insert(key, entry, oldestSnapshot.getAsLong());
+        return isFull();
+    }
+
+    /**
+     * Вставляет запись, обрезая цепочку версий по самому старому снимку, и пересчитывает занимаемый объём.
+     */
+    private void insert(String key, ValueEntry entry, long oldest) {
+        ValueEntry oldEntry = table.get(key);
+        if (oldEntry != null && oldEntry.getSequence() > entry.getSequence()) {
+            return;
+        }
+        ValueEntry newEntry = retain(entry.withPrevious(oldEntry), oldest);
+        table.put(key, newEntry);
+
+        int keySize = key.getBytes(StandardCharsets.UTF_8).length;
+        if (oldEntry != null) {
+            currentSizeInBytes -= chainSize(keySize, oldEntry);
+        }
+        currentSizeInBytes += chainSize(keySize, newEntry);
+    }
+
+    /**
+     * Обрезает цепочку версий после первой версии, видимой самому старому снимку: более старые не видит никто.
+     * @param entry самая новая версия
+     * @param oldestSnapshot номер самого старого живого снимка
+     * @return цепочка без лишних версий; неизменённые звенья не копируются
+     */
+    private static ValueEntry retain(ValueEntry entry, long oldestSnapshot) {
+        if (entry.getSequence() <= oldestSnapshot || entry.getPrevious() == null) {
+            return entry.withPrevious(null);
+        }
+        return entry.withPrevious(retain(entry.getPrevious(), oldestSnapshot));
+    }
+
+    /**
+     * @return сколько байт занимают все версии ключа в цепочке
+     */
+    private static long chainSize(int keySize, ValueEntry entry) {
+        long size = 0;
+        for (ValueEntry e = entry; e != null; e = e.getPrevious()) {
+            size += keySize + e.valueSizeInBytes();
+        }
+        return size;
     }
 
     /**
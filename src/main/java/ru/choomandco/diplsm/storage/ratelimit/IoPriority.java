@@ -0,0 +1,11 @@
+package ru.choomandco.diplsm.storage.ratelimit;
+
+/**
+ * Приоритет фоновой записи в {@link RateLimiter}.
+ */
+public enum IoPriority {
+    /** Флаш: от него зависит, как быстро освобождается память MemTable и не останавливается запись */
+    HIGH,
+    /** Компактация: может подождать, пока бюджет занят флашами */
+    LOW
+}
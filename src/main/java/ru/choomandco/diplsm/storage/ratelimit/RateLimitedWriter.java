@@ -0,0 +1,62 @@
+package ru.choomandco.diplsm.storage.ratelimit;
+
+import ru.choomandco.diplsm.storage.entry.ValueEntry;
+import ru.choomandco.diplsm.storage.interfaces.TableWriter;
+import ru.choomandco.diplsm.storage.sstable.SSTableMetadata;
+
+/**
+ * Обёртка над {@link TableWriter}, которая оплачивает записанные байты в {@link RateLimiter}.
+ * Учитывается реальный размер файла по {@link TableWriter#getFileSize()}, то есть уже после сжатия,
+ * а оплата идёт порциями, чтобы не обращаться к ограничителю на каждой записи.
+ */
+final class RateLimitedWriter implements TableWriter {
+    /** Сколько байт накапливается перед очередным запросом к ограничителю */
+    private static final long REQUEST_BYTES = 64 * 1024;
+
+    private final TableWriter writer;
+    private final RateLimiter limiter;
+    private final IoPriority priority;
+    /** Сколько байт файла уже оплачено */
+    private long charged;
+
+    RateLimitedWriter(TableWriter writer, RateLimiter limiter, IoPriority priority) {
+        this.writer = writer;
+        this.limiter = limiter;
+        this.priority = priority;
+    }
+
+    @Override
+    public void add(String key, ValueEntry value) {
+        writer.add(key, value);
+        long size = writer.getFileSize();
+        if (size - charged >= REQUEST_BYTES) {
+            limiter.request(size - charged, priority);
+            charged = size;
+        }
+    }
+
+    @Override
+    public long getEntryCount() {
+        return writer.getEntryCount();
+    }
+
+    @Override
+    public long getFileSize() {
+        return writer.getFileSize();
+    }
+
+    @Override
+    public SSTableMetadata finish(int tier) {
+        SSTableMetadata meta = writer.finish(tier);
+        if (meta != null && meta.getFileSize() > charged) {
+            limiter.request(meta.getFileSize() - charged, priority);
+            charged = meta.getFileSize();
+        }
+        return meta;
+    }
+
+    @Override
+    public void abort() {
+        writer.abort();
+    }
+}
@@ -0,0 +1,278 @@
+package ru.choomandco.diplsm.storage.ratelimit;
+
+import ru.choomandco.diplsm.storage.interfaces.TableWriter;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ограничитель скорости фоновой записи на диск (token bucket), общий для флашей и компактаций.
+ * <p>
+ * Раз в {@link #REFILL_PERIOD_NANOS} в корзину добавляется бюджет на этот период, но не больше него самого,
+ * поэтому после простоя запись не вырывается большим всплеском. Запрос, на который бюджета не хватает,
+ * становится в очередь своего приоритета. При пополнении сначала обслуживаются флаши ({@link IoPriority#HIGH}),
+ * а каждое {@link #FAIRNESS}-е пополнение начинается с компактаций, чтобы поток флашей их не заморил.
+ * Пока не обслужен первый запрос очереди, следующие за ним ждут, так что порядок внутри приоритета сохраняется.
+ * <p>
+ * В режиме автонастройки бюджет меняется между {@code 1/}{@link #AUTO_TUNE_RANGE} от заданного и заданным:
+ * растёт, пока долг компактации увеличивается, и снижается, когда растёт задержка чтений.
+ */
+public class RateLimiter {
+    /** Период пополнения бюджета */
+    public static final long REFILL_PERIOD_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    /** Каждое такое пополнение первыми обслуживаются запросы низкого приоритета */
+    public static final int FAIRNESS = 10;
+    /** Во сколько раз автонастройка может снизить бюджет относительно заданного */
+    public static final int AUTO_TUNE_RANGE = 20;
+    /** Как часто хранилище вызывает автонастройку */
+    public static final long TUNE_INTERVAL_MS = 1000;
+    /** Во сколько раз бюджет меняется за один шаг автонастройки */
+    private static final double TUNE_STEP = 1.25;
+
+    /** Наибольший бюджет в байтах в секунду */
+    private final long maxBytesPerSecond;
+    /** Подстраивать ли бюджет под долг компактации и задержку чтений */
+    private final boolean autoTuned;
+
+    /** Текущий бюджет в байтах в секунду */
+    private long bytesPerSecond;
+    /** Доступный бюджет; может уйти в минус, если запрос больше бюджета периода */
+    private long available;
+    /** Момент следующего пополнения */
+    private long nextRefillNanos;
+    /** Количество пополнений, для очерёдности приоритетов */
+    private long refills;
+    /** Очереди ожидающих запросов и статистика по приоритетам */
+    private final EnumMap<IoPriority, Lane> lanes = new EnumMap<>(IoPriority.class);
+    /** Долг компактации при прошлой автонастройке */
+    private long lastPendingCompactionBytes;
+
+    /**
+     * @param bytesPerSecond бюджет в байтах в секунду
+     */
+    public RateLimiter(long bytesPerSecond) {
+        this(bytesPerSecond, false);
+    }
+
+    /**
+     * @param bytesPerSecond бюджет в байтах в секунду; при автонастройке — наибольший
+     * @param autoTuned подстраивать ли бюджет; начальное значение тогда вдвое меньше наибольшего
+     */
+    public RateLimiter(long bytesPerSecond, boolean autoTuned) {
+        if (bytesPerSecond <= 0) {
+            throw new IllegalArgumentException("Rate limit must be positive");
+        }
+        this.maxBytesPerSecond = bytesPerSecond;
+        this.autoTuned = autoTuned;
+        this.bytesPerSecond = autoTuned ? Math.max(minBytesPerSecond(), bytesPerSecond / 2) : bytesPerSecond;
+        for (IoPriority priority : IoPriority.values()) {
+            lanes.put(priority, new Lane());
+        }
+        this.available = refillBytes();
+        this.nextRefillNanos = System.nanoTime() + REFILL_PERIOD_NANOS;
+    }
+
+    /**
+     * Оборачивает writer так, чтобы записанные им байты оплачивались в этом ограничителе.
+     * @param writer writer нового файла
+     * @param priority приоритет записи
+     * @return writer с ограничением скорости
+     */
+    public TableWriter wrap(TableWriter writer, IoPriority priority) {
+        return new RateLimitedWriter(writer, this, priority);
+    }
+
+    /**
+     * Ждёт, пока в бюджете найдётся место для {@code bytes} байт. Большой запрос оплачивается
+     * частями не больше бюджета одного периода, чтобы не задерживать запросы другого приоритета.
+     * @param bytes объём записи
+     * @param priority приоритет записи
+     */
+    public void request(long bytes, IoPriority priority) {
+        long remaining = bytes;
+        while (remaining > 0) {
+            long chunk = Math.min(remaining, currentRefillBytes());
+            acquire(chunk, priority);
+            remaining -= chunk;
+        }
+    }
+
+    private synchronized long currentRefillBytes() {
+        return refillBytes();
+    }
+
+    private synchronized void acquire(long bytes, IoPriority priority) {
+        Lane lane = lanes.get(priority);
+        lane.totalBytes += bytes;
+        refill(System.nanoTime());
+        if (queuesEmpty() && canGrant(bytes)) {
+            available -= bytes;
+            return;
+        }
+
+        Request request = new Request(bytes);
+        lane.queue.addLast(request);
+        long start = System.nanoTime();
+        try {
+            while (!request.granted) {
+                long wait = nextRefillNanos - System.nanoTime();
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.timedWait(this, wait);
+                }
+                refill(System.nanoTime());
+            }
+        } catch (InterruptedException e) {
+            lane.queue.remove(request);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for I/O budget", e);
+        } finally {
+            lane.waitNanos += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Пополняет бюджет за прошедшие периоды и раздаёт его ожидающим запросам.
+     */
+    private void refill(long now) {
+        if (now < nextRefillNanos) {
+            return;
+        }
+        long periods = (now - nextRefillNanos) / REFILL_PERIOD_NANOS + 1;
+        long refillBytes = refillBytes();
+        available = Math.min(available + periods * refillBytes, refillBytes);
+        nextRefillNanos += periods * REFILL_PERIOD_NANOS;
+        refills++;
+
+        IoPriority first = refills % FAIRNESS == 0 ? IoPriority.LOW : IoPriority.HIGH;
+        IoPriority second = first == IoPriority.HIGH ? IoPriority.LOW : IoPriority.HIGH;
+        boolean granted = grant(first);
+        // пока первая очередь не обслужена целиком, вторая не получает ничего
+        if (lanes.get(first).queue.isEmpty()) {
+            granted |= grant(second);
+        }
+        if (granted) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Обслуживает запросы очереди по порядку, пока хватает бюджета.
+     * @return true, если обслужен хотя бы один запрос
+     */
+    private boolean grant(IoPriority priority) {
+        Deque<Request> queue = lanes.get(priority).queue;
+        boolean granted = false;
+        while (!queue.isEmpty() && canGrant(queue.peekFirst().bytes)) {
+            Request request = queue.pollFirst();
+            available -= request.bytes;
+            request.granted = true;
+            granted = true;
+        }
+        return granted;
+    }
+
+    /**
+     * Запрос больше бюджета периода (после снижения бюджета) обслуживается при полной корзине, уводя её в минус.
+     */
+    private boolean canGrant(long bytes) {
+        return available >= Math.min(bytes, refillBytes());
+    }
+
+    private boolean queuesEmpty() {
+        for (Lane lane : lanes.values()) {
+            if (!lane.queue.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long refillBytes() {
+        return Math.max(1, bytesPerSecond * REFILL_PERIOD_NANOS / TimeUnit.SECONDS.toNanos(1));
+    }
+
+    private long minBytesPerSecond() {
+        return Math.max(1, maxBytesPerSecond / AUTO_TUNE_RANGE);
+    }
+
+    /**
+     * Шаг автонастройки. Если долг компактации растёт, бюджет увеличивается: иначе запись
+     * упрётся в остановку по отставанию компактации. Иначе, если задержка чтений выше целевой,
+     * бюджет снижается, чтобы компактация меньше нагружала диск.
+     * @param pendingCompactionBytes текущая оценка долга компактации
+     * @param readLatencyNanos сглаженная задержка чтения
+     * @param targetReadLatencyNanos целевая задержка чтения; 0 — не учитывать
+     */
+    public synchronized void tune(long pendingCompactionBytes, long readLatencyNanos, long targetReadLatencyNanos) {
+        if (!autoTuned) {
+            return;
+        }
+        boolean debtGrowing = pendingCompactionBytes > 0 && pendingCompactionBytes > lastPendingCompactionBytes;
+        lastPendingCompactionBytes = pendingCompactionBytes;
+        if (debtGrowing) {
+            bytesPerSecond = Math.min(maxBytesPerSecond, (long) Math.ceil(bytesPerSecond * TUNE_STEP));
+        } else if (targetReadLatencyNanos > 0 && readLatencyNanos > targetReadLatencyNanos) {
+            bytesPerSecond = Math.max(minBytesPerSecond(), (long) (bytesPerSecond / TUNE_STEP));
+        }
+    }
+
+    /**
+     * Задаёт бюджет вручную; в режиме автонастройки он остаётся в допустимых пределах.
+     * @param bytesPerSecond бюджет в байтах в секунду
+     */
+    public synchronized void setBytesPerSecond(long bytesPerSecond) {
+        if (bytesPerSecond <= 0) {
+            throw new IllegalArgumentException("Rate limit must be positive");
+        }
+        this.bytesPerSecond = autoTuned
+                ? Math.max(minBytesPerSecond(), Math.min(maxBytesPerSecond, bytesPerSecond))
+                : bytesPerSecond;
+    }
+
+    public synchronized long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public boolean isAutoTuned() {
+        return autoTuned;
+    }
+
+    /**
+     * @return сколько байт оплачено с этим приоритетом
+     */
+    public synchronized long getTotalBytes(IoPriority priority) {
+        return lanes.get(priority).totalBytes;
+    }
+
+    /**
+     * @return сколько времени запросы этого приоритета ждали бюджета, в наносекундах
+     */
+    public synchronized long getWaitNanos(IoPriority priority) {
+        return lanes.get(priority).waitNanos;
+    }
+
+    /**
+     * Очередь одного приоритета вместе с его статистикой.
+     */
+    private static final class Lane {
+        final Deque<Request> queue = new ArrayDeque<>();
+        /** Сколько байт оплачено */
+        long totalBytes;
+        /** Сколько времени запросы ждали бюджета, в наносекундах */
+        long waitNanos;
+    }
+
+    /**
+     * Запрос, ожидающий бюджета.
+     */
+    private static final class Request {
+        final long bytes;
+        boolean granted;
+
+        Request(long bytes) {
+            this.bytes = bytes;
+        }
+    }
+}
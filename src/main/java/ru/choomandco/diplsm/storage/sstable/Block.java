@@ -0,0 +1,291 @@
+package ru.choomandco.diplsm.storage.sstable;
+
+import ru.choomandco.diplsm.storage.entry.ValueEntry;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Распакованный блок {@link BlockSSTable} с префиксным сжатием ключей.
+ * <pre>
+ * Block = { entry } [restart int]* [restartCount int]
+ * entry = [shared varint][unshared varint][vcode varint][sequence varlong, если он не 0][суффикс ключа][value]
+ * </pre>
+ * Каждая запись хранит только отличие ключа от предыдущего: {@code shared} байт берутся из предыдущего
+ * ключа, следующие {@code unshared} записаны в самой записи. {@code vcode} — длина значения плюс один,
+ * 0 означает маркер удаления. В блоках данных с порядковыми номерами записей {@code vcode} сдвинут на бит влево,
+ * а младший бит говорит, записан ли после него ненулевой номер {@code sequence}; в Index Block и в блоках
+ * данных файлов версии 2 номеров нет. Через каждые несколько записей идёт точка рестарта, где ключ записан целиком
+ * ({@code shared = 0}); смещения точек рестарта перечислены в конце блока.
+ * <p>
+ * Поиск ключа — бинарный поиск по точкам рестарта и линейный просмотр не более одного интервала между ними.
+ * Объект неизменяем и может одновременно использоваться несколькими читателями через {@link BlockCache}.
+ */
+final class Block {
+    /** Приблизительные накладные расходы объекта блока */
+    private static final int OBJECT_OVERHEAD = 64;
+
+    private final byte[] data;
+    private final String filename;
+    /** Записан ли в записях порядковый номер */
+    private final boolean sequenced;
+    /** Начало списка точек рестарта; записи занимают [0, restartsOffset) */
+    private final int restartsOffset;
+    private final int restartCount;
+
+    private Block(byte[] data, String filename, boolean sequenced, int restartsOffset, int restartCount) {
+        this.data = data;
+        this.filename = filename;
+        this.sequenced = sequenced;
+        this.restartsOffset = restartsOffset;
+        this.restartCount = restartCount;
+    }
+
+    /**
+     * Разбирает блок данных текущего формата, записи которого содержат порядковые номера.
+     * @param data содержимое блока без трейлера
+     * @param filename имя файла для сообщений об ошибках
+     * @return блок
+     * @throws IOException если содержимое повреждено
+     */
+    static Block decode(byte[] data, String filename) throws IOException {
+        return decode(data, filename, true);
+    }
+
+    /**
+     * Разбирает содержимое блока, записанное {@link BlockBuilder}, и проверяет список точек рестарта.
+     * @param data содержимое блока без трейлера
+     * @param filename имя файла для сообщений об ошибках
+     * @param sequenced записан ли в записях порядковый номер
+     * @return блок
+     * @throws IOException если содержимое повреждено
+     */
+    static Block decode(byte[] data, String filename, boolean sequenced) throws IOException {
+        if (data.length < 4) {
+            throw new IOException("Invalid SSTable block (too short): " + filename);
+        }
+        int restartCount = readInt(data, data.length - 4);
+        long restartsOffset = data.length - 4 - 4L * restartCount;
+        if (restartCount < 0 || restartsOffset < 0 || (restartCount == 0) != (restartsOffset == 0)) {
+            throw new IOException("Invalid SSTable block (corrupted restart count): " + filename);
+        }
+        int previous = -1;
+        for (int i = 0; i < restartCount; i++) {
+            int restart = readInt(data, (int) restartsOffset + 4 * i);
+            if (restart <= previous || restart >= restartsOffset || (i == 0 && restart != 0)) {
+                throw new IOException("Invalid SSTable block (corrupted restart point): " + filename);
+            }
+            previous = restart;
+        }
+        return new Block(data, filename, sequenced, (int) restartsOffset, restartCount);
+    }
+
+    /**
+     * Ищет запись с заданным ключом: бинарный поиск последней точки рестарта с ключом не больше искомого,
+     * затем просмотр записей от неё.
+     * @param key ключ в UTF-8
+     * @return значение, маркер удаления или null, если ключа в блоке нет
+     * @throws IOException если содержимое повреждено
+     */
+    ValueEntry get(byte[] key) throws IOException {
+        if (restartCount == 0) {
+            return null;
+        }
+        Cursor cursor = new Cursor();
+        int low = 0;
+        int high = restartCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            cursor.seek(restartOffset(mid));
+            cursor.next();
+            if (cursor.compareKey(key) <= 0) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        cursor.seek(restartOffset(low));
+        while (cursor.next()) {
+            int cmp = cursor.compareKey(key);
+            if (cmp == 0) {
+                return cursor.value();
+            }
+            if (cmp > 0) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Разбирает все записи блока по порядку.
+     * @return записи блока с восстановленными ключами
+     * @throws IOException если содержимое повреждено
+     */
+    List<Map.Entry<String, ValueEntry>> entries() throws IOException {
+        List<Map.Entry<String, ValueEntry>> result = new ArrayList<>(restartCount * BlockBuilder.DEFAULT_RESTART_INTERVAL);
+        Cursor cursor = new Cursor();
+        while (cursor.next()) {
+            result.add(new AbstractMap.SimpleImmutableEntry<>(cursor.keyString(), cursor.value()));
+        }
+        return result;
+    }
+
+    /**
+     * Передаёт записи блока получателю по порядку, не создавая строк.
+     * @param visitor получатель записей
+     * @throws IOException если содержимое повреждено
+     */
+    void forEach(EntryVisitor visitor) throws IOException {
+        Cursor cursor = new Cursor();
+        while (cursor.next()) {
+            visitor.visit(cursor.key, cursor.keyLength, data, cursor.valueOffset, cursor.valueLength);
+        }
+    }
+
+    /**
+     * @return сколько байт кучи занимает блок
+     */
+    long memoryBytes() {
+        return OBJECT_OVERHEAD + data.length;
+    }
+
+    private int restartOffset(int i) {
+        return readInt(data, restartsOffset + 4 * i);
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16)
+                | ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+    }
+
+    /**
+     * Получатель записей блока.
+     */
+    interface EntryVisitor {
+        /**
+         * @param key буфер с ключом; действителен только до возврата из метода
+         * @param keyLength длина ключа в буфере
+         * @param data содержимое блока
+         * @param valueOffset начало значения в {@code data}
+         * @param valueLength длина значения или {@link SSTableFormat#TOMBSTONE_LENGTH}
+         */
+        void visit(byte[] key, int keyLength, byte[] data, int valueOffset, int valueLength) throws IOException;
+    }
+
+    /**
+     * Последовательный разбор записей с восстановлением полного ключа текущей записи.
+     */
+    private final class Cursor {
+        private int position;
+        private byte[] key = new byte[64];
+        private int keyLength;
+        private int valueOffset;
+        private int valueLength;
+        private long sequence;
+
+        /**
+         * Переходит к точке рестарта, где ключ записан целиком.
+         */
+        void seek(int offset) {
+            position = offset;
+            keyLength = 0;
+        }
+
+        /**
+         * Разбирает следующую запись.
+         * @return false, если записи закончились
+         */
+        boolean next() throws IOException {
+            if (position >= restartsOffset) {
+                return false;
+            }
+            int shared = readVarint();
+            int unshared = readVarint();
+            int valueCode = readVarint();
+            sequence = 0;
+            if (sequenced) {
+                if ((valueCode & 1) != 0) {
+                    sequence = readVarlong();
+                }
+                valueCode >>>= 1;
+            }
+            if (shared > keyLength || unshared < 0 || unshared > restartsOffset - position) {
+                throw corrupted("key");
+            }
+            int length = shared + unshared;
+            if (length > key.length) {
+                key = Arrays.copyOf(key, Math.max(length, key.length * 2));
+            }
+            System.arraycopy(data, position, key, shared, unshared);
+            keyLength = length;
+            position += unshared;
+
+            valueOffset = position;
+            valueLength = valueCode == 0 ? SSTableFormat.TOMBSTONE_LENGTH : valueCode - 1;
+            if (valueCode < 0 || valueLength > restartsOffset - position) {
+                throw corrupted("value");
+            }
+            if (valueLength > 0) {
+                position += valueLength;
+            }
+            return true;
+        }
+
+        int compareKey(byte[] other) {
+            return SSTableIndex.compareUtf8(key, 0, keyLength, other, 0, other.length);
+        }
+
+        String keyString() {
+            return new String(key, 0, keyLength, UTF_8);
+        }
+
+        ValueEntry value() {
+            if (valueLength == SSTableFormat.TOMBSTONE_LENGTH) {
+                return ValueEntry.tombstone(sequence);
+            }
+            return ValueEntry.of(new String(data, valueOffset, valueLength, UTF_8), sequence);
+        }
+
+        private int readVarint() throws IOException {
+            int result = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                if (position >= restartsOffset) {
+                    throw corrupted("varint");
+                }
+                int b = data[position++];
+                result |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw corrupted("varint");
+        }
+
+        private long readVarlong() throws IOException {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position >= restartsOffset) {
+                    throw corrupted("varint");
+                }
+                int b = data[position++];
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw corrupted("varint");
+        }
+
+        private IOException corrupted(String what) {
+            return new IOException("Invalid SSTable block (corrupted " + what + " at " + position + "): " + filename);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package ru.choomandco.diplsm.storage.sstable;
+
+import ru.choomandco.diplsm.storage.entry.ValueEntry;
+
+import java.util.Arrays;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Собирает содержимое одного блока {@link BlockSSTable} с префиксным сжатием ключей в формате,
+ * описанном в {@link Block}. После {@link #finish()} builder очищается и используется для следующего блока.
+ * Блоки данных хранят порядковые номера записей, Index Block — нет.
+ */
+final class BlockBuilder {
+    /** Число записей между точками рестарта по умолчанию */
+    static final int DEFAULT_RESTART_INTERVAL = 16;
+
+    private final int restartInterval;
+    /** Записывать ли порядковые номера записей */
+    private final boolean sequenced;
+    private byte[] buffer;
+    private int position;
+    private int[] restarts = new int[16];
+    private int restartCount;
+    /** Сколько записей добавлено после последней точки рестарта */
+    private int sinceRestart;
+    private byte[] lastKey;
+
+    /**
+     * @param initialCapacity начальный размер буфера, обычно равен целевому размеру блока
+     */
+    BlockBuilder(int initialCapacity) {
+        this(initialCapacity, DEFAULT_RESTART_INTERVAL);
+    }
+
+    /**
+     * @param initialCapacity начальный размер буфера, обычно равен целевому размеру блока
+     * @param restartInterval через сколько записей ключ снова пишется целиком
+     */
+    BlockBuilder(int initialCapacity, int restartInterval) {
+        this(initialCapacity, restartInterval, true);
+    }
+
+    /**
+     * @param initialCapacity начальный размер буфера, обычно равен целевому размеру блока
+     * @param restartInterval через сколько записей ключ снова пишется целиком
+     * @param sequenced записывать ли порядковые номера записей; false для Index Block
+     */
+    BlockBuilder(int initialCapacity, int restartInterval, boolean sequenced) {
+        this.buffer = new byte[Math.max(64, initialCapacity + initialCapacity / 4)];
+        this.restartInterval = restartInterval;
+        this.sequenced = sequenced;
+    }
+
+    /**
+     * Добавляет запись. Ключи должны поступать по возрастанию.
+     * @param key ключ в UTF-8
+     * @param value значение или маркер удаления вместе с порядковым номером записи
+     */
+    void add(byte[] key, ValueEntry value) {
+        add(key, value.isTombstone() ? null : value.getValue().getBytes(UTF_8), value.getSequence());
+    }
+
+    /**
+     * Добавляет запись с произвольным значением в байтах и нулевым номером.
+     * @param key ключ в UTF-8
+     * @param value значение или null для маркера удаления
+     */
+    void add(byte[] key, byte[] value) {
+        add(key, value, 0);
+    }
+
+    /**
+     * Добавляет запись с произвольным значением в байтах.
+     * @param key ключ в UTF-8
+     * @param value значение или null для маркера удаления
+     * @param sequence порядковый номер записи; не записывается, если builder собирает блок без номеров
+     */
+    private void add(byte[] key, byte[] value, long sequence) {
+        int shared = 0;
+        if (lastKey == null || sinceRestart == restartInterval) {
+            if (restartCount == restarts.length) {
+                restarts = Arrays.copyOf(restarts, restartCount * 2);
+            }
+            restarts[restartCount++] = position;
+            sinceRestart = 0;
+        } else {
+            int limit = Math.min(lastKey.length, key.length);
+            while (shared < limit && lastKey[shared] == key[shared]) {
+                shared++;
+            }
+        }
+        int unshared = key.length - shared;
+        int valueLength = value == null ? 0 : value.length;
+        ensureCapacity(25 + unshared + valueLength);
+
+        putVarint(shared);
+        putVarint(unshared);
+        int valueCode = value == null ? 0 : valueLength + 1;
+        if (!sequenced) {
+            putVarint(valueCode);
+        } else if (sequence == 0) {
+            putVarint(valueCode << 1);
+        } else {
+            putVarint(valueCode << 1 | 1);
+            putVarlong(sequence);
+        }
+        System.arraycopy(key, shared, buffer, position, unshared);
+        position += unshared;
+        if (value != null) {
+            System.arraycopy(value, 0, buffer, position, valueLength);
+            position += valueLength;
+        }
+        lastKey = key;
+        sinceRestart++;
+    }
+
+    /**
+     * @return размер блока, который получится при завершении прямо сейчас
+     */
+    int estimatedSize() {
+        return position + 4 * restartCount + 4;
+    }
+
+    boolean isEmpty() {
+        return lastKey == null;
+    }
+
+    /**
+     * Дописывает точки рестарта и возвращает содержимое блока, очищая builder.
+     * @return содержимое блока
+     */
+    byte[] finish() {
+        ensureCapacity(4 * restartCount + 4);
+        for (int i = 0; i < restartCount; i++) {
+            putInt(restarts[i]);
+        }
+        putInt(restartCount);
+        byte[] result = Arrays.copyOf(buffer, position);
+        position = 0;
+        restartCount = 0;
+        sinceRestart = 0;
+        lastKey = null;
+        return result;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (position + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + extra));
+        }
+    }
+
+    private void putVarint(int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    private void putVarlong(long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    private void putInt(int value) {
+        buffer[position++] = (byte) (value >>> 24);
+        buffer[position++] = (byte) (value >>> 16);
+        buffer[position++] = (byte) (value >>> 8);
+        buffer[position++] = (byte) value;
+    }
+}
@@ -0,0 +1,123 @@
+package ru.choomandco.diplsm.storage.sstable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Общий LRU-кэш декодированных блоков {@link BlockSSTable} с ограничением по памяти.
+ * Часто читаемые блоки отдаются из памяти без обращения к файлу; когда суммарный размер
+ * превышает лимит, вытесняются блоки, к которым дольше всего не обращались.
+ * Один экземпляр может разделяться несколькими таблицами и хранилищами.
+ */
+public class BlockCache {
+    /** Ограничение суммарного размера блоков в байтах */
+    private final long capacityBytes;
+    /** Блоки в порядке обращения: первым идёт самый давний */
+    private final LinkedHashMap<BlockKey, Block> blocks = new LinkedHashMap<>(256, 0.75f, true);
+    /** Текущий суммарный размер блоков в байтах */
+    private long usedBytes;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param capacityBytes ограничение суммарного размера блоков в байтах
+     */
+    public BlockCache(long capacityBytes) {
+        this.capacityBytes = capacityBytes;
+    }
+
+    /**
+     * Ищет блок в кэше и учитывает попадание или промах.
+     * @param filename путь к файлу
+     * @param offset смещение блока в файле
+     * @return блок или null, если его нет в кэше
+     */
+    synchronized Block get(String filename, long offset) {
+        Block block = blocks.get(new BlockKey(filename, offset));
+        if (block != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return block;
+    }
+
+    /**
+     * Кладёт блок в кэш, вытесняя давно не использованные. Блок крупнее всего лимита не кэшируется.
+     * @param filename путь к файлу
+     * @param offset смещение блока в файле
+     * @param block декодированный блок
+     */
+    synchronized void put(String filename, long offset, Block block) {
+        long size = block.memoryBytes();
+        if (size > capacityBytes) {
+            return;
+        }
+        Block previous = blocks.put(new BlockKey(filename, offset), block);
+        usedBytes += size - (previous == null ? 0 : previous.memoryBytes());
+
+        Iterator<Map.Entry<BlockKey, Block>> it = blocks.entrySet().iterator();
+        while (usedBytes > capacityBytes && it.hasNext()) {
+            usedBytes -= it.next().getValue().memoryBytes();
+            it.remove();
+        }
+    }
+
+    /**
+     * Убирает из кэша все блоки файла, например перед его удалением.
+     * @param filename путь к файлу
+     */
+    synchronized void invalidate(String filename) {
+        Iterator<Map.Entry<BlockKey, Block>> it = blocks.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<BlockKey, Block> entry = it.next();
+            if (entry.getKey().filename.equals(filename)) {
+                usedBytes -= entry.getValue().memoryBytes();
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public long getCapacityBytes() {
+        return capacityBytes;
+    }
+
+    /**
+     * Ключ блока в кэше: файл и смещение блока в нём.
+     */
+    private static final class BlockKey {
+        private final String filename;
+        private final long offset;
+
+        BlockKey(String filename, long offset) {
+            this.filename = filename;
+            this.offset = offset;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof BlockKey)) return false;
+            BlockKey other = (BlockKey) o;
+            return offset == other.offset && filename.equals(other.filename);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * filename.hashCode() + Long.hashCode(offset);
+        }
+    }
+}
@@ -0,0 +1,432 @@
+package ru.choomandco.diplsm.storage.sstable;
+
+import ru.choomandco.diplsm.storage.bloomfilter.BloomFilter;
+import ru.choomandco.diplsm.storage.compression.BlockCodecs;
+import ru.choomandco.diplsm.storage.compression.NoCompressionCodec;
+import ru.choomandco.diplsm.storage.entry.ValueEntry;
+import ru.choomandco.diplsm.storage.interfaces.BlockCodec;
+import ru.choomandco.diplsm.storage.interfaces.SortedStringTable;
+import ru.choomandco.diplsm.storage.interfaces.TableWriter;
+import ru.choomandco.diplsm.storage.iterator.EntryIterator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Класс SSTable с блочным форматом: записи упакованы в блоки по несколько килобайт,
+ * а разреженный индекс хранит по одной записи на блок.
+ * <pre>
+ * [Data Block 1][trailer]...[Data Block N][trailer][Index Block][Meta Block][Footer]
+ * trailer     = [type byte][crc int] — тип равен идентификатору кодека ({@link BlockCodec#getId()}),
+ *               CRC считается по хранимым байтам блока и типу
+ * сжатый блок = [длина до сжатия int][данные кодека]
+ * Index Block = блок в формате {@link Block} без порядковых номеров: ключ — последний ключ блока данных,
+ *               значение — его offset (8 байт)
+ * </pre>
+ * Ключи и в блоках данных, и в Index Block хранятся с префиксным сжатием относительно предыдущего ключа
+ * и точками рестарта, поэтому длинные общие префиксы вроде {@code user_000123} почти не занимают места.
+ * Кодек выбирается по уровню, на который пишется файл; блок, который сжимается плохо, хранится без сжатия.
+ * Формат записей внутри блока описан в {@link Block}, Meta Block и Footer — в {@link SSTableFormat}.
+ * Точечное чтение находит блок бинарным поиском по индексу и ищет ключ в блоке;
+ * распакованные и декодированные блоки кэшируются в общем {@link BlockCache}. Обход и компактация читают блоки целиком.
+ */
+public class BlockSSTable implements SortedStringTable {
+    static final int MAGIC = 0x4C534D42; // 'LSMB'
+    /**
+     * Версия 3: записи блоков данных хранят порядковый номер записи.
+     * Файлы версии 2 (префиксное сжатие ключей без номеров) читаются как есть, с номером 0 у всех записей.
+     */
+    static final int VERSION = 3;
+    /** Наименьшая поддерживаемая версия */
+    static final int MIN_VERSION = 2;
+    /** Размер трейлера блока: тип и CRC */
+    static final int BLOCK_TRAILER_SIZE = 5;
+    /** Тип блока без сжатия */
+    static final int BLOCK_TYPE_RAW = NoCompressionCodec.ID;
+
+    /** Целевой размер блока по умолчанию */
+    public static final int DEFAULT_BLOCK_SIZE = 4 * 1024;
+    /** Размер кэша блоков по умолчанию */
+    public static final long DEFAULT_BLOCK_CACHE_BYTES = 32L * 1024 * 1024;
+
+    /** Целевой размер блока данных в байтах */
+    private final int blockSize;
+    /** Число бит фильтра Блума на ключ для новых таблиц */
+    private final double bloomBitsPerKey;
+    /** Кэш декодированных блоков */
+    private final BlockCache blockCache;
+    /** Загруженные разреженные индексы таблиц */
+    private final SSTableIndexCache indexCache;
+    /** Синхронизировать ли новые файлы с диском при завершении записи */
+    private final boolean syncOnFinish;
+    /** Кодеки блоков по уровням; уровни глубже последнего элемента используют его кодек */
+    private final BlockCodec[] levelCodecs;
+
+    public BlockSSTable() {
+        this(DEFAULT_BLOCK_SIZE, BloomFilter.DEFAULT_BITS_PER_KEY, new BlockCache(DEFAULT_BLOCK_CACHE_BYTES));
+    }
+
+    /**
+     * @param blockSize целевой размер блока данных в байтах
+     * @param bloomBitsPerKey число бит фильтра Блума на ключ для новых таблиц
+     * @param blockCache кэш блоков, может разделяться несколькими таблицами
+     */
+    public BlockSSTable(int blockSize, double bloomBitsPerKey, BlockCache blockCache) {
+        this(blockSize, bloomBitsPerKey, blockCache, SSTable.DEFAULT_INDEX_CACHE_BYTES);
+    }
+
+    /**
+     * @param blockSize целевой размер блока данных в байтах
+     * @param bloomBitsPerKey число бит фильтра Блума на ключ для новых таблиц
+     * @param blockCache кэш блоков, может разделяться несколькими таблицами
+     * @param indexCacheBytes ограничение памяти под загруженные индексы таблиц
+     */
+    public BlockSSTable(int blockSize, double bloomBitsPerKey, BlockCache blockCache, long indexCacheBytes) {
+        this(blockSize, bloomBitsPerKey, blockCache, indexCacheBytes, false);
+    }
+
+    /**
+     * @param blockSize целевой размер блока данных в байтах
+     * @param bloomBitsPerKey число бит фильтра Блума на ключ для новых таблиц
+     * @param blockCache кэш блоков, может разделяться несколькими таблицами
+     * @param indexCacheBytes ограничение памяти под загруженные индексы таблиц
+     * @param syncOnFinish вызывать fsync при завершении записи каждого нового файла
+     */
+    public BlockSSTable(int blockSize, double bloomBitsPerKey, BlockCache blockCache, long indexCacheBytes,
+                        boolean syncOnFinish) {
+        this(blockSize, bloomBitsPerKey, blockCache, indexCacheBytes, syncOnFinish, new BlockCodec[]{BlockCodecs.NONE});
+    }
+
+    /**
+     * @param blockSize целевой размер блока данных в байтах
+     * @param bloomBitsPerKey число бит фильтра Блума на ключ для новых таблиц
+     * @param blockCache кэш блоков, может разделяться несколькими таблицами
+     * @param indexCacheBytes ограничение памяти под загруженные индексы таблиц
+     * @param syncOnFinish вызывать fsync при завершении записи каждого нового файла
+     * @param levelCodecs кодеки блоков по уровням, начиная с нулевого; уровни глубже последнего элемента
+     *                    используют его кодек
+     */
+    public BlockSSTable(int blockSize, double bloomBitsPerKey, BlockCache blockCache, long indexCacheBytes,
+                        boolean syncOnFinish, BlockCodec[] levelCodecs) {
+        if (levelCodecs.length == 0) {
+            throw new IllegalArgumentException("At least one block codec is required");
+        }
+        this.levelCodecs = levelCodecs.clone();
+        this.blockSize = blockSize;
+        this.bloomBitsPerKey = bloomBitsPerKey;
+        this.blockCache = blockCache;
+        this.indexCache = new SSTableIndexCache(indexCacheBytes);
+        this.syncOnFinish = syncOnFinish;
+    }
+
+    /**
+     * Метод пишет мапу MemTable в новый SSTable.
+     * @param memTableMap Мапа с данными из MemTable
+     * @param filename Название файла SSTable
+     */
+    @Override
+    public void writeTableFromMap(Map<String, String> memTableMap, String filename) {
+        Map<String, ValueEntry> entries = new TreeMap<>();
+        for (Map.Entry<String, String> e : memTableMap.entrySet()) {
+            entries.put(e.getKey(), ValueEntry.of(e.getValue()));
+        }
+        writeTableFromEntries(entries, filename);
+    }
+
+    /**
+     * Метод пишет отсортированные записи (включая маркеры удаления) в новый SSTable.
+     * @param entries Записи, отсортированные по ключу
+     * @param filename Название файла SSTable
+     */
+    @Override
+    public void writeTableFromEntries(Map<String, ValueEntry> entries, String filename) {
+        TableWriter writer = newWriter(filename);
+        for (Map.Entry<String, ValueEntry> e : entries.entrySet()) {
+            writer.add(e.getKey(), e.getValue());
+        }
+        writer.finish(0);
+    }
+
+    /**
+     * Создаёт потоковый writer для нового файла нулевого уровня.
+     * @param filename Название файла SSTable
+     * @return writer, принимающий записи по возрастанию ключей
+     */
+    @Override
+    public TableWriter newWriter(String filename) {
+        return newWriter(filename, 0);
+    }
+
+    /**
+     * Создаёт потоковый writer, сжимающий блоки кодеком, настроенным для уровня.
+     * @param filename Название файла SSTable
+     * @param tier уровень, на который пишется файл
+     * @return writer, принимающий записи по возрастанию ключей
+     */
+    @Override
+    public TableWriter newWriter(String filename, int tier) {
+        BlockCodec codec = levelCodecs[Math.min(Math.max(tier, 0), levelCodecs.length - 1)];
+        return new BlockSSTableWriter(filename, blockSize, bloomBitsPerKey, syncOnFinish, codec);
+    }
+
+    /**
+     * Метод для чтения из SSTable по ключу
+     * @param key Ключ
+     * @return Значение по ключу или null, если ключа нет или он удалён
+     */
+    @Override
+    public String getByKey(String key, String filename) {
+        ValueEntry entry = getEntryByKey(key, filename);
+        return entry == null ? null : entry.getValue();
+    }
+
+    /**
+     * Метод для чтения записи по ключу: бинарный поиск блока по разреженному индексу,
+     * затем бинарный поиск по точкам рестарта блока, взятого из кэша или прочитанного одним чтением,
+     * и просмотр записей до следующей точки.
+     * @param key Ключ
+     * @return Запись по ключу или null, если ключа в таблице нет
+     */
+    @Override
+    public ValueEntry getEntryByKey(String key, String filename) {
+        byte[] keyBytes = key.getBytes(UTF_8);
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            SSTableIndex index = loadIndex(filename, channel);
+            int blockNo = index.lowerBound(keyBytes);
+            if (blockNo == index.size()) {
+                return null;
+            }
+            return readBlock(filename, channel, index, blockNo, true).get(keyBytes);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Ищет несколько ключей в одном файле: файл открывается один раз, а соседние ключи,
+     * попавшие в один блок, ищутся в уже прочитанном блоке, поэтому каждый блок читается не больше одного раза.
+     * @param sortedKeys ключи в порядке возрастания, без повторов
+     * @return найденные записи, включая маркеры удаления
+     */
+    @Override
+    public Map<String, ValueEntry> getEntriesByKeys(List<String> sortedKeys, String filename) {
+        Map<String, ValueEntry> result = new HashMap<>();
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            SSTableIndex index = loadIndex(filename, channel);
+            int blockNo = -1;
+            Block block = null;
+            for (String key : sortedKeys) {
+                byte[] keyBytes = key.getBytes(UTF_8);
+                int next = index.lowerBound(keyBytes);
+                if (next == index.size()) {
+                    // ключи отсортированы: все оставшиеся тоже больше последнего ключа файла
+                    break;
+                }
+                if (next != blockNo) {
+                    block = readBlock(filename, channel, index, next, true);
+                    blockNo = next;
+                }
+                ValueEntry entry = block.get(keyBytes);
+                if (entry != null) {
+                    result.put(key, entry);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return result;
+    }
+
+    /**
+     * Читает весь файл в отсортированное отображение ключ→значение. Удалённые ключи в результат не попадают.
+     * @param filename путь к файлу
+     * @return TreeMap с данными из файла
+     * @throws IOException при ошибках I/O или некорректном формате
+     */
+    @Override
+    public Map<String, String> readWholeIntoMap(String filename) throws IOException {
+        Map<String, String> result = new TreeMap<>();
+        for (Map.Entry<String, ValueEntry> e : readEntriesIntoMap(filename).entrySet()) {
+            if (!e.getValue().isTombstone()) {
+                result.put(e.getKey(), e.getValue().getValue());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Читает весь файл в отсортированное отображение ключ→запись, включая маркеры удаления.
+     * @param filename путь к файлу
+     * @return TreeMap с записями из файла
+     * @throws IOException при ошибках I/O или некорректном формате
+     */
+    @Override
+    public Map<String, ValueEntry> readEntriesIntoMap(String filename) throws IOException {
+        Map<String, ValueEntry> result = new TreeMap<>();
+        try (EntryIterator it = iterator(filename, null, null, false)) {
+            while (it.hasNext()) {
+                Map.Entry<String, ValueEntry> e = it.next();
+                result.put(e.getKey(), e.getValue());
+            }
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+        return result;
+    }
+
+    /**
+     * Открывает потоковый итератор по диапазону ключей файла, читающий блоки целиком.
+     * @param filename путь к файлу
+     * @param fromKey нижняя граница (включительно) или null
+     * @param toKey верхняя граница (не включительно) или null
+     * @param reverse обходить в порядке убывания ключей
+     * @return итератор записей, включая маркеры удаления
+     */
+    @Override
+    public EntryIterator iterator(String filename, String fromKey, String toKey, boolean reverse) {
+        return new BlockSSTableIterator(this, filename, fromKey, toKey, reverse);
+    }
+
+    /**
+     * Загружает метаданные таблицы из Meta Block одним чтением хвоста файла.
+     * @param filename путь к файлу
+     * @param tier уровень файла
+     * @return метаданные таблицы
+     * @throws IOException при ошибках I/O или некорректном формате
+     */
+    @Override
+    public SSTableMetadata readMetadata(String filename, int tier) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            return SSTableFormat.readMetadata(channel, filename, tier, MAGIC, MIN_VERSION, VERSION);
+        }
+    }
+
+    /**
+     * Берёт ключи из индекса файла: для {@link BlockSSTable} это последние ключи блоков.
+     * @param filename путь к файлу
+     * @param count сколько ключей нужно
+     * @return не больше {@code count} ключей по возрастанию
+     * @throws IOException при ошибках I/O или некорректном формате
+     */
+    @Override
+    public List<String> sampleKeys(String filename, int count) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            return loadIndex(filename, channel).sample(count);
+        }
+    }
+
+    /**
+     * Читает все записи файла и возвращает список строк вида "key=value"; удалённые ключи пропускаются.
+     * @param filename путь к файлу
+     * @return List<String> всех записей "key=value"
+     * @throws IOException при ошибках I/O или некорректном формате
+     */
+    @Override
+    public List<String> readStringsIntoList(String filename) throws IOException {
+        List<String> result = new ArrayList<>();
+        for (Map.Entry<String, String> e : readWholeIntoMap(filename).entrySet()) {
+            result.add(e.getKey() + "=" + e.getValue());
+        }
+        return result;
+    }
+
+    /**
+     * Удаляет файл и убирает его индекс и блоки из кэшей.
+     * @param filename путь к файлу
+     * @throws IOException при ошибке удаления
+     */
+    @Override
+    public void deleteFIle(String filename) throws IOException {
+        indexCache.invalidate(filename);
+        blockCache.invalidate(filename);
+        Files.delete(Paths.get(filename).toAbsolutePath().normalize());
+    }
+
+    /**
+     * @return кэш блоков таблицы
+     */
+    public BlockCache getBlockCache() {
+        return blockCache;
+    }
+
+    /**
+     * Возвращает разреженный индекс файла из кэша, при промахе читая и разворачивая его Index Block.
+     */
+    SSTableIndex loadIndex(String filename, FileChannel channel) throws IOException {
+        return indexCache.get(filename, () -> {
+            SSTableFormat.Footer footer = SSTableFormat.readFooter(channel, filename, MAGIC, MIN_VERSION, VERSION);
+            long size = footer.metaOffset - footer.indexOffset;
+            if (size < 4 || size > Integer.MAX_VALUE) {
+                throw new IOException("Invalid SSTable file (index block size " + size + "): " + filename);
+            }
+            ByteBuffer indexBlock = ByteBuffer.allocate((int) size);
+            SSTableFormat.readFully(channel, indexBlock, footer.indexOffset, filename);
+            return SSTableIndex.fromBlock(Block.decode(indexBlock.array(), filename, false), footer.indexOffset,
+                    footer.version >= VERSION, filename);
+        });
+    }
+
+    /**
+     * Возвращает блок из кэша или читает его одним позиционным чтением, проверяет CRC и распаковывает.
+     * @param filename путь к файлу
+     * @param channel открытый файл
+     * @param index разреженный индекс файла
+     * @param blockNo номер блока
+     * @param fillCache класть ли прочитанный блок в кэш; последовательные обходы его не засоряют
+     * @return распакованный и декодированный блок
+     * @throws IOException при ошибке чтения или повреждённом блоке
+     */
+    Block readBlock(String filename, FileChannel channel, SSTableIndex index, int blockNo, boolean fillCache) throws IOException {
+        long offset = index.offset(blockNo);
+        Block cached = blockCache.get(filename, offset);
+        if (cached != null) {
+            return cached;
+        }
+
+        int size = (int) (index.endOffset(blockNo) - offset);
+        if (size < BLOCK_TRAILER_SIZE) {
+            throw new IOException("Invalid SSTable block (too short): " + filename);
+        }
+        ByteBuffer raw = ByteBuffer.allocate(size);
+        SSTableFormat.readFully(channel, raw, offset, filename);
+        byte[] bytes = raw.array();
+        int contentsLength = size - BLOCK_TRAILER_SIZE;
+        int type = bytes[contentsLength] & 0xFF;
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, contentsLength + 1);
+        if ((int) crc.getValue() != raw.getInt(contentsLength + 1)) {
+            throw new IOException("Invalid SSTable block (CRC mismatch) at " + offset + ": " + filename);
+        }
+        byte[] contents;
+        if (type == BLOCK_TYPE_RAW) {
+            contents = Arrays.copyOf(bytes, contentsLength);
+        } else {
+            BlockCodec codec = BlockCodecs.byId(type);
+            if (codec == null) {
+                throw new IOException("Unsupported SSTable block type " + type + ": " + filename);
+            }
+            if (contentsLength < 4) {
+                throw new IOException("Invalid SSTable block (too short): " + filename);
+            }
+            contents = codec.decompress(bytes, 4, contentsLength - 4, raw.getInt(0));
+        }
+
+        Block block = Block.decode(contents, filename, index.isSequenced());
+        if (fillCache) {
+            blockCache.put(filename, offset, block);
+        }
+        return block;
+    }
+}
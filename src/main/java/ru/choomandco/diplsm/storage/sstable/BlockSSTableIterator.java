@@ -0,0 +1,166 @@
+package ru.choomandco.diplsm.storage.sstable;
+
+import ru.choomandco.diplsm.storage.entry.ValueEntry;
+import ru.choomandco.diplsm.storage.iterator.EntryIterator;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Итератор по диапазону ключей {@link BlockSSTable}. Блоки читаются и разбираются целиком по одному,
+ * в памяти одновременно находятся только записи текущего блока. Начальный блок находится бинарным поиском
+ * по индексу, позиция в нём — бинарным поиском по разобранным ключам; прочитанные блоки в кэш не кладутся,
+ * чтобы обход не вытеснял горячие блоки.
+ */
+class BlockSSTableIterator implements EntryIterator {
+    private final BlockSSTable table;
+    private final String filename;
+    private final FileChannel channel;
+    private final boolean reverse;
+    /** Граница, у которой обход заканчивается: toKey при прямом обходе, fromKey при обратном */
+    private final String stopKey;
+
+    private SSTableIndex index;
+    private int blockNo;
+    /** Записи текущего блока или null, если обход закончен */
+    private List<Map.Entry<String, ValueEntry>> block;
+    private int pos;
+    private Map.Entry<String, ValueEntry> pending;
+
+    /**
+     * @param table таблица, через которую читаются индекс и блоки
+     * @param filename путь к файлу
+     * @param fromKey нижняя граница (включительно) или null
+     * @param toKey верхняя граница (не включительно) или null
+     * @param reverse обходить в порядке убывания ключей
+     */
+    BlockSSTableIterator(BlockSSTable table, String filename, String fromKey, String toKey, boolean reverse) {
+        this.table = table;
+        this.filename = filename;
+        this.reverse = reverse;
+        byte[] from = fromKey == null ? null : fromKey.getBytes(UTF_8);
+        byte[] to = toKey == null ? null : toKey.getBytes(UTF_8);
+        this.stopKey = reverse ? fromKey : toKey;
+        try {
+            this.channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+            index = table.loadIndex(filename, channel);
+            if (reverse) {
+                // блок, где может лежать первый ключ >= toKey; записи перед ним — последние в диапазоне
+                blockNo = to == null ? index.size() - 1 : Math.min(index.lowerBound(to), index.size() - 1);
+                if (blockNo >= 0) {
+                    block = readEntries(blockNo);
+                    pos = (toKey == null ? block.size() : lowerBound(block, toKey)) - 1;
+                }
+            } else {
+                blockNo = index.lowerBound(from);
+                if (blockNo < index.size()) {
+                    block = readEntries(blockNo);
+                    pos = fromKey == null ? 0 : lowerBound(block, fromKey);
+                }
+            }
+            pending = advance();
+        } catch (IOException e) {
+            close();
+            throw new RuntimeException("Failed to open SSTable iterator: " + filename, e);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return pending != null;
+    }
+
+    @Override
+    public Map.Entry<String, ValueEntry> next() {
+        if (pending == null) {
+            throw new NoSuchElementException();
+        }
+        Map.Entry<String, ValueEntry> result = pending;
+        try {
+            pending = advance();
+        } catch (IOException e) {
+            throw new RuntimeException("Error while iterating SSTable: " + filename, e);
+        }
+        return result;
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Возвращает следующую запись, при необходимости переходя к соседнему блоку.
+     * @return запись или null, если диапазон исчерпан
+     */
+    private Map.Entry<String, ValueEntry> advance() throws IOException {
+        if (block == null) {
+            return null;
+        }
+        if (reverse) {
+            while (pos < 0) {
+                if (--blockNo < 0) {
+                    block = null;
+                    return null;
+                }
+                block = readEntries(blockNo);
+                pos = block.size() - 1;
+            }
+        } else {
+            while (pos >= block.size()) {
+                if (++blockNo >= index.size()) {
+                    block = null;
+                    return null;
+                }
+                block = readEntries(blockNo);
+                pos = 0;
+            }
+        }
+
+        Map.Entry<String, ValueEntry> entry = block.get(pos);
+        if (stopKey != null && crossedStop(entry.getKey())) {
+            block = null;
+            return null;
+        }
+        pos += reverse ? -1 : 1;
+        return entry;
+    }
+
+    private List<Map.Entry<String, ValueEntry>> readEntries(int blockNo) throws IOException {
+        return table.readBlock(filename, channel, index, blockNo, false).entries();
+    }
+
+    /**
+     * @return номер первой записи блока с ключом не меньше заданного или размер блока
+     */
+    private static int lowerBound(List<Map.Entry<String, ValueEntry>> entries, String key) {
+        int low = 0;
+        int high = entries.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (entries.get(mid).getKey().compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private boolean crossedStop(String key) {
+        int cmp = key.compareTo(stopKey);
+        return reverse ? cmp < 0 : cmp >= 0;
+    }
+}
@@ -0,0 +1,225 @@
+package ru.choomandco.diplsm.storage.sstable;
+
+import ru.choomandco.diplsm.storage.bloomfilter.BloomFilter;
+import ru.choomandco.diplsm.storage.compression.BlockCodecs;
+import ru.choomandco.diplsm.storage.entry.ValueEntry;
+import ru.choomandco.diplsm.storage.interfaces.BlockCodec;
+import ru.choomandco.diplsm.storage.interfaces.TableWriter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Потоковая запись {@link BlockSSTable}: записи копятся в текущем блоке и, как только блок
+ * достигает целевого размера, он вместе с трейлером (тип блока и CRC) попадает в буфер записи
+ * {@link ChannelOutput}, который уходит на диск крупными кусками. Перед записью блок сжимается кодеком;
+ * если сжатие экономит меньше восьмой части, блок пишется как есть.
+ * Разреженный индекс — последний ключ и смещение каждого блока — невелик и держится в памяти до завершения.
+ */
+public class BlockSSTableWriter implements TableWriter {
+    /** Размер буфера записи */
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final String filename;
+    private final ChannelOutput data;
+    private final int blockSize;
+    private final BlockBuilder block;
+    /** Разреженный индекс: последний ключ и смещение каждого блока */
+    private final BlockBuilder index = new BlockBuilder(4096, BlockBuilder.DEFAULT_RESTART_INTERVAL, false);
+    /** Смещение блока для записи в индекс */
+    private final ByteBuffer blockOffset = ByteBuffer.allocate(8);
+    private final CRC32 crc = new CRC32();
+    /** Число бит фильтра Блума на ключ */
+    private final double bloomBitsPerKey;
+    /** Синхронизировать ли файл с диском при завершении */
+    private final boolean syncOnFinish;
+    /** Кодек сжатия блоков */
+    private final BlockCodec codec;
+    /** Хеши добавленных ключей для построения фильтра Блума */
+    private long[] keyHashes = new long[1024];
+
+    private long entryCount;
+    private String minKey;
+    private String maxKey;
+    /** Наибольший порядковый номер добавленной записи */
+    private long maxSequence;
+    /** Последний ключ текущего блока в UTF-8 */
+    private byte[] lastKeyBytes;
+
+    /**
+     * @param filename путь к создаваемому файлу
+     * @param blockSize целевой размер блока данных в байтах
+     * @param bloomBitsPerKey число бит фильтра Блума на ключ
+     */
+    public BlockSSTableWriter(String filename, int blockSize, double bloomBitsPerKey) {
+        this(filename, blockSize, bloomBitsPerKey, false);
+    }
+
+    /**
+     * @param filename путь к создаваемому файлу
+     * @param blockSize целевой размер блока данных в байтах
+     * @param bloomBitsPerKey число бит фильтра Блума на ключ
+     * @param syncOnFinish вызывать fsync перед закрытием файла
+     */
+    public BlockSSTableWriter(String filename, int blockSize, double bloomBitsPerKey, boolean syncOnFinish) {
+        this(filename, blockSize, bloomBitsPerKey, syncOnFinish, BlockCodecs.NONE);
+    }
+
+    /**
+     * @param filename путь к создаваемому файлу
+     * @param blockSize целевой размер блока данных в байтах
+     * @param bloomBitsPerKey число бит фильтра Блума на ключ
+     * @param syncOnFinish вызывать fsync перед закрытием файла
+     * @param codec кодек сжатия блоков
+     */
+    public BlockSSTableWriter(String filename, int blockSize, double bloomBitsPerKey, boolean syncOnFinish,
+                              BlockCodec codec) {
+        this.codec = codec;
+        this.filename = filename;
+        this.blockSize = blockSize;
+        this.block = new BlockBuilder(blockSize);
+        this.bloomBitsPerKey = bloomBitsPerKey;
+        this.syncOnFinish = syncOnFinish;
+        try {
+            data = new ChannelOutput(filename, BUFFER_SIZE);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to create SSTable: " + filename, e);
+        }
+    }
+
+    /**
+     * Добавляет запись. Ключи должны поступать строго по возрастанию.
+     * @param key ключ
+     * @param value значение или маркер удаления
+     */
+    @Override
+    public void add(String key, ValueEntry value) {
+        if (maxKey != null && key.compareTo(maxKey) <= 0) {
+            throw new IllegalArgumentException("Keys must be added in ascending order: " + key + " after " + maxKey);
+        }
+        byte[] keyBytes = key.getBytes(UTF_8);
+        block.add(keyBytes, value);
+        lastKeyBytes = keyBytes;
+        if (block.estimatedSize() >= blockSize) {
+            flushBlock();
+        }
+
+        if (minKey == null) {
+            minKey = key;
+        }
+        maxKey = key;
+        maxSequence = Math.max(maxSequence, value.getSequence());
+        if (entryCount == keyHashes.length) {
+            keyHashes = Arrays.copyOf(keyHashes, keyHashes.length * 2);
+        }
+        keyHashes[(int) entryCount] = BloomFilter.hash(key);
+        entryCount++;
+    }
+
+    @Override
+    public long getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * @return сколько байт займут уже добавленные записи, включая несброшенный блок
+     */
+    @Override
+    public long getFileSize() {
+        return data.position() + block.estimatedSize() + index.estimatedSize();
+    }
+
+    /**
+     * Сбрасывает последний блок, дописывает индекс, мета-блок и footer и закрывает файл,
+     * при необходимости предварительно синхронизировав его с диском.
+     * @param tier уровень, на котором будет находиться таблица
+     * @return метаданные записанной таблицы или null, если в таблицу не попало ни одной записи
+     */
+    @Override
+    public SSTableMetadata finish(int tier) {
+        BloomFilter bloomFilter = BloomFilter.create(entryCount, bloomBitsPerKey);
+        for (int i = 0; i < entryCount; i++) {
+            bloomFilter.addHash(keyHashes[i]);
+        }
+        keyHashes = null;
+        long fileSize;
+        try {
+            if (!block.isEmpty()) {
+                flushBlock();
+            }
+            long indexOffset = data.position();
+            data.write(index.finish());
+            long metaOffset = data.position();
+
+            byte[] metaBlock = SSTableFormat.encodeMeta(entryCount,
+                    minKey == null ? "" : minKey, maxKey == null ? "" : maxKey, bloomFilter, maxSequence);
+            data.write(metaBlock);
+            data.write(SSTableFormat.encodeFooter(indexOffset, metaOffset, metaBlock.length,
+                    BlockSSTable.VERSION, BlockSSTable.MAGIC).array());
+            if (syncOnFinish) {
+                data.sync();
+            }
+            fileSize = data.position();
+            data.close();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to finish SSTable: " + filename, e);
+        }
+        if (entryCount == 0) {
+            return null;
+        }
+        SSTableMetadata meta = new SSTableMetadata(filename, tier, minKey, maxKey, bloomFilter, entryCount, fileSize);
+        meta.setMaxSequence(maxSequence);
+        return meta;
+    }
+
+    /**
+     * Прерывает запись и удаляет недописанный файл.
+     */
+    @Override
+    public void abort() {
+        try {
+            data.close();
+            Files.deleteIfExists(Paths.get(filename));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to abort SSTable: " + filename, e);
+        }
+    }
+
+    /**
+     * Сжимает текущий блок, пишет его с трейлером [тип][crc] и добавляет в разреженный индекс.
+     */
+    private void flushBlock() {
+        byte[] contents = block.finish();
+        int type = BlockSSTable.BLOCK_TYPE_RAW;
+        if (codec.getId() != BlockSSTable.BLOCK_TYPE_RAW) {
+            byte[] compressed = codec.compress(contents, 0, contents.length);
+            if (compressed.length + 4 < contents.length - contents.length / 8) {
+                byte[] stored = new byte[4 + compressed.length];
+                ByteBuffer.wrap(stored).putInt(contents.length);
+                System.arraycopy(compressed, 0, stored, 4, compressed.length);
+                contents = stored;
+                type = codec.getId();
+            }
+        }
+
+        crc.reset();
+        crc.update(contents, 0, contents.length);
+        crc.update(type);
+        try {
+            blockOffset.putLong(0, data.position());
+            index.add(lastKeyBytes, blockOffset.array());
+
+            data.write(contents);
+            data.writeByte(type);
+            data.writeInt((int) crc.getValue());
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write SSTable: " + filename, e);
+        }
+    }
+}
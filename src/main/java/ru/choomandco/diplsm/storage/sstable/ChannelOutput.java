@@ -0,0 +1,131 @@
+package ru.choomandco.diplsm.storage.sstable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Последовательная запись в файл через большой direct-буфер: числа и массивы копируются в буфер,
+ * а в {@link FileChannel} он уходит целиком, одним системным вызовом на каждые {@code bufferSize} байт.
+ * Позиция считается по всем записанным байтам, включая ещё не сброшенные.
+ */
+final class ChannelOutput implements Closeable {
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    /** Число байт, записанных в файл и в буфер */
+    private long position;
+
+    /**
+     * Создаёт файл или обрезает существующий.
+     * @param filename путь к файлу
+     * @param bufferSize размер буфера записи
+     * @throws IOException при ошибке открытия файла
+     */
+    ChannelOutput(String filename, int bufferSize) throws IOException {
+        this.channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE, StandardOpenOption.READ);
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    void writeByte(int value) throws IOException {
+        ensureRemaining(1);
+        buffer.put((byte) value);
+        position += 1;
+    }
+
+    void writeInt(int value) throws IOException {
+        ensureRemaining(4);
+        buffer.putInt(value);
+        position += 4;
+    }
+
+    void writeLong(long value) throws IOException {
+        ensureRemaining(8);
+        buffer.putLong(value);
+        position += 8;
+    }
+
+    void write(byte[] bytes) throws IOException {
+        write(bytes, 0, bytes.length);
+    }
+
+    void write(byte[] bytes, int offset, int length) throws IOException {
+        position += length;
+        while (length > 0) {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            int chunk = Math.min(length, buffer.remaining());
+            buffer.put(bytes, offset, chunk);
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    /**
+     * Дописывает всё содержимое этого файла в конец другого, не копируя его через кучу.
+     * @param target файл, в который переносятся данные
+     * @throws IOException при ошибке чтения или записи
+     */
+    void copyTo(ChannelOutput target) throws IOException {
+        flush();
+        target.flush();
+        long size = channel.size();
+        long copied = 0;
+        while (copied < size) {
+            copied += channel.transferTo(copied, size - copied, target.channel);
+        }
+        target.position += size;
+    }
+
+    /**
+     * @return число записанных байт
+     */
+    long position() {
+        return position;
+    }
+
+    /**
+     * Сбрасывает буфер в файл.
+     * @throws IOException при ошибке записи
+     */
+    void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Сбрасывает буфер и дожидается, пока данные и размер файла дойдут до диска.
+     * @throws IOException при ошибке записи
+     */
+    void sync() throws IOException {
+        flush();
+        channel.force(true);
+    }
+
+    private void ensureRemaining(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    /**
+     * Сбрасывает буфер и закрывает файл.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (channel.isOpen()) {
+                flush();
+            }
+        } finally {
+            channel.close();
+        }
+    }
+}
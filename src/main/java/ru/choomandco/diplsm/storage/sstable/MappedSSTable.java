@@ -0,0 +1,230 @@
+package ru.choomandco.diplsm.storage.sstable;
+
+import ru.choomandco.diplsm.storage.entry.ValueEntry;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Файл {@link SSTable}, целиком отображённый в память. Из Index Block при отображении берутся
+ * только смещения записей; ключи сравниваются прямо с байтами отображения, без декодирования в String.
+ * <p>
+ * Отображение защищено счётчиком ссылок: одну ссылку держит сама таблица, ещё по одной — каждое
+ * чтение и каждый открытый итератор. После {@link #close()} новые чтения отображение не получают,
+ * а память освобождается, когда завершится последнее из начатых.
+ */
+final class MappedSSTable {
+    /** Освобождает память отображения или null, если JVM такого не позволяет */
+    private static final Unmapper UNMAPPER = createUnmapper();
+
+    private final String filename;
+    private final MappedByteBuffer buffer;
+    /** Смещения записей в Data Block; последний элемент — начало Index Block */
+    private final int[] recordOffsets;
+    private final AtomicInteger refCount = new AtomicInteger(1);
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private MappedSSTable(String filename, MappedByteBuffer buffer, int[] recordOffsets) {
+        this.filename = filename;
+        this.buffer = buffer;
+        this.recordOffsets = recordOffsets;
+    }
+
+    /**
+     * Отображает файл в память и читает из Index Block смещения записей.
+     * @param filename путь к SSTable-файлу
+     * @return отображённый файл или null, если файл слишком велик для одного отображения
+     * @throws IOException при ошибках I/O или некорректном формате
+     */
+    static MappedSSTable map(String filename) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize > Integer.MAX_VALUE) {
+                return null;
+            }
+            SSTableFormat.Footer footer = SSTableFormat.readFooter(channel, filename);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+
+            int indexOffset = (int) footer.indexOffset;
+            int count = buffer.getInt(indexOffset);
+            if (count < 0 || count > (footer.metaOffset - indexOffset - 4) / 12) {
+                throw new IOException("Invalid SSTable index (bad entry count " + count + "): " + filename);
+            }
+            int[] recordOffsets = new int[count + 1];
+            int pos = indexOffset + 4;
+            for (int i = 0; i < count; i++) {
+                int keyLen = buffer.getInt(pos);
+                long offset = buffer.getLong(pos + 4 + keyLen);
+                if (offset < 0 || offset >= indexOffset) {
+                    throw new IOException("Invalid SSTable index (offset out of range): " + filename);
+                }
+                recordOffsets[i] = (int) offset;
+                pos += 4 + keyLen + 8;
+            }
+            recordOffsets[count] = indexOffset;
+            return new MappedSSTable(filename, buffer, recordOffsets);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Invalid SSTable index (truncated): " + filename, e);
+        }
+    }
+
+    /**
+     * Берёт ссылку на отображение для чтения.
+     * @return false, если отображение уже закрыто и читать из него нельзя
+     */
+    boolean acquire() {
+        while (true) {
+            int count = refCount.get();
+            if (count == 0) {
+                return false;
+            }
+            if (refCount.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Возвращает ссылку, взятую {@link #acquire()}. Последняя ссылка освобождает память отображения.
+     */
+    void release() {
+        if (refCount.decrementAndGet() == 0 && UNMAPPER != null) {
+            UNMAPPER.unmap(buffer);
+        }
+    }
+
+    /**
+     * Отдаёт ссылку таблицы, например перед удалением файла. Повторный вызов ничего не делает.
+     */
+    void close() {
+        if (closed.compareAndSet(false, true)) {
+            release();
+        }
+    }
+
+    int size() {
+        return recordOffsets.length - 1;
+    }
+
+    /**
+     * @param key ключ в UTF-8
+     * @return номер записи с этим ключом или -1
+     */
+    int find(byte[] key) {
+        int i = lowerBound(key);
+        return i < size() && compareKey(i, key) == 0 ? i : -1;
+    }
+
+    /**
+     * @param key ключ в UTF-8 или null
+     * @return номер первой записи с ключом не меньше заданного; 0 для null, size(), если таких нет
+     */
+    int lowerBound(byte[] key) {
+        if (key == null) {
+            return 0;
+        }
+        int lo = 0;
+        int hi = size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareKey(mid, key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    String keyAt(int i) {
+        int pos = recordOffsets[i];
+        return decode(pos + 4, buffer.getInt(pos));
+    }
+
+    ValueEntry valueAt(int i) {
+        int pos = recordOffsets[i];
+        pos += 4 + buffer.getInt(pos);
+        int valueLen = buffer.getInt(pos);
+        if (valueLen == SSTableFormat.TOMBSTONE_LENGTH) {
+            return ValueEntry.tombstone(buffer.getLong(pos + 4));
+        }
+        return ValueEntry.of(decode(pos + 4, valueLen), buffer.getLong(pos + 4 + valueLen));
+    }
+
+    Map.Entry<String, ValueEntry> entryAt(int i) {
+        return new AbstractMap.SimpleImmutableEntry<>(keyAt(i), valueAt(i));
+    }
+
+    String getFilename() {
+        return filename;
+    }
+
+    private int compareKey(int i, byte[] key) {
+        int pos = recordOffsets[i];
+        int keyLen = buffer.getInt(pos);
+        return SSTableIndex.compareUtf8(buffer, pos + 4, pos + 4 + keyLen, key);
+    }
+
+    private String decode(int pos, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(pos);
+        view.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Явное освобождение памяти отображения: без него она вернётся системе только после сборки мусора,
+     * а до тех пор удалённый файл продолжает занимать место на диске.
+     */
+    private interface Unmapper {
+        void unmap(MappedByteBuffer buffer);
+    }
+
+    /**
+     * Находит способ освободить отображение: Unsafe.invokeCleaner в Java 9+ или cleaner() буфера в Java 8.
+     */
+    private static Unmapper createUnmapper() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Object unsafe = theUnsafe.get(null);
+            return buffer -> {
+                try {
+                    invokeCleaner.invoke(unsafe, buffer);
+                } catch (ReflectiveOperationException ignored) {
+                }
+            };
+        } catch (ReflectiveOperationException | RuntimeException ignored) {
+        }
+        try {
+            Method cleanerMethod = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+            Method cleanMethod = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            return buffer -> {
+                try {
+                    Object cleaner = cleanerMethod.invoke(buffer);
+                    if (cleaner != null) {
+                        cleanMethod.invoke(cleaner);
+                    }
+                } catch (ReflectiveOperationException ignored) {
+                }
+            };
+        } catch (ReflectiveOperationException | RuntimeException ignored) {
+        }
+        return null;
+    }
+}
@@ -0,0 +1,67 @@
+package ru.choomandco.diplsm.storage.sstable;
+
+import ru.choomandco.diplsm.storage.entry.ValueEntry;
+import ru.choomandco.diplsm.storage.iterator.EntryIterator;
+
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Итератор по диапазону ключей отображённого в память {@link SSTable}. Границы находятся бинарным
+ * поиском по отображению, дальше записи читаются по номерам в обе стороны без обращений к файлу.
+ * Итератор держит ссылку на отображение до {@link #close()}.
+ */
+class MappedSSTableIterator implements EntryIterator {
+    private final MappedSSTable mapped;
+    private final boolean reverse;
+    /** Номер следующей записи */
+    private int pos;
+    /** Номер записи, на которой обход заканчивается (не включительно) */
+    private final int end;
+    private boolean closed;
+
+    /**
+     * @param mapped отображение, ссылка на которое уже взята; итератор вернёт её при закрытии
+     * @param fromKey нижняя граница (включительно) или null
+     * @param toKey верхняя граница (не включительно) или null
+     * @param reverse обходить в порядке убывания ключей
+     */
+    MappedSSTableIterator(MappedSSTable mapped, String fromKey, String toKey, boolean reverse) {
+        this.mapped = mapped;
+        this.reverse = reverse;
+        int from = mapped.lowerBound(fromKey == null ? null : fromKey.getBytes(UTF_8));
+        int to = toKey == null ? mapped.size() : Math.max(from, mapped.lowerBound(toKey.getBytes(UTF_8)));
+        if (reverse) {
+            pos = to - 1;
+            end = from - 1;
+        } else {
+            pos = from;
+            end = to;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !closed && pos != end;
+    }
+
+    @Override
+    public Map.Entry<String, ValueEntry> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Map.Entry<String, ValueEntry> entry = mapped.entryAt(pos);
+        pos += reverse ? -1 : 1;
+        return entry;
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            mapped.release();
+        }
+    }
+}
@@ -1,7 +1,10 @@
 package ru.choomandco.diplsm.storage.sstable;
 
 import ru.choomandco.diplsm.exception.invalid.crc.InvalidCRC;
+import ru.choomandco.diplsm.storage.entry.ValueEntry;
 import ru.choomandco.diplsm.storage.interfaces.SortedStringTable;
+import ru.choomandco.diplsm.storage.interfaces.TableWriter;
+import ru.choomandco.diplsm.storage.iterator.EntryIterator;
 
 import java.io.*;
 import java.nio.file.Files;
@@ -10,7 +13,10 @@ import java.util.*;
 import java.util.zip.CRC32;
 
 /**
- * Класс SSTable, работающий с чистым текстом
+ * Класс SSTable, работающий с чистым текстом.
+ * Каждая запись — строка "key:value", маркер удаления — строка из одного ключа без разделителя.
+ * Порядковые номера записей в текстовом формате не хранятся: прочитанные записи получают номер 0,
+ * и при слиянии их свежесть определяется порядком файлов.
  */
 public class PlainTextSSTable implements SortedStringTable {
     /**
@@ -20,12 +26,28 @@ public class PlainTextSSTable implements SortedStringTable {
      */
     @Override
     public void writeTableFromMap(Map<String, String> memTableMap, String filename) {
+        Map<String, ValueEntry> entries = new TreeMap<>();
+        for (Map.Entry<String, String> entry : memTableMap.entrySet()) {
+            entries.put(entry.getKey(), ValueEntry.of(entry.getValue()));
+        }
+        writeTableFromEntries(entries, filename);
+    }
+
+    /**
+     * Метод пишет отсортированные записи (включая маркеры удаления) в новый SSTable.
+     * @param entries Записи, отсортированные по ключу
+     * @param filename Название файла SSTable
+     */
+    @Override
+    public void writeTableFromEntries(Map<String, ValueEntry> entries, String filename) {
         try (BufferedWriter writer = new BufferedWriter(new FileWriter(filename))) {
             CRC32 crc = new CRC32();
             StringBuilder contentBuffer = new StringBuilder();
 
-            for (Map.Entry<String, String> entry : memTableMap.entrySet()) {
-                String line = entry.getKey() + ":" + entry.getValue();
+            for (Map.Entry<String, ValueEntry> entry : entries.entrySet()) {
+                String line = entry.getValue().isTombstone()
+                        ? entry.getKey()
+                        : entry.getKey() + ":" + entry.getValue().getValue();
                 contentBuffer.append(line).append("\n");
             }
 
@@ -42,20 +64,79 @@ public class PlainTextSSTable implements SortedStringTable {
         }
     }
 
+    /**
+     * Создаёт writer для нового SSTable-файла.
+     * Текстовый формат хранит контрольную сумму в начале файла, поэтому записи копятся в памяти
+     * и пишутся целиком при завершении.
+     * @param filename Название файла SSTable
+     * @return writer, принимающий записи по возрастанию ключей
+     */
+    @Override
+    public TableWriter newWriter(String filename) {
+        return new TableWriter() {
+            private final Map<String, ValueEntry> entries = new TreeMap<>();
+            /** Приблизительный размер строк файла */
+            private long size;
+
+            @Override
+            public void add(String key, ValueEntry value) {
+                entries.put(key, value);
+                size += key.length() + (value.isTombstone() ? 0 : value.getValue().length()) + 2;
+            }
+
+            @Override
+            public long getEntryCount() {
+                return entries.size();
+            }
+
+            @Override
+            public long getFileSize() {
+                return size;
+            }
+
+            @Override
+            public SSTableMetadata finish(int tier) {
+                writeTableFromEntries(entries, filename);
+                if (entries.isEmpty()) {
+                    return null;
+                }
+                SSTableMetadata meta = new SSTableMetadata(filename, tier, entries.keySet());
+                meta.setFileSize(new File(filename).length());
+                return meta;
+            }
+
+            @Override
+            public void abort() {
+                entries.clear();
+            }
+        };
+    }
+
     /**
      * Метод для чтения из SSTable по ключу
      * @param key Ключ
-     * @return Значение по ключу
+     * @return Значение по ключу или null, если ключа нет или он удалён
      */
     @Override
     public String getByKey(String key, String filename) {
+        ValueEntry entry = getEntryByKey(key, filename);
+        return entry == null ? null : entry.getValue();
+    }
+
+    /**
+     * Метод для чтения записи из SSTable по ключу вместе с маркером удаления
+     * @param key Ключ
+     * @return Запись по ключу или null, если ключа в таблице нет
+     */
+    @Override
+    public ValueEntry getEntryByKey(String key, String filename) {
         try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
             verifyCRC(reader, filename);
             String line;
             while ((line = reader.readLine()) != null) {
                 String[] parts = line.split(":", 2);
-                if (parts.length == 2 && parts[0].equals(key)) {
-                    return parts[1];
+                if (parts[0].equals(key)) {
+                    return parts.length == 2 ? ValueEntry.of(parts[1]) : ValueEntry.tombstone();
                 }
             }
         } catch (InvalidCRC e) {
@@ -93,6 +174,65 @@ public class PlainTextSSTable implements SortedStringTable {
         return result;
     }
 
+    /**
+     * Метод для чтения всего SSTable в мапу вместе с маркерами удаления
+     * @param filename Название файла SSTable
+     * @return Мапа записей из SSTable
+     */
+    @Override
+    public Map<String, ValueEntry> readEntriesIntoMap(String filename) {
+        Map<String, ValueEntry> result = new TreeMap<>();
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
+            verifyCRC(reader, filename);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(":", 2);
+                result.put(parts[0], parts.length == 2 ? ValueEntry.of(parts[1]) : ValueEntry.tombstone());
+            }
+        } catch (InvalidCRC e) {
+            throw new RuntimeException(e);
+        } catch (IOException e) {
+            throw new RuntimeException("Error while reading SSTable into map: " + filename, e);
+        }
+
+        return result;
+    }
+
+    /**
+     * Метод для обхода диапазона ключей SSTable.
+     * Текстовый формат не имеет индекса, поэтому файл читается целиком.
+     * @param filename Название файла SSTable
+     * @param fromKey Нижняя граница (включительно) или null
+     * @param toKey Верхняя граница (не включительно) или null
+     * @param reverse Обходить в порядке убывания ключей
+     * @return Итератор записей, включая маркеры удаления
+     */
+    @Override
+    public EntryIterator iterator(String filename, String fromKey, String toKey, boolean reverse) {
+        NavigableMap<String, ValueEntry> entries = new TreeMap<>(readEntriesIntoMap(filename));
+        if (fromKey != null) {
+            entries = entries.tailMap(fromKey, true);
+        }
+        if (toKey != null) {
+            entries = entries.headMap(toKey, false);
+        }
+        return EntryIterator.wrap((reverse ? entries.descendingMap() : entries).entrySet().iterator());
+    }
+
+    /**
+     * Метод строит метаданные таблицы. Текстовый формат их не хранит, поэтому файл читается целиком.
+     * @param filename Название файла SSTable
+     * @param tier Уровень файла
+     * @return Метаданные таблицы
+     */
+    @Override
+    public SSTableMetadata readMetadata(String filename, int tier) {
+        SSTableMetadata meta = new SSTableMetadata(filename, tier, readEntriesIntoMap(filename).keySet());
+        meta.setFileSize(new File(filename).length());
+        return meta;
+    }
+
     /**
      * Метод для чтения всех строк SSTable в список строк
      * @param filename Название файла SSTable
@@ -106,7 +246,9 @@ public class PlainTextSSTable implements SortedStringTable {
             verifyCRC(reader, filename);
             String line;
             while ((line = reader.readLine()) != null) {
-                result.add(line.replace(":", "="));
+                if (line.contains(":")) {
+                    result.add(line.replace(":", "="));
+                }
             }
         } catch (InvalidCRC e) {
             throw new RuntimeException(e);
@@ -0,0 +1,14 @@
+package ru.choomandco.diplsm.storage.sstable;
+
+/**
+ * Способ чтения файлов {@link SSTable}.
+ */
+public enum ReadMode {
+    /** Каждое чтение открывает файл и читает нужные байты позиционными чтениями */
+    CHANNEL,
+    /**
+     * Файл один раз отображается в память при подключении к хранилищу, поиск и обход идут
+     * по отображённым байтам без системных вызовов. Файлы больше 2 ГБ читаются как в {@link #CHANNEL}
+     */
+    MMAP
+}
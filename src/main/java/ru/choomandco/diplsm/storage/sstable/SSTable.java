@@ -1,22 +1,92 @@
 package ru.choomandco.diplsm.storage.sstable;
 
+import ru.choomandco.diplsm.storage.bloomfilter.BloomFilter;
+import ru.choomandco.diplsm.storage.entry.ValueEntry;
 import ru.choomandco.diplsm.storage.interfaces.SortedStringTable;
+import ru.choomandco.diplsm.storage.interfaces.TableWriter;
+import ru.choomandco.diplsm.storage.iterator.EntryIterator;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 /**
- * Класс SSTable, работающий с бинарным текстом
+ * Класс SSTable, работающий с бинарным текстом.
+ * Формат файла описан в {@link SSTableFormat}; маркер удаления записывается как значение
+ * с длиной {@link SSTableFormat#TOMBSTONE_LENGTH}.
+ * В режиме {@link ReadMode#MMAP} точечные чтения и обход идут по отображённому в память файлу ({@link MappedSSTable}).
  */
 public class SSTable implements SortedStringTable {
-    private static final int FOOTER_SIZE = 12;
-    private static final int MAGIC = 0x4C534D31; // 'LSM1'
+    /** Размер заголовка файлов первой версии формата */
+    private static final int LEGACY_HEADER_SIZE = 12;
+    /** Наибольший объём соседних записей, которые {@link #getEntriesByKeys} читает одним чтением */
+    private static final int MAX_COALESCED_READ = 256 * 1024;
+
+    /** Ограничение памяти под закэшированные индексы по умолчанию */
+    public static final long DEFAULT_INDEX_CACHE_BYTES = 64L * 1024 * 1024;
+
+    /** Число бит фильтра Блума на ключ для новых таблиц */
+    private final double bloomBitsPerKey;
+    /** Загруженные индексы таблиц, общие для всех читателей */
+    private final SSTableIndexCache indexCache;
+    /** Способ чтения файлов */
+    private final ReadMode readMode;
+    /** Синхронизировать ли новые файлы с диском при завершении записи */
+    private final boolean syncOnFinish;
+    /** Отображённые в память файлы в режиме {@link ReadMode#MMAP} */
+    private final Map<String, MappedSSTable> mappings = new ConcurrentHashMap<>();
+
+    public SSTable() {
+        this(BloomFilter.DEFAULT_BITS_PER_KEY);
+    }
+
+    /**
+     * @param bloomBitsPerKey число бит фильтра Блума на ключ для новых таблиц
+     */
+    public SSTable(double bloomBitsPerKey) {
+        this(bloomBitsPerKey, DEFAULT_INDEX_CACHE_BYTES);
+    }
+
+    /**
+     * @param bloomBitsPerKey число бит фильтра Блума на ключ для новых таблиц
+     * @param indexCacheBytes ограничение памяти под закэшированные индексы таблиц
+     */
+    public SSTable(double bloomBitsPerKey, long indexCacheBytes) {
+        this(bloomBitsPerKey, indexCacheBytes, ReadMode.CHANNEL);
+    }
+
+    /**
+     * @param bloomBitsPerKey число бит фильтра Блума на ключ для новых таблиц
+     * @param indexCacheBytes ограничение памяти под закэшированные индексы таблиц
+     * @param readMode способ чтения файлов
+     */
+    public SSTable(double bloomBitsPerKey, long indexCacheBytes, ReadMode readMode) {
+        this(bloomBitsPerKey, indexCacheBytes, readMode, false);
+    }
+
+    /**
+     * @param bloomBitsPerKey число бит фильтра Блума на ключ для новых таблиц
+     * @param indexCacheBytes ограничение памяти под закэшированные индексы таблиц
+     * @param readMode способ чтения файлов
+     * @param syncOnFinish вызывать fsync при завершении записи каждого нового файла
+     */
+    public SSTable(double bloomBitsPerKey, long indexCacheBytes, ReadMode readMode, boolean syncOnFinish) {
+        this.bloomBitsPerKey = bloomBitsPerKey;
+        this.indexCache = new SSTableIndexCache(indexCacheBytes);
+        this.readMode = readMode;
+        this.syncOnFinish = syncOnFinish;
+    }
+
     /**
      * Метод пишет мапу MemTable в новый SSTable.
      * @param memTableMap Мапа с данными из MemTable
@@ -24,90 +94,156 @@ public class SSTable implements SortedStringTable {
      */
     @Override
     public void writeTableFromMap(Map<String, String> memTableMap, String filename) {
-        try (RandomAccessFile raf = new RandomAccessFile(filename, "rw")) {
-            raf.setLength(0);
-            raf.seek(12);
-
-            List<IndexEntry> index = new ArrayList<>();
-            for (Map.Entry<String,String> e : memTableMap.entrySet()) {
-                long pos = raf.getFilePointer();
-                byte[] key = e.getKey().getBytes(UTF_8);
-                byte[] val = e.getValue().getBytes(UTF_8);
-
-                raf.writeInt(key.length);
-                raf.write(key);
-                raf.writeInt(val.length);
-                raf.write(val);
-
-                index.add(new IndexEntry(e.getKey(), pos));
-            }
-
-            long indexOffset = raf.getFilePointer();
-            raf.writeInt(index.size());
-            for (IndexEntry ie : index) {
-                byte[] key = ie.getKey().getBytes(UTF_8);
-                raf.writeInt(key.length);
-                raf.write(key);
-                raf.writeLong(ie.getOffset());
-            }
+        Map<String, ValueEntry> entries = new TreeMap<>();
+        for (Map.Entry<String, String> e : memTableMap.entrySet()) {
+            entries.put(e.getKey(), ValueEntry.of(e.getValue()));
+        }
+        writeTableFromEntries(entries, filename);
+    }
 
-            raf.seek(0);
-            raf.writeLong(indexOffset);
-            raf.writeInt(0x4C534D31);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+    /**
+     * Метод пишет отсортированные записи (включая маркеры удаления) в новый SSTable.
+     * @param entries Записи, отсортированные по ключу
+     * @param filename Название файла SSTable
+     */
+    @Override
+    public void writeTableFromEntries(Map<String, ValueEntry> entries, String filename) {
+        TableWriter writer = newWriter(filename);
+        for (Map.Entry<String, ValueEntry> e : entries.entrySet()) {
+            writer.add(e.getKey(), e.getValue());
         }
+        writer.finish(0);
+    }
+
+    /**
+     * Создаёт потоковый writer для нового SSTable-файла.
+     * @param filename Название файла SSTable
+     * @return writer, принимающий записи по возрастанию ключей
+     */
+    @Override
+    public TableWriter newWriter(String filename) {
+        return new SSTableWriter(filename, bloomBitsPerKey, syncOnFinish);
     }
 
     /**
      * Метод для чтения из SSTable по ключу
      * @param key Ключ
-     * @return Значение по ключу
+     * @return Значение по ключу или null, если ключа нет или он удалён
      */
     @Override
     public String getByKey(String key, String filename) {
-        try (RandomAccessFile raf = new RandomAccessFile(filename, "r")) {
-            raf.seek(0);
-            long indexOffset = raf.readLong();
-            int magic = raf.readInt();
-            if (magic != 0x4C534D31) throw new IOException("Bad SSTable magic");
-
-            raf.seek(indexOffset);
-            int count = raf.readInt();
-
-            List<IndexEntry> idx = new ArrayList<>(count);
-            for (int i = 0; i < count; i++) {
-                int klen = raf.readInt();
-                byte[] kbs = new byte[klen]; raf.readFully(kbs);
-                long off = raf.readLong();
-                idx.add(new IndexEntry(new String(kbs, UTF_8), off));
+        ValueEntry entry = getEntryByKey(key, filename);
+        return entry == null ? null : entry.getValue();
+    }
+
+    /**
+     * Метод для чтения записи из SSTable по ключу вместе с маркером удаления
+     * @param key Ключ
+     * @return Запись по ключу или null, если ключа в таблице нет
+     */
+    @Override
+    public ValueEntry getEntryByKey(String key, String filename) {
+        MappedSSTable mapped = acquireMapping(filename);
+        if (mapped != null) {
+            try {
+                int pos = mapped.find(key.getBytes(UTF_8));
+                return pos < 0 ? null : mapped.valueAt(pos);
+            } finally {
+                mapped.release();
             }
-            int pos = Collections.binarySearch(
-                    idx,
-                    new IndexEntry(key, -1),
-                    Comparator.comparing(IndexEntry::getKey)
-            );
+        }
+
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            SSTableIndex index = loadIndex(filename, channel);
+            int pos = index.find(key.getBytes(UTF_8));
             if (pos < 0) return null;
-            long dataOff = idx.get(pos).getOffset();
-
-            raf.seek(dataOff);
-            int klen = raf.readInt();
-            raf.skipBytes(klen);
-            int vlen = raf.readInt();
-            byte[] vbs = new byte[vlen]; raf.readFully(vbs);
-            return new String(vbs, UTF_8);
-        } catch (FileNotFoundException e) {
+
+            // конец записи известен из индекса, поэтому она читается одним позиционным чтением
+            long dataOff = index.offset(pos);
+            ByteBuffer record = ByteBuffer.allocate((int) (index.endOffset(pos) - dataOff));
+            SSTableFormat.readFully(channel, record, dataOff, filename);
+            return decodeRecord(record, 0);
+        } catch (IOException e) {
             throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Ищет несколько ключей в одном файле: файл открывается один раз, индекс берётся один раз,
+     * а записи, идущие в файле подряд, читаются одним позиционным чтением.
+     * @param sortedKeys ключи в порядке возрастания, без повторов
+     * @return найденные записи, включая маркеры удаления
+     */
+    @Override
+    public Map<String, ValueEntry> getEntriesByKeys(List<String> sortedKeys, String filename) {
+        Map<String, ValueEntry> result = new HashMap<>();
+        MappedSSTable mapped = acquireMapping(filename);
+        if (mapped != null) {
+            try {
+                for (String key : sortedKeys) {
+                    int pos = mapped.find(key.getBytes(UTF_8));
+                    if (pos >= 0) {
+                        result.put(key, mapped.valueAt(pos));
+                    }
+                }
+            } finally {
+                mapped.release();
+            }
+            return result;
+        }
+
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            SSTableIndex index = loadIndex(filename, channel);
+            List<String> foundKeys = new ArrayList<>(sortedKeys.size());
+            int[] positions = new int[sortedKeys.size()];
+            for (String key : sortedKeys) {
+                int pos = index.find(key.getBytes(UTF_8));
+                if (pos >= 0) {
+                    positions[foundKeys.size()] = pos;
+                    foundKeys.add(key);
+                }
+            }
+
+            int i = 0;
+            while (i < foundKeys.size()) {
+                long start = index.offset(positions[i]);
+                int j = i + 1;
+                while (j < foundKeys.size() && positions[j] == positions[j - 1] + 1
+                        && index.endOffset(positions[j]) - start <= MAX_COALESCED_READ) {
+                    j++;
+                }
+                ByteBuffer records = ByteBuffer.allocate((int) (index.endOffset(positions[j - 1]) - start));
+                SSTableFormat.readFully(channel, records, start, filename);
+                for (int k = i; k < j; k++) {
+                    result.put(foundKeys.get(k), decodeRecord(records, (int) (index.offset(positions[k]) - start)));
+                }
+                i = j;
+            }
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
+        return result;
+    }
+
+    /**
+     * Разбирает запись Data Block [klen][key][vlen][value][sequence], прочитанную в буфер.
+     * @param records буфер с одной или несколькими записями
+     * @param offset начало записи в буфере
+     * @return значение или маркер удаления с порядковым номером
+     */
+    private static ValueEntry decodeRecord(ByteBuffer records, int offset) {
+        int valueOffset = offset + 4 + records.getInt(offset);
+        int vlen = records.getInt(valueOffset);
+        if (vlen == SSTableFormat.TOMBSTONE_LENGTH) {
+            return ValueEntry.tombstone(records.getLong(valueOffset + 4));
+        }
+        long sequence = records.getLong(valueOffset + 4 + vlen);
+        return ValueEntry.of(new String(records.array(), valueOffset + 4, vlen, UTF_8), sequence);
     }
 
     /**
      * Читает весь SSTable-файл в отсортированное отображение ключ→значение.
-     * Формат бинарного файла:
-     * [Data Block][Index Block][Footer]
-     * Footer (12 байт) = [indexOffset (8 байт)][magic (4 байта)]
+     * Удалённые ключи в результат не попадают.
      *
      * @param filename путь к SSTable-файлу
      * @return TreeMap с данными из файла
@@ -116,34 +252,97 @@ public class SSTable implements SortedStringTable {
     @Override
     public Map<String, String> readWholeIntoMap(String filename) throws IOException {
         Map<String,String> result = new TreeMap<>();
+        for (Map.Entry<String, ValueEntry> e : readEntriesIntoMap(filename).entrySet()) {
+            if (!e.getValue().isTombstone()) {
+                result.put(e.getKey(), e.getValue().getValue());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Читает весь SSTable-файл в отсортированное отображение ключ→запись, включая маркеры удаления.
+     * Формат бинарного файла:
+     * [Data Block][Index Block][Meta Block][Footer]
+     *
+     * @param filename путь к SSTable-файлу
+     * @return TreeMap с записями из файла
+     * @throws IOException при ошибках I/O или некорректном формате
+     */
+    @Override
+    public Map<String, ValueEntry> readEntriesIntoMap(String filename) throws IOException {
+        Map<String, ValueEntry> result = new TreeMap<>();
         try (RandomAccessFile raf = new RandomAccessFile(filename, "r")) {
+            // файлы старых версий читаются целиком при переписывании в текущий формат
+            SSTableFormat.Footer footer = SSTableFormat.readFooter(raf.getChannel(), filename,
+                    SSTableFormat.MAGIC, 2, SSTableFormat.VERSION);
+            readDataBlock(raf, 0, footer.indexOffset, footer.version >= SSTableFormat.SEQUENCE_VERSION, result);
+        }
+        return result;
+    }
 
-            raf.seek(0);
-            long indexOffset = raf.readLong();
-            int magic = raf.readInt();
-            if (magic != 0x4C534D31) throw new IOException("Invalid SSTable file (magic mismatch): " + filename);
+    /**
+     * Открывает потоковый итератор по диапазону ключей файла.
+     * Данные читаются с диска по мере обхода, файл целиком в память не загружается.
+     *
+     * @param filename путь к SSTable-файлу
+     * @param fromKey нижняя граница (включительно) или null
+     * @param toKey верхняя граница (не включительно) или null
+     * @param reverse обходить в порядке убывания ключей
+     * @return итератор записей, включая маркеры удаления
+     */
+    @Override
+    public EntryIterator iterator(String filename, String fromKey, String toKey, boolean reverse) {
+        MappedSSTable mapped = acquireMapping(filename);
+        if (mapped != null) {
+            return new MappedSSTableIterator(mapped, fromKey, toKey, reverse);
+        }
+        return new SSTableIterator(this, filename, fromKey, toKey, reverse);
+    }
 
-            raf.seek(FOOTER_SIZE);
-            while (raf.getFilePointer() < indexOffset) {
-                int keyLen = raf.readInt();
-                byte[] keyBytes = new byte[keyLen];
-                raf.readFully(keyBytes);
+    /**
+     * Загружает метаданные таблицы из Meta Block одним чтением хвоста файла, не трогая Data Block.
+     * Файлы старых версий формата, где метаданные не сохранялись или фильтр Блума строился другим хешем,
+     * однократно переписываются в текущий формат.
+     *
+     * @param filename путь к SSTable-файлу
+     * @param tier уровень файла
+     * @return метаданные таблицы
+     * @throws IOException при ошибках I/O или некорректном формате
+     */
+    @Override
+    public SSTableMetadata readMetadata(String filename, int tier) throws IOException {
+        int version;
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            version = SSTableFormat.detectVersion(channel);
+        }
+        // файл переписывается после закрытия канала, иначе на Windows его не удастся заменить
+        if (version > 0 && version < SSTableFormat.VERSION) {
+            upgradeFile(filename, version);
+        }
 
-                int valLen = raf.readInt();
-                byte[] valBytes = new byte[valLen];
-                raf.readFully(valBytes);
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            return SSTableFormat.readMetadata(channel, filename, tier, SSTableFormat.MAGIC, 2, SSTableFormat.VERSION);
+        }
+    }
 
-                String key = new String(keyBytes, StandardCharsets.UTF_8);
-                String val = new String(valBytes, StandardCharsets.UTF_8);
-                result.put(key, val);
-            }
+    /**
+     * Берёт ключи из индекса файла: для {@link SSTable} это ключи отдельных записей.
+     * @param filename путь к файлу
+     * @param count сколько ключей нужно
+     * @return не больше {@code count} ключей по возрастанию
+     * @throws IOException при ошибках I/O или некорректном формате
+     */
+    @Override
+    public List<String> sampleKeys(String filename, int count) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            return loadIndex(filename, channel).sample(count);
         }
-        return result;
     }
 
     /**
      * Читает все строки SSTable-файла и возвращает список строк вида "key=value".
-     * Формирует список в том порядке, в котором записаны пары в Data Block.
+     * Формирует список в том порядке, в котором записаны пары в Data Block; удалённые ключи пропускаются.
      *
      * @param filename путь к SSTable-файлу
      * @return List<String> всех записей "key=value"
@@ -153,34 +352,39 @@ public class SSTable implements SortedStringTable {
     public List<String> readStringsIntoList(String filename) throws IOException {
         List<String> result = new ArrayList<>();
         try (RandomAccessFile raf = new RandomAccessFile(filename, "r")) {
-            long fileSize = raf.length();
-            raf.seek(fileSize - FOOTER_SIZE);
-            long indexOffset = raf.readLong();
-            int magic = raf.readInt();
-            if (magic != MAGIC) {
-                throw new IOException("Invalid SSTable file (magic mismatch): " + filename);
-            }
+            SSTableFormat.Footer footer = SSTableFormat.readFooter(raf.getChannel(), filename);
 
-            raf.seek(FOOTER_SIZE);
-            while (raf.getFilePointer() < indexOffset) {
+            raf.seek(0);
+            while (raf.getFilePointer() < footer.indexOffset) {
                 int keyLen = raf.readInt();
                 byte[] keyBytes = new byte[keyLen];
                 raf.readFully(keyBytes);
 
-                int valLen = raf.readInt();
-                byte[] valBytes = new byte[valLen];
-                raf.readFully(valBytes);
-
-                String key = new String(keyBytes, StandardCharsets.UTF_8);
-                String val = new String(valBytes, StandardCharsets.UTF_8);
-                result.add(key + "=" + val);
+                ValueEntry value = readValue(raf, true);
+                if (!value.isTombstone()) {
+                    result.add(new String(keyBytes, StandardCharsets.UTF_8) + "=" + value.getValue());
+                }
             }
         }
         return result;
     }
 
     /**
-     * Удаляет файл SSTable.
+     * В режиме {@link ReadMode#MMAP} отображает файл в память, чтобы первые чтения не платили за отображение.
+     * @param filename путь к SSTable-файлу
+     * @throws IOException при ошибках I/O или некорректном формате
+     */
+    @Override
+    public void openFile(String filename) throws IOException {
+        MappedSSTable mapped = acquireMapping(filename);
+        if (mapped != null) {
+            mapped.release();
+        }
+    }
+
+    /**
+     * Удаляет файл SSTable. Отображение файла закрывается сразу, а память освобождается,
+     * когда завершатся уже начатые чтения из него.
      *
      * @param filename путь к файлу
      * @throws IOException при ошибке удаления
@@ -188,6 +392,8 @@ public class SSTable implements SortedStringTable {
     @Override
     public void deleteFIle(String filename) throws IOException {
         Path p = Paths.get(filename).toAbsolutePath().normalize();
+        indexCache.invalidate(filename);
+        closeMapping(filename);
         try {
             Files.delete(p);
 //            System.out.println("[delete] Deleted SSTable " + p);
@@ -195,4 +401,130 @@ public class SSTable implements SortedStringTable {
 //            System.err.println("[delete] FAILED to delete SSTable " + p + ": " + e.getMessage());
             throw e;
         }    }
+
+    /**
+     * Возвращает индекс файла из кэша, при промахе читая его Index Block.
+     * @param filename путь к SSTable-файлу
+     * @param channel открытый файл
+     * @return индекс таблицы
+     * @throws IOException при ошибках I/O или некорректном формате
+     */
+    SSTableIndex loadIndex(String filename, FileChannel channel) throws IOException {
+        return indexCache.get(filename, () -> SSTableIndex.read(channel, SSTableFormat.readFooter(channel, filename), filename));
+    }
+
+    /**
+     * Берёт ссылку на отображение файла, при первом обращении отображая его.
+     * @param filename путь к SSTable-файлу
+     * @return отображение, которое нужно вернуть через {@link MappedSSTable#release()},
+     *         или null, если файл читается через канал
+     */
+    private MappedSSTable acquireMapping(String filename) {
+        if (readMode != ReadMode.MMAP) {
+            return null;
+        }
+        while (true) {
+            MappedSSTable mapped = mappings.get(filename);
+            if (mapped == null) {
+                MappedSSTable created;
+                try {
+                    created = MappedSSTable.map(filename);
+                } catch (IOException e) {
+                    throw new RuntimeException("Failed to map SSTable: " + filename, e);
+                }
+                if (created == null) {
+                    return null;
+                }
+                mapped = mappings.putIfAbsent(filename, created);
+                if (mapped == null) {
+                    mapped = created;
+                } else {
+                    created.close();
+                }
+            }
+            if (mapped.acquire()) {
+                return mapped;
+            }
+            // отображение закрыли между get и acquire
+            mappings.remove(filename, mapped);
+        }
+    }
+
+    private void closeMapping(String filename) {
+        MappedSSTable mapped = mappings.remove(filename);
+        if (mapped != null) {
+            mapped.close();
+        }
+    }
+
+    /**
+     * Переписывает файл старой версии формата в текущий.
+     * Новый файл пишется рядом и атомарно подменяет старый.
+     * @param filename путь к SSTable-файлу
+     * @param version версия формата файла
+     * @throws IOException при ошибках I/O
+     */
+    private void upgradeFile(String filename, int version) throws IOException {
+        Map<String, ValueEntry> entries;
+        if (version == 1) {
+            entries = new TreeMap<>();
+            try (RandomAccessFile raf = new RandomAccessFile(filename, "r")) {
+                long indexOffset = raf.readLong();
+                if (raf.readInt() != SSTableFormat.LEGACY_MAGIC) {
+                    throw new IOException("Invalid SSTable file (magic mismatch): " + filename);
+                }
+                readDataBlock(raf, LEGACY_HEADER_SIZE, indexOffset, false, entries);
+            }
+        } else {
+            entries = readEntriesIntoMap(filename);
+        }
+
+        indexCache.invalidate(filename);
+        closeMapping(filename);
+        String upgradedFilename = filename + ".upgrade";
+        writeTableFromEntries(entries, upgradedFilename);
+        Files.move(Paths.get(upgradedFilename), Paths.get(filename),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Читает записи Data Block в диапазоне смещений [start, end).
+     * @param raf открытый файл
+     * @param start смещение первой записи
+     * @param end смещение конца Data Block
+     * @param withSequence записан ли после значения порядковый номер записи (формат версии 4 и новее)
+     * @param result отображение, в которое складываются записи
+     * @throws IOException при ошибке чтения
+     */
+    private void readDataBlock(RandomAccessFile raf, long start, long end, boolean withSequence,
+                               Map<String, ValueEntry> result) throws IOException {
+        raf.seek(start);
+        while (raf.getFilePointer() < end) {
+            int keyLen = raf.readInt();
+            byte[] keyBytes = new byte[keyLen];
+            raf.readFully(keyBytes);
+
+            String key = new String(keyBytes, StandardCharsets.UTF_8);
+            result.put(key, readValue(raf, withSequence));
+        }
+    }
+
+    /**
+     * Читает значение с текущей позиции файла.
+     * @param raf файл, установленный на длину значения
+     * @param withSequence записан ли после значения порядковый номер записи
+     * @return значение или маркер удаления; из файлов старых версий — с номером 0
+     * @throws IOException при ошибке чтения
+     */
+    private ValueEntry readValue(RandomAccessFile raf, boolean withSequence) throws IOException {
+        int vlen = raf.readInt();
+        String value = null;
+        if (vlen != SSTableFormat.TOMBSTONE_LENGTH) {
+            byte[] vbs = new byte[vlen];
+            raf.readFully(vbs);
+            value = new String(vbs, UTF_8);
+        }
+        long sequence = withSequence ? raf.readLong() : 0;
+        return value == null ? ValueEntry.tombstone(sequence) : ValueEntry.of(value, sequence);
+    }
 }
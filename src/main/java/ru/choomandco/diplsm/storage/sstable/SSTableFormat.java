@@ -0,0 +1,294 @@
+package ru.choomandco.diplsm.storage.sstable;
+
+import ru.choomandco.diplsm.storage.bloomfilter.BloomFilter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Описание бинарного формата {@link SSTable} версии 4.
+ * <pre>
+ * [Data Block][Index Block][Meta Block][Footer]
+ * Data Block  = { [klen int][key][vlen int, -1 для маркера удаления][value][sequence long] }
+ * Index Block = [count int] { [klen int][key][offset long] }
+ * Meta Block  = [entryCount long][minKey][maxKey][bloomSize int][bloomHashes int][words int]{ long }[maxSequence long][crc int]
+ * Footer (28 байт) = [indexOffset long][metaOffset long][metaLength int][version int][magic int]
+ * </pre>
+ * Footer и Meta Block лежат в конце файла, поэтому метаданные таблицы читаются одним коротким чтением хвоста.
+ * Footer и Meta Block общие с блочным форматом {@link BlockSSTable}, который отличается magic и своей версией.
+ * Поле maxSequence появилось вместе с номерами записей; в Meta Block файлов старых версий его нет.
+ */
+final class SSTableFormat {
+    static final int MAGIC = 0x4C534D32; // 'LSM2'
+    /** Магическое число первой версии формата, где заголовок лежал в начале файла */
+    static final int LEGACY_MAGIC = 0x4C534D31; // 'LSM1'
+    /**
+     * Текущая версия. Третья версия отличается отсутствием номера записи после значения,
+     * вторая — ещё и фильтром Блума, построенным по {@code String.hashCode()}.
+     * Файлы этих версий читаются целиком и однократно переписываются в текущий формат.
+     */
+    static final int VERSION = 4;
+    /** Первая версия, где после значения записан порядковый номер записи */
+    static final int SEQUENCE_VERSION = 4;
+    /** Размер порядкового номера записи в Data Block */
+    static final int SEQUENCE_SIZE = 8;
+    static final int FOOTER_SIZE = 28;
+    /** Длина значения, обозначающая маркер удаления */
+    static final int TOMBSTONE_LENGTH = -1;
+    /** Сколько байт хвоста читается за раз в расчёте, что туда поместятся и Meta Block, и Footer */
+    static final int TAIL_READ_SIZE = 16 * 1024;
+
+    private SSTableFormat() {
+    }
+
+    /**
+     * Содержимое Footer.
+     */
+    static final class Footer {
+        final long indexOffset;
+        final long metaOffset;
+        final int metaLength;
+        final int version;
+
+        Footer(long indexOffset, long metaOffset, int metaLength, int version) {
+            this.indexOffset = indexOffset;
+            this.metaOffset = metaOffset;
+            this.metaLength = metaLength;
+            this.version = version;
+        }
+    }
+
+    /**
+     * Кодирует Footer.
+     */
+    static ByteBuffer encodeFooter(long indexOffset, long metaOffset, int metaLength) {
+        return encodeFooter(indexOffset, metaOffset, metaLength, VERSION, MAGIC);
+    }
+
+    /**
+     * Кодирует Footer с заданными версией и magic.
+     */
+    static ByteBuffer encodeFooter(long indexOffset, long metaOffset, int metaLength, int version, int magic) {
+        ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+        footer.putLong(indexOffset).putLong(metaOffset).putInt(metaLength).putInt(version).putInt(magic);
+        footer.flip();
+        return footer;
+    }
+
+    /**
+     * Разбирает Footer текущей версии, расположенный в последних {@link #FOOTER_SIZE} байтах буфера, и проверяет смещения.
+     * @param tail буфер с хвостом файла, позиция — начало хвоста
+     * @param fileLength длина файла
+     * @param filename имя файла для сообщений об ошибках
+     */
+    static Footer parseFooter(ByteBuffer tail, long fileLength, String filename) throws IOException {
+        return parseFooter(tail, fileLength, filename, MAGIC, VERSION, VERSION);
+    }
+
+    /**
+     * Разбирает Footer и проверяет magic и допустимый диапазон версий.
+     */
+    static Footer parseFooter(ByteBuffer tail, long fileLength, String filename,
+                              int expectedMagic, int minVersion, int maxVersion) throws IOException {
+        if (fileLength < FOOTER_SIZE || tail.remaining() < FOOTER_SIZE) {
+            throw new IOException("Invalid SSTable file (too short): " + filename);
+        }
+        ByteBuffer buf = tail.duplicate();
+        buf.position(tail.limit() - FOOTER_SIZE);
+        long indexOffset = buf.getLong();
+        long metaOffset = buf.getLong();
+        int metaLength = buf.getInt();
+        int version = buf.getInt();
+        int magic = buf.getInt();
+        if (magic != expectedMagic) {
+            throw new IOException("Invalid SSTable file (magic mismatch): " + filename);
+        }
+        if (version < minVersion || version > maxVersion) {
+            throw new IOException("Unsupported SSTable version " + version + ": " + filename);
+        }
+        if (indexOffset < 0 || indexOffset > metaOffset || metaLength < 0
+                || metaOffset + metaLength != fileLength - FOOTER_SIZE) {
+            throw new IOException("Invalid SSTable file (corrupted footer): " + filename);
+        }
+        return new Footer(indexOffset, metaOffset, metaLength, version);
+    }
+
+    /**
+     * Читает и проверяет Footer файла текущей версии: файлы старых версий переписываются при загрузке метаданных,
+     * и читатели Data Block рассчитывают на номер записи после значения.
+     */
+    static Footer readFooter(FileChannel channel, String filename) throws IOException {
+        return readFooter(channel, filename, MAGIC, VERSION, VERSION);
+    }
+
+    /**
+     * Читает и проверяет Footer файла с заданными magic и диапазоном версий.
+     */
+    static Footer readFooter(FileChannel channel, String filename,
+                             int expectedMagic, int minVersion, int maxVersion) throws IOException {
+        long length = channel.size();
+        if (length < FOOTER_SIZE) {
+            throw new IOException("Invalid SSTable file (too short): " + filename);
+        }
+        ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+        readFully(channel, footer, length - FOOTER_SIZE, filename);
+        footer.flip();
+        return parseFooter(footer, length, filename, expectedMagic, minVersion, maxVersion);
+    }
+
+    /**
+     * Загружает метаданные таблицы одним чтением хвоста файла: туда обычно помещаются и Meta Block, и Footer.
+     * @param channel открытый файл
+     * @param filename имя файла
+     * @param tier уровень файла
+     * @param expectedMagic magic формата
+     * @param minVersion наименьшая поддерживаемая версия
+     * @param maxVersion наибольшая поддерживаемая версия
+     * @return метаданные таблицы
+     */
+    static SSTableMetadata readMetadata(FileChannel channel, String filename, int tier,
+                                        int expectedMagic, int minVersion, int maxVersion) throws IOException {
+        long length = channel.size();
+        int tailSize = (int) Math.min(length, TAIL_READ_SIZE);
+        ByteBuffer tail = ByteBuffer.allocate(tailSize);
+        readFully(channel, tail, length - tailSize, filename);
+        tail.flip();
+        Footer footer = parseFooter(tail, length, filename, expectedMagic, minVersion, maxVersion);
+
+        ByteBuffer meta;
+        long tailStart = length - tailSize;
+        if (footer.metaOffset >= tailStart) {
+            meta = tail.duplicate();
+            meta.position((int) (footer.metaOffset - tailStart));
+            meta.limit(meta.position() + footer.metaLength);
+        } else {
+            // Meta Block крупнее запаса хвоста — дочитываем его отдельно
+            meta = ByteBuffer.allocate(footer.metaLength);
+            readFully(channel, meta, footer.metaOffset, filename);
+            meta.flip();
+        }
+        SSTableMetadata result = decodeMeta(meta, filename, tier);
+        result.setFileSize(length);
+        return result;
+    }
+
+    /**
+     * Определяет версию формата файла без проверки остальных полей.
+     * @return версия формата, 1 для файлов с заголовком в начале или -1, если формат не распознан
+     */
+    static int detectVersion(FileChannel channel) throws IOException {
+        long length = channel.size();
+        if (length >= FOOTER_SIZE) {
+            ByteBuffer tail = ByteBuffer.allocate(8);
+            channel.read(tail, length - 8);
+            tail.flip();
+            if (tail.remaining() == 8) {
+                int version = tail.getInt();
+                if (tail.getInt() == MAGIC) {
+                    return version;
+                }
+            }
+        }
+        if (length >= 12) {
+            ByteBuffer header = ByteBuffer.allocate(4);
+            channel.read(header, 8);
+            header.flip();
+            if (header.remaining() == 4 && header.getInt() == LEGACY_MAGIC) {
+                return 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Кодирует Meta Block.
+     * @param maxSequence наибольший порядковый номер записи в файле
+     */
+    static byte[] encodeMeta(long entryCount, String minKey, String maxKey, BloomFilter bloomFilter, long maxSequence) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeLong(entryCount);
+            writeKey(out, minKey);
+            writeKey(out, maxKey);
+            long[] words = bloomFilter.toLongArray();
+            out.writeInt(bloomFilter.getSize());
+            out.writeInt(bloomFilter.getHashCount());
+            out.writeInt(words.length);
+            for (long word : words) {
+                out.writeLong(word);
+            }
+            out.writeLong(maxSequence);
+            out.flush();
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeInt((int) crc.getValue());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Разбирает Meta Block и собирает по нему метаданные таблицы.
+     * @param meta буфер, содержащий ровно Meta Block
+     */
+    static SSTableMetadata decodeMeta(ByteBuffer meta, String filename, int tier) throws IOException {
+        try {
+            int length = meta.remaining();
+            byte[] payload = new byte[length - 4];
+            meta.get(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload, 0, payload.length);
+            if ((int) crc.getValue() != meta.getInt()) {
+                throw new IOException("Invalid SSTable file (meta block CRC mismatch): " + filename);
+            }
+            meta = ByteBuffer.wrap(payload);
+
+            long entryCount = meta.getLong();
+            String minKey = readKey(meta);
+            String maxKey = readKey(meta);
+            int bloomSize = meta.getInt();
+            int bloomHashes = meta.getInt();
+            long[] words = new long[meta.getInt()];
+            for (int i = 0; i < words.length; i++) {
+                words[i] = meta.getLong();
+            }
+            BloomFilter bloomFilter = new BloomFilter(bloomSize, bloomHashes, words);
+            SSTableMetadata result = new SSTableMetadata(filename, tier, minKey, maxKey, bloomFilter, entryCount);
+            if (meta.remaining() >= 8) {
+                result.setMaxSequence(meta.getLong());
+            }
+            return result;
+        } catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+            throw new IOException("Invalid SSTable file (corrupted meta block): " + filename, e);
+        }
+    }
+
+    static void readFully(FileChannel channel, ByteBuffer buffer, long position, String filename) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Unexpected end of SSTable: " + filename);
+            }
+        }
+    }
+
+    private static void writeKey(DataOutputStream out, String key) throws IOException {
+        byte[] bytes = key.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readKey(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.getInt()];
+        buf.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
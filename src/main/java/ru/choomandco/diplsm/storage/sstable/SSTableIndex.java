@@ -0,0 +1,272 @@
+package ru.choomandco.diplsm.storage.sstable;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Загруженный в память Index Block бинарного {@link SSTable} в компактном виде:
+ * все ключи лежат подряд в одном массиве байт, рядом — массивы смещений ключей и смещений записей в файле.
+ * Отдельные объекты на запись не создаются, поэтому индекс занимает почти столько же, сколько на диске.
+ * Для {@link BlockSSTable} индекс хранит последний ключ каждого блока и строится из сжатого Index Block.
+ * <p>
+ * Ключи сравниваются прямо в UTF-8 в порядке {@link String#compareTo}: байтовый порядок UTF-8 совпадает
+ * с порядком кодовых точек, а строки сравниваются по UTF-16, где суррогатные пары (символы вне BMP)
+ * меньше символов U+E000–U+FFFF. Поэтому ведущие байты 0xF0–0xF4 и 0xEE–0xEF при сравнении меняются местами.
+ */
+final class SSTableIndex {
+    /** Приблизительные накладные расходы объекта индекса и его массивов */
+    private static final int OBJECT_OVERHEAD = 96;
+
+    /** Ключи всех записей подряд */
+    private final byte[] keys;
+    /** Начало i-го ключа в {@link #keys}; последний элемент — длина массива ключей */
+    private final int[] keyOffsets;
+    /** Смещение i-й записи в Data Block; последний элемент — конец Data Block */
+    private final long[] dataOffsets;
+    /** Записаны ли в данных файла порядковые номера записей */
+    private final boolean sequenced;
+
+    private SSTableIndex(byte[] keys, int[] keyOffsets, long[] dataOffsets, boolean sequenced) {
+        this.keys = keys;
+        this.keyOffsets = keyOffsets;
+        this.dataOffsets = dataOffsets;
+        this.sequenced = sequenced;
+    }
+
+    /**
+     * Читает Index Block одним чтением.
+     * @param channel открытый файл
+     * @param footer footer файла
+     * @param filename имя файла для сообщений об ошибках
+     * @return индекс таблицы
+     * @throws IOException при ошибке чтения или повреждённом индексе
+     */
+    static SSTableIndex read(FileChannel channel, SSTableFormat.Footer footer, String filename) throws IOException {
+        long size = footer.metaOffset - footer.indexOffset;
+        if (size < 4 || size > Integer.MAX_VALUE) {
+            throw new IOException("Invalid SSTable file (index block size " + size + "): " + filename);
+        }
+        ByteBuffer block = ByteBuffer.allocate((int) size);
+        SSTableFormat.readFully(channel, block, footer.indexOffset, filename);
+        block.flip();
+
+        try {
+            int count = block.getInt();
+            // в блоке на каждую запись приходится 12 байт служебных полей, остальное — ключи
+            int keyBytes = block.remaining() - count * 12;
+            if (count < 0 || keyBytes < 0) {
+                throw new IOException("Invalid SSTable file (corrupted index block): " + filename);
+            }
+            byte[] keys = new byte[keyBytes];
+            int[] keyOffsets = new int[count + 1];
+            long[] dataOffsets = new long[count + 1];
+            int keyPos = 0;
+            for (int i = 0; i < count; i++) {
+                int keyLen = block.getInt();
+                block.get(keys, keyPos, keyLen);
+                keyOffsets[i] = keyPos;
+                keyPos += keyLen;
+                dataOffsets[i] = block.getLong();
+            }
+            keyOffsets[count] = keyPos;
+            dataOffsets[count] = footer.indexOffset;
+            return new SSTableIndex(keys, keyOffsets, dataOffsets, footer.version >= SSTableFormat.SEQUENCE_VERSION);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("Invalid SSTable file (corrupted index block): " + filename, e);
+        }
+    }
+
+    /**
+     * Строит индекс из Index Block {@link BlockSSTable}: блока с префиксным сжатием ключей,
+     * где значение каждой записи — смещение блока данных (8 байт).
+     * @param block разобранный Index Block
+     * @param dataEnd конец последнего блока данных, то есть начало Index Block
+     * @param sequenced записаны ли в блоках данных порядковые номера записей
+     * @param filename имя файла для сообщений об ошибках
+     * @return индекс таблицы с полными ключами
+     * @throws IOException при повреждённом индексе
+     */
+    static SSTableIndex fromBlock(Block block, long dataEnd, boolean sequenced, String filename) throws IOException {
+        int[] totals = new int[2];
+        block.forEach((key, keyLength, data, valueOffset, valueLength) -> {
+            if (valueLength != 8) {
+                throw new IOException("Invalid SSTable file (corrupted index entry): " + filename);
+            }
+            totals[0]++;
+            totals[1] += keyLength;
+        });
+
+        int count = totals[0];
+        byte[] keys = new byte[totals[1]];
+        int[] keyOffsets = new int[count + 1];
+        long[] dataOffsets = new long[count + 1];
+        int[] next = new int[2];
+        block.forEach((key, keyLength, data, valueOffset, valueLength) -> {
+            int i = next[0]++;
+            System.arraycopy(key, 0, keys, next[1], keyLength);
+            keyOffsets[i] = next[1];
+            next[1] += keyLength;
+            dataOffsets[i] = ByteBuffer.wrap(data, valueOffset, 8).getLong();
+        });
+        keyOffsets[count] = next[1];
+        dataOffsets[count] = dataEnd;
+        return new SSTableIndex(keys, keyOffsets, dataOffsets, sequenced);
+    }
+
+    /**
+     * @return количество записей
+     */
+    int size() {
+        return dataOffsets.length - 1;
+    }
+
+    /**
+     * @return записаны ли в данных файла порядковые номера записей
+     */
+    boolean isSequenced() {
+        return sequenced;
+    }
+
+    /**
+     * @return смещение i-й записи в файле
+     */
+    long offset(int i) {
+        return dataOffsets[i];
+    }
+
+    /**
+     * @return смещение конца i-й записи, то есть начало следующей или конец Data Block
+     */
+    long endOffset(int i) {
+        return dataOffsets[i + 1];
+    }
+
+    /**
+     * @return i-й ключ
+     */
+    String keyAt(int i) {
+        return new String(keys, keyOffsets[i], keyOffsets[i + 1] - keyOffsets[i], UTF_8);
+    }
+
+    /**
+     * Ищет ключ точным совпадением.
+     * @param key ключ в UTF-8
+     * @return номер записи или -1, если ключа нет
+     */
+    int find(byte[] key) {
+        int pos = lowerBound(key);
+        return pos < size() && compareAt(pos, key) == 0 ? pos : -1;
+    }
+
+    /**
+     * Находит первую запись с ключом не меньше заданного.
+     * @param key ключ в UTF-8 или null для начала индекса
+     * @return номер записи или {@link #size()}, если таких нет
+     */
+    int lowerBound(byte[] key) {
+        if (key == null) {
+            return 0;
+        }
+        int low = 0;
+        int high = size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareAt(mid, key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Выбирает ключи, равномерно расставленные по индексу.
+     * @param count сколько ключей нужно
+     * @return не больше {@code count} ключей по возрастанию
+     */
+    List<String> sample(int count) {
+        int size = size();
+        List<String> result = new ArrayList<>(Math.min(count, size));
+        if (count <= 0 || size == 0) {
+            return result;
+        }
+        int previous = -1;
+        for (int i = 1; i <= count; i++) {
+            int pos = (int) ((long) i * size / (count + 1));
+            if (pos != previous && pos < size) {
+                result.add(keyAt(pos));
+                previous = pos;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return сколько байт кучи занимает индекс
+     */
+    long memoryBytes() {
+        return OBJECT_OVERHEAD + keys.length + 4L * keyOffsets.length + 8L * dataOffsets.length;
+    }
+
+    /**
+     * Сравнивает i-й ключ индекса с заданным в порядке {@link String#compareTo}.
+     */
+    private int compareAt(int i, byte[] key) {
+        return compareUtf8(keys, keyOffsets[i], keyOffsets[i + 1], key, 0, key.length);
+    }
+
+    /**
+     * Сравнивает два ключа в UTF-8 так же, как {@link String#compareTo} сравнил бы соответствующие строки.
+     */
+    static int compareUtf8(byte[] a, int aFrom, int aTo, byte[] b, int bFrom, int bTo) {
+        int aLen = aTo - aFrom;
+        int bLen = bTo - bFrom;
+        int len = Math.min(aLen, bLen);
+        for (int i = 0; i < len; i++) {
+            int x = a[aFrom + i] & 0xFF;
+            int y = b[bFrom + i] & 0xFF;
+            if (x != y) {
+                return utf16Order(x) - utf16Order(y);
+            }
+        }
+        return aLen - bLen;
+    }
+
+    /**
+     * Сравнивает ключ, лежащий в буфере (например, в отображённом файле), с ключом в массиве по тем же правилам.
+     * Позиция буфера не меняется.
+     */
+    static int compareUtf8(ByteBuffer a, int aFrom, int aTo, byte[] b) {
+        int aLen = aTo - aFrom;
+        int len = Math.min(aLen, b.length);
+        for (int i = 0; i < len; i++) {
+            int x = a.get(aFrom + i) & 0xFF;
+            int y = b[i] & 0xFF;
+            if (x != y) {
+                return utf16Order(x) - utf16Order(y);
+            }
+        }
+        return aLen - b.length;
+    }
+
+    /**
+     * Переставляет ведущие байты так, чтобы 4-байтовые последовательности (суррогатные пары в UTF-16)
+     * шли раньше 3-байтовых с U+E000–U+FFFF. Байты продолжения (0x80–0xBF) и остальные не меняются.
+     */
+    private static int utf16Order(int b) {
+        if (b >= 0xF0 && b <= 0xF4) {
+            return b - 2;
+        }
+        if (b == 0xEE || b == 0xEF) {
+            return b + 5;
+        }
+        return b;
+    }
+}
@@ -0,0 +1,96 @@
+package ru.choomandco.diplsm.storage.sstable;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU-кэш загруженных индексов {@link SSTableIndex} с общим ограничением по памяти.
+ * Индекс таблицы загружается один раз и разделяется всеми читателями; когда суммарный размер
+ * превышает лимит, вытесняются индексы таблиц, к которым дольше всего не обращались.
+ */
+class SSTableIndexCache {
+    /**
+     * Загрузчик индекса при промахе кэша.
+     */
+    interface Loader {
+        SSTableIndex load() throws IOException;
+    }
+
+    /** Ограничение суммарного размера индексов в байтах */
+    private final long capacityBytes;
+    /** Индексы в порядке обращения: первым идёт самый давний */
+    private final LinkedHashMap<String, SSTableIndex> indexes = new LinkedHashMap<>(16, 0.75f, true);
+    /** Текущий суммарный размер индексов в байтах */
+    private long usedBytes;
+
+    /**
+     * @param capacityBytes ограничение суммарного размера индексов в байтах
+     */
+    SSTableIndexCache(long capacityBytes) {
+        this.capacityBytes = capacityBytes;
+    }
+
+    /**
+     * Возвращает индекс файла, загружая его при промахе.
+     * Загрузка идёт без блокировки кэша, поэтому медленное чтение одного файла не задерживает остальных.
+     * Индекс крупнее всего лимита возвращается, но не кэшируется.
+     *
+     * @param filename путь к SSTable-файлу
+     * @param loader загрузчик индекса
+     * @return индекс файла
+     * @throws IOException при ошибке загрузки
+     */
+    SSTableIndex get(String filename, Loader loader) throws IOException {
+        synchronized (this) {
+            SSTableIndex cached = indexes.get(filename);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        SSTableIndex loaded = loader.load();
+        long size = loaded.memoryBytes();
+        if (size > capacityBytes) {
+            return loaded;
+        }
+
+        synchronized (this) {
+            SSTableIndex raced = indexes.get(filename);
+            if (raced != null) {
+                return raced;
+            }
+            indexes.put(filename, loaded);
+            usedBytes += size;
+            evict();
+            return loaded;
+        }
+    }
+
+    /**
+     * Убирает индекс файла из кэша, например перед удалением или заменой файла.
+     * @param filename путь к SSTable-файлу
+     */
+    synchronized void invalidate(String filename) {
+        SSTableIndex removed = indexes.remove(filename);
+        if (removed != null) {
+            usedBytes -= removed.memoryBytes();
+        }
+    }
+
+    /**
+     * @return текущий суммарный размер закэшированных индексов в байтах
+     */
+    synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, SSTableIndex>> it = indexes.entrySet().iterator();
+        while (usedBytes > capacityBytes && it.hasNext()) {
+            usedBytes -= it.next().getValue().memoryBytes();
+            it.remove();
+        }
+    }
+}
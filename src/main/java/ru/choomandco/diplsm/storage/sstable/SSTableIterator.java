@@ -0,0 +1,177 @@
+package ru.choomandco.diplsm.storage.sstable;
+
+import ru.choomandco.diplsm.storage.entry.ValueEntry;
+import ru.choomandco.diplsm.storage.iterator.EntryIterator;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Потоковый итератор по диапазону ключей бинарного {@link SSTable}.
+ * Границы диапазона находятся бинарным поиском по закэшированному индексу таблицы.
+ * Прямой обход читает Data Block последовательно через буфер, начиная с первой подходящей записи;
+ * обратный обход читает записи диапазона с конца позиционными чтениями, длина каждой известна из индекса.
+ * Значения в памяти не накапливаются, поэтому объём файла на потребление памяти не влияет.
+ */
+class SSTableIterator implements EntryIterator {
+    /** Размер буфера последовательного чтения */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String filename;
+    private final FileChannel channel;
+    private final String toKey;
+    private final boolean reverse;
+
+    /** Поток чтения для прямого обхода */
+    private DataInputStream in;
+    /** Сколько байт Data Block осталось прочитать при прямом обходе */
+    private long remaining;
+    /** Индекс таблицы для обратного обхода */
+    private SSTableIndex index;
+    /** Номер первой записи диапазона при обратном обходе */
+    private int firstPos;
+    /** Номер следующей записи при обратном обходе */
+    private int indexPos;
+    /** Следующая запись, прочитанная заранее */
+    private Map.Entry<String, ValueEntry> pending;
+
+    /**
+     * @param table таблица, из кэша которой берётся индекс файла
+     * @param filename путь к SSTable-файлу
+     * @param fromKey нижняя граница (включительно) или null
+     * @param toKey верхняя граница (не включительно) или null
+     * @param reverse обходить в порядке убывания ключей
+     */
+    SSTableIterator(SSTable table, String filename, String fromKey, String toKey, boolean reverse) {
+        this.filename = filename;
+        this.toKey = toKey;
+        this.reverse = reverse;
+        try {
+            this.channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+            SSTableIndex tableIndex = table.loadIndex(filename, channel);
+            int from = tableIndex.lowerBound(fromKey == null ? null : fromKey.getBytes(UTF_8));
+
+            if (reverse) {
+                index = tableIndex;
+                firstPos = from;
+                indexPos = toKey == null ? tableIndex.size() - 1 : tableIndex.lowerBound(toKey.getBytes(UTF_8)) - 1;
+            } else {
+                long start = tableIndex.offset(from);
+                remaining = tableIndex.offset(tableIndex.size()) - start;
+                channel.position(start);
+                in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE));
+            }
+            pending = advance();
+        } catch (IOException e) {
+            close();
+            throw new RuntimeException("Failed to open SSTable iterator: " + filename, e);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return pending != null;
+    }
+
+    @Override
+    public Map.Entry<String, ValueEntry> next() {
+        if (pending == null) {
+            throw new NoSuchElementException();
+        }
+        Map.Entry<String, ValueEntry> result = pending;
+        try {
+            pending = advance();
+        } catch (IOException e) {
+            throw new RuntimeException("Error while iterating SSTable: " + filename, e);
+        }
+        return result;
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Читает следующую запись в порядке обхода.
+     * @return запись или null, если диапазон исчерпан
+     */
+    private Map.Entry<String, ValueEntry> advance() throws IOException {
+        if (reverse) {
+            if (indexPos < firstPos) {
+                return null;
+            }
+            int pos = indexPos--;
+            return readRecordAt(index.offset(pos), index.endOffset(pos));
+        }
+
+        if (remaining <= 0) {
+            return null;
+        }
+        int keyLen = in.readInt();
+        byte[] keyBytes = new byte[keyLen];
+        in.readFully(keyBytes);
+        int valueLen = in.readInt();
+        String valueString = null;
+        if (valueLen != SSTableFormat.TOMBSTONE_LENGTH) {
+            byte[] valueBytes = new byte[valueLen];
+            in.readFully(valueBytes);
+            valueString = new String(valueBytes, UTF_8);
+        }
+        long sequence = in.readLong();
+        ValueEntry value = valueString == null ? ValueEntry.tombstone(sequence) : ValueEntry.of(valueString, sequence);
+        remaining -= 8L + SSTableFormat.SEQUENCE_SIZE + keyLen + Math.max(0, valueLen);
+
+        String key = new String(keyBytes, UTF_8);
+        if (toKey != null && key.compareTo(toKey) >= 0) {
+            remaining = 0;
+            return null;
+        }
+        return new AbstractMap.SimpleImmutableEntry<>(key, value);
+    }
+
+    /**
+     * Читает запись по смещению одним позиционным чтением.
+     */
+    private Map.Entry<String, ValueEntry> readRecordAt(long offset, long end) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate((int) (end - offset));
+        readFully(record, offset);
+        record.flip();
+        int keyLen = record.getInt();
+        String key = new String(record.array(), 4, keyLen, UTF_8);
+        record.position(4 + keyLen);
+        int valueLen = record.getInt();
+
+        ValueEntry value;
+        if (valueLen == SSTableFormat.TOMBSTONE_LENGTH) {
+            value = ValueEntry.tombstone(record.getLong());
+        } else {
+            value = ValueEntry.of(new String(record.array(), record.position(), valueLen, UTF_8),
+                    record.getLong(record.position() + valueLen));
+        }
+        return new AbstractMap.SimpleImmutableEntry<>(key, value);
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException("Unexpected end of SSTable: " + filename);
+            }
+        }
+    }
+}
@@ -5,41 +5,97 @@ import ru.choomandco.diplsm.storage.bloomfilter.BloomFilter;
 import java.util.Collections;
 import java.util.Objects;
 import java.util.Set;
-import java.util.function.Function;
 
 public class SSTableMetadata implements Comparable<SSTableMetadata> {
     private final String filename;
     private int tier;
     private String minKey;
     private String maxKey;
-    private BloomFilter<String> bloomFilter;
+    private BloomFilter bloomFilter;
+    /** Количество записей в файле, включая маркеры удаления */
+    private final long entryCount;
+    /** Размер файла в байтах; 0, если неизвестен */
+    private long fileSize;
+    /** Наибольший порядковый номер записи в файле; 0, если номера не записаны */
+    private long maxSequence;
 
     public SSTableMetadata(String filename, int tier, Set<String> keySet) {
         this.filename = filename;
         this.tier = tier;
+        this.entryCount = keySet.size();
         this.minKey = Collections.min(keySet);
         this.maxKey = Collections.max(keySet);
 
-        Function<String, Integer> hash1 = String::hashCode;
-        Function<String, Integer> hash2 = s -> s.hashCode() * 31;
-
-        this.bloomFilter = new BloomFilter<String>(1024, new Function[]{ hash1, hash2 });
+        this.bloomFilter = BloomFilter.create(keySet.size(), BloomFilter.DEFAULT_BITS_PER_KEY);
 
         bloomFilter.addKeysFromMap(keySet);
     }
 
+    /**
+     * Конструктор для метаданных, собранных по ходу потоковой записи файла.
+     * @param filename имя файла
+     * @param tier уровень файла
+     * @param minKey наименьший ключ
+     * @param maxKey наибольший ключ
+     * @param bloomFilter заполненный фильтр Блума
+     * @param entryCount количество записей в файле
+     */
+    public SSTableMetadata(String filename, int tier, String minKey, String maxKey,
+                           BloomFilter bloomFilter, long entryCount) {
+        this(filename, tier, minKey, maxKey, bloomFilter, entryCount, 0);
+    }
+
+    /**
+     * Конструктор для метаданных с известным размером файла.
+     * @param filename имя файла
+     * @param tier уровень файла
+     * @param minKey наименьший ключ
+     * @param maxKey наибольший ключ
+     * @param bloomFilter заполненный фильтр Блума
+     * @param entryCount количество записей в файле
+     * @param fileSize размер файла в байтах
+     */
+    public SSTableMetadata(String filename, int tier, String minKey, String maxKey,
+                           BloomFilter bloomFilter, long entryCount, long fileSize) {
+        this.filename = filename;
+        this.tier = tier;
+        this.minKey = minKey;
+        this.maxKey = maxKey;
+        this.bloomFilter = bloomFilter;
+        this.entryCount = entryCount;
+        this.fileSize = fileSize;
+    }
+
     @Override
     public int compareTo(SSTableMetadata other) {
         if (Objects.equals(this.filename, other.getFilename())) {
             return 0;
         }
 
-        return Long.compare(extractTimestamp(this.filename), extractTimestamp(other.filename));
+        int byTimestamp = Long.compare(extractNamePart(this.filename, 1), extractNamePart(other.filename, 1));
+        if (byTimestamp != 0) {
+            return byTimestamp;
+        }
+        // файлы, созданные в одну миллисекунду, упорядочиваются по счётчику, иначе TreeSet посчитает их дубликатами
+        int byCounter = Long.compare(extractNamePart(this.filename, 2), extractNamePart(other.filename, 2));
+        return byCounter != 0 ? byCounter : this.filename.compareTo(other.filename);
+    }
+
+    /**
+     * @return время создания файла в миллисекундах, записанное в его имени, или 0, если имя другого вида
+     */
+    public long getWriteTime() {
+        return extractNamePart(filename, 1);
     }
 
-    private long extractTimestamp(String filename) {
-        String[] parts = filename.split("_");
-        return Long.parseLong(parts[1]);
+    private long extractNamePart(String filename, int part) {
+        int nameStart = Math.max(filename.lastIndexOf('/'), filename.lastIndexOf('\\')) + 1;
+        String[] parts = filename.substring(nameStart).split("_");
+        if (parts.length <= part) {
+            return 0;
+        }
+        String digits = parts[part].replaceAll("\\D.*$", "");
+        return digits.isEmpty() ? 0 : Long.parseLong(digits);
     }
 
     public String getFilename() {
@@ -58,7 +114,61 @@ public class SSTableMetadata implements Comparable<SSTableMetadata> {
         return maxKey;
     }
 
-    public BloomFilter<String> getBloomFilter() {
+    /**
+     * Проверяет, может ли файл содержать ключи из диапазона [fromKey, toKey).
+     * @param fromKey нижняя граница (включительно) или null
+     * @param toKey верхняя граница (не включительно) или null
+     * @return false, если диапазон ключей файла гарантированно не пересекается с запрошенным
+     */
+    public boolean overlaps(String fromKey, String toKey) {
+        if (fromKey != null && maxKey.compareTo(fromKey) < 0) {
+            return false;
+        }
+        return toKey == null || minKey.compareTo(toKey) < 0;
+    }
+
+    /**
+     * Проверяет, попадает ли ключ в диапазон [minKey, maxKey] файла.
+     * @param key ключ
+     * @return false, если ключа в файле гарантированно нет
+     */
+    public boolean coversKey(String key) {
+        return minKey.compareTo(key) <= 0 && maxKey.compareTo(key) >= 0;
+    }
+
+    /**
+     * Проверяет, пересекается ли диапазон ключей файла с отрезком [fromKey, toKey].
+     * @param fromKey нижняя граница (включительно)
+     * @param toKey верхняя граница (включительно)
+     */
+    public boolean overlapsRange(String fromKey, String toKey) {
+        return minKey.compareTo(toKey) <= 0 && maxKey.compareTo(fromKey) >= 0;
+    }
+
+    public long getEntryCount() {
+        return entryCount;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public void setFileSize(long fileSize) {
+        this.fileSize = fileSize;
+    }
+
+    /**
+     * @return наибольший порядковый номер записи в файле; 0 для файлов без номеров
+     */
+    public long getMaxSequence() {
+        return maxSequence;
+    }
+
+    public void setMaxSequence(long maxSequence) {
+        this.maxSequence = maxSequence;
+    }
+
+    public BloomFilter getBloomFilter() {
         return bloomFilter;
     }
 
@@ -78,7 +188,7 @@ public class SSTableMetadata implements Comparable<SSTableMetadata> {
         this.maxKey = maxKey;
     }
 
-    public void setBloomFilter(BloomFilter<String> bloomFilter) {
+    public void setBloomFilter(BloomFilter bloomFilter) {
         this.bloomFilter = bloomFilter;
     }
 }
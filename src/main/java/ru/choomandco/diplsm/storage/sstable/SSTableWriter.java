@@ -0,0 +1,191 @@
+package ru.choomandco.diplsm.storage.sstable;
+
+import ru.choomandco.diplsm.storage.bloomfilter.BloomFilter;
+import ru.choomandco.diplsm.storage.entry.ValueEntry;
+import ru.choomandco.diplsm.storage.interfaces.TableWriter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Потоковая запись бинарного {@link SSTable}: записи принимаются по одной в порядке возрастания ключей
+ * и за один проход уходят на диск через большой direct-буфер ({@link ChannelOutput}).
+ * Индекс по ходу записи сбрасывается во временный файл и при завершении переносится после Data Block
+ * средствами файловой системы, поэтому память под данные не зависит от размера таблицы.
+ * Для фильтра Блума копятся только 64-битные хеши ключей: итоговое количество ключей известно
+ * лишь в конце, и фильтр строится при завершении точно под него.
+ * Формат файла описан в {@link SSTableFormat}: [Data Block][Index Block][Meta Block][Footer].
+ */
+public class SSTableWriter implements TableWriter {
+    /** Размер буфера записи Data Block */
+    private static final int DATA_BUFFER_SIZE = 1024 * 1024;
+    /** Размер буфера записи временного индекса */
+    private static final int INDEX_BUFFER_SIZE = 256 * 1024;
+
+    private final String filename;
+    /** Временный файл с записями индекса */
+    private final String indexFilename;
+    private final ChannelOutput data;
+    private final ChannelOutput index;
+    /** Число бит фильтра Блума на ключ */
+    private final double bloomBitsPerKey;
+    /** Синхронизировать ли файл с диском при завершении */
+    private final boolean syncOnFinish;
+    /** Хеши добавленных ключей для построения фильтра Блума */
+    private long[] keyHashes = new long[1024];
+
+    private long entryCount;
+    private String minKey;
+    private String maxKey;
+    /** Наибольший порядковый номер добавленной записи */
+    private long maxSequence;
+
+    /**
+     * @param filename путь к создаваемому SSTable-файлу
+     */
+    public SSTableWriter(String filename) {
+        this(filename, BloomFilter.DEFAULT_BITS_PER_KEY);
+    }
+
+    /**
+     * @param filename путь к создаваемому SSTable-файлу
+     * @param bloomBitsPerKey число бит фильтра Блума на ключ
+     */
+    public SSTableWriter(String filename, double bloomBitsPerKey) {
+        this(filename, bloomBitsPerKey, false);
+    }
+
+    /**
+     * @param filename путь к создаваемому SSTable-файлу
+     * @param bloomBitsPerKey число бит фильтра Блума на ключ
+     * @param syncOnFinish вызывать fsync перед закрытием файла
+     */
+    public SSTableWriter(String filename, double bloomBitsPerKey, boolean syncOnFinish) {
+        this.filename = filename;
+        this.bloomBitsPerKey = bloomBitsPerKey;
+        this.syncOnFinish = syncOnFinish;
+        this.indexFilename = filename + ".idx";
+        try {
+            data = new ChannelOutput(filename, DATA_BUFFER_SIZE);
+            index = new ChannelOutput(indexFilename, INDEX_BUFFER_SIZE);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to create SSTable: " + filename, e);
+        }
+    }
+
+    /**
+     * Добавляет запись. Ключи должны поступать строго по возрастанию.
+     * @param key ключ
+     * @param value значение или маркер удаления вместе с порядковым номером записи
+     */
+    @Override
+    public void add(String key, ValueEntry value) {
+        if (maxKey != null && key.compareTo(maxKey) <= 0) {
+            throw new IllegalArgumentException("Keys must be added in ascending order: " + key + " after " + maxKey);
+        }
+        byte[] keyBytes = key.getBytes(UTF_8);
+        try {
+            index.writeInt(keyBytes.length);
+            index.write(keyBytes);
+            index.writeLong(data.position());
+
+            data.writeInt(keyBytes.length);
+            data.write(keyBytes);
+            if (value.isTombstone()) {
+                data.writeInt(SSTableFormat.TOMBSTONE_LENGTH);
+            } else {
+                byte[] valueBytes = value.getValue().getBytes(UTF_8);
+                data.writeInt(valueBytes.length);
+                data.write(valueBytes);
+            }
+            data.writeLong(value.getSequence());
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write SSTable: " + filename, e);
+        }
+
+        if (minKey == null) {
+            minKey = key;
+        }
+        maxKey = key;
+        maxSequence = Math.max(maxSequence, value.getSequence());
+        if (entryCount == keyHashes.length) {
+            keyHashes = Arrays.copyOf(keyHashes, keyHashes.length * 2);
+        }
+        keyHashes[(int) entryCount] = BloomFilter.hash(key);
+        entryCount++;
+    }
+
+    @Override
+    public long getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * @return сколько байт займут уже добавленные записи вместе с их индексом
+     */
+    @Override
+    public long getFileSize() {
+        return data.position() + index.position();
+    }
+
+    /**
+     * Дописывает индекс, мета-блок с фильтром Блума и диапазоном ключей, footer и закрывает файл,
+     * при необходимости предварительно синхронизировав его с диском.
+     * @param tier уровень, на котором будет находиться таблица
+     * @return метаданные записанной таблицы или null, если в таблицу не попало ни одной записи
+     */
+    @Override
+    public SSTableMetadata finish(int tier) {
+        BloomFilter bloomFilter = BloomFilter.create(entryCount, bloomBitsPerKey);
+        for (int i = 0; i < entryCount; i++) {
+            bloomFilter.addHash(keyHashes[i]);
+        }
+        keyHashes = null;
+        long fileSize;
+        try {
+            long indexOffset = data.position();
+            data.writeInt((int) entryCount);
+            index.copyTo(data);
+            index.close();
+            long metaOffset = data.position();
+
+            byte[] metaBlock = SSTableFormat.encodeMeta(entryCount,
+                    minKey == null ? "" : minKey, maxKey == null ? "" : maxKey, bloomFilter, maxSequence);
+            data.write(metaBlock);
+            data.write(SSTableFormat.encodeFooter(indexOffset, metaOffset, metaBlock.length).array());
+            if (syncOnFinish) {
+                data.sync();
+            }
+            fileSize = data.position();
+            data.close();
+            Files.delete(Paths.get(indexFilename));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to finish SSTable: " + filename, e);
+        }
+        if (entryCount == 0) {
+            return null;
+        }
+        SSTableMetadata meta = new SSTableMetadata(filename, tier, minKey, maxKey, bloomFilter, entryCount, fileSize);
+        meta.setMaxSequence(maxSequence);
+        return meta;
+    }
+
+    /**
+     * Прерывает запись и удаляет недописанные файлы.
+     */
+    @Override
+    public void abort() {
+        try {
+            data.close();
+            index.close();
+            Files.deleteIfExists(Paths.get(filename));
+            Files.deleteIfExists(Paths.get(indexFilename));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to abort SSTable: " + filename, e);
+        }
+    }
+}
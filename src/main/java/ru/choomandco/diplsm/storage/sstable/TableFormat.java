@@ -0,0 +1,12 @@
+package ru.choomandco.diplsm.storage.sstable;
+
+/**
+ * Формат SSTable-файлов хранилища. Выбирается при создании хранилища и должен
+ * совпадать с форматом уже записанных файлов.
+ */
+public enum TableFormat {
+    /** {@link SSTable}: индекс с записью на каждый ключ, записи читаются по одной */
+    FLAT,
+    /** {@link BlockSSTable}: записи упакованы в блоки, разреженный индекс и кэш блоков */
+    BLOCK
+}
@@ -0,0 +1,208 @@
+package ru.choomandco.diplsm.storage.wal;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Одна запись журнала упреждающей записи.
+ * Формат полезной нагрузки: [type (1 байт)][keyLen (4 байта)][key][valueLen (4 байта)][value],
+ * для удаления valueLen = -1 и значение отсутствует. За одиночной записью следует её порядковый номер
+ * [sequence (8 байт)], чтобы восстановление выдало записям те же номера, что и до падения,
+ * даже если параллельные писатели попали в журнал не в порядке номеров. В журналах старого формата номера нет.
+ * Пакет записей хранится одной записью журнала: [type = 3][count (4 байта)], затем count вложенных записей
+ * в том же формате, но без номеров, и номер первой записи пакета [firstSequence (8 байт)], от которого
+ * вложенные записи нумеруются подряд. После падения пакет либо воспроизводится целиком, либо не воспроизводится вовсе.
+ */
+public class WalRecord {
+    /** Тип записи — вставка/обновление ключа */
+    public static final byte TYPE_PUT = 1;
+    /** Тип записи — удаление ключа */
+    public static final byte TYPE_DELETE = 2;
+    /** Тип записи — пакет вставок и удалений, применяемый атомарно */
+    public static final byte TYPE_BATCH = 3;
+
+    private final byte type;
+    private final String key;
+    private final String value;
+    /** Порядковый номер записи; 0, если неизвестен */
+    private final long sequence;
+    /** Вложенные записи пакета; пустой список для одиночных записей */
+    private final List<WalRecord> records;
+
+    private WalRecord(byte type, String key, String value, long sequence, List<WalRecord> records) {
+        this.type = type;
+        this.key = key;
+        this.value = value;
+        this.sequence = sequence;
+        this.records = records;
+    }
+
+    public static WalRecord put(String key, String value) {
+        return put(key, value, 0);
+    }
+
+    /**
+     * @param sequence порядковый номер записи
+     */
+    public static WalRecord put(String key, String value, long sequence) {
+        return new WalRecord(TYPE_PUT, key, value, sequence, Collections.<WalRecord>emptyList());
+    }
+
+    public static WalRecord delete(String key) {
+        return delete(key, 0);
+    }
+
+    /**
+     * @param sequence порядковый номер удаления
+     */
+    public static WalRecord delete(String key, long sequence) {
+        return new WalRecord(TYPE_DELETE, key, null, sequence, Collections.<WalRecord>emptyList());
+    }
+
+    /**
+     * @param records вставки и удаления пакета в порядке применения
+     * @return запись журнала, содержащая весь пакет
+     */
+    public static WalRecord batch(List<WalRecord> records) {
+        return batch(records, 0);
+    }
+
+    /**
+     * @param records вставки и удаления пакета в порядке применения
+     * @param firstSequence номер первой операции пакета; остальные нумеруются подряд
+     * @return запись журнала, содержащая весь пакет
+     */
+    public static WalRecord batch(List<WalRecord> records, long firstSequence) {
+        for (WalRecord record : records) {
+            if (record.type == TYPE_BATCH) {
+                throw new IllegalArgumentException("Nested WAL batches are not supported");
+            }
+        }
+        return new WalRecord(TYPE_BATCH, null, null, firstSequence,
+                Collections.unmodifiableList(new ArrayList<>(records)));
+    }
+
+    /**
+     * Сериализует запись в массив байт (без заголовка длины и CRC).
+     * @return полезная нагрузка записи
+     */
+    byte[] encode() {
+        if (type != TYPE_BATCH) {
+            return encodeSingle(true).array();
+        }
+        List<ByteBuffer> encoded = new ArrayList<>(records.size());
+        int size = 1 + 4 + 8;
+        for (WalRecord record : records) {
+            ByteBuffer single = record.encodeSingle(false);
+            encoded.add(single);
+            size += single.capacity();
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put(type);
+        buffer.putInt(records.size());
+        for (ByteBuffer single : encoded) {
+            buffer.put(single.array());
+        }
+        buffer.putLong(sequence);
+        return buffer.array();
+    }
+
+    /**
+     * Сериализует одиночную вставку или удаление.
+     * @param withSequence дописывать ли порядковый номер; у вложенных записей пакета его нет
+     */
+    private ByteBuffer encodeSingle(boolean withSequence) {
+        byte[] keyBytes = key.getBytes(UTF_8);
+        byte[] valueBytes = value == null ? null : value.getBytes(UTF_8);
+
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 4 + keyBytes.length + 4 + (valueBytes == null ? 0 : valueBytes.length)
+                + (withSequence ? 8 : 0));
+        buffer.put(type);
+        buffer.putInt(keyBytes.length);
+        buffer.put(keyBytes);
+        if (valueBytes == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(valueBytes.length);
+            buffer.put(valueBytes);
+        }
+        if (withSequence) {
+            buffer.putLong(sequence);
+        }
+        return buffer;
+    }
+
+    /**
+     * Восстанавливает запись из полезной нагрузки.
+     * @param payload байты записи без заголовка
+     * @return декодированная запись
+     */
+    static WalRecord decode(byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        if (buffer.get(0) != TYPE_BATCH) {
+            WalRecord record = decodeSingle(buffer);
+            // записи старого формата заканчиваются значением
+            if (buffer.remaining() < 8) {
+                return record;
+            }
+            return new WalRecord(record.type, record.key, record.value, buffer.getLong(), record.records);
+        }
+        buffer.get();
+        int count = buffer.getInt();
+        List<WalRecord> records = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            records.add(decodeSingle(buffer));
+        }
+        long firstSequence = buffer.remaining() < 8 ? 0 : buffer.getLong();
+        return new WalRecord(TYPE_BATCH, null, null, firstSequence, Collections.unmodifiableList(records));
+    }
+
+    /**
+     * Читает одиночную вставку или удаление с текущей позиции буфера.
+     */
+    private static WalRecord decodeSingle(ByteBuffer buffer) {
+        byte type = buffer.get();
+
+        byte[] keyBytes = new byte[buffer.getInt()];
+        buffer.get(keyBytes);
+
+        int valueLen = buffer.getInt();
+        String value = null;
+        if (valueLen >= 0) {
+            byte[] valueBytes = new byte[valueLen];
+            buffer.get(valueBytes);
+            value = new String(valueBytes, UTF_8);
+        }
+        return new WalRecord(type, new String(keyBytes, UTF_8), value, 0, Collections.<WalRecord>emptyList());
+    }
+
+    public byte getType() {
+        return type;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * @return порядковый номер записи, для пакета — номер его первой операции; 0, если журнал старого формата его не хранит
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return вложенные записи пакета в порядке применения; пустой список для одиночных записей
+     */
+    public List<WalRecord> getRecords() {
+        return records;
+    }
+}
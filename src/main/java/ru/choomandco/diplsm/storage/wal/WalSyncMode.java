@@ -0,0 +1,13 @@
+package ru.choomandco.diplsm.storage.wal;
+
+/**
+ * Режимы синхронизации журнала упреждающей записи (WAL) с диском.
+ */
+public enum WalSyncMode {
+    /** Каждая запись дожидается fsync; параллельные писатели объединяются в один вызов force (group commit) */
+    EVERY_WRITE,
+    /** Журнал синхронизируется фоновым потоком раз в заданный интервал */
+    PERIODIC,
+    /** Синхронизация полностью отдаётся операционной системе */
+    OS_MANAGED
+}
@@ -0,0 +1,337 @@
+package ru.choomandco.diplsm.storage.wal;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Сегментированный журнал упреждающей записи (WAL).
+ * Каждая операция записи сначала попадает в журнал и только потом в MemTable,
+ * поэтому данные, не успевшие попасть в SSTable, переживают падение процесса.
+ *
+ * Формат записи в сегменте: [length (4 байта)][crc32 (4 байта)][payload].
+ * Сегмент закрывается при флаше MemTable и удаляется, когда соответствующий SSTable попал в MANIFEST.
+ */
+public class WriteAheadLog implements Closeable {
+    /** Префикс имени файла сегмента */
+    private static final String SEGMENT_PREFIX = "wal_";
+    /** Расширение файла сегмента */
+    private static final String SEGMENT_SUFFIX = ".log";
+    /** Размер заголовка записи: длина + контрольная сумма */
+    private static final int HEADER_SIZE = 8;
+
+    /** Каталог с сегментами журнала */
+    private final Path walDir;
+    /** Режим синхронизации с диском */
+    private final WalSyncMode syncMode;
+    /** Монитор для добавления записей и ротации сегментов */
+    private final Object appendLock = new Object();
+    /** Монитор для fsync; под ним выполняется групповой коммит */
+    private final Object syncLock = new Object();
+    /** Сегменты, оставшиеся с прошлого запуска и ожидающие воспроизведения */
+    private final List<Long> recoveredSegments;
+
+    /** Канал текущего сегмента */
+    private FileChannel channel;
+    /** Номер текущего сегмента */
+    private volatile long currentSegmentId;
+    /** Сколько байт записано в журнал за всё время работы (сквозная позиция по всем сегментам) */
+    private volatile long writtenBytes;
+    /** До какой сквозной позиции журнал гарантированно сброшен на диск */
+    private volatile long syncedBytes;
+    /** Поток периодической синхронизации */
+    private Thread syncThread;
+    private volatile boolean closed;
+
+    /**
+     * Открывает журнал в указанном каталоге. Существующие сегменты запоминаются для воспроизведения,
+     * новые записи идут в свежий сегмент.
+     * @param walDir каталог журнала
+     * @param syncMode режим синхронизации
+     * @param syncIntervalMs интервал синхронизации для режима {@link WalSyncMode#PERIODIC}
+     */
+    public WriteAheadLog(String walDir, WalSyncMode syncMode, long syncIntervalMs) {
+        this(walDir, syncMode, syncIntervalMs, 0);
+    }
+
+    /**
+     * Открывает журнал, в котором сегменты с номерами меньше {@code firstSegmentId} уже не нужны:
+     * их данные записаны в SSTable, поэтому они удаляются без воспроизведения.
+     * Номера новых сегментов начинаются не меньше {@code firstSegmentId}.
+     * @param walDir каталог журнала
+     * @param syncMode режим синхронизации
+     * @param syncIntervalMs интервал синхронизации для режима {@link WalSyncMode#PERIODIC}
+     * @param firstSegmentId номер первого сегмента, который нужен для восстановления (номер журнала из MANIFEST)
+     */
+    public WriteAheadLog(String walDir, WalSyncMode syncMode, long syncIntervalMs, long firstSegmentId) {
+        this.walDir = Paths.get(walDir);
+        this.syncMode = syncMode;
+
+        try {
+            Files.createDirectories(this.walDir);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        recoveredSegments = listSegments();
+        // падение между записью в MANIFEST и удалением сегментов оставляет уже записанные в SSTable сегменты
+        while (!recoveredSegments.isEmpty() && recoveredSegments.get(0) < firstSegmentId) {
+            try {
+                Files.deleteIfExists(segmentPath(recoveredSegments.remove(0)));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        long lastId = recoveredSegments.isEmpty() ? 0 : recoveredSegments.get(recoveredSegments.size() - 1);
+        openSegment(Math.max(lastId + 1, firstSegmentId));
+
+        if (syncMode == WalSyncMode.PERIODIC) {
+            startSyncThread(syncIntervalMs);
+        }
+    }
+
+    /**
+     * Добавляет запись в журнал. В режиме {@link WalSyncMode#EVERY_WRITE} метод возвращает управление
+     * только после того, как запись сброшена на диск.
+     * @param record запись журнала
+     */
+    public void append(WalRecord record) {
+        byte[] payload = record.encode();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        buffer.putInt(payload.length);
+        buffer.putInt((int) crc.getValue());
+        buffer.put(payload);
+        buffer.flip();
+
+        long endPosition;
+        synchronized (appendLock) {
+            try {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to append WAL record", e);
+            }
+            writtenBytes += HEADER_SIZE + payload.length;
+            endPosition = writtenBytes;
+        }
+
+        if (syncMode == WalSyncMode.EVERY_WRITE) {
+            syncUpTo(endPosition);
+        }
+    }
+
+    /**
+     * Гарантирует, что журнал сброшен на диск как минимум до указанной позиции.
+     * Пока один поток выполняет force, остальные копятся на мониторе и затем
+     * обнаруживают, что их записи уже покрыты — так несколько писателей платят за один fsync.
+     * @param position сквозная позиция в журнале
+     */
+    public void syncUpTo(long position) {
+        if (syncedBytes >= position) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (syncedBytes >= position) {
+                return;
+            }
+            long target;
+            FileChannel ch;
+            synchronized (appendLock) {
+                target = writtenBytes;
+                ch = channel;
+            }
+            try {
+                ch.force(false);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to sync WAL", e);
+            }
+            syncedBytes = target;
+        }
+    }
+
+    /**
+     * Сбрасывает на диск все записанные на данный момент данные.
+     */
+    public void sync() {
+        syncUpTo(writtenBytes);
+    }
+
+    /**
+     * Закрывает текущий сегмент и открывает новый. Вызывается при заморозке MemTable:
+     * всё, что попало в закрытый сегмент, окажется в SSTable, созданном из этой MemTable.
+     * @return номер закрытого сегмента
+     */
+    public long rotate() {
+        synchronized (syncLock) {
+            synchronized (appendLock) {
+                long closedId = currentSegmentId;
+                try {
+                    channel.force(false);
+                    channel.close();
+                } catch (IOException e) {
+                    throw new RuntimeException("Failed to close WAL segment " + closedId, e);
+                }
+                syncedBytes = writtenBytes;
+                openSegment(closedId + 1);
+                return closedId;
+            }
+        }
+    }
+
+    /**
+     * Удаляет все закрытые сегменты с номером не больше указанного.
+     * Вызывается после того, как SSTable с их данными записан в MANIFEST.
+     * @param segmentId номер последнего сегмента, который больше не нужен
+     */
+    public void deleteSegmentsUpTo(long segmentId) {
+        for (long id : listSegments()) {
+            if (id <= segmentId && id != currentSegmentId) {
+                try {
+                    Files.deleteIfExists(segmentPath(id));
+                } catch (IOException e) {
+                    System.err.println("Failed to delete WAL segment " + id + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Воспроизводит записи из сегментов, оставшихся с прошлого запуска, в порядке их записи.
+     * Чтение сегмента прекращается на первой оборванной или повреждённой записи — это хвост,
+     * который не успел записаться до падения.
+     * @param consumer обработчик восстановленных записей
+     */
+    public void replay(Consumer<WalRecord> consumer) {
+        for (long id : recoveredSegments) {
+            Path path = segmentPath(id);
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+                while (true) {
+                    int length;
+                    try {
+                        length = in.readInt();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    int expectedCrc = in.readInt();
+                    if (length < 0) {
+                        System.err.println("Corrupted WAL record length in " + path + ", skipping the rest");
+                        break;
+                    }
+                    byte[] payload = new byte[length];
+                    in.readFully(payload);
+
+                    CRC32 crc = new CRC32();
+                    crc.update(payload);
+                    if ((int) crc.getValue() != expectedCrc) {
+                        System.err.println("WAL CRC mismatch in " + path + ", skipping the rest");
+                        break;
+                    }
+                    consumer.accept(WalRecord.decode(payload));
+                }
+            } catch (EOFException e) {
+                System.err.println("Truncated WAL record in " + path + ", skipping the rest");
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to replay WAL segment " + path, e);
+            }
+        }
+    }
+
+    /**
+     * @return номер сегмента, в который сейчас идут записи
+     */
+    public long getCurrentSegmentId() {
+        return currentSegmentId;
+    }
+
+    /**
+     * Сбрасывает журнал на диск и закрывает текущий сегмент.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (syncThread != null) {
+            syncThread.interrupt();
+        }
+        synchronized (syncLock) {
+            synchronized (appendLock) {
+                try {
+                    channel.force(false);
+                    channel.close();
+                } catch (IOException e) {
+                    throw new RuntimeException("Failed to close WAL", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Открывает новый сегмент журнала. Вызывается под appendLock или из конструктора.
+     */
+    private void openSegment(long id) {
+        try {
+            channel = FileChannel.open(segmentPath(id),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open WAL segment " + id, e);
+        }
+        currentSegmentId = id;
+    }
+
+    /**
+     * Запускает фоновый поток, сбрасывающий журнал на диск с заданным интервалом.
+     */
+    private void startSyncThread(long intervalMs) {
+        syncThread = new Thread(() -> {
+            while (!closed && !Thread.currentThread().isInterrupted()) {
+                try {
+                    Thread.sleep(intervalMs);
+                    sync();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (Exception e) {
+                    if (!closed) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }, "LSM-WAL-Sync");
+        syncThread.setDaemon(true);
+        syncThread.start();
+    }
+
+    /**
+     * @return отсортированный список номеров сегментов, лежащих в каталоге журнала
+     */
+    private List<Long> listSegments() {
+        List<Long> ids = new ArrayList<>();
+        File[] files = walDir.toFile().listFiles((d, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                try {
+                    ids.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    private Path segmentPath(long id) {
+        return walDir.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+    }
+}
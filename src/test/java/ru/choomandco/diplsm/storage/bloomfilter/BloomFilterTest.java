@@ -0,0 +1,50 @@
+package ru.choomandco.diplsm.storage.bloomfilter;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BloomFilterTest {
+
+    @Test
+    void testNoFalseNegativesAndLowFalsePositiveRate() {
+        BloomFilter filter = BloomFilter.create(10_000, 10);
+        for (int i = 0; i < 10_000; i++) {
+            filter.add("key-" + i);
+        }
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(filter.mightContain("key-" + i));
+        }
+
+        int falsePositives = 0;
+        for (int i = 10_000; i < 110_000; i++) {
+            if (filter.mightContain("key-" + i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 2_000, "false positive rate too high: " + falsePositives);
+        assertEquals(7, filter.getHashCount());
+    }
+
+    @Test
+    void testHashDependsOnlyOnUtf8Bytes() {
+        String[] keys = {"", "a", "ключ", "日本語キー", "emoji 😀 key", "lone \uD800 surrogate"};
+        for (String key : keys) {
+            String roundTrip = new String(key.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+            assertEquals(BloomFilter.hash(roundTrip), BloomFilter.hash(key), key);
+        }
+        assertNotEquals(BloomFilter.hash("ключ1"), BloomFilter.hash("ключ2"));
+    }
+
+    @Test
+    void testRestoreFromWords() {
+        BloomFilter filter = BloomFilter.create(100, BloomFilter.bitsPerKeyFor(0.01));
+        filter.add("present");
+
+        BloomFilter restored = new BloomFilter(filter.getSize(), filter.getHashCount(), filter.toLongArray());
+        assertTrue(restored.mightContain("present"));
+        assertEquals(filter.getSize(), restored.getSize());
+    }
+}
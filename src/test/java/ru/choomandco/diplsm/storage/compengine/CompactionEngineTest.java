@@ -4,6 +4,7 @@ import org.apache.commons.io.FileUtils;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import ru.choomandco.diplsm.storage.entry.ValueEntry;
 import ru.choomandco.diplsm.storage.sstable.SSTable;
 import ru.choomandco.diplsm.storage.sstable.SSTableMetadata;
 
@@ -15,6 +16,10 @@ import java.nio.file.Paths;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -68,6 +73,115 @@ class CompactationEngineTest {
         assertFalse(Files.exists(Path.of(meta2.getFilename())));
     }
 
+    @Test
+    void testTombstonesKeptUnlessDropped() throws IOException {
+        SSTableMetadata older = writeSampleTable("t1.dat", Map.of("a", "1", "b", "2"));
+        Map<String, ValueEntry> deletes = new TreeMap<>();
+        deletes.put("a", ValueEntry.tombstone());
+        SSTableMetadata newer = writeSampleEntries("t2.dat", deletes);
+
+        String kept = TEST_DIR + "\\kept.dat";
+        SSTableMetadata keptMeta = engine.compact(List.of(older, newer), kept, 1, false);
+        SSTable sstable = new SSTable();
+        assertTrue(sstable.readEntriesIntoMap(kept).get("a").isTombstone());
+        assertNull(sstable.getByKey("a", kept));
+
+        String dropped = TEST_DIR + "\\dropped.dat";
+        engine.compact(List.of(keptMeta), dropped, 2, true);
+        Map<String, ValueEntry> bottom = sstable.readEntriesIntoMap(dropped);
+        assertFalse(bottom.containsKey("a"));
+        assertEquals("2", bottom.get("b").getValue());
+    }
+
+    @Test
+    void testOnlyTombstonesProduceNoFile() {
+        Map<String, ValueEntry> deletes = new TreeMap<>();
+        deletes.put("a", ValueEntry.tombstone());
+        SSTableMetadata meta = writeSampleEntries("t3.dat", deletes);
+
+        String output = TEST_DIR + "\\empty.dat";
+        assertNull(engine.compact(List.of(meta), output, 2, true));
+        assertFalse(Files.exists(Path.of(output)));
+        assertFalse(Files.exists(Path.of(meta.getFilename())));
+    }
+
+    @Test
+    void testOutputIsSplitAtMaxFileSize() throws IOException {
+        Map<String, String> data = new TreeMap<>();
+        for (int i = 0; i < 1000; i++) {
+            data.put(String.format("key%04d", i), "value" + i);
+        }
+        SSTableMetadata meta = writeSampleTable("big.dat", data);
+
+        int[] counter = {0};
+        List<SSTableMetadata> outputs = engine.compact(List.of(meta),
+                () -> TEST_DIR + "\\part" + (counter[0]++) + ".dat", 1, false, 4096);
+
+        assertTrue(outputs.size() > 1);
+        assertEquals(outputs.size(), counter[0]);
+        SSTable sstable = new SSTable();
+        Map<String, String> merged = new TreeMap<>();
+        String previousMax = null;
+        for (SSTableMetadata output : outputs) {
+            assertEquals(1, output.getTier());
+            assertEquals(Files.size(Path.of(output.getFilename())), output.getFileSize());
+            if (previousMax != null) {
+                assertTrue(previousMax.compareTo(output.getMinKey()) < 0);
+            }
+            previousMax = output.getMaxKey();
+            merged.putAll(sstable.readWholeIntoMap(output.getFilename()));
+        }
+        assertEquals(data, merged);
+        assertFalse(Files.exists(Path.of(meta.getFilename())));
+    }
+
+    @Test
+    void testLargeCompactionIsSplitIntoParallelSubcompactions() throws Exception {
+        Map<String, String> older = new TreeMap<>();
+        Map<String, String> newer = new TreeMap<>();
+        String padding = "x".repeat(100);
+        for (int i = 0; i < 30000; i++) {
+            String key = String.format("key%06d", i);
+            older.put(key, "old" + padding);
+            if (i % 3 == 0) {
+                newer.put(key, "new" + padding);
+            }
+        }
+        SSTable sstable = new SSTable();
+        List<SSTableMetadata> inputs = List.of(
+                sstable.readMetadata(writeSampleTable("p1.dat", older).getFilename(), 1),
+                sstable.readMetadata(writeSampleTable("p2.dat", newer).getFilename(), 1));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            AtomicInteger counter = new AtomicInteger();
+            List<SSTableMetadata> outputs = new CompactationEngine(sstable, executor, 4).compact(inputs,
+                    () -> TEST_DIR + "\\slice" + counter.incrementAndGet() + ".dat", 2, false, Long.MAX_VALUE);
+
+            assertTrue(outputs.size() > 1);
+            Map<String, String> merged = new TreeMap<>();
+            String previousMax = null;
+            for (SSTableMetadata output : outputs) {
+                if (previousMax != null) {
+                    assertTrue(previousMax.compareTo(output.getMinKey()) < 0);
+                }
+                previousMax = output.getMaxKey();
+                merged.putAll(sstable.readWholeIntoMap(output.getFilename()));
+            }
+            Map<String, String> expected = new TreeMap<>(older);
+            expected.putAll(newer);
+            assertEquals(expected, merged);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private SSTableMetadata writeSampleEntries(String filename, Map<String, ValueEntry> data) {
+        String path = TEST_DIR + "\\" + filename;
+        new SSTable().writeTableFromEntries(data, path);
+        return new SSTableMetadata(path, 1, data.keySet());
+    }
+
     private SSTableMetadata writeSampleTable(String filename, Map<String, String> data) {
         String path = TEST_DIR + "\\" + filename;
         new SSTable().writeTableFromMap(data, path);
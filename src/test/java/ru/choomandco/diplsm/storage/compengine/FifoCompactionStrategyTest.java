@@ -0,0 +1,66 @@
+package ru.choomandco.diplsm.storage.compengine;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.choomandco.diplsm.storage.bloomfilter.BloomFilter;
+import ru.choomandco.diplsm.storage.sstable.SSTableMetadata;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FifoCompactionStrategyTest {
+    private Map<Integer, TreeSet<SSTableMetadata>> levels;
+    private long counter;
+
+    @BeforeEach
+    void setUp() {
+        levels = new TreeMap<>();
+        levels.put(0, new TreeSet<>());
+        levels.put(1, new TreeSet<>());
+    }
+
+    @Test
+    void testNothingToDoWithinBudget() {
+        add(0, 400);
+        add(0, 600);
+        assertNull(new FifoCompactionStrategy(1000).pickCompaction(levels));
+    }
+
+    @Test
+    void testOldestFilesAreDeletedPastBudget() {
+        SSTableMetadata oldest = add(0, 400);
+        SSTableMetadata older = add(0, 400);
+        add(0, 400);
+        add(0, 400);
+
+        CompactionPlan plan = new FifoCompactionStrategy(1000).pickCompaction(levels);
+
+        assertTrue(plan.isDeletion());
+        assertEquals(List.of(oldest, older), plan.getInputs());
+    }
+
+    @Test
+    void testDeeperLevelsAreOlder() {
+        SSTableMetadata newer = add(0, 400);
+        SSTableMetadata deep = add(1, 800);
+
+        CompactionPlan plan = new FifoCompactionStrategy(1000).pickCompaction(levels);
+
+        assertEquals(1, plan.getLevel());
+        assertEquals(List.of(deep), plan.getInputs());
+        assertFalse(plan.getInputs().contains(newer));
+    }
+
+    private SSTableMetadata add(int level, long fileSize) {
+        counter++;
+        String filename = "T" + level + "/sstable_" + (1000 + counter) + "_" + counter + ".sst";
+        SSTableMetadata meta = new SSTableMetadata(filename, level, "a", "z",
+                BloomFilter.create(1, BloomFilter.DEFAULT_BITS_PER_KEY), 1, fileSize);
+        levels.get(level).add(meta);
+        return meta;
+    }
+}
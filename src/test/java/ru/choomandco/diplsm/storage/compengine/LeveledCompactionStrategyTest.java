@@ -0,0 +1,100 @@
+package ru.choomandco.diplsm.storage.compengine;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.choomandco.diplsm.storage.bloomfilter.BloomFilter;
+import ru.choomandco.diplsm.storage.sstable.SSTableMetadata;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LeveledCompactionStrategyTest {
+    private static final long MB = 1024 * 1024;
+
+    private Map<Integer, TreeSet<SSTableMetadata>> levels;
+    private LeveledCompactionStrategy strategy;
+    private long counter;
+
+    @BeforeEach
+    void setUp() {
+        levels = new TreeMap<>();
+        for (int lvl = 0; lvl < 4; lvl++) {
+            levels.put(lvl, new TreeSet<>());
+        }
+        strategy = new LeveledCompactionStrategy(4, 2, MB, 4 * MB, 10);
+    }
+
+    @Test
+    void testLevelZeroWaitsForTrigger() {
+        add(0, "a", "m", MB);
+        assertNull(strategy.pickCompaction(levels));
+
+        add(0, "c", "z", MB);
+        assertNotNull(strategy.pickCompaction(levels));
+    }
+
+    @Test
+    void testLevelZeroMergesWithOverlappingFilesOfNextLevel() {
+        SSTableMetadata below = add(1, "a", "b", MB);
+        SSTableMetadata overlapping = add(1, "c", "f", MB);
+        add(1, "x", "z", MB);
+        SSTableMetadata older = add(0, "d", "k", MB);
+        SSTableMetadata newer = add(0, "e", "m", MB);
+
+        CompactionPlan plan = strategy.pickCompaction(levels);
+
+        assertEquals(0, plan.getLevel());
+        assertEquals(1, plan.getTargetLevel());
+        assertEquals(MB, plan.getMaxOutputFileSize());
+        // файлы следующего уровня старше любого файла L0, поэтому идут первыми
+        assertEquals(List.of(overlapping, older, newer), plan.getInputs());
+        assertFalse(plan.getInputs().contains(below));
+    }
+
+    @Test
+    void testOversizedLevelIsCompactedRoundRobin() {
+        SSTableMetadata first = add(1, "a", "c", 2 * MB);
+        SSTableMetadata second = add(1, "d", "f", 2 * MB);
+        SSTableMetadata third = add(1, "g", "i", 2 * MB);
+        SSTableMetadata target = add(2, "e", "h", MB);
+        assertEquals(4 * MB, strategy.maxBytesForLevel(1));
+        assertEquals(40 * MB, strategy.maxBytesForLevel(2));
+
+        assertEquals(List.of(first), strategy.pickCompaction(levels).getInputs());
+        assertEquals(List.of(target, second), strategy.pickCompaction(levels).getInputs());
+        assertEquals(List.of(target, third), strategy.pickCompaction(levels).getInputs());
+        assertEquals(List.of(first), strategy.pickCompaction(levels).getInputs());
+    }
+
+    @Test
+    void testOverlappingFilesOfSameLevelAreCompactedTogether() {
+        SSTableMetadata older = add(1, "a", "f", 3 * MB);
+        SSTableMetadata newer = add(1, "e", "k", 3 * MB);
+        SSTableMetadata separate = add(1, "x", "z", 3 * MB);
+
+        CompactionPlan plan = strategy.pickCompaction(levels);
+
+        assertEquals(List.of(older, newer), plan.getInputs());
+        assertFalse(plan.getInputs().contains(separate));
+    }
+
+    @Test
+    void testLastLevelIsNeverCompacted() {
+        add(3, "a", "z", 1024 * MB);
+        assertNull(strategy.pickCompaction(levels));
+        assertNull(strategy.pickCompaction(levels, 3));
+    }
+
+    private SSTableMetadata add(int level, String minKey, String maxKey, long fileSize) {
+        counter++;
+        String filename = "T" + level + "/sstable_" + (1000 + counter) + "_" + counter + ".sst";
+        SSTableMetadata meta = new SSTableMetadata(filename, level, minKey, maxKey,
+                BloomFilter.create(1, BloomFilter.DEFAULT_BITS_PER_KEY), 1, fileSize);
+        levels.get(level).add(meta);
+        return meta;
+    }
+}
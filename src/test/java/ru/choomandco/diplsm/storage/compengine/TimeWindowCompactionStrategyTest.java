@@ -0,0 +1,71 @@
+package ru.choomandco.diplsm.storage.compengine;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.choomandco.diplsm.storage.bloomfilter.BloomFilter;
+import ru.choomandco.diplsm.storage.sstable.SSTableMetadata;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimeWindowCompactionStrategyTest {
+    private static final long WINDOW = 60_000;
+
+    private Map<Integer, TreeSet<SSTableMetadata>> levels;
+    private TimeWindowCompactionStrategy strategy;
+    private long counter;
+
+    @BeforeEach
+    void setUp() {
+        levels = new TreeMap<>();
+        levels.put(0, new TreeSet<>());
+        strategy = new TimeWindowCompactionStrategy(WINDOW, 3);
+    }
+
+    @Test
+    void testCurrentWindowWaitsForThreshold() {
+        long now = System.currentTimeMillis() / WINDOW * WINDOW;
+        add(now + 1);
+        add(now + 2);
+        assertNull(strategy.pickCompaction(levels));
+
+        add(now + 3);
+        CompactionPlan plan = strategy.pickCompaction(levels);
+        assertEquals(3, plan.getInputs().size());
+        assertEquals(0, plan.getTargetLevel());
+        assertTrue(plan.isKeepWriteTime());
+    }
+
+    @Test
+    void testClosedWindowsAreMergedSeparately() {
+        SSTableMetadata first = add(WINDOW + 10);
+        SSTableMetadata second = add(WINDOW + 20);
+        SSTableMetadata otherWindow = add(3 * WINDOW + 10);
+
+        CompactionPlan plan = strategy.pickCompaction(levels);
+
+        assertEquals(List.of(first, second), plan.getInputs());
+        assertFalse(plan.getInputs().contains(otherWindow));
+
+        levels.get(0).removeAll(plan.getInputs());
+        assertNull(strategy.pickCompaction(levels));
+    }
+
+    @Test
+    void testWindowOfUsesWriteTimeFromFilename() {
+        assertEquals(2, strategy.windowOf(add(2 * WINDOW + 5)));
+    }
+
+    private SSTableMetadata add(long writeTime) {
+        counter++;
+        String filename = "T0/sstable_" + writeTime + "_" + counter + ".sst";
+        SSTableMetadata meta = new SSTableMetadata(filename, 0, "a", "z",
+                BloomFilter.create(1, BloomFilter.DEFAULT_BITS_PER_KEY), 1, 100);
+        levels.get(0).add(meta);
+        return meta;
+    }
+}
@@ -0,0 +1,73 @@
+package ru.choomandco.diplsm.storage.compression;
+
+import org.junit.jupiter.api.Test;
+import ru.choomandco.diplsm.storage.interfaces.BlockCodec;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BlockCodecTest {
+    private static final BlockCodec[] CODECS = {BlockCodecs.NONE, BlockCodecs.LZ4, BlockCodecs.DEFLATE};
+
+    @Test
+    void testRoundTrip() throws IOException {
+        Random random = new Random(7);
+        byte[] noise = new byte[10_000];
+        random.nextBytes(noise);
+        StringBuilder json = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            json.append("{\"id\":\"").append(UUID.nameUUIDFromBytes(new byte[]{(byte) i})).append("\",\"n\":").append(i).append('}');
+        }
+        byte[][] inputs = {
+                new byte[0],
+                "a".getBytes(StandardCharsets.UTF_8),
+                "abcdabcdabcdabcd".getBytes(StandardCharsets.UTF_8),
+                new byte[100_000],
+                noise,
+                json.toString().getBytes(StandardCharsets.UTF_8),
+        };
+        for (BlockCodec codec : CODECS) {
+            for (byte[] input : inputs) {
+                byte[] padded = new byte[input.length + 10];
+                System.arraycopy(input, 0, padded, 3, input.length);
+                byte[] compressed = codec.compress(padded, 3, input.length);
+                byte[] framed = new byte[compressed.length + 5];
+                System.arraycopy(compressed, 0, framed, 5, compressed.length);
+                assertArrayEquals(input, codec.decompress(framed, 5, compressed.length, input.length),
+                        codec.getName() + " length " + input.length);
+            }
+        }
+    }
+
+    @Test
+    void testCompressibleDataShrinks() {
+        byte[] input = String.join(",", java.util.Collections.nCopies(500, "user-000042:active"))
+                .getBytes(StandardCharsets.UTF_8);
+        assertTrue(BlockCodecs.LZ4.compress(input, 0, input.length).length < input.length / 10);
+        assertTrue(BlockCodecs.DEFLATE.compress(input, 0, input.length).length < input.length / 10);
+    }
+
+    @Test
+    void testCorruptedInputThrows() {
+        byte[] input = "hello hello hello hello hello hello".getBytes(StandardCharsets.UTF_8);
+        for (BlockCodec codec : new BlockCodec[]{BlockCodecs.LZ4, BlockCodecs.DEFLATE}) {
+            byte[] compressed = codec.compress(input, 0, input.length);
+            byte[] truncated = Arrays.copyOf(compressed, compressed.length - 3);
+            assertThrows(IOException.class, () -> codec.decompress(truncated, 0, truncated.length, input.length));
+            assertThrows(IOException.class, () -> codec.decompress(compressed, 0, compressed.length, input.length + 1));
+        }
+    }
+
+    @Test
+    void testRegistry() {
+        assertSame(BlockCodecs.LZ4, BlockCodecs.byId(Lz4Codec.ID));
+        assertSame(BlockCodecs.DEFLATE, BlockCodecs.byId(DeflateCodec.ID));
+        assertNull(BlockCodecs.byId(200));
+        assertThrows(IllegalArgumentException.class, () -> BlockCodecs.register(new NoCompressionCodec()));
+    }
+}
@@ -0,0 +1,110 @@
+package ru.choomandco.diplsm.storage.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BackgroundSchedulerTest {
+
+    @Test
+    void testFlushIsNotBlockedByRunningCompaction() throws Exception {
+        BackgroundScheduler scheduler = new BackgroundScheduler(1, 1);
+        CountDownLatch compactionStarted = new CountDownLatch(1);
+        CountDownLatch releaseCompaction = new CountDownLatch(1);
+        scheduler.scheduleCompaction(() -> {
+            compactionStarted.countDown();
+            await(releaseCompaction);
+        });
+        assertTrue(compactionStarted.await(5, TimeUnit.SECONDS));
+
+        CountDownLatch flushed = new CountDownLatch(1);
+        scheduler.submitFlush(flushed::countDown);
+        assertTrue(flushed.await(5, TimeUnit.SECONDS));
+
+        releaseCompaction.countDown();
+        scheduler.close();
+    }
+
+    @Test
+    void testQueuedCompactionsAreCoalesced() throws Exception {
+        BackgroundScheduler scheduler = new BackgroundScheduler(1, 1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger();
+        scheduler.scheduleCompaction(() -> {
+            started.countDown();
+            await(release);
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        assertTrue(scheduler.scheduleCompaction(runs::incrementAndGet));
+        assertFalse(scheduler.scheduleCompaction(runs::incrementAndGet));
+        assertFalse(scheduler.scheduleCompaction(runs::incrementAndGet));
+
+        release.countDown();
+        scheduler.close();
+        // закрытие отменяет ожидающую задачу, поэтому она выполняется не больше одного раза
+        assertTrue(runs.get() <= 1);
+    }
+
+    @Test
+    void testCloseCancelsQueuedJobsAndWaitsForRunningOnes() throws Exception {
+        BackgroundScheduler scheduler = new BackgroundScheduler(1, 1);
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicInteger finished = new AtomicInteger();
+        scheduler.submitFlush(() -> {
+            started.countDown();
+            sleep(200);
+            finished.incrementAndGet();
+        });
+        Future<?> queued = scheduler.submitFlush(finished::incrementAndGet);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        scheduler.close();
+
+        assertEquals(1, finished.get());
+        assertTrue(queued.isCancelled());
+        assertTrue(scheduler.isShutdown());
+        assertNull(scheduler.submitFlush(finished::incrementAndGet));
+        assertFalse(scheduler.scheduleCompaction(finished::incrementAndGet));
+    }
+
+    @Test
+    void testPeriodicJobSurvivesFailuresAndStopsOnClose() throws Exception {
+        BackgroundScheduler scheduler = new BackgroundScheduler(1, 1);
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch ranTwice = new CountDownLatch(2);
+        scheduler.schedulePeriodic(() -> {
+            runs.incrementAndGet();
+            ranTwice.countDown();
+            throw new IllegalStateException("expected");
+        }, 10);
+        assertTrue(ranTwice.await(5, TimeUnit.SECONDS));
+
+        scheduler.close();
+        int afterClose = runs.get();
+        sleep(50);
+        assertEquals(afterClose, runs.get());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -27,6 +27,8 @@ class ManifestHandlerTest {
 
     @BeforeEach
     void construct() throws IOException {
+        // журнал MANIFEST и CURRENT из прошлого теста не должны попасть в следующий
+        FileUtils.deleteDirectory(Paths.get(MANIFEST_PATH).getParent().toFile());
         Path baseDir = Paths.get(TEST_DIR);
         if (Files.exists(baseDir)) {
             FileUtils.deleteDirectory(baseDir.toFile());
@@ -40,7 +42,7 @@ class ManifestHandlerTest {
     @AfterEach
     void deconstruct() throws IOException {
         FileUtils.deleteDirectory(new File(".\\data_test"));
-        Files.deleteIfExists(Paths.get(MANIFEST_PATH));
+        FileUtils.deleteDirectory(Paths.get(MANIFEST_PATH).getParent().toFile());
     }
 
     @Test
@@ -48,8 +50,8 @@ class ManifestHandlerTest {
         String file1 = TEST_DIR + "T1\\a.dat";
         String file2 = TEST_DIR + "T2\\b.dat";
 
-        Files.write(Paths.get(file1), "");
-        Files.write(Paths.get(file2), "");
+        Files.write(Paths.get(file1), new byte[0]);
+        Files.write(Paths.get(file2), new byte[0]);
 
         handler.readManifest(TEST_DIR, MANIFEST_PATH);
         Map<String, Integer> tiers = handler.getFileTiers();
@@ -99,4 +101,103 @@ class ManifestHandlerTest {
         assertFalse(tiers.containsKey(old2.getFilename()));
         assertEquals(2, tiers.get(newFile.getFilename()));
     }
-}
\ No newline at end of file
+
+    @Test
+    void testEditsAreAppendedAndReplayed() throws IOException {
+        handler.readManifest(TEST_DIR, MANIFEST_PATH);
+        SSTableMetadata old1 = new SSTableMetadata("old1.sst", 0, Set.of("a"));
+        SSTableMetadata old2 = new SSTableMetadata("old2.sst", 0, Set.of("b"));
+        SSTableMetadata merged = new SSTableMetadata("merged.sst", 1, Set.of("a", "b"));
+        handler.addNewFile(old1.getFilename(), 0, MANIFEST_PATH);
+        handler.addNewFile(old2.getFilename(), 0, MANIFEST_PATH);
+        handler.logAndApply(VersionEdit.replace(List.of(old1, old2), List.of(merged))
+                .setLogNumber(7).setNextFileNumber(42), MANIFEST_PATH);
+
+        Path current = Paths.get(MANIFEST_PATH).resolveSibling(ManifestHandler.CURRENT_FILE);
+        Path log = Paths.get(MANIFEST_PATH).resolveSibling(new String(Files.readAllBytes(current)).trim());
+        long sizeBeforeEdit = Files.size(log);
+        handler.addNewFile("new.sst", 0, MANIFEST_PATH);
+        // изменение дописывается в тот же журнал, а не переписывает его целиком
+        assertEquals(log, Paths.get(MANIFEST_PATH).resolveSibling(new String(Files.readAllBytes(current)).trim()));
+        assertTrue(Files.size(log) > sizeBeforeEdit);
+        handler.close();
+
+        ManifestHandler reopened = new ManifestHandler();
+        reopened.readManifest(TEST_DIR, MANIFEST_PATH);
+        Map<String, Integer> tiers = reopened.getFileTiers();
+        assertEquals(Map.of("merged.sst", 1, "new.sst", 0), tiers);
+        assertEquals(7, reopened.getLogNumber());
+        assertEquals(42, reopened.getNextFileNumber());
+        // после открытия состояние свёрнуто в новый журнал, прежний удалён
+        assertFalse(Files.exists(log));
+        reopened.close();
+    }
+
+    @Test
+    void testTornTailIsDiscarded() throws IOException {
+        handler.readManifest(TEST_DIR, MANIFEST_PATH);
+        handler.addNewFile("a.sst", 0, MANIFEST_PATH);
+        handler.addNewFile("b.sst", 0, MANIFEST_PATH);
+        handler.close();
+
+        Path current = Paths.get(MANIFEST_PATH).resolveSibling(ManifestHandler.CURRENT_FILE);
+        Path log = Paths.get(MANIFEST_PATH).resolveSibling(new String(Files.readAllBytes(current)).trim());
+        byte[] bytes = Files.readAllBytes(log);
+        // запись о b.sst оборвана посередине, как при падении во время записи
+        Files.write(log, java.util.Arrays.copyOf(bytes, bytes.length - 3));
+
+        ManifestHandler reopened = new ManifestHandler();
+        reopened.readManifest(TEST_DIR, MANIFEST_PATH);
+        assertEquals(Map.of("a.sst", 0), reopened.getFileTiers());
+        reopened.addNewFile("c.sst", 1, MANIFEST_PATH);
+        reopened.close();
+
+        ManifestHandler again = new ManifestHandler();
+        again.readManifest(TEST_DIR, MANIFEST_PATH);
+        assertEquals(Map.of("a.sst", 0, "c.sst", 1), again.getFileTiers());
+        again.close();
+    }
+
+    @Test
+    void testLogIsRolledIntoSnapshot() throws IOException {
+        ManifestHandler small = new ManifestHandler(256);
+        small.readManifest(TEST_DIR, MANIFEST_PATH);
+        Path current = Paths.get(MANIFEST_PATH).resolveSibling(ManifestHandler.CURRENT_FILE);
+        String first = new String(Files.readAllBytes(current)).trim();
+        for (int i = 0; i < 50; i++) {
+            small.addNewFile("f" + i + ".sst", 0, MANIFEST_PATH);
+            small.postCompactationRebuild(List.of(new SSTableMetadata("f" + i + ".sst", 0, Set.of("k"))),
+                    List.of(new SSTableMetadata("g" + i + ".sst", 1, Set.of("k"))), MANIFEST_PATH);
+        }
+        String last = new String(Files.readAllBytes(current)).trim();
+        assertNotEquals(first, last);
+        assertFalse(Files.exists(Paths.get(MANIFEST_PATH).resolveSibling(first)));
+        small.close();
+
+        ManifestHandler reopened = new ManifestHandler();
+        reopened.readManifest(TEST_DIR, MANIFEST_PATH);
+        assertEquals(50, reopened.getFileTiers().size());
+        assertEquals(1, reopened.getFileTiers().get("g49.sst"));
+        reopened.close();
+    }
+
+    @Test
+    void testLegacyManifestIsMigrated() throws IOException {
+        Files.createDirectories(Paths.get(MANIFEST_PATH).getParent());
+        String entry = "T2 legacy.sst";
+        java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+        crc.update(entry.getBytes());
+        Files.write(Paths.get(MANIFEST_PATH), List.of("#CRC=" + crc.getValue(), entry));
+
+        handler.readManifest(TEST_DIR, MANIFEST_PATH);
+        assertEquals(Map.of("legacy.sst", 2), handler.getFileTiers());
+        assertFalse(Files.exists(Paths.get(MANIFEST_PATH)));
+        assertTrue(Files.exists(Paths.get(MANIFEST_PATH).resolveSibling(ManifestHandler.CURRENT_FILE)));
+        handler.close();
+
+        ManifestHandler reopened = new ManifestHandler();
+        reopened.readManifest(TEST_DIR, MANIFEST_PATH);
+        assertEquals(Map.of("legacy.sst", 2), reopened.getFileTiers());
+        reopened.close();
+    }
+}
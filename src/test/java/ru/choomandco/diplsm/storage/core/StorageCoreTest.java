@@ -0,0 +1,404 @@
+package ru.choomandco.diplsm.storage.core;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.choomandco.diplsm.storage.compengine.CompactionPlan;
+import ru.choomandco.diplsm.storage.compengine.CompactionStyle;
+import ru.choomandco.diplsm.storage.entry.ValueEntry;
+import ru.choomandco.diplsm.storage.iterator.ScanIterator;
+import ru.choomandco.diplsm.storage.memtable.ImmutableMemTable;
+import ru.choomandco.diplsm.storage.sstable.SSTableMetadata;
+import ru.choomandco.diplsm.storage.wal.WalRecord;
+import ru.choomandco.diplsm.storage.wal.WalSyncMode;
+import ru.choomandco.diplsm.storage.wal.WriteAheadLog;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StorageCoreTest {
+    private static final String LSM_DIR = "./data/lsm";
+    private static final int KEYS = 4;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        cleanStore();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        cleanStore();
+    }
+
+    @Test
+    void testConcurrentOverwritesSurviveReopen() throws Exception {
+        StorageCore storage = new StorageCore(options());
+        Thread[] writers = new Thread[4];
+        for (int t = 0; t < writers.length; t++) {
+            int thread = t;
+            writers[t] = new Thread(() -> {
+                for (int i = 0; i < 20_000; i++) {
+                    String key = "key-" + (i % KEYS);
+                    if (i % 5 == thread) {
+                        storage.delete(key);
+                    } else {
+                        storage.put(key, "t" + thread + "-" + i);
+                    }
+                }
+            });
+            writers[t].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        // параллельные писатели попадают в журнал не в порядке номеров, поэтому сравниваются и значения, и номера
+        Map<String, String> expected = read(storage);
+        long lastSequence = storage.getLastSequence();
+        storage.close();
+
+        StorageCore reopened = new StorageCore(options());
+        try {
+            assertEquals(expected, read(reopened));
+            assertEquals(lastSequence, reopened.getLastSequence());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    void testRecoveryKeepsSequencesFromWal() {
+        // так журнал выглядит, если писатель с номером 6 успел добавить запись раньше писателя с номером 5
+        WriteAheadLog wal = new WriteAheadLog(LSM_DIR + "/wal/", WalSyncMode.EVERY_WRITE, 0);
+        wal.append(WalRecord.put("key", "newer", 6));
+        wal.append(WalRecord.put("key", "older", 5));
+        wal.append(WalRecord.put("other", "value", 4));
+        wal.append(WalRecord.delete("other", 3));
+        wal.close();
+
+        StorageCore storage = new StorageCore(options());
+        try {
+            assertEquals("newer", storage.get("key"));
+            assertEquals("value", storage.get("other"));
+            assertEquals(6, storage.getLastSequence());
+        } finally {
+            storage.close();
+        }
+    }
+
+    @Test
+    void testRecoveryKeepsBatchSequencesFromWal() {
+        // пакет с номерами 10–12 попал в журнал раньше одиночной записи с номером 9
+        WriteAheadLog wal = new WriteAheadLog(LSM_DIR + "/wal/", WalSyncMode.EVERY_WRITE, 0);
+        wal.append(WalRecord.batch(List.of(
+                WalRecord.put("a", "batch"), WalRecord.delete("b"), WalRecord.put("c", "batch")), 10));
+        wal.append(WalRecord.put("a", "single", 9));
+        wal.append(WalRecord.put("b", "single", 8));
+        wal.close();
+
+        StorageCore storage = new StorageCore(options());
+        try {
+            assertEquals("batch", storage.get("a"));
+            assertNull(storage.get("b"));
+            assertEquals(12, storage.findEntry("c").getSequence());
+            assertEquals(12, storage.getLastSequence());
+        } finally {
+            storage.close();
+        }
+    }
+
+    @Test
+    void testScanSeesTableWhoseFlushFinishesDuringScan() {
+        StorageCore storage = new StorageCore(options());
+        try {
+            for (int i = 0; i < 10; i++) {
+                storage.put("key-" + i, "v" + i);
+            }
+            ImmutableMemTable frozen = storage.freezeMemTable();
+            // флаш замороженной таблицы завершается ровно в тот момент, когда скан берёт версию
+            storage.versions = new VersionSet(storage.table, storage.metadataMap) {
+                private boolean flushed;
+
+                @Override
+                public Version acquire() {
+                    if (!flushed) {
+                        flushed = true;
+                        storage.writeSnapshot(frozen, 0);
+                        storage.releaseImmutableMemTable(frozen);
+                    }
+                    return super.acquire();
+                }
+            };
+
+            List<String> keys = new ArrayList<>();
+            try (ScanIterator it = storage.scan(null, null)) {
+                it.forEachRemaining(e -> keys.add(e.getKey()));
+            }
+            assertEquals(10, keys.size());
+            assertTrue(storage.immutableMemTables.isEmpty());
+        } finally {
+            storage.close();
+        }
+    }
+
+    @Test
+    void testGetSeesFrozenTableWhileFlushIsInProgress() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        StorageCore storage = new StorageCore(options()) {
+            @Override
+            protected void writeSnapshot(ImmutableMemTable frozen, int tier) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                super.writeSnapshot(frozen, tier);
+            }
+        };
+        try {
+            for (int i = 0; i < 10; i++) {
+                storage.put("key-" + i, "v" + i);
+            }
+            Thread flusher = new Thread(() -> storage.flush(0));
+            flusher.start();
+            awaitParked(flusher);
+
+            // данные уже не в активной MemTable и ещё не на диске
+            assertTrue(storage.memoryTable.isEmpty());
+            assertEquals(1, storage.immutableMemTables.size());
+            for (int i = 0; i < 10; i++) {
+                assertEquals("v" + i, storage.get("key-" + i));
+            }
+
+            release.countDown();
+            flusher.join(5_000);
+            assertFalse(flusher.isAlive());
+            assertTrue(storage.immutableMemTables.isEmpty());
+            assertEquals("v3", storage.get("key-3"));
+        } finally {
+            release.countDown();
+            storage.close();
+        }
+    }
+
+    @Test
+    void testImmutableMemTableLimitMakesFlushWait() throws Exception {
+        StorageCore storage = new StorageCore(options().setMaxImmutableMemTables(1));
+        try {
+            storage.put("a", "1");
+            ImmutableMemTable first = storage.freezeMemTable();
+            storage.put("b", "2");
+
+            Thread flusher = new Thread(() -> storage.flush(0));
+            flusher.start();
+            awaitParked(flusher);
+            assertEquals(1, storage.immutableMemTables.size());
+            assertEquals("2", storage.get("b"));
+
+            storage.flushImmutableMemTable(first, 0);
+            flusher.join(5_000);
+            assertFalse(flusher.isAlive());
+            assertTrue(storage.immutableMemTables.isEmpty());
+            assertEquals(2, storage.metadataMap.get(0).size());
+            assertTrue(storage.getWriteController().getStallNanos(WriteStallCause.MEMTABLE_LIMIT) > 0);
+            assertEquals("1", storage.get("a"));
+            assertEquals("2", storage.get("b"));
+        } finally {
+            storage.close();
+        }
+    }
+
+    @Test
+    void testFailedFlushReleasesWaitingFlushesAndKeepsData() throws Exception {
+        AtomicReference<ImmutableMemTable> failing = new AtomicReference<>();
+        StorageCore storage = new StorageCore(options()) {
+            @Override
+            protected void writeSnapshot(ImmutableMemTable frozen, int tier) {
+                if (frozen == failing.get()) {
+                    throw new RuntimeException("No space left on device");
+                }
+                super.writeSnapshot(frozen, tier);
+            }
+        };
+        try {
+            storage.put("a", "1");
+            ImmutableMemTable older = storage.freezeMemTable();
+            storage.put("b", "2");
+            ImmutableMemTable younger = storage.freezeMemTable();
+            failing.set(older);
+
+            // более новая таблица записана раньше и ждёт, пока установится старая
+            AtomicReference<RuntimeException> youngerError = new AtomicReference<>();
+            Thread flusher = new Thread(() -> {
+                try {
+                    storage.flushImmutableMemTable(younger, 0);
+                } catch (RuntimeException e) {
+                    youngerError.set(e);
+                }
+            });
+            flusher.start();
+            awaitParked(flusher);
+
+            assertThrows(RuntimeException.class, () -> storage.flushImmutableMemTable(older, 0));
+            flusher.join(5_000);
+            assertFalse(flusher.isAlive());
+            assertNotNull(youngerError.get());
+            assertEquals("No space left on device", storage.getBackgroundError().getMessage());
+
+            assertEquals(2, storage.immutableMemTables.size());
+            assertEquals("1", storage.get("a"));
+            assertEquals("2", storage.get("b"));
+            assertThrows(RuntimeException.class, () -> storage.put("c", "3"));
+            assertThrows(RuntimeException.class, () -> storage.flush(0));
+        } finally {
+            storage.close();
+        }
+
+        StorageCore reopened = new StorageCore(options());
+        try {
+            assertEquals("1", reopened.get("a"));
+            assertEquals("2", reopened.get("b"));
+            assertNull(reopened.get("c"));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    void testSequentialIngestIsMovedWithoutRewrite() throws IOException {
+        StorageOptions options = options().setCompactionStyle(CompactionStyle.LEVELED).setTierThreshold(3);
+        StorageCore storage = new StorageCore(options);
+        Set<Object> flushedFiles = new HashSet<>();
+        try {
+            for (int file = 0; file < 3; file++) {
+                for (int i = 0; i < 100; i++) {
+                    storage.put(String.format("key-%05d", file * 100 + i), "v" + i);
+                }
+                if (file < 2) {
+                    storage.flush(0);
+                    for (SSTableMetadata meta : storage.metadataMap.get(0)) {
+                        flushedFiles.add(fileKey(meta));
+                    }
+                }
+            }
+            // третий флаш достигает порога L0, и файлы переносятся на L1 жёсткими ссылками
+            storage.flush(0);
+            assertTrue(storage.metadataMap.get(0).isEmpty());
+            assertEquals(3, storage.metadataMap.get(1).size());
+            Set<Object> movedFiles = new HashSet<>();
+            for (SSTableMetadata meta : storage.metadataMap.get(1)) {
+                movedFiles.add(fileKey(meta));
+            }
+            assertTrue(movedFiles.containsAll(flushedFiles));
+        } finally {
+            storage.close();
+        }
+
+        StorageCore reopened = new StorageCore(options);
+        try {
+            assertEquals(3, reopened.metadataMap.get(1).size());
+            assertEquals("v0", reopened.get("key-00000"));
+            assertEquals("v50", reopened.get("key-00150"));
+            assertEquals("v99", reopened.get("key-00299"));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    void testOverlappingOlderLevelZeroFileBlocksMove() throws IOException {
+        StorageCore storage = new StorageCore(options());
+        try {
+            for (char c = 'a'; c <= 'm'; c++) {
+                storage.put(String.valueOf(c), "old");
+            }
+            storage.flush(0);
+            SSTableMetadata older = storage.metadataMap.get(0).first();
+            for (char c = 'k'; c <= 'z'; c++) {
+                storage.put(String.valueOf(c), "new");
+            }
+            storage.flush(0);
+            SSTableMetadata newer = storage.metadataMap.get(0).last();
+
+            // более новый файл пересекается со старым: после переноса старые версии "k".."m" оказались бы выше
+            CompactionPlan moveNewer = new CompactionPlan(0, 1, List.of(newer), 1024 * 1024);
+            assertFalse(storage.isTrivialMove(moveNewer));
+            // старый файл переносить можно: пересекающийся с ним файл L0 новее и читается раньше
+            assertTrue(storage.isTrivialMove(new CompactionPlan(0, 1, List.of(older), 1024 * 1024)));
+
+            Set<Object> inputFiles = Set.of(fileKey(older), fileKey(newer));
+            storage.runCompaction(new CompactionPlan(0, 1, List.of(older, newer), 1024 * 1024));
+            assertTrue(storage.metadataMap.get(0).isEmpty());
+            for (SSTableMetadata meta : storage.metadataMap.get(1)) {
+                assertFalse(inputFiles.contains(fileKey(meta)));
+            }
+            assertEquals("new", storage.get("k"));
+        } finally {
+            storage.close();
+        }
+
+        StorageCore reopened = new StorageCore(options());
+        try {
+            assertEquals("old", reopened.get("a"));
+            assertEquals("new", reopened.get("m"));
+            assertEquals("new", reopened.get("z"));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    private static Object fileKey(SSTableMetadata meta) throws IOException {
+        return Files.readAttributes(Path.of(meta.getFilename()), BasicFileAttributes.class).fileKey();
+    }
+
+    private static void awaitParked(Thread thread) throws InterruptedException {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (thread.getState() != Thread.State.WAITING) {
+            assertTrue(System.nanoTime() < deadline, "thread did not park");
+            Thread.sleep(1);
+        }
+    }
+
+    private static StorageOptions options() {
+        return new StorageOptions()
+                .setMemTableMaxSize(64L * 1024 * 1024)
+                .setWalSyncMode(WalSyncMode.OS_MANAGED);
+    }
+
+    private static Map<String, String> read(StorageCore storage) {
+        Map<String, String> values = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            ValueEntry entry = storage.findEntry("key-" + i);
+            values.put("key-" + i, entry.getValue() + "@" + entry.getSequence());
+        }
+        return values;
+    }
+
+    /**
+     * Удаляет журнал, MANIFEST, CURRENT и файлы таблиц, оставляя каталоги уровней, которые используют другие тесты.
+     */
+    private static void cleanStore() throws IOException {
+        FileUtils.deleteDirectory(new File(LSM_DIR + "/wal"));
+        Path lsm = Path.of(LSM_DIR);
+        if (!Files.exists(lsm)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(lsm)) {
+            files.filter(Files::isRegularFile).forEach(file -> file.toFile().delete());
+        }
+    }
+}
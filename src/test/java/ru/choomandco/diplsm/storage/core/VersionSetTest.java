@@ -0,0 +1,110 @@
+package ru.choomandco.diplsm.storage.core;
+
+import org.junit.jupiter.api.Test;
+import ru.choomandco.diplsm.storage.interfaces.SortedStringTable;
+import ru.choomandco.diplsm.storage.sstable.SSTableMetadata;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VersionSetTest {
+    private final List<String> deleted = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * Таблица, которая только запоминает удалённые файлы.
+     */
+    private SortedStringTable recordingTable() {
+        return (SortedStringTable) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{SortedStringTable.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("deleteFIle")) {
+                        deleted.add((String) args[0]);
+                    }
+                    return null;
+                });
+    }
+
+    private static SSTableMetadata file(String name, int tier) {
+        return new SSTableMetadata(name, tier, "a", "z", null, 1, 100);
+    }
+
+    private static Map<Integer, TreeSet<SSTableMetadata>> levels(SSTableMetadata... files) {
+        Map<Integer, TreeSet<SSTableMetadata>> levels = new TreeMap<>();
+        for (SSTableMetadata meta : files) {
+            levels.computeIfAbsent(meta.getTier(), k -> new TreeSet<>()).add(meta);
+        }
+        return levels;
+    }
+
+    @Test
+    void testReplacedFilesAreDeletedWhenNoVersionReadsThem() {
+        SSTableMetadata a = file("a.sst", 0);
+        SSTableMetadata b = file("b.sst", 0);
+        SSTableMetadata c = file("c.sst", 1);
+        VersionSet versions = new VersionSet(recordingTable(), levels(a, b));
+
+        Version pinned = versions.acquire();
+        versions.install(levels(c));
+
+        // чтение по старой версии ещё идёт, её файлы остаются на диске
+        assertTrue(deleted.isEmpty());
+        assertEquals(2, versions.getLiveVersionCount());
+        assertEquals(2, pinned.getFiles(0).size());
+
+        pinned.unref();
+        assertEquals(new TreeSet<>(List.of("a.sst", "b.sst")), new TreeSet<>(deleted));
+        assertEquals(1, versions.getLiveVersionCount());
+        assertEquals(1, versions.getLiveFileCount());
+        assertEquals(2, versions.getDeletedFileCount());
+    }
+
+    @Test
+    void testFilesSharedWithCurrentVersionAreKept() {
+        SSTableMetadata a = file("a.sst", 0);
+        SSTableMetadata b = file("b.sst", 0);
+        SSTableMetadata c = file("c.sst", 1);
+        VersionSet versions = new VersionSet(recordingTable(), levels(a, b));
+
+        versions.install(levels(a, c));
+
+        assertEquals(List.of("b.sst"), deleted);
+        Version current = versions.acquire();
+        assertEquals(1, current.getFiles(0).size());
+        assertEquals(1, current.getFiles(1).size());
+        assertTrue(current.getFiles(5).isEmpty());
+        current.unref();
+    }
+
+    @Test
+    void testVersionIsImmutableSnapshot() {
+        SSTableMetadata a = file("a.sst", 0);
+        Map<Integer, TreeSet<SSTableMetadata>> levels = levels(a);
+        VersionSet versions = new VersionSet(recordingTable(), levels);
+
+        Version version = versions.acquire();
+        levels.get(0).add(file("b.sst", 0));
+
+        assertEquals(1, version.getFiles(0).size());
+        assertThrows(UnsupportedOperationException.class, () -> version.getFiles(0).clear());
+        version.unref();
+    }
+
+    @Test
+    void testReleasedVersionCannotBeReleasedAgain() {
+        VersionSet versions = new VersionSet(recordingTable(), levels(file("a.sst", 0)));
+        Version version = versions.acquire();
+        assertEquals(2, version.getRefCount());
+
+        versions.install(levels());
+        version.unref();
+        assertEquals(0, version.getRefCount());
+        assertThrows(IllegalStateException.class, version::unref);
+        assertNotSame(version, versions.getCurrent());
+    }
+}
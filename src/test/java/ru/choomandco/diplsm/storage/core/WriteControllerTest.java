@@ -0,0 +1,135 @@
+package ru.choomandco.diplsm.storage.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriteControllerTest {
+    private static final long MB = 1024 * 1024;
+
+    private static StorageOptions options() {
+        return new StorageOptions()
+                .setTierThreshold(4)
+                .setMaxImmutableMemTables(2)
+                .setLevel0SlowdownWritesTrigger(8)
+                .setLevel0StopWritesTrigger(12)
+                .setSoftPendingCompactionBytesLimit(100 * MB)
+                .setHardPendingCompactionBytesLimit(200 * MB)
+                .setDelayedWriteRate(MB);
+    }
+
+    @Test
+    void testConditionFollowsBacklog() {
+        WriteController controller = new WriteController(options());
+
+        controller.update(1, 7, 99 * MB);
+        assertEquals(WriteStallCondition.NORMAL, controller.getCondition());
+        assertEquals(WriteStallCause.NONE, controller.getCause());
+
+        controller.update(2, 0, 0);
+        assertEquals(WriteStallCondition.DELAYED, controller.getCondition());
+        assertEquals(WriteStallCause.MEMTABLE_LIMIT, controller.getCause());
+
+        controller.update(0, 8, 0);
+        assertEquals(WriteStallCondition.DELAYED, controller.getCondition());
+        assertEquals(WriteStallCause.LEVEL0_FILES, controller.getCause());
+        assertEquals(MB, controller.getCurrentWriteRate());
+
+        controller.update(0, 10, 0);
+        assertEquals(MB / 2, controller.getCurrentWriteRate());
+
+        controller.update(0, 9, 175 * MB);
+        assertEquals(WriteStallCause.PENDING_COMPACTION_BYTES, controller.getCause());
+        assertEquals(MB / 4, controller.getCurrentWriteRate());
+
+        controller.update(0, 12, 0);
+        assertEquals(WriteStallCondition.STOPPED, controller.getCondition());
+        assertEquals(WriteStallCause.LEVEL0_FILES, controller.getCause());
+
+        controller.update(0, 0, 200 * MB);
+        assertEquals(WriteStallCondition.STOPPED, controller.getCondition());
+        assertEquals(WriteStallCause.PENDING_COMPACTION_BYTES, controller.getCause());
+
+        controller.update(0, 0, 0);
+        assertEquals(WriteStallCondition.NORMAL, controller.getCondition());
+    }
+
+    @Test
+    void testLevelZeroTriggersStayAboveCompactionTrigger() {
+        WriteController controller = new WriteController(options()
+                .setTierThreshold(10)
+                .setLevel0SlowdownWritesTrigger(4)
+                .setLevel0StopWritesTrigger(6));
+
+        controller.update(0, 10, 0);
+        assertEquals(WriteStallCondition.NORMAL, controller.getCondition());
+        controller.update(0, 11, 0);
+        assertEquals(WriteStallCondition.DELAYED, controller.getCondition());
+        controller.update(0, 12, 0);
+        assertEquals(WriteStallCondition.STOPPED, controller.getCondition());
+    }
+
+    @Test
+    void testDelayedWritesAreLimitedToDelayedRate() {
+        WriteController controller = new WriteController(options());
+        controller.update(0, 8, 0);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 4; i++) {
+            controller.delayWrite(MB / 10);
+        }
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // первая запись проходит сразу, каждая следующая ждёт 100 мс
+        assertTrue(elapsedMs >= 250, "elapsed " + elapsedMs + " ms");
+        assertEquals(3, controller.getDelayedWriteCount());
+        assertTrue(controller.getStallNanos(WriteStallCause.LEVEL0_FILES) > 0);
+        assertEquals(0, controller.getStallNanos(WriteStallCause.PENDING_COMPACTION_BYTES));
+    }
+
+    @Test
+    void testStoppedWritesWaitUntilBacklogShrinks() throws Exception {
+        WriteController controller = new WriteController(options());
+        controller.update(0, 12, 0);
+
+        CountDownLatch written = new CountDownLatch(1);
+        Thread writer = new Thread(() -> {
+            controller.delayWrite(10);
+            written.countDown();
+        });
+        writer.start();
+
+        // отпускаем писателя только после того, как он действительно встал на ожидание
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (writer.getState() != Thread.State.WAITING) {
+            assertTrue(System.nanoTime() < deadline, "writer did not stop");
+            Thread.sleep(1);
+        }
+        assertEquals(1, written.getCount());
+        controller.update(0, 3, 0);
+        assertTrue(written.await(5, TimeUnit.SECONDS));
+
+        assertEquals(1, controller.getStoppedWriteCount());
+        assertTrue(controller.getStallNanos(WriteStallCause.LEVEL0_FILES) > 0);
+    }
+
+    @Test
+    void testCloseReleasesStoppedWriters() throws Exception {
+        WriteController controller = new WriteController(options());
+        controller.update(0, 0, 500 * MB);
+
+        CountDownLatch written = new CountDownLatch(1);
+        Thread writer = new Thread(() -> {
+            controller.delayWrite(10);
+            written.countDown();
+        });
+        writer.start();
+        assertFalse(written.await(50, TimeUnit.MILLISECONDS));
+
+        controller.close();
+        assertTrue(written.await(5, TimeUnit.SECONDS));
+    }
+}
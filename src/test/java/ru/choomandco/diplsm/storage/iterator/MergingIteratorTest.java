@@ -0,0 +1,81 @@
+package ru.choomandco.diplsm.storage.iterator;
+
+import org.junit.jupiter.api.Test;
+import ru.choomandco.diplsm.storage.entry.ValueEntry;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MergingIteratorTest {
+
+    @Test
+    void testNewestVersionWins() {
+        List<EntryIterator> sources = List.of(
+                source(false, "b", "new-b", "d", null),
+                source(false, "a", "old-a", "b", "old-b", "c", "old-c", "d", "old-d"));
+
+        List<String> keys = new ArrayList<>();
+        List<String> values = new ArrayList<>();
+        try (ScanIterator it = new ScanIterator(new MergingIterator(sources, false))) {
+            while (it.hasNext()) {
+                Map.Entry<String, String> e = it.next();
+                keys.add(e.getKey());
+                values.add(e.getValue());
+            }
+        }
+
+        assertEquals(List.of("a", "b", "c"), keys);
+        assertEquals(List.of("old-a", "new-b", "old-c"), values);
+    }
+
+    @Test
+    void testHigherSequenceWinsOverSourceOrder() {
+        TreeMap<String, ValueEntry> newer = new TreeMap<>();
+        newer.put("a", ValueEntry.of("stale", 3));
+        newer.put("b", ValueEntry.of("fresh", 9));
+        TreeMap<String, ValueEntry> older = new TreeMap<>();
+        older.put("a", ValueEntry.of("latest", 8));
+        older.put("b", ValueEntry.tombstone(4));
+        List<EntryIterator> sources = List.of(
+                EntryIterator.wrap(newer.entrySet().iterator()),
+                EntryIterator.wrap(older.entrySet().iterator()));
+
+        Map<String, String> result = new LinkedHashMap<>();
+        try (ScanIterator it = new ScanIterator(new MergingIterator(sources, false))) {
+            it.forEachRemaining(e -> result.put(e.getKey(), e.getValue()));
+        }
+        assertEquals(Map.of("a", "latest", "b", "fresh"), result);
+    }
+
+    @Test
+    void testReverseOrder() {
+        List<EntryIterator> sources = List.of(
+                source(true, "c", "1", "a", "1"),
+                source(true, "d", "2", "b", "2", "a", "2"));
+
+        List<String> keys = new ArrayList<>();
+        try (ScanIterator it = new ScanIterator(new MergingIterator(sources, true))) {
+            it.forEachRemaining(e -> keys.add(e.getKey()));
+        }
+        assertEquals(List.of("d", "c", "b", "a"), keys);
+    }
+
+    @Test
+    void testPrefixUpperBound() {
+        assertEquals("user`", ScanIterator.prefixUpperBound("user_"));
+        assertEquals("b", ScanIterator.prefixUpperBound("a\uffff"));
+        assertNull(ScanIterator.prefixUpperBound(""));
+    }
+
+    /**
+     * Источник из пар ключ/значение; значение null означает маркер удаления.
+     */
+    private static EntryIterator source(boolean reverse, String... keyValues) {
+        TreeMap<String, ValueEntry> map = new TreeMap<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            map.put(keyValues[i], keyValues[i + 1] == null ? ValueEntry.tombstone() : ValueEntry.of(keyValues[i + 1]));
+        }
+        return EntryIterator.wrap((reverse ? map.descendingMap() : map).entrySet().iterator());
+    }
+}
@@ -0,0 +1,78 @@
+package ru.choomandco.diplsm.storage.memtable;
+
+import org.junit.jupiter.api.Test;
+import ru.choomandco.diplsm.storage.entry.ValueEntry;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MemTableTest {
+
+    @Test
+    void testOldVersionsAreDroppedWithoutSnapshots() {
+        MemTable table = new MemTable(1024);
+        table.put("k", "v1", 1);
+        table.put("k", "v2", 2);
+
+        ValueEntry entry = table.getEntry("k");
+        assertEquals("v2", entry.getValue());
+        assertNull(entry.getPrevious());
+        assertNull(table.getEntry("k", 1));
+    }
+
+    @Test
+    void testSnapshotKeepsVersionVisibleToIt() {
+        AtomicLong oldest = new AtomicLong(Long.MAX_VALUE);
+        MemTable table = new MemTable(1024, oldest::get);
+        table.put("k", "v1", 1);
+        table.put("other", "o1", 2);
+        oldest.set(2);
+        table.put("k", "v2", 3);
+        table.delete("other", 4);
+        table.put("new", "n1", 5);
+
+        assertEquals("v1", table.getEntry("k", 2).getValue());
+        assertEquals("v2", table.getEntry("k", Long.MAX_VALUE).getValue());
+        assertEquals("o1", table.getEntry("other", 2).getValue());
+        assertTrue(table.getEntry("other", 4).isTombstone());
+        assertNull(table.getEntry("new", 2));
+
+        List<String> visible = new ArrayList<>();
+        Iterator<Map.Entry<String, ValueEntry>> it = table.iterator(null, null, false, 2);
+        it.forEachRemaining(e -> visible.add(e.getKey() + "=" + e.getValue()));
+        assertEquals(List.of("k=v1", "other=o1"), visible);
+
+        oldest.set(Long.MAX_VALUE);
+        table.put("k", "v3", 6);
+        assertNull(table.getEntry("k").getPrevious());
+    }
+
+    @Test
+    void testPutAllAppliesEntriesInOrder() {
+        MemTable table = new MemTable(30);
+        boolean full = table.putAll(List.of(
+                Map.entry("a", ValueEntry.of("1", 1)),
+                Map.entry("b", ValueEntry.of("2", 2)),
+                Map.entry("a", ValueEntry.tombstone(3)),
+                Map.entry("c", ValueEntry.of("0123456789012345678901234567", 4))));
+
+        assertTrue(full);
+        assertTrue(table.getEntry("a").isTombstone());
+        assertEquals(3, table.getEntry("a").getSequence());
+        assertEquals("2", table.get("b"));
+    }
+
+    @Test
+    void testStaleWriteIsIgnored() {
+        MemTable table = new MemTable(1024);
+        table.put("k", "newer", 7);
+        table.put("k", "older", 6);
+        assertEquals("newer", table.get("k"));
+        assertEquals(7, table.getEntry("k").getSequence());
+    }
+}
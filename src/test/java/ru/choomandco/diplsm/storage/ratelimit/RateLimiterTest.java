@@ -0,0 +1,151 @@
+package ru.choomandco.diplsm.storage.ratelimit;
+
+import org.junit.jupiter.api.Test;
+import ru.choomandco.diplsm.storage.entry.ValueEntry;
+import ru.choomandco.diplsm.storage.interfaces.TableWriter;
+import ru.choomandco.diplsm.storage.sstable.SSTableMetadata;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RateLimiterTest {
+    private static final long MB = 1024 * 1024;
+
+    @Test
+    void testThroughputIsLimitedToRate() {
+        RateLimiter limiter = new RateLimiter(MB);
+
+        long start = System.nanoTime();
+        // первый период уже в корзине, остальные девять пополняются по 100 мс
+        limiter.request(MB, IoPriority.LOW);
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue(elapsedMs >= 800, "elapsed " + elapsedMs + " ms");
+        assertEquals(MB, limiter.getTotalBytes(IoPriority.LOW));
+        assertTrue(limiter.getWaitNanos(IoPriority.LOW) > 0);
+        assertEquals(0, limiter.getTotalBytes(IoPriority.HIGH));
+    }
+
+    @Test
+    void testHighPriorityIsServedFirst() throws Exception {
+        RateLimiter limiter = new RateLimiter(MB);
+        long period = MB / 10;
+        // забираем бюджет текущего периода, чтобы следующие запросы встали в очередь
+        limiter.request(period, IoPriority.LOW);
+
+        List<IoPriority> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch lowQueued = new CountDownLatch(1);
+        Thread low = new Thread(() -> {
+            lowQueued.countDown();
+            limiter.request(period, IoPriority.LOW);
+            order.add(IoPriority.LOW);
+        });
+        low.start();
+        assertTrue(lowQueued.await(5, TimeUnit.SECONDS));
+        Thread.sleep(20);
+
+        Thread high = new Thread(() -> {
+            limiter.request(period, IoPriority.HIGH);
+            order.add(IoPriority.HIGH);
+        });
+        high.start();
+
+        low.join(5000);
+        high.join(5000);
+        assertEquals(2, order.size());
+        assertEquals(IoPriority.HIGH, order.get(0));
+    }
+
+    @Test
+    void testAutoTuneFollowsDebtAndReadLatency() {
+        RateLimiter limiter = new RateLimiter(20 * MB, true);
+        assertTrue(limiter.isAutoTuned());
+        assertEquals(10 * MB, limiter.getBytesPerSecond());
+
+        // долг компактации растёт — бюджет увеличивается до наибольшего
+        for (int i = 1; i <= 10; i++) {
+            limiter.tune(i * MB, 0, 1000);
+        }
+        assertEquals(20 * MB, limiter.getBytesPerSecond());
+
+        // долг не растёт, а чтения медленнее целевого — бюджет снижается до нижней границы
+        for (int i = 0; i < 30; i++) {
+            limiter.tune(MB, 5000, 1000);
+        }
+        assertEquals(MB, limiter.getBytesPerSecond());
+
+        // чтения в норме и долг не растёт — бюджет не меняется
+        limiter.tune(MB, 500, 1000);
+        assertEquals(MB, limiter.getBytesPerSecond());
+    }
+
+    @Test
+    void testFixedRateIsNotTuned() {
+        RateLimiter limiter = new RateLimiter(8 * MB);
+        limiter.tune(100 * MB, 0, 1000);
+        limiter.tune(200 * MB, 0, 1000);
+        assertEquals(8 * MB, limiter.getBytesPerSecond());
+        assertThrows(IllegalArgumentException.class, () -> new RateLimiter(0));
+    }
+
+    @Test
+    void testWrappedWriterChargesFileBytes() {
+        RateLimiter limiter = new RateLimiter(100 * MB);
+        FakeWriter fake = new FakeWriter(1000);
+        TableWriter writer = limiter.wrap(fake, IoPriority.HIGH);
+
+        for (int i = 0; i < 200; i++) {
+            writer.add("key" + i, ValueEntry.of("value"));
+        }
+        // до finish оплачиваются только полные порции по 64 КБ
+        assertTrue(limiter.getTotalBytes(IoPriority.HIGH) <= fake.getFileSize());
+
+        SSTableMetadata meta = writer.finish(0);
+        assertEquals(meta.getFileSize(), limiter.getTotalBytes(IoPriority.HIGH));
+        assertEquals(0, limiter.getTotalBytes(IoPriority.LOW));
+        assertEquals(200, meta.getEntryCount());
+    }
+
+    /**
+     * Writer, который ничего не пишет на диск, а только растит размер файла на заданное число байт за запись.
+     */
+    private static final class FakeWriter implements TableWriter {
+        private final long bytesPerEntry;
+        private long entries;
+
+        FakeWriter(long bytesPerEntry) {
+            this.bytesPerEntry = bytesPerEntry;
+        }
+
+        @Override
+        public void add(String key, ValueEntry value) {
+            entries++;
+        }
+
+        @Override
+        public long getEntryCount() {
+            return entries;
+        }
+
+        @Override
+        public long getFileSize() {
+            return entries * bytesPerEntry;
+        }
+
+        @Override
+        public SSTableMetadata finish(int tier) {
+            // finish дописывает индекс и футер
+            entries++;
+            return new SSTableMetadata("fake.sst", tier, "key0", "key99", null, entries - 1, getFileSize());
+        }
+
+        @Override
+        public void abort() {
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package ru.choomandco.diplsm.storage.sstable;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.choomandco.diplsm.storage.compression.BlockCodecs;
+import ru.choomandco.diplsm.storage.entry.ValueEntry;
+import ru.choomandco.diplsm.storage.interfaces.BlockCodec;
+import ru.choomandco.diplsm.storage.interfaces.TableWriter;
+import ru.choomandco.diplsm.storage.iterator.EntryIterator;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BlockSSTableTest {
+    private static final String TEST_FILE = "./data/lsm/tables/T0/block_sstable_test_0.dat";
+    private static final String LEVEL_FILE = "./data/lsm/tables/T0/block_sstable_test_level_";
+    private BlockSSTable sstable;
+    private NavigableMap<String, ValueEntry> data;
+
+    @BeforeEach
+    void setUp() {
+        sstable = new BlockSSTable(256, 10, new BlockCache(1024 * 1024));
+        data = new TreeMap<>();
+        for (int i = 0; i < 500; i++) {
+            data.put(String.format("key-%04d", i), i % 7 == 0 ? ValueEntry.tombstone() : ValueEntry.of("value-" + i));
+        }
+        sstable.writeTableFromEntries(data, TEST_FILE);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        Files.deleteIfExists(Path.of(TEST_FILE));
+    }
+
+    @Test
+    void testPointLookupsAcrossBlocks() {
+        for (Map.Entry<String, ValueEntry> e : data.entrySet()) {
+            assertEquals(e.getValue(), sstable.getEntryByKey(e.getKey(), TEST_FILE));
+        }
+        assertNull(sstable.getEntryByKey("key-", TEST_FILE));
+        assertNull(sstable.getEntryByKey("key-0001a", TEST_FILE));
+        assertNull(sstable.getEntryByKey("zzz", TEST_FILE));
+        assertNull(sstable.getByKey("key-0007", TEST_FILE));
+        assertEquals("value-1", sstable.getByKey("key-0001", TEST_FILE));
+    }
+
+    @Test
+    void testBlockCacheCountsHits() {
+        BlockCache cache = sstable.getBlockCache();
+        sstable.getEntryByKey("key-0100", TEST_FILE);
+        long misses = cache.getMisses();
+        sstable.getEntryByKey("key-0100", TEST_FILE);
+        sstable.getEntryByKey("key-0101", TEST_FILE);
+        assertEquals(misses, cache.getMisses());
+        assertEquals(2, cache.getHits());
+        assertTrue(cache.getUsedBytes() > 0);
+    }
+
+    @Test
+    void testRangeIterators() {
+        assertEquals(new ArrayList<>(data.subMap("key-0042", true, "key-0377", false).keySet()),
+                collect(sstable.iterator(TEST_FILE, "key-0042", "key-0377", false)));
+        assertEquals(new ArrayList<>(data.subMap("key-0042", true, "key-0377", false).descendingMap().keySet()),
+                collect(sstable.iterator(TEST_FILE, "key-0042", "key-0377", true)));
+        assertEquals(new ArrayList<>(data.descendingMap().keySet()), collect(sstable.iterator(TEST_FILE, null, null, true)));
+        assertTrue(collect(sstable.iterator(TEST_FILE, "zzz", null, false)).isEmpty());
+    }
+
+    @Test
+    void testMetadataAndWholeRead() throws IOException {
+        SSTableMetadata meta = sstable.readMetadata(TEST_FILE, 1);
+        assertEquals("key-0000", meta.getMinKey());
+        assertEquals("key-0499", meta.getMaxKey());
+        assertEquals(500, meta.getEntryCount());
+        assertEquals(data, sstable.readEntriesIntoMap(TEST_FILE));
+    }
+
+    @Test
+    void testCompressedBlocksPerLevel() throws IOException {
+        BlockSSTable compressed = new BlockSSTable(256, 10, new BlockCache(1024 * 1024), SSTable.DEFAULT_INDEX_CACHE_BYTES,
+                false, new BlockCodec[]{BlockCodecs.NONE, BlockCodecs.LZ4, BlockCodecs.DEFLATE});
+        long plainSize = Files.size(Path.of(TEST_FILE));
+        String[] files = {LEVEL_FILE + 1, LEVEL_FILE + 2, LEVEL_FILE + 5};
+        try {
+            for (int level = 0; level < files.length; level++) {
+                TableWriter writer = compressed.newWriter(files[level], level == 2 ? 5 : level + 1);
+                data.forEach(writer::add);
+                writer.finish(level);
+
+                assertTrue(Files.size(Path.of(files[level])) < plainSize * 3 / 4, files[level]);
+                assertEquals(data, compressed.readEntriesIntoMap(files[level]));
+                assertEquals(ValueEntry.of("value-123"), compressed.getEntryByKey("key-0123", files[level]));
+                assertEquals(new ArrayList<>(data.subMap("key-0042", true, "key-0377", false).descendingMap().keySet()),
+                        collect(compressed.iterator(files[level], "key-0042", "key-0377", true)));
+            }
+            assertTrue(Files.size(Path.of(files[2])) < Files.size(Path.of(files[0])));
+        } finally {
+            for (String file : files) {
+                Files.deleteIfExists(Path.of(file));
+            }
+        }
+    }
+
+    @Test
+    void testGetEntriesByKeysReadsEachBlockOnce() {
+        List<String> keys = List.of("key-0001", "key-0002", "key-0003", "key-0007", "key-0007a", "key-0300", "zzz");
+        Map<String, ValueEntry> found = sstable.getEntriesByKeys(keys, TEST_FILE);
+
+        assertEquals(5, found.size());
+        assertEquals(ValueEntry.of("value-2"), found.get("key-0002"));
+        assertTrue(found.get("key-0007").isTombstone());
+        assertFalse(found.containsKey("key-0007a"));
+        assertFalse(found.containsKey("zzz"));
+        // ключи 0001–0007 лежат в одном блоке, 0300 — в другом
+        assertEquals(2, sstable.getBlockCache().getMisses());
+    }
+
+    @Test
+    void testSequenceNumbersAreStored() throws IOException {
+        NavigableMap<String, ValueEntry> sequenced = new TreeMap<>();
+        for (int i = 0; i < 300; i++) {
+            String key = String.format("key-%04d", i);
+            sequenced.put(key, i % 5 == 0 ? ValueEntry.tombstone(1000 + i) : ValueEntry.of("value-" + i, 1000 + i));
+        }
+        sstable.writeTableFromEntries(sequenced, TEST_FILE);
+
+        assertEquals(1123, sstable.getEntryByKey("key-0123", TEST_FILE).getSequence());
+        assertEquals(1250, sstable.getEntryByKey("key-0250", TEST_FILE).getSequence());
+        try (EntryIterator it = sstable.iterator(TEST_FILE, "key-0042", null, false)) {
+            assertTrue(it.hasNext());
+            assertEquals(1042, it.next().getValue().getSequence());
+        }
+        assertEquals(1299, sstable.readMetadata(TEST_FILE, 0).getMaxSequence());
+    }
+
+    @Test
+    void testKeysArePrefixCompressed() throws IOException {
+        long keyAndValueBytes = 0;
+        for (Map.Entry<String, ValueEntry> e : data.entrySet()) {
+            keyAndValueBytes += e.getKey().length() + (e.getValue().isTombstone() ? 0 : e.getValue().getValue().length());
+        }
+        // ключи "key-NNNN" записаны целиком только в точках рестарта, остальные занимают 1–2 байта суффикса
+        assertTrue(Files.size(Path.of(TEST_FILE)) < keyAndValueBytes);
+    }
+
+    @Test
+    void testCorruptedBlockThrows() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(TEST_FILE, "rw")) {
+            raf.seek(10);
+            raf.write(raf.read() ^ 0xFF);
+        }
+        assertThrows(RuntimeException.class, () -> sstable.getEntryByKey("key-0000", TEST_FILE));
+    }
+
+    private static List<String> collect(EntryIterator it) {
+        List<String> keys = new ArrayList<>();
+        try (EntryIterator iterator = it) {
+            iterator.forEachRemaining(e -> keys.add(e.getKey()));
+        }
+        return keys;
+    }
+}
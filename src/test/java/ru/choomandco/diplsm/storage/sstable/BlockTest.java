@@ -0,0 +1,78 @@
+package ru.choomandco.diplsm.storage.sstable;
+
+import org.junit.jupiter.api.Test;
+import ru.choomandco.diplsm.storage.entry.ValueEntry;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+class BlockTest {
+
+    @Test
+    void testLookupsAcrossRestartIntervals() throws IOException {
+        TreeMap<String, ValueEntry> data = new TreeMap<>();
+        for (int i = 0; i < 200; i++) {
+            data.put(String.format("user_%06d", i * 3), i % 9 == 0 ? ValueEntry.tombstone() : ValueEntry.of("v" + i));
+        }
+        data.put("user_", ValueEntry.of(""));
+        data.put("user_000003ж", ValueEntry.of("cyrillic"));
+        data.put("user_😀", ValueEntry.of("surrogate"));
+        data.put("user_Ａ", ValueEntry.of("fullwidth"));
+
+        for (int interval : new int[]{1, 2, 16, 1000}) {
+            Block block = build(data, interval);
+            for (Map.Entry<String, ValueEntry> e : data.entrySet()) {
+                assertEquals(e.getValue(), block.get(e.getKey().getBytes(UTF_8)), e.getKey() + " interval " + interval);
+            }
+            assertNull(block.get("user".getBytes(UTF_8)));
+            assertNull(block.get("user_000001".getBytes(UTF_8)));
+            assertNull(block.get("user_000597a".getBytes(UTF_8)));
+            assertNull(block.get("zzz".getBytes(UTF_8)));
+            assertEquals(new ArrayList<>(data.entrySet()), block.entries());
+        }
+    }
+
+    @Test
+    void testPrefixCompressionShrinksKeys() {
+        BlockBuilder builder = new BlockBuilder(4096);
+        int fullKeyBytes = 0;
+        for (int i = 0; i < 100; i++) {
+            byte[] key = String.format("user_session_%08d", i).getBytes(UTF_8);
+            fullKeyBytes += key.length;
+            builder.add(key, ValueEntry.of("x"));
+        }
+        assertTrue(builder.finish().length < fullKeyBytes / 2);
+    }
+
+    @Test
+    void testEmptyAndCorruptedBlocks() throws IOException {
+        Block empty = Block.decode(new BlockBuilder(64).finish(), "test");
+        assertNull(empty.get("a".getBytes(UTF_8)));
+        assertTrue(empty.entries().isEmpty());
+
+        TreeMap<String, ValueEntry> data = new TreeMap<>();
+        data.put("a", ValueEntry.of("1"));
+        data.put("b", ValueEntry.of("2"));
+        byte[] bytes = new BlockBuilder(64).finish();
+        bytes[bytes.length - 1] = 5;
+        assertThrows(IOException.class, () -> Block.decode(bytes, "test"));
+
+        BlockBuilder builder = new BlockBuilder(64);
+        data.forEach((k, v) -> builder.add(k.getBytes(UTF_8), v));
+        byte[] truncated = builder.finish();
+        truncated[2] = 100; // длина значения первой записи выходит за пределы блока
+        Block broken = Block.decode(truncated, "test");
+        assertThrows(IOException.class, broken::entries);
+    }
+
+    private static Block build(TreeMap<String, ValueEntry> data, int restartInterval) throws IOException {
+        BlockBuilder builder = new BlockBuilder(256, restartInterval);
+        data.forEach((k, v) -> builder.add(k.getBytes(UTF_8), v));
+        return Block.decode(builder.finish(), "test");
+    }
+}
@@ -0,0 +1,89 @@
+package ru.choomandco.diplsm.storage.sstable;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.choomandco.diplsm.storage.bloomfilter.BloomFilter;
+import ru.choomandco.diplsm.storage.entry.ValueEntry;
+import ru.choomandco.diplsm.storage.iterator.EntryIterator;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedSSTableTest {
+    private static final String TEST_FILE = "./data/lsm/tables/T0/mapped_sstable_test_0.dat";
+    private SSTable sstable;
+    private NavigableMap<String, ValueEntry> data;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        sstable = new SSTable(BloomFilter.DEFAULT_BITS_PER_KEY, SSTable.DEFAULT_INDEX_CACHE_BYTES, ReadMode.MMAP);
+        data = new TreeMap<>();
+        for (int i = 0; i < 300; i++) {
+            data.put(String.format("key-%04d", i), i % 5 == 0 ? ValueEntry.tombstone() : ValueEntry.of("значение-" + i));
+        }
+        data.put("😀", ValueEntry.of("surrogate"));
+        data.put("Ａ", ValueEntry.of("fullwidth"));
+        sstable.writeTableFromEntries(data, TEST_FILE);
+        sstable.openFile(TEST_FILE);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (Files.exists(Path.of(TEST_FILE))) {
+            sstable.deleteFIle(TEST_FILE);
+        }
+    }
+
+    @Test
+    void testPointLookups() {
+        for (Map.Entry<String, ValueEntry> e : data.entrySet()) {
+            assertEquals(e.getValue(), sstable.getEntryByKey(e.getKey(), TEST_FILE));
+        }
+        assertNull(sstable.getEntryByKey("key-", TEST_FILE));
+        assertNull(sstable.getEntryByKey("key-0001a", TEST_FILE));
+        assertNull(sstable.getEntryByKey("a", TEST_FILE));
+        assertNull(sstable.getByKey("key-0005", TEST_FILE));
+    }
+
+    @Test
+    void testRangeIterators() {
+        assertEquals(new ArrayList<>(data.subMap("key-0042", true, "key-0277", false).keySet()),
+                collect(sstable.iterator(TEST_FILE, "key-0042", "key-0277", false)));
+        assertEquals(new ArrayList<>(data.subMap("key-0042", true, "key-0277", false).descendingMap().keySet()),
+                collect(sstable.iterator(TEST_FILE, "key-0042", "key-0277", true)));
+        assertEquals(new ArrayList<>(data.keySet()), collect(sstable.iterator(TEST_FILE, null, null, false)));
+        assertTrue(collect(sstable.iterator(TEST_FILE, "key-0200", "key-0100", false)).isEmpty());
+    }
+
+    @Test
+    void testDeleteWhileIteratorIsOpen() throws IOException {
+        try (EntryIterator it = sstable.iterator(TEST_FILE, null, null, false)) {
+            sstable.deleteFIle(TEST_FILE);
+            assertFalse(Files.exists(Path.of(TEST_FILE)));
+            int count = 0;
+            while (it.hasNext()) {
+                it.next();
+                count++;
+            }
+            assertEquals(data.size(), count);
+        }
+        assertThrows(RuntimeException.class, () -> sstable.getEntryByKey("key-0001", TEST_FILE));
+    }
+
+    private static List<String> collect(EntryIterator it) {
+        List<String> keys = new ArrayList<>();
+        try (EntryIterator iterator = it) {
+            iterator.forEachRemaining(e -> keys.add(e.getKey()));
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,122 @@
+package ru.choomandco.diplsm.storage.sstable;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import ru.choomandco.diplsm.storage.entry.ValueEntry;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SSTableIndexTest {
+    private static final String TEST_FILE = "./data/lsm/tables/T0/sstable_index_test_0.dat";
+
+    @AfterEach
+    void tearDown() throws IOException {
+        Files.deleteIfExists(Path.of(TEST_FILE));
+    }
+
+    @Test
+    void testUtf8ComparisonMatchesStringOrder() {
+        String[] samples = {"", "a", "ab", "z", "\u044F", "\u07FF", "\uD7FF", "\uE000", "\uFFFF",
+                "\uD83D\uDE00", "\uD83D\uDE00a", "\uDBFF\uDFFF"};
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            String a = i < samples.length * samples.length ? samples[i / samples.length] : randomString(random);
+            String b = i < samples.length * samples.length ? samples[i % samples.length] : randomString(random);
+            byte[] ab = a.getBytes(StandardCharsets.UTF_8);
+            byte[] bb = b.getBytes(StandardCharsets.UTF_8);
+            assertEquals(Integer.signum(a.compareTo(b)),
+                    Integer.signum(SSTableIndex.compareUtf8(ab, 0, ab.length, bb, 0, bb.length)), a + " vs " + b);
+        }
+    }
+
+    @Test
+    void testSampleKeysAreSpreadOverIndex() throws IOException {
+        SSTable table = new SSTable();
+        Map<String, ValueEntry> data = new TreeMap<>();
+        for (int i = 0; i < 100; i++) {
+            data.put(String.format("k%03d", i), ValueEntry.of("v" + i));
+        }
+        table.writeTableFromEntries(data, TEST_FILE);
+
+        assertEquals(List.of("k025", "k050", "k075"), table.sampleKeys(TEST_FILE, 3));
+        assertEquals(100, table.sampleKeys(TEST_FILE, 500).size());
+    }
+
+    @Test
+    void testLookupsUseIndex() throws IOException {
+        SSTable table = new SSTable();
+        Map<String, ValueEntry> data = new TreeMap<>();
+        data.put("a", ValueEntry.of("1"));
+        data.put("", ValueEntry.of("2"));
+        data.put("😀", ValueEntry.of("3"));
+        data.put("z", ValueEntry.tombstone());
+        table.writeTableFromEntries(data, TEST_FILE);
+
+        for (Map.Entry<String, ValueEntry> e : data.entrySet()) {
+            assertEquals(e.getValue(), table.getEntryByKey(e.getKey(), TEST_FILE));
+        }
+        assertNull(table.getEntryByKey("b", TEST_FILE));
+
+        try (FileChannel channel = FileChannel.open(Path.of(TEST_FILE), StandardOpenOption.READ)) {
+            SSTableIndex index = table.loadIndex(TEST_FILE, channel);
+            assertEquals(4, index.size());
+            assertEquals("\uD83D\uDE00", index.keyAt(2));
+            assertEquals(2, index.lowerBound("{".getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+
+    @Test
+    void testCacheEvictsLeastRecentlyUsed() throws IOException {
+        SSTable table = new SSTable();
+        Map<String, ValueEntry> data = new TreeMap<>();
+        for (int i = 0; i < 100; i++) {
+            data.put("key-" + i, ValueEntry.of("v"));
+        }
+        table.writeTableFromEntries(data, TEST_FILE);
+
+        SSTableIndex index;
+        try (FileChannel channel = FileChannel.open(Path.of(TEST_FILE), StandardOpenOption.READ)) {
+            index = SSTableIndex.read(channel, SSTableFormat.readFooter(channel, TEST_FILE), TEST_FILE);
+        }
+        long size = index.memoryBytes();
+        SSTableIndexCache cache = new SSTableIndexCache(size * 2);
+        int[] loads = {0};
+        SSTableIndexCache.Loader loader = () -> {
+            loads[0]++;
+            return index;
+        };
+
+        cache.get("a", loader);
+        cache.get("b", loader);
+        cache.get("a", loader);
+        cache.get("c", loader);
+        assertEquals(3, loads[0]);
+        assertEquals(size * 2, cache.getUsedBytes());
+
+        cache.get("a", loader);
+        assertEquals(3, loads[0]);
+        cache.get("b", loader);
+        assertEquals(4, loads[0]);
+    }
+
+    private static String randomString(Random random) {
+        int[] pool = {'a', 'z', 0x44F, 0x7FF, 0xD7FF, 0xE000, 0xFFFD, 0x1F600, 0x10FFFF};
+        StringBuilder sb = new StringBuilder();
+        int len = random.nextInt(4);
+        for (int i = 0; i < len; i++) {
+            sb.appendCodePoint(pool[random.nextInt(pool.length)]);
+        }
+        return sb.toString();
+    }
+}
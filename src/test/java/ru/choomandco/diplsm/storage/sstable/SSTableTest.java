@@ -3,13 +3,20 @@ package ru.choomandco.diplsm.storage.sstable;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import ru.choomandco.diplsm.storage.entry.ValueEntry;
+import ru.choomandco.diplsm.storage.iterator.EntryIterator;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -83,6 +90,135 @@ class SSTableTest {
         assertTrue(lines.stream().anyMatch(l -> l.equals("two=2")));
     }
 
+    @Test
+    void testTombstoneIsStoredAndHidden() throws IOException {
+        Map<String, ValueEntry> data = new TreeMap<>();
+        data.put("alive", ValueEntry.of("1"));
+        data.put("dead", ValueEntry.tombstone());
+        sstable.writeTableFromEntries(data, TEST_FILE);
+
+        assertTrue(sstable.getEntryByKey("dead", TEST_FILE).isTombstone());
+        assertNull(sstable.getByKey("dead", TEST_FILE));
+        assertNull(sstable.getEntryByKey("missing", TEST_FILE));
+        assertEquals("1", sstable.getByKey("alive", TEST_FILE));
+
+        assertEquals(2, sstable.readEntriesIntoMap(TEST_FILE).size());
+        assertEquals(1, sstable.readWholeIntoMap(TEST_FILE).size());
+    }
+
+    @Test
+    void testRangeIterator() {
+        Map<String, String> data = new TreeMap<>();
+        for (int i = 0; i < 10; i++) {
+            data.put("k" + i, "v" + i);
+        }
+        sstable.writeTableFromMap(data, TEST_FILE);
+
+        List<String> forward = new ArrayList<>();
+        try (EntryIterator it = sstable.iterator(TEST_FILE, "k3", "k7", false)) {
+            it.forEachRemaining(e -> forward.add(e.getKey()));
+        }
+        assertEquals(List.of("k3", "k4", "k5", "k6"), forward);
+
+        List<String> backward = new ArrayList<>();
+        try (EntryIterator it = sstable.iterator(TEST_FILE, "k7", null, true)) {
+            it.forEachRemaining(e -> backward.add(e.getKey() + "=" + e.getValue().getValue()));
+        }
+        assertEquals(List.of("k9=v9", "k8=v8", "k7=v7"), backward);
+    }
+
+    @Test
+    void testReadMetadataFromMetaBlock() throws IOException {
+        Map<String, ValueEntry> data = new TreeMap<>();
+        data.put("b", ValueEntry.of("2"));
+        data.put("d", ValueEntry.tombstone());
+        data.put("f", ValueEntry.of("6"));
+        sstable.writeTableFromEntries(data, TEST_FILE);
+
+        SSTableMetadata meta = sstable.readMetadata(TEST_FILE, 3);
+        assertEquals(3, meta.getTier());
+        assertEquals("b", meta.getMinKey());
+        assertEquals("f", meta.getMaxKey());
+        assertEquals(3, meta.getEntryCount());
+        assertTrue(meta.getBloomFilter().mightContain("d"));
+        assertTrue(meta.getBloomFilter().mightContain("f"));
+    }
+
+    @Test
+    void testGetEntriesByKeys() throws IOException {
+        Map<String, ValueEntry> data = new TreeMap<>();
+        for (int i = 0; i < 100; i++) {
+            data.put(String.format("k%03d", i), i % 10 == 0 ? ValueEntry.tombstone(i + 1) : ValueEntry.of("v" + i, i + 1));
+        }
+        sstable.writeTableFromEntries(data, TEST_FILE);
+
+        Map<String, ValueEntry> found = sstable.getEntriesByKeys(
+                List.of("a", "k010", "k011", "k012", "k012a", "k051", "k099", "z"), TEST_FILE);
+        assertEquals(5, found.size());
+        assertTrue(found.get("k010").isTombstone());
+        assertEquals("v11", found.get("k011").getValue());
+        assertEquals(13, found.get("k012").getSequence());
+        assertEquals("v51", found.get("k051").getValue());
+        assertEquals("v99", found.get("k099").getValue());
+    }
+
+    @Test
+    void testSequenceNumbersAreStored() throws IOException {
+        Map<String, ValueEntry> data = new TreeMap<>();
+        data.put("a", ValueEntry.of("1", 7));
+        data.put("b", ValueEntry.tombstone(42));
+        data.put("c", ValueEntry.of("3", 15));
+        sstable.writeTableFromEntries(data, TEST_FILE);
+
+        assertEquals(7, sstable.getEntryByKey("a", TEST_FILE).getSequence());
+        assertEquals(42, sstable.getEntryByKey("b", TEST_FILE).getSequence());
+        assertEquals(15, sstable.readEntriesIntoMap(TEST_FILE).get("c").getSequence());
+        assertEquals(42, sstable.readMetadata(TEST_FILE, 0).getMaxSequence());
+    }
+
+    @Test
+    void testWriterWithValuesLargerThanBuffer() throws IOException {
+        String big = "x".repeat(3 * 1024 * 1024 + 7);
+        Map<String, ValueEntry> data = new TreeMap<>();
+        for (int i = 0; i < 5; i++) {
+            data.put("k" + i, ValueEntry.of(i % 2 == 0 ? big + i : "small" + i));
+        }
+        SSTableWriter writer = new SSTableWriter(TEST_FILE, 10, true);
+        for (Map.Entry<String, ValueEntry> e : data.entrySet()) {
+            writer.add(e.getKey(), e.getValue());
+        }
+        SSTableMetadata meta = writer.finish(0);
+
+        assertEquals(5, meta.getEntryCount());
+        assertFalse(Files.exists(Path.of(TEST_FILE + ".idx")));
+        assertEquals(data, sstable.readEntriesIntoMap(TEST_FILE));
+        assertEquals(big + 4, sstable.getByKey("k4", TEST_FILE));
+    }
+
+    @Test
+    void testLegacyFileIsUpgraded() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        byte[] key = "legacy".getBytes(StandardCharsets.UTF_8);
+        byte[] value = "v1".getBytes(StandardCharsets.UTF_8);
+        long indexOffset = 12 + 4 + key.length + 4 + value.length;
+        out.writeLong(indexOffset);
+        out.writeInt(0x4C534D31);
+        out.writeInt(key.length);
+        out.write(key);
+        out.writeInt(value.length);
+        out.write(value);
+        out.writeInt(1);
+        out.writeInt(key.length);
+        out.write(key);
+        out.writeLong(12);
+        Files.write(Path.of(TEST_FILE), bytes.toByteArray());
+
+        SSTableMetadata meta = sstable.readMetadata(TEST_FILE, 0);
+        assertEquals("legacy", meta.getMinKey());
+        assertEquals("v1", sstable.getByKey("legacy", TEST_FILE));
+    }
+
     @Test
     void testDeleteFile() throws IOException {
         Map<String, String> data = Map.of("k", "v");
@@ -0,0 +1,167 @@
+package ru.choomandco.diplsm.storage.wal;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriteAheadLogTest {
+    private static final String WAL_DIR = "./data_test/lsm/wal/";
+
+    @BeforeEach
+    void setUp() throws IOException {
+        FileUtils.deleteDirectory(new File("./data_test"));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        FileUtils.deleteDirectory(new File("./data_test"));
+    }
+
+    @Test
+    void testReplayAfterReopen() {
+        WriteAheadLog wal = new WriteAheadLog(WAL_DIR, WalSyncMode.EVERY_WRITE, 0);
+        wal.append(WalRecord.put("a", "1"));
+        wal.append(WalRecord.put("b", "2"));
+        wal.append(WalRecord.delete("a"));
+        wal.close();
+
+        List<WalRecord> replayed = new ArrayList<>();
+        WriteAheadLog reopened = new WriteAheadLog(WAL_DIR, WalSyncMode.OS_MANAGED, 0);
+        reopened.replay(replayed::add);
+        reopened.close();
+
+        assertEquals(3, replayed.size());
+        assertEquals("a", replayed.get(0).getKey());
+        assertEquals("1", replayed.get(0).getValue());
+        assertEquals(WalRecord.TYPE_DELETE, replayed.get(2).getType());
+        assertNull(replayed.get(2).getValue());
+    }
+
+    @Test
+    void testSequenceIsReplayed() {
+        WriteAheadLog wal = new WriteAheadLog(WAL_DIR, WalSyncMode.EVERY_WRITE, 0);
+        wal.append(WalRecord.put("a", "1", 6));
+        wal.append(WalRecord.delete("a", 5));
+        wal.close();
+
+        List<WalRecord> replayed = new ArrayList<>();
+        WriteAheadLog reopened = new WriteAheadLog(WAL_DIR, WalSyncMode.OS_MANAGED, 0);
+        reopened.replay(replayed::add);
+        reopened.close();
+
+        assertEquals(6, replayed.get(0).getSequence());
+        assertEquals(5, replayed.get(1).getSequence());
+        assertEquals(WalRecord.TYPE_DELETE, replayed.get(1).getType());
+    }
+
+    @Test
+    void testLegacyRecordHasNoSequence() {
+        ByteBuffer legacy = ByteBuffer.allocate(1 + 4 + 1 + 4 + 2);
+        legacy.put(WalRecord.TYPE_PUT).putInt(1).put((byte) 'k').putInt(2).put((byte) 'v').put((byte) '1');
+
+        WalRecord record = WalRecord.decode(legacy.array());
+        assertEquals("k", record.getKey());
+        assertEquals("v1", record.getValue());
+        assertEquals(0, record.getSequence());
+    }
+
+    @Test
+    void testBatchIsReplayedAsOneRecord() {
+        WriteAheadLog wal = new WriteAheadLog(WAL_DIR, WalSyncMode.EVERY_WRITE, 0);
+        wal.append(WalRecord.put("single", "0"));
+        wal.append(WalRecord.batch(List.of(WalRecord.put("a", "1"), WalRecord.delete("b"), WalRecord.put("c", "")), 7));
+        wal.close();
+
+        List<WalRecord> replayed = new ArrayList<>();
+        WriteAheadLog reopened = new WriteAheadLog(WAL_DIR, WalSyncMode.OS_MANAGED, 0);
+        reopened.replay(replayed::add);
+        reopened.close();
+
+        assertEquals(2, replayed.size());
+        WalRecord batch = replayed.get(1);
+        assertEquals(WalRecord.TYPE_BATCH, batch.getType());
+        assertEquals(7, batch.getSequence());
+        assertEquals(3, batch.getRecords().size());
+        assertEquals("a", batch.getRecords().get(0).getKey());
+        assertEquals("1", batch.getRecords().get(0).getValue());
+        assertEquals(WalRecord.TYPE_DELETE, batch.getRecords().get(1).getType());
+        assertEquals("", batch.getRecords().get(2).getValue());
+    }
+
+    @Test
+    void testDeletedSegmentsAreNotReplayed() {
+        WriteAheadLog wal = new WriteAheadLog(WAL_DIR, WalSyncMode.OS_MANAGED, 0);
+        wal.append(WalRecord.put("old", "1"));
+        long closed = wal.rotate();
+        wal.append(WalRecord.put("new", "2"));
+        wal.deleteSegmentsUpTo(closed);
+        wal.close();
+
+        List<WalRecord> replayed = new ArrayList<>();
+        WriteAheadLog reopened = new WriteAheadLog(WAL_DIR, WalSyncMode.OS_MANAGED, 0);
+        reopened.replay(replayed::add);
+        reopened.close();
+
+        assertEquals(1, replayed.size());
+        assertEquals("new", replayed.get(0).getKey());
+    }
+
+    @Test
+    void testTornTailIsIgnored() throws IOException {
+        WriteAheadLog wal = new WriteAheadLog(WAL_DIR, WalSyncMode.OS_MANAGED, 0);
+        wal.append(WalRecord.put("k", "v"));
+        long segment = wal.getCurrentSegmentId();
+        wal.close();
+
+        Path segmentFile = Paths.get(WAL_DIR, String.format("wal_%06d.log", segment));
+        Files.write(segmentFile, new byte[]{0, 0, 0, 42, 1, 2}, StandardOpenOption.APPEND);
+
+        List<WalRecord> replayed = new ArrayList<>();
+        WriteAheadLog reopened = new WriteAheadLog(WAL_DIR, WalSyncMode.OS_MANAGED, 0);
+        reopened.replay(replayed::add);
+        reopened.close();
+
+        assertEquals(1, replayed.size());
+        assertEquals("v", replayed.get(0).getValue());
+    }
+
+    @Test
+    void testGroupCommitWithConcurrentWriters() throws InterruptedException {
+        WriteAheadLog wal = new WriteAheadLog(WAL_DIR, WalSyncMode.EVERY_WRITE, 0);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            int thread = t;
+            pool.submit(() -> {
+                for (int i = 0; i < 50; i++) {
+                    wal.append(WalRecord.put("t" + thread + "_" + i, "v"));
+                }
+            });
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(30, TimeUnit.SECONDS));
+        wal.close();
+
+        List<WalRecord> replayed = new ArrayList<>();
+        WriteAheadLog reopened = new WriteAheadLog(WAL_DIR, WalSyncMode.OS_MANAGED, 0);
+        reopened.replay(replayed::add);
+        reopened.close();
+
+        assertEquals(400, replayed.size());
+    }
+}